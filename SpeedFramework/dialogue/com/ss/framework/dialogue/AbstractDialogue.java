@@ -2,17 +2,32 @@
 
 package com.ss.framework.dialogue;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
 
 import com.ss.framework.dialogue.api.Destination;
 import com.ss.framework.dialogue.api.Dialogue;
+import com.ss.framework.dialogue.api.DialogueBatchListener;
+import com.ss.framework.dialogue.api.DialogueErrorListener;
 import com.ss.framework.dialogue.api.DialogueListener;
+import com.ss.framework.dialogue.api.DialogueMetrics;
 import com.ss.framework.dialogue.api.DialogueResponse;
 import com.ss.framework.dialogue.api.DialogueResponseSet;
+import com.ss.framework.dialogue.api.DialogueServerMessage;
+import com.ss.framework.dialogue.api.DialogueStream;
+import com.ss.framework.dialogue.api.DialogueStreamListener;
 
 
 public abstract class AbstractDialogue implements Dialogue {
@@ -23,8 +38,22 @@ public abstract class AbstractDialogue implements Dialogue {
 
 	protected List<DialogueListener> listeners = Collections.synchronizedList(new ArrayList<DialogueListener>());
 
+	protected List<DialogueBatchListener> batchListeners = Collections.synchronizedList(new ArrayList<DialogueBatchListener>());
+
+	protected List<DialogueErrorListener> errorListeners = Collections.synchronizedList(new ArrayList<DialogueErrorListener>());
+
+	protected List<DialogueStreamListener> streamListeners = Collections.synchronizedList(new ArrayList<DialogueStreamListener>());
+
+	// The threads passing incoming streams to the stream listeners
+	protected ThreadGroup streamThreadGroup = new ThreadGroup("DialogueStreams");
+
 	protected Map<String, Object> options = new HashMap<String, Object>();
 
+	protected DialogueMetricsRegistry metricsRegistry = new DialogueMetricsRegistry();
+
+	// Publishes the incoming messages to reactive subscribers. Created the first time it is asked for.
+	protected DialogueMessagePublisher publisher = null;
+
 	public AbstractDialogue() {
 		super();
 
@@ -44,6 +73,7 @@ public abstract class AbstractDialogue implements Dialogue {
 
 	public void removeDestination(String destinationAlias) {
 		destinationMap.remove(destinationAlias);
+		metricsRegistry.removeDestinationMetrics(destinationAlias);
 	}
 
 	public List<String> getDestinationAliases() {
@@ -75,6 +105,122 @@ public abstract class AbstractDialogue implements Dialogue {
 		return listeners;
 	}
 
+	public void addBatchListener(DialogueBatchListener listener) {
+		batchListeners.add(listener);
+	}
+
+	public void removeBatchListener(DialogueBatchListener listener) {
+		batchListeners.remove(listener);
+
+	}
+
+	public List<DialogueBatchListener> getBatchListeners() {
+		return batchListeners;
+	}
+
+	public void addStreamListener(DialogueStreamListener listener) {
+		streamListeners.add(listener);
+	}
+
+	public void removeStreamListener(DialogueStreamListener listener) {
+		streamListeners.remove(listener);
+
+	}
+
+	public List<DialogueStreamListener> getStreamListeners() {
+		return streamListeners;
+	}
+
+	public void addErrorListener(DialogueErrorListener listener) {
+		errorListeners.add(listener);
+	}
+
+	public void removeErrorListener(DialogueErrorListener listener) {
+		errorListeners.remove(listener);
+
+	}
+
+	public void notifySendFailed(String destinationAlias, DialogueException exception) {
+		synchronized (errorListeners) {
+			for (DialogueErrorListener listener : errorListeners) {
+				try {
+					listener.sendFailed(destinationAlias, exception);
+				} catch (RuntimeException e) {
+					System.out.println(e);
+				}
+			}
+		}
+	}
+
+	// Pass received messages to the listeners, one message at a time, and then to the batch listeners in
+	// one call
+	public void notifyMessagesReceived(List<DialogueServerMessage> messages) {
+		for (DialogueServerMessage message : messages) {
+			Iterator<DialogueListener> iterator = listeners.iterator();
+			while (iterator.hasNext()) {
+				DialogueListener listener = iterator.next();
+				try {
+					listener.messageRecieved(message);
+				} catch (RuntimeException e) {
+					System.out.println(e);
+				}
+			}
+		}
+
+		if (messages.isEmpty() == false) {
+			List<DialogueServerMessage> batch = Collections.unmodifiableList(messages);
+			synchronized (batchListeners) {
+				for (DialogueBatchListener listener : batchListeners) {
+					try {
+						listener.messagesRecieved(batch);
+					} catch (RuntimeException e) {
+						System.out.println(e);
+					}
+				}
+			}
+		}
+	}
+
+	public synchronized Flow.Publisher<DialogueServerMessage> messages() {
+		if (publisher == null) {
+			publisher = new DialogueMessagePublisher(this);
+			addListener(publisher);
+		}
+		return publisher;
+	}
+
+	// Stop or resume reading incoming messages, so they are held back by the senders instead of queued up in
+	// this dialogue. Dialogues that can not hold incoming messages back do nothing.
+	protected void setReadPaused(boolean paused) {
+	}
+
+	// Pass an incoming stream to the stream listeners on a thread of its own, so they can read it at their own
+	// pace without holding up other messages. The stream is closed once the listeners have returned.
+	public void notifyStreamReceived(final DialogueInputStream stream) {
+		Thread thread = new Thread(streamThreadGroup, new Runnable() {
+
+			public void run() {
+				try {
+					List<DialogueStreamListener> listeners;
+					synchronized (streamListeners) {
+						listeners = new ArrayList<DialogueStreamListener>(streamListeners);
+					}
+					for (DialogueStreamListener listener : listeners) {
+						try {
+							listener.streamRecieved(stream);
+						} catch (RuntimeException e) {
+							System.out.println(e);
+						}
+					}
+				} finally {
+					stream.close();
+				}
+			}
+		}, "DialogueStream-" + stream.getStreamId());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
 	public void sendMessage(String destinationAlias, String message) throws DialogueConnectionException, DialogueException {
 		sendMessage(destinationAlias, message.getBytes());
 
@@ -95,6 +241,65 @@ public abstract class AbstractDialogue implements Dialogue {
 
 	}
 
+	public void sendMessages(String destinationAlias, List<byte[]> messages) throws DialogueConnectionException, DialogueException {
+		engine.sendBatch(destinationAlias, messages);
+
+	}
+
+	public DialogueStream openStream(String destinationAlias) throws DialogueConnectionException, DialogueException {
+		return openStream(destinationAlias, null);
+
+	}
+
+	// Open a stream with the specified name (null for an unnamed stream). The receiver gets the name with the
+	// stream.
+	protected DialogueOutputStream openStream(String destinationAlias, String name) throws DialogueConnectionException, DialogueException {
+		if (destinationMap.containsKey(destinationAlias) == false)
+			throw new DialogueException("Destination with alias: " + destinationAlias + " not active in this dialogue");
+		return engine.openStream(destinationAlias, name);
+
+	}
+
+	// The file is sent as a stream named after it. The stream takes the content straight from the file, which
+	// the socket engine transfers to the connection without copying it into the heap. A file that can not be
+	// sent to the end breaks the stream off, so the destination does not wait for the rest of it.
+	public void sendFile(String destinationAlias, Path file) throws DialogueConnectionException, DialogueException {
+		FileChannel fileChannel;
+		try {
+			fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+		} catch (IOException e) {
+			throw new DialogueException("Error when opening file: " + file + ". Cause: " + e);
+		}
+
+		DialogueOutputStream stream = null;
+		try {
+			stream = openStream(destinationAlias, file.getFileName().toString());
+			long size = fileChannel.size();
+			long position = 0;
+			while (position < size) {
+				long transferred = stream.transferFrom(fileChannel, position, size - position);
+				if (transferred == 0)
+					throw new IOException("File truncated while being sent");
+				position += transferred;
+			}
+			stream.close();
+		} catch (IOException e) {
+			if (stream != null) {
+				try {
+					stream.abort();
+				} catch (IOException abortException) {
+				}
+			}
+			throw new DialogueException("Error when sending file: " + file + ". Cause: " + e);
+		} finally {
+			try {
+				fileChannel.close();
+			} catch (IOException e) {
+			}
+		}
+
+	}
+
 	public void sendMessageToAll(String message) throws DialogueExceptionSet {
 		sendMessageToAll(message.getBytes());
 
@@ -152,6 +357,75 @@ public abstract class AbstractDialogue implements Dialogue {
 
 	}
 
+	public CompletableFuture<DialogueResponse> sendResponseMessageAsync(String destinationAlias, String message, int timeoutMillis) throws DialogueException {
+		return sendResponseMessageAsync(destinationAlias, message.getBytes(), timeoutMillis);
+
+	}
+
+	public CompletableFuture<DialogueResponse> sendResponseMessageAsync(final String destinationAlias, byte[] message, int timeoutMillis) throws DialogueException {
+		if (destinationMap.containsKey(destinationAlias) == false)
+			throw new DialogueException("Destination with alias: " + destinationAlias + " not active in this dialogue");
+		DialogueFutureResponseHandler handler = new DialogueFutureResponseHandler(destinationAlias);
+		engine.sendAsync(destinationAlias, message, handler);
+		return handler.getFuture(timeoutMillis).thenApply(new Function<DialogueResponseSet, DialogueResponse>() {
+
+			public DialogueResponse apply(DialogueResponseSet responseSet) {
+				try {
+					return responseSet.getResponse(destinationAlias);
+				} catch (DialogueException e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+
+	}
+
+	public CompletableFuture<DialogueResponseSet> sendResponseMessageAsync(List<String> destinationAliases, String message, int timeoutMillis) throws DialogueException {
+		return sendResponseMessageAsync(destinationAliases, message.getBytes(), timeoutMillis);
+
+	}
+
+	public CompletableFuture<DialogueResponseSet> sendResponseMessageAsync(List<String> destinationAliases, byte[] message, int timeoutMillis) throws DialogueException {
+		DialogueFutureResponseHandler handler = new DialogueFutureResponseHandler(destinationAliases);
+		try {
+			engine.sendAsync(destinationAliases, message, handler);
+		} catch (DialogueExceptionSet e) {
+			throw new DialogueException(e.getMessage());
+		}
+		return handler.getFuture(timeoutMillis);
+
+	}
+
+	public CompletableFuture<DialogueResponseSet> sendResponseMessageToAllAsync(String message, int timeoutMillis) throws DialogueException {
+		return sendResponseMessageToAllAsync(message.getBytes(), timeoutMillis);
+
+	}
+
+	public CompletableFuture<DialogueResponseSet> sendResponseMessageToAllAsync(byte[] message, int timeoutMillis) throws DialogueException {
+		DialogueFutureResponseHandler handler = new DialogueFutureResponseHandler();
+		try {
+			engine.sendToAllAsync(message, handler);
+		} catch (DialogueExceptionSet e) {
+			throw new DialogueException(e.getMessage());
+		}
+		return handler.getFuture(timeoutMillis);
+
+	}
+
+	public List<DialogueMetrics> getMetrics() {
+		return metricsRegistry.getMetrics();
+	}
+
+	public DialogueMetrics getMetrics(String destinationAlias) {
+		if (destinationMap.containsKey(destinationAlias) == false)
+			return null;
+		return metricsRegistry.getDestinationMetrics(destinationAlias);
+	}
+
+	public DialogueMetricsRegistry getMetricsRegistry() {
+		return metricsRegistry;
+	}
+
 	public void setOptions(Map<String, Object> options) throws DialogueUnsupportedOptionException {
 		this.options = options;
 	}
@@ -167,6 +441,8 @@ public abstract class AbstractDialogue implements Dialogue {
 
 	public void stop() {
 		engine.stop();
+		if (publisher != null)
+			publisher.complete();
 
 	}
 
@@ -3,15 +3,23 @@
 package com.ss.framework.dialogue;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import com.ss.framework.dialogue.api.DialogueServerMessage;
 
 
 public abstract class AbstractDialogueServerMessage implements DialogueServerMessage {
 
-	protected byte[] data = null;
+	protected ByteBuffer data = null;
+
+	// Copy of the message data, made the first time it is requested as an array of bytes
+	protected byte[] bytes = null;
 
 	public AbstractDialogueServerMessage(byte[] data) {
+		this(data == null ? null : ByteBuffer.wrap(data));
+	}
+
+	public AbstractDialogueServerMessage(ByteBuffer data) {
 		this.data = data;
 	}
 
@@ -27,7 +35,17 @@ public abstract class AbstractDialogueServerMessage implements DialogueServerMes
 		return new String(getBytes(), charSetName);
 	}
 
-	public byte[] getBytes() {
-		return data;
+	public synchronized byte[] getBytes() {
+		if (bytes == null && data != null) {
+			bytes = new byte[data.remaining()];
+			data.duplicate().get(bytes);
+		}
+		return bytes;
+	}
+
+	public ByteBuffer getByteBuffer() {
+		if (data == null)
+			return null;
+		return data.asReadOnlyBuffer();
 	}
 }
@@ -23,6 +23,16 @@ public interface DialogueEngine {
 
 	public void sendToAll(byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet;
 
+	public void sendAsync(String destinationAlias, byte[] message, DialogueResponseHandler responseHandler) throws DialogueException;
+
+	public void sendAsync(List<String> destinationAliases, byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet;
+
+	public void sendToAllAsync(byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet;
+
+	public void sendBatch(String destinationAlias, List<byte[]> messages) throws DialogueConnectionException, DialogueException;
+
+	public DialogueOutputStream openStream(String destinationAlias, String name) throws DialogueConnectionException, DialogueException;
+
 	public void start() throws DialogueException;
 
 	public void stop();
@@ -0,0 +1,94 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.ss.framework.dialogue.api.DialogueIncomingStream;
+import com.ss.framework.dialogue.api.DialogueStreamListener;
+
+
+// Writes the files sent to a dialogue by sendFile to a directory. The sink is added to the dialogue as a
+// stream listener. Each named stream is written to the file of that name in the directory, replacing any file
+// already there. Streams without a name are left to the other stream listeners.
+//
+// The data is transferred from the stream to the file by FileChannel.transferFrom. The socket engine reads
+// the chunks of a stream into direct buffers, so the data is not copied into the Java heap on its way to the
+// file.
+public class DialogueFileSink implements DialogueStreamListener {
+
+	// Suffix of the file a stream is written to until its end has been received
+	public static final String PARTIAL_SUFFIX = ".part";
+
+	protected Path directory;
+
+	public DialogueFileSink(Path directory) {
+		this.directory = directory;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public void streamRecieved(DialogueIncomingStream stream) {
+		if (stream.getName() == null)
+			return;
+
+		// Only the file name is used, so a sender can not write outside the directory
+		String fileName;
+		try {
+			Path name = Paths.get(stream.getName()).getFileName();
+			fileName = name != null ? name.toString() : null;
+		} catch (InvalidPathException e) {
+			fileName = null;
+		}
+		if (fileName == null || fileName.equals(".") || fileName.equals("..")) {
+			System.out.println("Invalid file name received: " + stream.getName());
+			return;
+		}
+
+		// The file is written under a temporary name, so a file that breaks off never replaces a complete one
+		Path file = directory.resolve(fileName);
+		Path partialFile = directory.resolve(fileName + PARTIAL_SUFFIX);
+		try {
+			receive(stream, partialFile);
+			Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.out.println(e);
+			try {
+				Files.deleteIfExists(partialFile);
+			} catch (IOException deleteException) {
+			}
+			return;
+		}
+
+		fileReceived(file);
+	}
+
+	// Transfer the stream to the specified file until the end of the stream
+	protected void receive(DialogueIncomingStream stream, Path file) throws IOException {
+		FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			long position = 0;
+			long transferred = fileChannel.transferFrom(stream, position, Long.MAX_VALUE);
+			while (transferred > 0) {
+				position += transferred;
+				transferred = fileChannel.transferFrom(stream, position, Long.MAX_VALUE);
+			}
+		} finally {
+			fileChannel.close();
+		}
+	}
+
+	// Called once a file has been received completely
+	protected void fileReceived(Path file) {
+	}
+
+}
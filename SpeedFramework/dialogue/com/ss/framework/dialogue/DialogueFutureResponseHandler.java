@@ -0,0 +1,108 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import com.ss.framework.dialogue.api.DialogueResponseSet;
+
+
+// Response handler that completes a future instead of parking a thread in waitForResponse. The future is
+// completed on a pool thread (never on the I/O thread) once all responses have arrived or the timeout
+// has elapsed, whichever comes first.
+public class DialogueFutureResponseHandler extends DialogueResponseHandlerImpl {
+
+	// Schedules the timeouts of all future response handlers. A timeout is removed from the scheduler as soon
+	// as its future completes, so completed requests do not pile up until their timeout elapses.
+	protected static ScheduledThreadPoolExecutor timeoutScheduler = createTimeoutScheduler();
+
+	protected CompletableFuture<DialogueResponseSet> future = new CompletableFuture<DialogueResponseSet>();
+
+	public DialogueFutureResponseHandler() {
+		super();
+
+	}
+
+	public DialogueFutureResponseHandler(String destinationAlias) {
+		super(destinationAlias);
+
+	}
+
+	public DialogueFutureResponseHandler(List<String> destinationAliases) {
+		super(destinationAliases);
+
+	}
+
+	public synchronized void handleException(String destinationAlias, Exception exception) {
+		super.handleException(destinationAlias, exception);
+		completeIfDone();
+
+	}
+
+	public synchronized boolean handleResponse(String destinationAlias, ByteBuffer response) {
+		super.handleResponse(destinationAlias, response);
+		completeIfDone();
+		return true;
+	}
+
+	// Start the timeout and return the future. Must be called once the message has been handed to the engine.
+	public CompletableFuture<DialogueResponseSet> getFuture(int timeoutMillis) {
+		final ScheduledFuture<?> timeout = timeoutScheduler.schedule(new Runnable() {
+
+			public void run() {
+				complete();
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+
+		// However the future completes, the timeout is no longer needed and the engines can forget the request
+		future.whenComplete(new BiConsumer<DialogueResponseSet, Throwable>() {
+
+			public void accept(DialogueResponseSet responseSet, Throwable exception) {
+				timeout.cancel(false);
+				runCompletionTasks();
+			}
+		});
+
+		completeIfDone();
+		return future;
+	}
+
+	protected void completeIfDone() {
+		if (isComplete())
+			complete();
+	}
+
+	// Complete the future with the responses received so far
+	protected void complete() {
+		if (future.isDone() == false) {
+			future.completeAsync(new Supplier<DialogueResponseSet>() {
+
+				public DialogueResponseSet get() {
+					return getResponseSet();
+				}
+			});
+		}
+	}
+
+	protected static ScheduledThreadPoolExecutor createTimeoutScheduler() {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "DialogueResponseTimeout");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+
+}
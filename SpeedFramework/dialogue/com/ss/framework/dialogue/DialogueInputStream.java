@@ -0,0 +1,223 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.ss.framework.dialogue.api.DialogueIncomingStream;
+
+
+// A stream of data received by a dialogue. The data arrives in chunks, which the dialogue queues as they are
+// received and the reader takes off the queue as it reads. Only the queued chunks are held in memory, however
+// long the stream is.
+//
+// Once maxChunks chunks are queued the stream is backed up. The dialogue then stops reading from the sender
+// until the stream has been read down to half that, so a slow reader holds the sender back.
+public class DialogueInputStream extends InputStream implements DialogueIncomingStream {
+
+	// Queued after the last chunk of the stream
+	protected static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	protected int streamId;
+
+	// Name the sender gave the stream, such as the name of the file sent (null if not named)
+	protected String name;
+
+	protected int maxChunks;
+
+	protected LinkedBlockingQueue<ByteBuffer> chunks = new LinkedBlockingQueue<ByteBuffer>();
+
+	// The chunk being read. Only used by the reading thread.
+	protected ByteBuffer current;
+
+	// True once the end of the stream has been read. Only used by the reading thread.
+	protected boolean ended = false;
+
+	// Set if the stream broke off before its end, such as when the connection to the sender was lost
+	protected volatile IOException failure;
+
+	protected volatile boolean closed = false;
+
+	protected boolean backedUp = false;
+
+	public DialogueInputStream(int streamId, int maxChunks) {
+		this(streamId, null, maxChunks);
+	}
+
+	public DialogueInputStream(int streamId, String name, int maxChunks) {
+		this.streamId = streamId;
+		this.name = name;
+		this.maxChunks = Math.max(maxChunks, 2);
+	}
+
+	public int getStreamId() {
+		return streamId;
+	}
+
+	public InputStream getInputStream() {
+		return this;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// Queue the next chunk of the stream. Called by the dialogue.
+	public void receive(ByteBuffer chunk) {
+		if (closed || chunk.hasRemaining() == false) {
+			released(chunk);
+			return;
+		}
+
+		chunks.offer(chunk);
+		updateBackedUp();
+	}
+
+	// Mark the end of the stream. Called by the dialogue.
+	public void end() {
+		chunks.offer(END);
+	}
+
+	// Break the stream off. The reader gets the exception once it has read the chunks already queued.
+	public void fail(IOException e) {
+		failure = e;
+		chunks.offer(END);
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	public int read() throws IOException {
+		ByteBuffer chunk = nextChunk();
+		if (chunk == null)
+			return -1;
+		return chunk.get() & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+
+		ByteBuffer chunk = nextChunk();
+		if (chunk == null)
+			return -1;
+		int count = Math.min(len, chunk.remaining());
+		chunk.get(b, off, count);
+		return count;
+	}
+
+	public int read(ByteBuffer dst) throws IOException {
+		if (dst.hasRemaining() == false)
+			return 0;
+
+		ByteBuffer chunk = nextChunk();
+		if (chunk == null)
+			return -1;
+		int count = Math.min(dst.remaining(), chunk.remaining());
+		dst.put(dst.position(), chunk, chunk.position(), count);
+		dst.position(dst.position() + count);
+		chunk.position(chunk.position() + count);
+		return count;
+	}
+
+	// The chunk to read from, waiting for the next one if the current chunk has been read. Returns null at the
+	// end of the stream.
+	protected ByteBuffer nextChunk() throws IOException {
+		if (closed)
+			throw new ClosedChannelException();
+
+		while (current == null || current.hasRemaining() == false) {
+			if (ended == false) {
+				ByteBuffer chunk;
+				try {
+					chunk = chunks.take();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Interrupted while waiting for stream data");
+				}
+				updateBackedUp();
+				if (current != null)
+					released(current);
+				if (chunk != END) {
+					current = chunk;
+					continue;
+				}
+				ended = true;
+			}
+
+			if (current != null)
+				released(current);
+			current = null;
+			if (failure != null)
+				throw failure;
+			return null;
+		}
+		return current;
+	}
+
+	public int available() throws IOException {
+		if (closed)
+			throw new ClosedChannelException();
+		return current != null ? current.remaining() : 0;
+	}
+
+	public boolean isOpen() {
+		return closed == false;
+	}
+
+	// Close the stream. Data not read yet is dropped, as is the rest of the stream as it arrives.
+	public void close() {
+		closed = true;
+		List<ByteBuffer> dropped = new ArrayList<ByteBuffer>();
+		chunks.drainTo(dropped);
+		if (current != null)
+			dropped.add(current);
+		current = null;
+		for (ByteBuffer chunk : dropped) {
+			if (chunk != END)
+				released(chunk);
+		}
+		updateBackedUp();
+	}
+
+	// Wait until the stream is no longer backed up. Called by senders that are held back by waiting rather
+	// than by the dialogue no longer reading from them.
+	public synchronized void waitForRoom() throws IOException {
+		while (backedUp && closed == false && failure == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting for the stream to be read");
+			}
+		}
+	}
+
+	protected synchronized void updateBackedUp() {
+		int size = chunks.size();
+		if (backedUp == false && size >= maxChunks && closed == false) {
+			backedUp = true;
+			backedUp(true);
+		} else if (backedUp && (size <= maxChunks / 2 || closed)) {
+			backedUp = false;
+			backedUp(false);
+			notifyAll();
+		}
+	}
+
+	// Called when the stream becomes backed up and when it no longer is
+	protected void backedUp(boolean backedUp) {
+	}
+
+	// Called once a chunk has been read or dropped, so a buffer borrowed from a pool can be given back
+	protected void released(ByteBuffer chunk) {
+	}
+
+}
@@ -0,0 +1,103 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+
+public class DialogueLatencyHistogram {
+
+	// Each power of two range of values is split into this many buckets, which keeps the values reported
+	// within 25% of the values recorded
+	protected static final int SUB_BUCKETS = 4;
+
+	// Number of power of two ranges kept. Larger values are recorded in the last bucket.
+	protected static final int RANGES = 40;
+
+	protected static final long MAX_VALUE = (1L << RANGES) - 1;
+
+	// Number of values recorded in each bucket. Striped counters keep recording cheap when many threads
+	// record at once.
+	protected LongAdder[] buckets = new LongAdder[(RANGES - 1) * SUB_BUCKETS];
+
+	protected LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	}, 0);
+
+	public DialogueLatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = new LongAdder();
+	}
+
+	// Record a latency given in nanoseconds
+	public void record(long nanos) {
+		long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+		buckets[getBucket(micros)].increment();
+		max.accumulate(micros);
+	}
+
+	protected int getBucket(long value) {
+		// Small values have a bucket of their own
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int range = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (range - 2)) & (SUB_BUCKETS - 1);
+		return (range - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	// The largest value recorded in the specified bucket
+	protected long getBucketLimit(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int range = bucket / SUB_BUCKETS + 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + subBucket + 1) << (range - 2)) - 1;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets)
+			count += bucket.sum();
+		return count;
+	}
+
+	// The value (in microseconds) below which the specified percentage of the recorded values fall. 0 if
+	// nothing has been recorded.
+	public long getPercentile(double percentile) {
+		long[] counts = new long[buckets.length];
+		long total = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		if (total == 0)
+			return 0;
+
+		long wanted = (long) Math.ceil(total * percentile / 100);
+		long count = 0;
+		for (int i = 0; i < counts.length; i++) {
+			count += counts[i];
+			if (count >= wanted)
+				return Math.min(getBucketLimit(i), getMax());
+		}
+		return getMax();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public void reset() {
+		for (LongAdder bucket : buckets)
+			bucket.reset();
+		max.reset();
+	}
+
+}
@@ -0,0 +1,187 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ss.framework.dialogue.api.DialogueListener;
+import com.ss.framework.dialogue.api.DialogueServerMessage;
+
+
+// Publishes the messages received by a dialogue to reactive subscribers. The publisher listens to the
+// dialogue like any other listener and passes each message on to every subscriber that has asked for more.
+//
+// Messages a subscriber has not asked for yet are kept for it. As long as any subscriber has messages kept
+// for it, the dialogue stops reading incoming messages, so the senders are held back instead of the messages
+// piling up in memory. Messages already read are still passed on, so a subscriber may be kept a few messages
+// more than it asked for.
+public class DialogueMessagePublisher implements Flow.Publisher<DialogueServerMessage>, DialogueListener {
+
+	protected AbstractDialogue dialogue;
+
+	protected List<MessageSubscription> subscriptions = new CopyOnWriteArrayList<MessageSubscription>();
+
+	// Number of subscriptions with messages kept for them
+	protected AtomicInteger backlogged = new AtomicInteger();
+
+	// True while the dialogue has been told to stop reading
+	protected boolean readPaused = false;
+
+	public DialogueMessagePublisher(AbstractDialogue dialogue) {
+		this.dialogue = dialogue;
+	}
+
+	public void subscribe(Flow.Subscriber<? super DialogueServerMessage> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException("Subscriber is null");
+
+		MessageSubscription subscription = new MessageSubscription(subscriber);
+		subscriptions.add(subscription);
+		subscriber.onSubscribe(subscription);
+	}
+
+	public void messageRecieved(DialogueServerMessage dialogMessage) {
+		for (MessageSubscription subscription : subscriptions)
+			subscription.offer(dialogMessage);
+	}
+
+	// Complete the current subscriptions once they have been passed the messages kept for them. Called when
+	// the dialogue stops.
+	public void complete() {
+		for (MessageSubscription subscription : subscriptions)
+			subscription.complete();
+	}
+
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	// Pause reading while any subscription has messages kept for it, resume once none has
+	protected synchronized void updateReading() {
+		boolean pause = backlogged.get() > 0;
+		if (pause == readPaused)
+			return;
+
+		readPaused = pause;
+		dialogue.setReadPaused(pause);
+	}
+
+	protected class MessageSubscription implements Flow.Subscription {
+
+		protected Flow.Subscriber<? super DialogueServerMessage> subscriber;
+
+		// Number of messages the subscriber has asked for and not been passed yet
+		protected AtomicLong demand = new AtomicLong();
+
+		// Messages received before the subscriber asked for them
+		protected ConcurrentLinkedQueue<DialogueServerMessage> messages = new ConcurrentLinkedQueue<DialogueServerMessage>();
+
+		// Counts the calls to drain, so only one thread at a time calls the subscriber
+		protected AtomicInteger drainRequests = new AtomicInteger();
+
+		protected volatile boolean cancelled = false;
+
+		protected volatile boolean completed = false;
+
+		// Error to pass to the subscriber, such as a request for a negative number of messages
+		protected volatile Throwable error = null;
+
+		// True while this subscription is counted as backlogged. Only used by the draining thread.
+		protected boolean backlog = false;
+
+		public MessageSubscription(Flow.Subscriber<? super DialogueServerMessage> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("The number of messages requested must be positive, was: " + n);
+			} else {
+				long current;
+				long updated;
+				do {
+					current = demand.get();
+					updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while (demand.compareAndSet(current, updated) == false);
+			}
+			drain();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			drain();
+		}
+
+		protected void offer(DialogueServerMessage message) {
+			if (cancelled || completed)
+				return;
+			messages.offer(message);
+			drain();
+		}
+
+		protected void complete() {
+			completed = true;
+			drain();
+		}
+
+		// Pass the subscriber the messages it has asked for. A thread calling drain while another thread is
+		// draining leaves the work to that thread, which drains again before it is done.
+		protected void drain() {
+			if (drainRequests.getAndIncrement() != 0)
+				return;
+
+			int requests = 1;
+			do {
+				while (cancelled == false && error == null && demand.get() > 0) {
+					DialogueServerMessage message = messages.poll();
+					if (message == null)
+						break;
+					if (demand.get() != Long.MAX_VALUE)
+						demand.decrementAndGet();
+
+					try {
+						subscriber.onNext(message);
+					} catch (RuntimeException e) {
+						// A subscriber that fails is not passed any more messages
+						System.out.println(e);
+						cancelled = true;
+					}
+				}
+
+				if (cancelled == false && error != null) {
+					cancelled = true;
+					subscriber.onError(error);
+				} else if (cancelled == false && completed && messages.isEmpty()) {
+					cancelled = true;
+					subscriber.onComplete();
+				}
+
+				if (cancelled) {
+					messages.clear();
+					subscriptions.remove(this);
+				}
+				setBacklog(messages.isEmpty() == false);
+
+				requests = drainRequests.addAndGet(-requests);
+			} while (requests != 0);
+		}
+
+		protected void setBacklog(boolean backlog) {
+			if (this.backlog == backlog)
+				return;
+
+			this.backlog = backlog;
+			if (backlog)
+				backlogged.incrementAndGet();
+			else
+				backlogged.decrementAndGet();
+			updateReading();
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.ss.framework.dialogue.api.DialogueMetrics;
+
+
+public class DialogueMetricsImpl implements DialogueMetrics {
+
+	public static final String TYPE_DESTINATION = "destination";
+
+	public static final String TYPE_CONNECTION = "connection";
+
+	protected String name;
+
+	protected String type;
+
+	protected LongAdder messagesSent = new LongAdder();
+
+	protected LongAdder bytesSent = new LongAdder();
+
+	protected LongAdder messagesReceived = new LongAdder();
+
+	protected LongAdder bytesReceived = new LongAdder();
+
+	protected LongAdder queuedMessages = new LongAdder();
+
+	protected LongAdder queuedBytes = new LongAdder();
+
+	protected LongAdder connects = new LongAdder();
+
+	protected LongAdder reconnects = new LongAdder();
+
+	protected LongAdder errors = new LongAdder();
+
+	// Time from sending a response message until its response is received
+	protected DialogueLatencyHistogram responseLatency = new DialogueLatencyHistogram();
+
+	// Time from receiving a message until it is passed to the dialogue listeners
+	protected DialogueLatencyHistogram queueWait = new DialogueLatencyHistogram();
+
+	public DialogueMetricsImpl(String name, String type) {
+		this.name = name;
+		this.type = type;
+	}
+
+	public void messageSent(int bytes) {
+		messagesSent.increment();
+		bytesSent.add(bytes);
+	}
+
+	public void messageReceived(int bytes) {
+		messagesReceived.increment();
+		bytesReceived.add(bytes);
+	}
+
+	// Add to (or with negative values, subtract from) the messages and bytes queued
+	public void queued(int messages, long bytes) {
+		queuedMessages.add(messages);
+		queuedBytes.add(bytes);
+	}
+
+	public void connected() {
+		connects.increment();
+	}
+
+	public void reconnected() {
+		reconnects.increment();
+	}
+
+	public void error() {
+		errors.increment();
+	}
+
+	public void errors(int count) {
+		errors.add(count);
+	}
+
+	public void responseReceived(long latencyNanos) {
+		responseLatency.record(latencyNanos);
+	}
+
+	public void queueWait(long waitNanos) {
+		queueWait.record(waitNanos);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public long getMessagesSent() {
+		return messagesSent.sum();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	public long getMessagesReceived() {
+		return messagesReceived.sum();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	public long getQueuedMessages() {
+		return queuedMessages.sum();
+	}
+
+	public long getQueuedBytes() {
+		return queuedBytes.sum();
+	}
+
+	public long getConnects() {
+		return connects.sum();
+	}
+
+	public long getReconnects() {
+		return reconnects.sum();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	public long getResponses() {
+		return responseLatency.getCount();
+	}
+
+	public long getResponseLatency50thMicros() {
+		return responseLatency.getPercentile(50);
+	}
+
+	public long getResponseLatency99thMicros() {
+		return responseLatency.getPercentile(99);
+	}
+
+	public long getResponseLatency999thMicros() {
+		return responseLatency.getPercentile(99.9);
+	}
+
+	public long getResponseLatencyMaxMicros() {
+		return responseLatency.getMax();
+	}
+
+	public long getQueueWait50thMicros() {
+		return queueWait.getPercentile(50);
+	}
+
+	public long getQueueWait99thMicros() {
+		return queueWait.getPercentile(99);
+	}
+
+	public long getQueueWait999thMicros() {
+		return queueWait.getPercentile(99.9);
+	}
+
+	public long getQueueWaitMaxMicros() {
+		return queueWait.getMax();
+	}
+
+	public void reset() {
+		messagesSent.reset();
+		bytesSent.reset();
+		messagesReceived.reset();
+		bytesReceived.reset();
+		connects.reset();
+		reconnects.reset();
+		errors.reset();
+		responseLatency.reset();
+		queueWait.reset();
+	}
+
+	public String toString() {
+		return type + " " + name + ": sent " + getMessagesSent() + " (" + getBytesSent() + " bytes), received " + getMessagesReceived() + " (" + getBytesReceived() + " bytes), queued "
+				+ getQueuedMessages() + " (" + getQueuedBytes() + " bytes), connects " + getConnects() + ", reconnects " + getReconnects() + ", errors " + getErrors();
+	}
+
+}
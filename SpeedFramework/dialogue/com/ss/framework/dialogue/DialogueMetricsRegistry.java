@@ -0,0 +1,182 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ss.framework.dialogue.api.DialogueMetrics;
+
+
+public class DialogueMetricsRegistry {
+
+	// The domain the metrics MBeans are registered under
+	public static final String JMX_DOMAIN = "com.ss.framework.dialogue";
+
+	// Used to name dialogues that were not given a metrics name
+	protected static AtomicInteger nameSequence = new AtomicInteger();
+
+	protected String name;
+
+	protected volatile boolean enabled = false;
+
+	// True while the metrics are registered with the MBean server
+	protected boolean registered = false;
+
+	// Maps a destination alias to the metrics of the destination. Read without locking, since the metrics of
+	// a destination are looked up on every send.
+	protected Map<String, DialogueMetricsImpl> destinationMetrics = new ConcurrentHashMap<String, DialogueMetricsImpl>();
+
+	// Maps a connection accepted by the dialogue server to the metrics of the connection
+	protected Map<Object, DialogueMetricsImpl> connectionMetrics = new HashMap<Object, DialogueMetricsImpl>();
+
+	public DialogueMetricsRegistry() {
+		this.name = "Dialogue-" + nameSequence.incrementAndGet();
+	}
+
+	// Start collecting metrics (if enabled) and register them with the platform MBean server
+	public synchronized void start(String name, boolean enabled) {
+		if (name != null && name.trim().length() > 0)
+			this.name = name;
+		this.enabled = enabled;
+		if (enabled == false)
+			return;
+
+		registered = true;
+		for (DialogueMetricsImpl metrics : destinationMetrics.values())
+			register(metrics);
+	}
+
+	// Unregister the metrics. The metrics of the connections accepted by the dialogue server are dropped.
+	public synchronized void stop() {
+		for (DialogueMetricsImpl metrics : getAllMetrics())
+			unregister(metrics);
+		connectionMetrics.clear();
+		registered = false;
+		enabled = false;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// Get the metrics of the specified destination, creating them if needed. Returns null if metrics are not
+	// collected.
+	public DialogueMetricsImpl getDestinationMetrics(String destinationAlias) {
+		if (enabled == false || destinationAlias == null)
+			return null;
+
+		DialogueMetricsImpl metrics = destinationMetrics.get(destinationAlias);
+		if (metrics != null)
+			return metrics;
+		return createDestinationMetrics(destinationAlias);
+	}
+
+	protected synchronized DialogueMetricsImpl createDestinationMetrics(String destinationAlias) {
+		if (enabled == false)
+			return null;
+
+		DialogueMetricsImpl metrics = destinationMetrics.get(destinationAlias);
+		if (metrics == null) {
+			metrics = new DialogueMetricsImpl(destinationAlias, DialogueMetricsImpl.TYPE_DESTINATION);
+			destinationMetrics.put(destinationAlias, metrics);
+			register(metrics);
+		}
+		return metrics;
+	}
+
+	public synchronized void removeDestinationMetrics(String destinationAlias) {
+		DialogueMetricsImpl metrics = destinationMetrics.remove(destinationAlias);
+		if (metrics != null)
+			unregister(metrics);
+	}
+
+	// Create the metrics of a connection accepted by the dialogue server. Returns null if metrics are not
+	// collected.
+	public synchronized DialogueMetricsImpl addConnectionMetrics(Object connection, String connectionName) {
+		if (enabled == false)
+			return null;
+
+		// Connections from the same address (such as the unnamed clients of a Unix domain socket) are told
+		// apart by a number
+		String uniqueName = connectionName;
+		for (int i = 2; isConnectionName(uniqueName); i++)
+			uniqueName = connectionName + "#" + i;
+
+		DialogueMetricsImpl metrics = new DialogueMetricsImpl(uniqueName, DialogueMetricsImpl.TYPE_CONNECTION);
+		connectionMetrics.put(connection, metrics);
+		register(metrics);
+		return metrics;
+	}
+
+	protected boolean isConnectionName(String connectionName) {
+		for (DialogueMetricsImpl metrics : connectionMetrics.values()) {
+			if (metrics.getName().equals(connectionName))
+				return true;
+		}
+		return false;
+	}
+
+	public synchronized void removeConnectionMetrics(Object connection) {
+		DialogueMetricsImpl metrics = connectionMetrics.remove(connection);
+		if (metrics != null)
+			unregister(metrics);
+	}
+
+	public synchronized List<DialogueMetrics> getMetrics() {
+		return new ArrayList<DialogueMetrics>(getAllMetrics());
+	}
+
+	protected List<DialogueMetricsImpl> getAllMetrics() {
+		List<DialogueMetricsImpl> list = new ArrayList<DialogueMetricsImpl>();
+		list.addAll(destinationMetrics.values());
+		list.addAll(connectionMetrics.values());
+		return list;
+	}
+
+	protected ObjectName getObjectName(DialogueMetricsImpl metrics) throws JMException {
+		return new ObjectName(JMX_DOMAIN + ":type=DialogueMetrics,dialogue=" + ObjectName.quote(name) + "," + metrics.getType() + "=" + ObjectName.quote(metrics.getName()));
+	}
+
+	protected void register(DialogueMetricsImpl metrics) {
+		if (registered == false)
+			return;
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = getObjectName(metrics);
+			if (server.isRegistered(objectName) == false)
+				server.registerMBean(metrics, objectName);
+		} catch (JMException e) {
+			System.out.println(e);
+		}
+	}
+
+	protected void unregister(DialogueMetricsImpl metrics) {
+		if (registered == false)
+			return;
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = getObjectName(metrics);
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+		} catch (JMException e) {
+			System.out.println(e);
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.ss.framework.dialogue.api.DialogueStream;
+
+
+// A stream of data sent to a destination. The data written is gathered into chunks, each sent in a message of
+// its own as soon as it is full. Only the chunks not yet taken by the destination are held in memory, however
+// long the stream is. Closing the stream sends what is left and marks the end of the stream; aborting it
+// breaks the stream off, and the destination reads an exception instead of the end.
+public abstract class DialogueOutputStream extends OutputStream implements DialogueStream {
+
+	protected String destinationAlias;
+
+	protected int streamId;
+
+	// The chunk being filled
+	protected byte[] chunk;
+
+	// Number of bytes in the chunk
+	protected int count = 0;
+
+	protected boolean closed = false;
+
+	// True once the destination has been told the stream ended or was broken off
+	protected boolean finished = false;
+
+	protected DialogueOutputStream(String destinationAlias, int streamId, int chunkSize) {
+		this.destinationAlias = destinationAlias;
+		this.streamId = streamId;
+		this.chunk = new byte[chunkSize];
+	}
+
+	public String getDestinationAlias() {
+		return destinationAlias;
+	}
+
+	public int getStreamId() {
+		return streamId;
+	}
+
+	public OutputStream getOutputStream() {
+		return this;
+	}
+
+	public synchronized void write(int b) throws IOException {
+		ensureOpen();
+		chunk[count++] = (byte) b;
+		if (count == chunk.length)
+			flushChunk();
+	}
+
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		ensureOpen();
+
+		while (len > 0) {
+			int size = Math.min(len, chunk.length - count);
+			System.arraycopy(b, off, chunk, count, size);
+			count += size;
+			off += size;
+			len -= size;
+			if (count == chunk.length)
+				flushChunk();
+		}
+	}
+
+	public synchronized int write(ByteBuffer src) throws IOException {
+		ensureOpen();
+
+		int written = src.remaining();
+		while (src.hasRemaining()) {
+			int size = Math.min(src.remaining(), chunk.length - count);
+			src.get(chunk, count, size);
+			count += size;
+			if (count == chunk.length)
+				flushChunk();
+		}
+		return written;
+	}
+
+	// Send length bytes of the file from the specified position, or fewer if the file ends first. Returns the
+	// number of bytes sent. The file may be closed once the call returns.
+	public synchronized long transferFrom(FileChannel file, long position, long length) throws IOException {
+		ensureOpen();
+
+		long transferred = 0;
+		while (transferred < length) {
+			int size = (int) Math.min(length - transferred, chunk.length - count);
+			int numRead = file.read(ByteBuffer.wrap(chunk, count, size), position + transferred);
+			if (numRead <= 0)
+				break;
+			count += numRead;
+			transferred += numRead;
+			if (count == chunk.length)
+				flushChunk();
+		}
+		return transferred;
+	}
+
+	// Send the data written so far, even if it does not fill a chunk
+	public synchronized void flush() throws IOException {
+		ensureOpen();
+		if (count > 0)
+			flushChunk();
+	}
+
+	public synchronized boolean isOpen() {
+		return closed == false;
+	}
+
+	// Send what is left and mark the end of the stream
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+		if (count > 0)
+			flushChunk();
+		sendEnd();
+		finished = true;
+	}
+
+	// Break the stream off. The data not yet sent is discarded and the destination's reader gets an
+	// IOException instead of the end of the stream. Does nothing once the end has been sent.
+	public synchronized void abort() throws IOException {
+		if (finished)
+			return;
+
+		closed = true;
+		finished = true;
+		count = 0;
+		sendAbort();
+	}
+
+	protected void ensureOpen() throws IOException {
+		if (closed)
+			throw new ClosedChannelException();
+	}
+
+	protected void flushChunk() throws IOException {
+		int length = count;
+		count = 0;
+		sendChunk(chunk, length);
+	}
+
+	// Send the first length bytes of the chunk. The chunk is filled again once the call returns, so an
+	// implementation holding on to it must replace it with a new array.
+	protected abstract void sendChunk(byte[] data, int length) throws IOException;
+
+	// Tell the destination that the stream has ended
+	protected abstract void sendEnd() throws IOException;
+
+	// Tell the destination that the stream has been broken off
+	protected abstract void sendAbort() throws IOException;
+
+}
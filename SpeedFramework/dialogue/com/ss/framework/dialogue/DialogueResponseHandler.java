@@ -2,6 +2,7 @@
 
 package com.ss.framework.dialogue;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import com.ss.framework.dialogue.api.DialogueResponseSet;
@@ -11,7 +12,7 @@ public interface DialogueResponseHandler {
 
 	public void handleException(String destinationAlias, Exception exception);
 
-	public boolean handleResponse(String destinationAlias, byte[] response);
+	public boolean handleResponse(String destinationAlias, ByteBuffer response);
 
 	public DialogueResponseSet waitForResponse(int timeoutMillis);
 
@@ -19,4 +20,8 @@ public interface DialogueResponseHandler {
 
 	public boolean hasException();
 
+	// Run the task once the handler no longer waits for responses, because they have all arrived or because
+	// the timeout has elapsed. The engines use it to forget the requests of the handler.
+	public void addCompletionTask(Runnable task);
+
 }
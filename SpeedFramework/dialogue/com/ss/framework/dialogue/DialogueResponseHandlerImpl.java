@@ -1,5 +1,6 @@
 package com.ss.framework.dialogue;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -14,7 +15,12 @@ public class DialogueResponseHandlerImpl implements DialogueResponseHandler {
 
 	protected Map<String, Exception> exceptionMap = new HashMap<String, Exception>();
 
-	protected Map<String, byte[]> responseMap = new HashMap<String, byte[]>();
+	protected Map<String, ByteBuffer> responseMap = new HashMap<String, ByteBuffer>();
+
+	// Tasks to run once the handler no longer waits for responses
+	protected List<Runnable> completionTasks = new ArrayList<Runnable>();
+
+	protected boolean finished = false;
 
 	public DialogueResponseHandlerImpl() {
 		super();
@@ -44,14 +50,20 @@ public class DialogueResponseHandlerImpl implements DialogueResponseHandler {
 
 	}
 
-	public synchronized boolean handleResponse(String destinationAlias, byte[] response) {
+	public synchronized boolean handleResponse(String destinationAlias, ByteBuffer response) {
 		responseMap.put(destinationAlias, response);
 		if (responseMap.size() + exceptionMap.size() >= destinationAliases.size())
 			notify();
 		return true;
 	}
 
-	public synchronized DialogueResponseSet waitForResponse(int timeoutMillis) {
+	public DialogueResponseSet waitForResponse(int timeoutMillis) {
+		DialogueResponseSet responseSet = awaitResponses(timeoutMillis);
+		runCompletionTasks();
+		return responseSet;
+	}
+
+	protected synchronized DialogueResponseSet awaitResponses(int timeoutMillis) {
 		if (responseMap.size() + exceptionMap.size() < destinationAliases.size()) {
 			try {
 				wait(timeoutMillis);
@@ -59,6 +71,11 @@ public class DialogueResponseHandlerImpl implements DialogueResponseHandler {
 			}
 		}
 
+		return getResponseSet();
+	}
+
+	// Build the response set from the responses and exceptions received so far
+	protected synchronized DialogueResponseSet getResponseSet() {
 		DialogueResponseSetImpl responseSet = new DialogueResponseSetImpl();
 		try {
 			for (String alias : destinationAliases) {
@@ -74,7 +91,36 @@ public class DialogueResponseHandlerImpl implements DialogueResponseHandler {
 		return responseSet;
 	}
 
+	public void addCompletionTask(Runnable task) {
+		synchronized (completionTasks) {
+			if (finished == false) {
+				completionTasks.add(task);
+				return;
+			}
+		}
+		task.run();
+
+	}
+
+	// Run the completion tasks. Never called while holding the handler lock, since the tasks take the locks
+	// of the engines, which hold them when they report to the handler.
+	protected void runCompletionTasks() {
+		List<Runnable> tasks;
+		synchronized (completionTasks) {
+			finished = true;
+			tasks = new ArrayList<Runnable>(completionTasks);
+			completionTasks.clear();
+		}
+		for (Runnable task : tasks)
+			task.run();
+
+	}
+
 	public boolean hasException() {
 		return exceptionMap.size() > 0;
 	}
+
+	protected synchronized boolean isComplete() {
+		return responseMap.size() + exceptionMap.size() >= destinationAliases.size();
+	}
 }
@@ -4,17 +4,25 @@ package com.ss.framework.dialogue;
 
 import java.io.UnsupportedEncodingException;
 import java.net.ConnectException;
+import java.nio.ByteBuffer;
 
 import com.ss.framework.dialogue.api.DialogueResponse;
 
 
 public class DialogueResponseImpl implements DialogueResponse {
 
-	protected byte[] data = null;
+	protected ByteBuffer data = null;
+
+	// Copy of the response data, made the first time it is requested as an array of bytes
+	protected byte[] bytes = null;
 
 	protected DialogueException exception = null;
 
 	public DialogueResponseImpl(byte[] data) {
+		this(data == null ? null : ByteBuffer.wrap(data));
+	}
+
+	public DialogueResponseImpl(ByteBuffer data) {
 		this.data = data;
 	}
 
@@ -39,11 +47,24 @@ public class DialogueResponseImpl implements DialogueResponse {
 		return new String(getBytes(), charsetName);
 	}
 
-	public byte[] getBytes() throws DialogueConnectionException, DialogueException {
+	public synchronized byte[] getBytes() throws DialogueConnectionException, DialogueException {
+		if (exception != null)
+			throw exception;
+
+		if (bytes == null && data != null) {
+			bytes = new byte[data.remaining()];
+			data.duplicate().get(bytes);
+		}
+		return bytes;
+	}
+
+	public ByteBuffer getByteBuffer() throws DialogueConnectionException, DialogueException {
 		if (exception != null)
 			throw exception;
 
-		return data;
+		if (data == null)
+			return null;
+		return data.asReadOnlyBuffer();
 	}
 
 	public DialogueException getException() {
@@ -2,8 +2,11 @@
 
 package com.ss.framework.dialogue.api;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 
 import com.ss.framework.dialogue.DialogueConnectionException;
 import com.ss.framework.dialogue.DialogueException;
@@ -83,6 +86,93 @@ public interface Dialogue {
 	 */
 	public List<DialogueListener> getListeners();
 
+	/**
+	 * Add a <code>DialogueBatchListener</code> to this dialogue. Batch listeners are notified of incoming messages a batch at a time. Each call hands over the messages the dialogue has taken off its
+	 * queue in one go, so the cost of the call is shared by all of them. Batch listeners are notified after the <code>DialogueListener</code> of the dialogue have been notified of the same
+	 * messages.
+	 * 
+	 * @param listener
+	 *            the <code>DialogueBatchListener</code> to add to this dialoge
+	 * @see DialogueBatchListener
+	 * @see #sendMessages(String, List)
+	 */
+	public void addBatchListener(DialogueBatchListener listener);
+
+	/**
+	 * Remove the specified batch listener from this dialogue. The removed batch listener will no longer be notifed of incoming messages.
+	 * 
+	 * @param listener
+	 *            the <code>DialogueBatchListener</code> to remove from this dialoge
+	 */
+	public void removeBatchListener(DialogueBatchListener listener);
+
+	/**
+	 * Get the list of <code>DialogueBatchListener</code> that are currently being notified of incoming messages in this dialogue. If no batch listeners are added to this dilogue, an empty list is
+	 * returned.
+	 * 
+	 * @return the current list of <code>DialogueBatchListener</code> on this dialogue
+	 */
+	public List<DialogueBatchListener> getBatchListeners();
+
+	/**
+	 * Get a <code>Flow.Publisher</code> that publishes the messages received by this dialogue. Each subscriber is passed the incoming messages it has asked for using
+	 * <code>Flow.Subscription.request</code>, after the <code>DialogueListener</code> added before the first call to this method have been notified of them.
+	 * <p>
+	 * Messages a subscriber has not asked for yet are kept for it. While any subscriber has messages kept for it, the dialogue stops reading incoming messages, so the senders are held back
+	 * (by TCP flow control for an IP dialogue, by the full ring for a shared memory dialogue) instead of the messages piling up in memory. Messages already read when the dialogue stops reading are
+	 * still published, so a subscriber may be kept a few messages more than it asked for. An in process dialogue can not hold its senders back and keeps the messages until they are asked for.
+	 * <p>
+	 * Subscribers are completed when the dialogue is stopped, once they have been passed the messages kept for them.
+	 * 
+	 * @return the publisher of the incoming messages of this dialogue. The same publisher is returned by every call.
+	 * @see java.util.concurrent.Flow
+	 */
+	public Flow.Publisher<DialogueServerMessage> messages();
+
+	/**
+	 * Add a <code>DialogueStreamListener</code> to this dialogue. Stream listeners are notified of the streams opened to this dialogue by remote dialogues, and read their data as it arrives.
+	 * 
+	 * @param listener
+	 *            the <code>DialogueStreamListener</code> to add to this dialoge
+	 * @see DialogueStreamListener
+	 * @see #openStream(String)
+	 */
+	public void addStreamListener(DialogueStreamListener listener);
+
+	/**
+	 * Remove the specified stream listener from this dialogue. The removed stream listener will no longer be notifed of incoming streams.
+	 * 
+	 * @param listener
+	 *            the <code>DialogueStreamListener</code> to remove from this dialoge
+	 */
+	public void removeStreamListener(DialogueStreamListener listener);
+
+	/**
+	 * Get the list of <code>DialogueStreamListener</code> that are currently being notified of incoming streams in this dialogue. If no stream listeners are added to this dilogue, an empty list is
+	 * returned.
+	 * 
+	 * @return the current list of <code>DialogueStreamListener</code> on this dialogue
+	 */
+	public List<DialogueStreamListener> getStreamListeners();
+
+	/**
+	 * Add a <code>DialogueErrorListener</code> to this dialogue. Error listeners are notified of failures to deliver messages that no caller is waiting for, such as messages sent when the
+	 * <code>NON_BLOCKING_SEND</code> option is set.
+	 * 
+	 * @param listener
+	 *            the <code>DialogueErrorListener</code> to add to this dialoge
+	 * @see DialogueErrorListener
+	 */
+	public void addErrorListener(DialogueErrorListener listener);
+
+	/**
+	 * Remove the specified error listener from this dialogue. The removed error listener will no longer be notifed of send failures.
+	 * 
+	 * @param listener
+	 *            the <code>DialogueErrorListener</code> to remove from this dialoge
+	 */
+	public void removeErrorListener(DialogueErrorListener listener);
+
 	/**
 	 * Add a <code>Destination</code> to this dialogue. Before you can communicate with a remote dialogue you need to add a destination that defines te properties of the remote location. Destinations
 	 * are created by the <code>DialogueFactory</code> and their properties are implementation specific.
@@ -177,6 +267,63 @@ public interface Dialogue {
 	 */
 	public void sendMessage(List<String> destinationAliases, byte[] message) throws DialogueExceptionSet;
 
+	/**
+	 * Send several <code>byte</code> messages to the destination with the specified alias in a single batch. The messages are written as one frame and received by the remote dialogue as separate
+	 * messages, in the order of the list. This saves the framing and queueing cost of sending each message on its own. Before messages can be sent to a destination, the destination must have been
+	 * added to this dialog.
+	 * 
+	 * @param destinationAlias
+	 *            the alias of the destination to which the messages are sent
+	 * @param messages
+	 *            the messages to send
+	 * @see #addDestination(Destination);
+	 * @see #addBatchListener(DialogueBatchListener);
+	 * @exception DialogueConnectionException
+	 *                if the connection to the destination could not be established
+	 * @exception DialogueException
+	 *                if an error occured during the send operation
+	 */
+	public void sendMessages(String destinationAlias, List<byte[]> messages) throws DialogueConnectionException, DialogueException;
+
+	/**
+	 * Open a stream to the destination with the specified alias. Use a stream to send data too large to be held in memory as a single message. The data written to the stream is sent in chunks as
+	 * it is written, and the remote dialogue passes it to its <code>DialogueStreamListener</code> as it arrives. Closing the stream sends the data still held and marks the end of the stream.
+	 * <p>
+	 * The <code>DialogueStream</code> is a <code>WritableByteChannel</code>, and is written to as an <code>OutputStream</code> through <code>getOutputStream</code>. Writing to it blocks when the
+	 * destination reads the stream slower than it is written. Before a stream can be opened to a destination, the destination must have been added to this dialog.
+	 * 
+	 * @param destinationAlias
+	 *            the alias of the destination to which the stream is opened
+	 * @return the <code>DialogueStream</code> the data of the stream is written to
+	 * @see #addDestination(Destination);
+	 * @see #addStreamListener(DialogueStreamListener);
+	 * @exception DialogueConnectionException
+	 *                if the connection to the destination could not be established
+	 * @exception DialogueException
+	 *                if the stream could not be opened, or this dialogue does not support streams
+	 */
+	public DialogueStream openStream(String destinationAlias) throws DialogueConnectionException, DialogueException;
+
+	/**
+	 * Send a file to the destination with the specified alias. The file is sent as a stream named after the file, and the remote dialogue passes it to its <code>DialogueStreamListener</code> as
+	 * it arrives. Use a <code>DialogueFileSink</code> as stream listener to write the files received to a directory.
+	 * <p>
+	 * Where the dialogue supports it, the content of the file is transferred from the file to the connection without being copied into the Java heap, however large the file. The method returns
+	 * once the whole file has been sent. If the file can not be sent to the end, the stream is broken off, so the remote dialogue reads an error rather than a partial file.
+	 * 
+	 * @param destinationAlias
+	 *            the alias of the destination to which the file is sent
+	 * @param file
+	 *            the <code>Path</code> of the file to send
+	 * @see #openStream(String);
+	 * @see com.ss.framework.dialogue.DialogueFileSink
+	 * @exception DialogueConnectionException
+	 *                if the connection to the destination could not be established
+	 * @exception DialogueException
+	 *                if the file could not be read or sent, or this dialogue does not support streams
+	 */
+	public void sendFile(String destinationAlias, Path file) throws DialogueConnectionException, DialogueException;
+
 	/**
 	 * Send a <code>String</code> message to all active destinations. The message might be succesfully sent to some destinations and not to others. If this occures a <code>DialogueExceptionSet</code>
 	 * exception is thrown.
@@ -375,6 +522,144 @@ public interface Dialogue {
 	 */
 	public DialogueResponseSet sendResponseMessageToAll(byte[] message, int timeoutMillis) throws DialogueException;
 
+	/**
+	 * Send a <code>String</code> message to the destination with the specified alias without waiting for the response. Before a message can be sent to a destination, the destination must have been
+	 * added to this dialog.
+	 * <p>
+	 * This method never blocks the calling thread. The message is queued for sending and a <code>CompletableFuture</code> is returned. The future is completed when a response or an exception has been
+	 * returned from the specified destination, or when the specified timeout has elapsed. Dependent actions are executed on a pool thread, never on the dialogue's I/O thread.
+	 * <p>
+	 * If a connection with the destination could not be established, the future is completed normally and exceptions will be thrown when an attempt is made to access the
+	 * <code>DialogueResponse</code>. If no response was received within the specified timeout, the <code>DialogueResponse</code> will contain no data.
+	 * 
+	 * @return a <code>CompletableFuture</code> that is completed with the <code>DialogueResponse</code>.
+	 * @param destinationAlias
+	 *            the alias of the destination to which the message is sent
+	 * @param message
+	 *            the message to send
+	 * @param timeoutMillis
+	 *            the number of milliseconds to wait for a response before giving up.
+	 * @see #sendResponseMessage(String, String, int);
+	 * @exception DialogueException
+	 *                if the message could not be queued for sending
+	 */
+	public CompletableFuture<DialogueResponse> sendResponseMessageAsync(String destinationAlias, String message, int timeoutMillis) throws DialogueException;
+
+	/**
+	 * Send a <code>byte</code> message to the destination with the specified alias without waiting for the response. Before a message can be sent to a destination, the destination must have been
+	 * added to this dialog.
+	 * <p>
+	 * This method never blocks the calling thread. The message is queued for sending and a <code>CompletableFuture</code> is returned. The future is completed when a response or an exception has been
+	 * returned from the specified destination, or when the specified timeout has elapsed. Dependent actions are executed on a pool thread, never on the dialogue's I/O thread.
+	 * <p>
+	 * If a connection with the destination could not be established, the future is completed normally and exceptions will be thrown when an attempt is made to access the
+	 * <code>DialogueResponse</code>. If no response was received within the specified timeout, the <code>DialogueResponse</code> will contain no data.
+	 * 
+	 * @return a <code>CompletableFuture</code> that is completed with the <code>DialogueResponse</code>.
+	 * @param destinationAlias
+	 *            the alias of the destination to which the message is sent
+	 * @param message
+	 *            the message to send
+	 * @param timeoutMillis
+	 *            the number of milliseconds to wait for a response before giving up.
+	 * @see #sendResponseMessage(String, byte[], int);
+	 * @exception DialogueException
+	 *                if the message could not be queued for sending
+	 */
+	public CompletableFuture<DialogueResponse> sendResponseMessageAsync(String destinationAlias, byte[] message, int timeoutMillis) throws DialogueException;
+
+	/**
+	 * Send a <code>String</code> message to all the destination with the specified aliases without waiting for the responses. Before a message can be sent to a destination, the destination must have
+	 * been added to this dialog.
+	 * <p>
+	 * This method never blocks the calling thread. The returned <code>CompletableFuture</code> is completed when a response or an exception has been returned from all specified destinations, or when
+	 * the specified timeout has elapsed. The <code>DialogueResponseSet</code> it is completed with behaves as the one returned from <code>sendResponseMessage</code>.
+	 * 
+	 * @return a <code>CompletableFuture</code> that is completed with the <code>DialogueResponseSet</code>.
+	 * @param destinationAliases
+	 *            the list of destination aliases to which the message is sent
+	 * @param message
+	 *            the message to send
+	 * @param timeoutMillis
+	 *            the number of milliseconds to wait for a the responses to arrive before giving up.
+	 * @see #sendResponseMessage(List, String, int);
+	 * @exception DialogueException
+	 *                if the message could not be queued for sending
+	 */
+	public CompletableFuture<DialogueResponseSet> sendResponseMessageAsync(List<String> destinationAliases, String message, int timeoutMillis) throws DialogueException;
+
+	/**
+	 * Send a <code>byte</code> message to all the destination with the specified aliases without waiting for the responses. Before a message can be sent to a destination, the destination must have
+	 * been added to this dialog.
+	 * <p>
+	 * This method never blocks the calling thread. The returned <code>CompletableFuture</code> is completed when a response or an exception has been returned from all specified destinations, or when
+	 * the specified timeout has elapsed. The <code>DialogueResponseSet</code> it is completed with behaves as the one returned from <code>sendResponseMessage</code>.
+	 * 
+	 * @return a <code>CompletableFuture</code> that is completed with the <code>DialogueResponseSet</code>.
+	 * @param destinationAliases
+	 *            the list of destination aliases to which the message is sent
+	 * @param message
+	 *            the message to send
+	 * @param timeoutMillis
+	 *            the number of milliseconds to wait for a the responses to arrive before giving up.
+	 * @see #sendResponseMessage(List, byte[], int);
+	 * @exception DialogueException
+	 *                if the message could not be queued for sending
+	 */
+	public CompletableFuture<DialogueResponseSet> sendResponseMessageAsync(List<String> destinationAliases, byte[] message, int timeoutMillis) throws DialogueException;
+
+	/**
+	 * Send a <code>String</code> message to all active destinations without waiting for the responses.
+	 * <p>
+	 * This method never blocks the calling thread. The returned <code>CompletableFuture</code> is completed when a response or an exception has been returned from all active destinations, or when the
+	 * specified timeout has elapsed.
+	 * 
+	 * @return a <code>CompletableFuture</code> that is completed with the <code>DialogueResponseSet</code>.
+	 * @param message
+	 *            the message to send
+	 * @param timeoutMillis
+	 *            the number of milliseconds to wait for a the responses to arrive before giving up.
+	 * @see #sendResponseMessageToAll(String, int);
+	 * @exception DialogueException
+	 *                if the message could not be queued for sending
+	 */
+	public CompletableFuture<DialogueResponseSet> sendResponseMessageToAllAsync(String message, int timeoutMillis) throws DialogueException;
+
+	/**
+	 * Send a <code>byte</code> message to all active destinations without waiting for the responses.
+	 * <p>
+	 * This method never blocks the calling thread. The returned <code>CompletableFuture</code> is completed when a response or an exception has been returned from all active destinations, or when the
+	 * specified timeout has elapsed.
+	 * 
+	 * @return a <code>CompletableFuture</code> that is completed with the <code>DialogueResponseSet</code>.
+	 * @param message
+	 *            the message to send
+	 * @param timeoutMillis
+	 *            the number of milliseconds to wait for a the responses to arrive before giving up.
+	 * @see #sendResponseMessageToAll(byte[], int);
+	 * @exception DialogueException
+	 *                if the message could not be queued for sending
+	 */
+	public CompletableFuture<DialogueResponseSet> sendResponseMessageToAllAsync(byte[] message, int timeoutMillis) throws DialogueException;
+
+	/**
+	 * Get the metrics of all destinations this dialogue has sent to and of all connections currently accepted by its dialogue server.
+	 * 
+	 * @return a list of <code>DialogueMetrics</code>. The list is empty if the dialogue does not collect metrics.
+	 * @see DialogueMetrics
+	 */
+	public List<DialogueMetrics> getMetrics();
+
+	/**
+	 * Get the metrics of a destination.
+	 * 
+	 * @param destinationAlias
+	 *            the alias of the destination.
+	 * @return the <code>DialogueMetrics</code> of the destination, or <code>null</code> if the destination is not active in this dialogue or the dialogue does not collect metrics.
+	 * @see DialogueMetrics
+	 */
+	public DialogueMetrics getMetrics(String destinationAlias);
+
 	/**
 	 * Set the configuration options to use in this dialogue. For options to become effective, they must be set prior to starting the dialogue. If options are set after the dialogue is started they
 	 * will not be applied until the dialogue is restarted.
@@ -0,0 +1,24 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.api;
+
+import java.util.List;
+
+/**
+ * The interface <code>DialogueBatchListener</code> defines the interface for a Dialogue batch listener. Batch listeners are used when the <code>Dialogue</code> receives incoming messages in large
+ * numbers and handling them one call at a time is too costly.
+ */
+
+public interface DialogueBatchListener {
+
+	/**
+	 * Handle a batch of received messages. The messages are in the order they were received. Messages received on the same connection (or sharing the same ordering key) are never split across
+	 * concurrent calls.
+	 * 
+	 * @param dialogMessages
+	 *            the <code>DialogueServerMessage</code> that were received.
+	 * @see Dialogue.#addBatchListener(DialogueBatchListener)
+	 */
+	public void messagesRecieved(List<DialogueServerMessage> dialogMessages);
+
+}
@@ -0,0 +1,25 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.api;
+
+import com.ss.framework.dialogue.DialogueException;
+
+/**
+ * The interface <code>DialogueErrorListener</code> defines the interface for a Dialogue error listener. Error listeners are notified when messages that were queued without waiting for the
+ * connection could not be delivered.
+ */
+
+public interface DialogueErrorListener {
+
+	/**
+	 * Handle a failure to deliver one or more queued messages to a destination.
+	 * 
+	 * @param destinationAlias
+	 *            the alias of the destination the messages were sent to.
+	 * @param exception
+	 *            the cause of the failure. A <code>DialogueConnectionException</code> if the connection to the destination could not be established.
+	 * @see Dialogue.#addErrorListener(DialogueErrorListener)
+	 */
+	public void sendFailed(String destinationAlias, DialogueException exception);
+
+}
@@ -4,12 +4,18 @@ package com.ss.framework.dialogue.api;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.UnixDomainSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 
 import com.ss.framework.dialogue.DialogueEngine;
 import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.inprocess.InProcessDestination;
+import com.ss.framework.dialogue.inprocess.InProcessDialogueEngine;
 import com.ss.framework.dialogue.ip.SocketDestination;
 import com.ss.framework.dialogue.ip.SocketDialogueEngine;
+import com.ss.framework.dialogue.shm.SharedMemoryDestination;
+import com.ss.framework.dialogue.shm.SharedMemoryDialogueEngine;
 
 
 public class DialogueFactory {
@@ -160,4 +166,119 @@ public class DialogueFactory {
 		return new SocketDestination(destinationAlias, address, port);
 
 	}
+
+	/**
+	 * Create a <code>Dialogue</code> for communication between processes on the same host. The created <code>Dialogue</code> listens for incoming messages on a Unix domain socket bound to the
+	 * specified file. Messages go through the same framing as an IP based dialogue, but skip the TCP/IP stack.
+	 * <p>
+	 * A socket file left behind by a dialogue that is no longer running is replaced when the dialogue is started, and the file is removed when the dialogue is stopped. To create a dialogue that
+	 * will act as a client only, specify <code>null</code> as the socket file. Any IP based dialogue can also send to local destinations.
+	 * 
+	 * @return a new <code>Dialogue</code>
+	 * @param socketFile
+	 *            the path of the socket file to listen to or <code>null</code> if client only mode.
+	 * @see #createLocalDestination(String, Path);
+	 * @exception DialogueException
+	 *                if the dialogue could not be created.
+	 */
+	public static Dialogue createLocalDialogue(Path socketFile) throws DialogueException {
+		try {
+			DialogueEngine engine = new SocketDialogueEngine(socketFile != null ? UnixDomainSocketAddress.of(socketFile) : null);
+			return engine.getDialogue();
+		} catch (IOException e) {
+			throw new DialogueException("Error during dialogue creation", e);
+		}
+	}
+
+	/**
+	 * Create a <code>Destination</code> for a <code>Dialogue</code> on the same host, listening to a Unix domain socket.
+	 * 
+	 * @return a new <code>Destination</code> for a local dialogue
+	 * @param destinationAlias
+	 *            the alias for the destination. The alias is used when communicating with the destination through <code>Dialogue</code>.
+	 * @param socketFile
+	 *            the path of the socket file that the destination dialogue is listening to.
+	 * @see #createLocalDialogue(Path);
+	 * @exception DialogueException
+	 *                if the destination could not be created.
+	 */
+	public static Destination createLocalDestination(String destinationAlias, Path socketFile) throws DialogueException {
+		if (socketFile == null)
+			throw new DialogueException("Socket file of the destination must be specified");
+		return new SocketDestination(destinationAlias, UnixDomainSocketAddress.of(socketFile));
+
+	}
+
+	/**
+	 * Create an in-process <code>Dialogue</code>. In-process dialogues exchange messages with other in-process dialogues in the same JVM without going through the network. Messages are handed
+	 * directly to the listeners of the receiving dialogue, so they cost a fraction of a message sent through a loopback connection.
+	 * <p>
+	 * Other in-process dialogues send to this dialogue through destinations created with the <code>createInProcessDestination</code> method, using the name given here. Only one dialogue with a
+	 * given name can be started at a time.
+	 * 
+	 * @return a new in-process <code>Dialogue</code>
+	 * @param name
+	 *            the name of the dialogue, unique within the JVM.
+	 * @see #createInProcessDestination(String, String);
+	 * @exception DialogueException
+	 *                if the dialogue could not be created.
+	 */
+	public static Dialogue createInProcessDialogue(String name) throws DialogueException {
+		DialogueEngine engine = new InProcessDialogueEngine(name);
+		return engine.getDialogue();
+	}
+
+	/**
+	 * Create a <code>Destination</code> for an in-process <code>Dialogue</code>.
+	 * 
+	 * @return a new <code>Destination</code> for an in-process dialogue
+	 * @param destinationAlias
+	 *            the alias for the destination. The alias is used when communicating with the destination through <code>Dialogue</code>.
+	 * @param dialogueName
+	 *            the name of the in-process dialogue to send to.
+	 * @see #createInProcessDialogue(String);
+	 * @exception DialogueException
+	 *                if the destination could not be created.
+	 */
+	public static Destination createInProcessDestination(String destinationAlias, String dialogueName) throws DialogueException {
+		return new InProcessDestination(destinationAlias, dialogueName);
+
+	}
+
+	/**
+	 * Create a shared memory <code>Dialogue</code> for communication between processes on the same host. The created <code>Dialogue</code> serves a memory mapped file holding two rings for each
+	 * client, one for incoming messages and one for the responses to them. Messages are copied into and out of the rings without any system calls, so they cost a fraction of a message sent through a socket.
+	 * <p>
+	 * The number of clients that can send to the file at the same time is set by the <code>MAX_CLIENTS</code> option. The listeners are called on the thread reading the rings, so a slow listener
+	 * holds up the messages behind it. A file left behind by a dialogue that is no longer running is replaced when the dialogue is started, and the file is removed when the dialogue is stopped. To
+	 * create a dialogue that will act as a client only, specify <code>null</code> as the file.
+	 * 
+	 * @return a new shared memory <code>Dialogue</code>
+	 * @param file
+	 *            the path of the shared memory file to serve or <code>null</code> if client only mode.
+	 * @see #createSharedMemoryDestination(String, Path);
+	 * @exception DialogueException
+	 *                if the dialogue could not be created.
+	 */
+	public static Dialogue createSharedMemoryDialogue(Path file) throws DialogueException {
+		DialogueEngine engine = new SharedMemoryDialogueEngine(file);
+		return engine.getDialogue();
+	}
+
+	/**
+	 * Create a <code>Destination</code> for a shared memory <code>Dialogue</code>.
+	 * 
+	 * @return a new <code>Destination</code> for a shared memory dialogue
+	 * @param destinationAlias
+	 *            the alias for the destination. The alias is used when communicating with the destination through <code>Dialogue</code>.
+	 * @param file
+	 *            the path of the shared memory file served by the destination dialogue.
+	 * @see #createSharedMemoryDialogue(Path);
+	 * @exception DialogueException
+	 *                if the destination could not be created.
+	 */
+	public static Destination createSharedMemoryDestination(String destinationAlias, Path file) throws DialogueException {
+		return new SharedMemoryDestination(destinationAlias, file);
+
+	}
 }
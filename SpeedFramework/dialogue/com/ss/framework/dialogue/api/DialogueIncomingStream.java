@@ -0,0 +1,46 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The interface <code>DialogueIncomingStream</code> defines the interface for a stream of data received from a remote dialogue. The data is read as it arrives, and only the data not read yet is
+ * held in memory, however long the stream is.
+ */
+
+public interface DialogueIncomingStream extends ReadableByteChannel {
+
+	/**
+	 * Get the name the sender gave the stream, such as the name of the file sent with <code>Dialogue.sendFile</code>.
+	 * 
+	 * @return the name of the stream, or <code>null</code> if the stream was opened without a name
+	 */
+	public String getName();
+
+	/**
+	 * Read up to <code>len</code> bytes of the stream into the specified array. The call blocks until data arrives, the stream ends or the stream breaks off.
+	 * 
+	 * @param b
+	 *            the array the data is read into
+	 * @param off
+	 *            the offset in the array of the first byte read
+	 * @param len
+	 *            the largest number of bytes to read
+	 * @return the number of bytes read, or -1 at the end of the stream
+	 * @exception IOException
+	 *                if the stream broke off before its end, such as when the sender went away
+	 */
+	public int read(byte[] b, int off, int len) throws IOException;
+
+	/**
+	 * Get the stream as an <code>InputStream</code>, for code that reads from streams rather than channels. Reading from the <code>InputStream</code> reads from this stream, and closing it
+	 * closes this stream.
+	 * 
+	 * @return this stream as an <code>InputStream</code>
+	 */
+	public InputStream getInputStream();
+
+}
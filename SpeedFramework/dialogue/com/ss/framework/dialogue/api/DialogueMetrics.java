@@ -0,0 +1,168 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.api;
+
+import javax.management.MXBean;
+
+/**
+ * The interface <code>DialogueMetrics</code> defines the traffic statistics kept by a dialogue. A dialogue keeps one set of metrics for each destination it sends to, one for each connection
+ * accepted by its dialogue server and one for its multicast group, if it has one.
+ * <p>
+ * While the dialogue is started its metrics are registered as MBeans with the platform MBean server, under the domain <code>com.ss.framework.dialogue</code>. The counters are striped so they can
+ * be left on in production. Metrics are collected unless the dialogue's <code>METRICS</code> option is set to false.
+ * <p>
+ * Latencies are kept in histograms with a precision of about 25% and are reported in microseconds.
+ *
+ * @see Dialogue#getMetrics()
+ * @see Dialogue#getMetrics(String)
+ */
+
+@MXBean
+public interface DialogueMetrics {
+
+	/**
+	 * Get the name of the metrics. This is the alias of the destination, the remote address of the connection or <code>multicast</code> followed by the multicast group.
+	 *
+	 * @return the name of the metrics.
+	 */
+	public String getName();
+
+	/**
+	 * Get the type of the metrics.
+	 *
+	 * @return <code>destination</code> for the metrics of a destination, <code>connection</code> for the metrics of a connection accepted by the dialogue server.
+	 */
+	public String getType();
+
+	/**
+	 * Get the number of messages written. A batch of messages counts as one message.
+	 *
+	 * @return the number of messages written.
+	 */
+	public long getMessagesSent();
+
+	/**
+	 * Get the number of bytes written, including the frame headers.
+	 *
+	 * @return the number of bytes written.
+	 */
+	public long getBytesSent();
+
+	/**
+	 * Get the number of messages received. A batch of messages counts as one message.
+	 *
+	 * @return the number of messages received.
+	 */
+	public long getMessagesReceived();
+
+	/**
+	 * Get the number of bytes received, including the frame headers.
+	 *
+	 * @return the number of bytes received.
+	 */
+	public long getBytesReceived();
+
+	/**
+	 * Get the number of messages currently queued and not yet completely written.
+	 *
+	 * @return the number of messages queued.
+	 */
+	public long getQueuedMessages();
+
+	/**
+	 * Get the number of bytes currently queued and not yet completely written.
+	 *
+	 * @return the number of bytes queued.
+	 */
+	public long getQueuedBytes();
+
+	/**
+	 * Get the number of connections established.
+	 *
+	 * @return the number of connections established.
+	 */
+	public long getConnects();
+
+	/**
+	 * Get the number of connections opened to replace a connection that was closed, failed or reached the end of its lifetime.
+	 *
+	 * @return the number of reconnects.
+	 */
+	public long getReconnects();
+
+	/**
+	 * Get the number of errors. Failed connections, broken connections, invalid frames received, messages rejected or dropped because the send queue was full and lost multicast messages are counted as errors.
+	 *
+	 * @return the number of errors.
+	 */
+	public long getErrors();
+
+	/**
+	 * Get the number of responses received to response messages.
+	 *
+	 * @return the number of responses received.
+	 */
+	public long getResponses();
+
+	/**
+	 * Get the median time from sending a response message until its response was received.
+	 *
+	 * @return the median round-trip latency in microseconds.
+	 */
+	public long getResponseLatency50thMicros();
+
+	/**
+	 * Get the 99th percentile of the time from sending a response message until its response was received.
+	 *
+	 * @return the 99th percentile round-trip latency in microseconds.
+	 */
+	public long getResponseLatency99thMicros();
+
+	/**
+	 * Get the 99.9th percentile of the time from sending a response message until its response was received.
+	 *
+	 * @return the 99.9th percentile round-trip latency in microseconds.
+	 */
+	public long getResponseLatency999thMicros();
+
+	/**
+	 * Get the longest time from sending a response message until its response was received.
+	 *
+	 * @return the maximum round-trip latency in microseconds.
+	 */
+	public long getResponseLatencyMaxMicros();
+
+	/**
+	 * Get the median time received messages waited before being passed to the dialogue listeners.
+	 *
+	 * @return the median queue wait time in microseconds.
+	 */
+	public long getQueueWait50thMicros();
+
+	/**
+	 * Get the 99th percentile of the time received messages waited before being passed to the dialogue listeners.
+	 *
+	 * @return the 99th percentile queue wait time in microseconds.
+	 */
+	public long getQueueWait99thMicros();
+
+	/**
+	 * Get the 99.9th percentile of the time received messages waited before being passed to the dialogue listeners.
+	 *
+	 * @return the 99.9th percentile queue wait time in microseconds.
+	 */
+	public long getQueueWait999thMicros();
+
+	/**
+	 * Get the longest time a received message waited before being passed to the dialogue listeners.
+	 *
+	 * @return the maximum queue wait time in microseconds.
+	 */
+	public long getQueueWaitMaxMicros();
+
+	/**
+	 * Reset the counters and histograms. The number of messages and bytes queued are not reset.
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,23 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.api;
+
+/**
+ * The interface <code>DialogueOrderingKeyExtractor</code> defines how incoming messages are grouped when they are processed in parallel. Messages that share the same ordering key are passed to the
+ * dialogue listeners one at a time and in the order they were received. Messages with different ordering keys may be processed concurrently.
+ * <p>
+ * If no extractor is set on the dialogue, messages are ordered per connection.
+ */
+
+public interface DialogueOrderingKeyExtractor {
+
+	/**
+	 * Get the ordering key of the received message.
+	 * 
+	 * @param dialogMessage
+	 *            the received <code>DialogueServerMessage</code>.
+	 * @return the ordering key of the message, or <code>null</code> to order the message with the other messages received on the same connection.
+	 */
+	public Object getOrderingKey(DialogueServerMessage dialogMessage);
+
+}
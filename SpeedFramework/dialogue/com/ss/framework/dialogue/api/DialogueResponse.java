@@ -14,6 +14,7 @@ package com.ss.framework.dialogue.api;
  */
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import com.ss.framework.dialogue.DialogueConnectionException;
 import com.ss.framework.dialogue.DialogueException;
@@ -57,16 +58,31 @@ public interface DialogueResponse {
 	public String getString(String charsetName) throws DialogueConnectionException, DialogueException, UnsupportedEncodingException;
 
 	/**
-	 * Get the response data as an array of bytes.
+	 * Get the response data as an array of bytes. The array is a copy of the received data, made the first time this method is called. Use <code>getByteBuffer</code> to read the data without
+	 * copying it.
 	 * 
 	 * @return the received response as an array of bytes or <code>null</code> if no response was received
 	 * @exception DialogueConnectionException
 	 *                if an the connection with the destination dialogue could not be established
 	 * @exception DialogueException
 	 *                if an error occurred during the communication.
+	 * @see #getByteBuffer()
 	 */
 	public byte[] getBytes() throws DialogueConnectionException, DialogueException;
 
+	/**
+	 * Get the response data as a read-only <code>ByteBuffer</code>. The buffer is a view of the received data, no copy is made. Each call returns a new view with its own position, starting at the
+	 * first byte of the response.
+	 * 
+	 * @return a read-only view of the received response or <code>null</code> if no response was received
+	 * @exception DialogueConnectionException
+	 *                if an the connection with the destination dialogue could not be established
+	 * @exception DialogueException
+	 *                if an error occurred during the communication.
+	 * @see #getBytes()
+	 */
+	public ByteBuffer getByteBuffer() throws DialogueConnectionException, DialogueException;
+
 	/**
 	 * Get the exception that occured while trying to communicate with the remote dialogue. If the communication was normal, this method will return <code>null</code>.
 	 * 
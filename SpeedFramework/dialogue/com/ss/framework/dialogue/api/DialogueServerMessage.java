@@ -3,6 +3,7 @@
 package com.ss.framework.dialogue.api;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import com.ss.framework.dialogue.DialogueException;
 
@@ -37,12 +38,23 @@ public interface DialogueServerMessage {
 	public String getString(String charSetName) throws UnsupportedEncodingException;
 
 	/**
-	 * Get the message data as an array of bytes.
+	 * Get the message data as an array of bytes. The array is a copy of the received data, made the first time this method is called. Use <code>getByteBuffer</code> to read the data without
+	 * copying it.
 	 * 
 	 * @return the message data an array of bytes
+	 * @see #getByteBuffer()
 	 */
 	public byte[] getBytes();
 
+	/**
+	 * Get the message data as a read-only <code>ByteBuffer</code>. The buffer is a view of the received data, no copy is made. Each call returns a new view with its own position, starting at the
+	 * first byte of the message.
+	 * 
+	 * @return a read-only view of the message data
+	 * @see #getBytes()
+	 */
+	public ByteBuffer getByteBuffer();
+
 	/**
 	 * Get the response requested flag. This method returns <code>true</code> if the client requested a response to the message, otherwise <code>false</code>.
 	 * 
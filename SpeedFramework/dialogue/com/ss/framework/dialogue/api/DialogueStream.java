@@ -0,0 +1,63 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.api;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The interface <code>DialogueStream</code> defines the interface for a stream of data sent to a destination. The data written is gathered into chunks, and each chunk is sent as soon as it is
+ * full. Closing the stream sends the data still held and marks the end of the stream.
+ */
+
+public interface DialogueStream extends WritableByteChannel, Flushable {
+
+	/**
+	 * Get the alias of the destination the stream is sent to.
+	 * 
+	 * @return the alias of the destination
+	 */
+	public String getDestinationAlias();
+
+	/**
+	 * Write the specified bytes to the stream. The call blocks while the destination reads the stream slower than it is written.
+	 * 
+	 * @param b
+	 *            the bytes to write
+	 * @param off
+	 *            the offset of the first byte to write
+	 * @param len
+	 *            the number of bytes to write
+	 * @exception IOException
+	 *                if the stream is closed, or the data could not be sent
+	 */
+	public void write(byte[] b, int off, int len) throws IOException;
+
+	/**
+	 * Send the data written so far, even if it does not fill a chunk.
+	 * 
+	 * @exception IOException
+	 *                if the stream is closed, or the data could not be sent
+	 */
+	public void flush() throws IOException;
+
+	/**
+	 * Break the stream off. The data not sent yet is discarded, and the remote dialogue reads an <code>IOException</code> instead of the end of the stream. Does nothing once the stream has been
+	 * closed.
+	 * 
+	 * @exception IOException
+	 *                if the remote dialogue could not be told the stream was broken off
+	 */
+	public void abort() throws IOException;
+
+	/**
+	 * Get the stream as an <code>OutputStream</code>, for code that writes to streams rather than channels. Writing to the <code>OutputStream</code> writes to this stream, and closing it closes
+	 * this stream.
+	 * 
+	 * @return this stream as an <code>OutputStream</code>
+	 */
+	public OutputStream getOutputStream();
+
+}
@@ -0,0 +1,26 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.api;
+
+/**
+ * The interface <code>DialogueStreamListener</code> defines the interface for a Dialogue stream listener. Stream listeners are used when the <code>Dialogue</code> receives streams of data too large
+ * to be held in memory as a single message.
+ */
+
+public interface DialogueStreamListener {
+
+	/**
+	 * Handle a received stream. The listener is called on a thread of its own as soon as the stream starts to arrive, and reads the data as it comes in. The stream is closed once the stream
+	 * listeners have returned, so a listener must read the data it wants before returning.
+	 * <p>
+	 * The <code>DialogueIncomingStream</code> is a <code>ReadableByteChannel</code>, and is read as an <code>InputStream</code> through <code>getInputStream</code>. Reading it throws an
+	 * <code>IOException</code> if the stream breaks off before its end, such as when the sender goes away.
+	 *
+	 * @param stream
+	 *            the <code>DialogueIncomingStream</code> the data of the stream is read from.
+	 * @see Dialogue.#addStreamListener(DialogueStreamListener)
+	 * @see Dialogue.#openStream(String)
+	 */
+	public void streamRecieved(DialogueIncomingStream stream);
+
+}
@@ -0,0 +1,34 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.benchmark;
+
+/**
+ * A single benchmark run by the <code>BenchmarkRunner</code>. The runner calls <code>setUp</code> once, then calls <code>operation</code> repeatedly while it measures throughput and latency, and
+ * finally calls <code>tearDown</code>.
+ */
+public abstract class Benchmark {
+
+	protected String name;
+
+	public Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setUp() throws Exception {
+	}
+
+	// The operation measured. Each call counts as one operation.
+	public abstract void operation() throws Exception;
+
+	// Called when the measurement is over, before tearDown. Lets a benchmark wait for work it has only queued.
+	public void drain() throws Exception {
+	}
+
+	public void tearDown() throws Exception {
+	}
+
+}
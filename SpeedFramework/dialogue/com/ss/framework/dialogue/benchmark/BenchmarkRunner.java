@@ -0,0 +1,173 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs benchmarks and prints their throughput and latency. Every benchmark gets a warmup phase followed by a number of measured iterations. The throughput is the mean over the measured iterations,
+ * the latency percentiles are taken over every operation of the measured iterations.
+ * <p>
+ * Each benchmark runs in a JVM of its own, started with the JVM arguments of the runner, so that the code compiled, the garbage collected and the threads left behind by one benchmark do not change
+ * the results of the next.
+ * <p>
+ * The runner accepts the following arguments:
+ * <ul>
+ * <li><code>-w seconds</code> warmup time (default 2)</li>
+ * <li><code>-i count</code> number of measured iterations (default 5)</li>
+ * <li><code>-t seconds</code> time of each measured iteration (default 2)</li>
+ * <li><code>-f regex</code> only run the benchmarks whose name contains a match of the expression</li>
+ * <li><code>-forks count</code> number of JVMs each benchmark is run in, one after the other (default 1). With 0 the benchmarks run in the JVM of the runner.</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+
+	// Largest number of latency samples kept per benchmark
+	protected static final int MAX_SAMPLES = 4000000;
+
+	protected int warmupSeconds = 2;
+
+	protected int iterations = 5;
+
+	protected int iterationSeconds = 2;
+
+	protected Pattern filter;
+
+	protected int forks = 1;
+
+	// The class whose main method adds the benchmarks, and its arguments. A forked JVM runs the same main
+	// method with the name of the one benchmark it is to run added to the arguments.
+	protected Class<?> mainClass;
+
+	protected String[] args;
+
+	// Set in a forked JVM to the name of the benchmark it runs
+	protected String forkedBenchmark;
+
+	protected List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+	public BenchmarkRunner(Class<?> mainClass, String[] args) {
+		this.mainClass = mainClass;
+		this.args = args;
+		if (args.length % 2 != 0)
+			throw new IllegalArgumentException("Missing value for argument: " + args[args.length - 1]);
+		for (int i = 0; i < args.length; i += 2) {
+			if (args[i].equals("-w"))
+				warmupSeconds = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-i"))
+				iterations = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-t"))
+				iterationSeconds = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-f"))
+				filter = Pattern.compile(args[i + 1]);
+			else if (args[i].equals("-forks"))
+				forks = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-benchmark"))
+				forkedBenchmark = args[i + 1];
+			else
+				throw new IllegalArgumentException("Unknown argument: " + args[i]);
+		}
+	}
+
+	public void add(Benchmark benchmark) {
+		if (forkedBenchmark != null ? forkedBenchmark.equals(benchmark.getName()) : filter == null || filter.matcher(benchmark.getName()).find())
+			benchmarks.add(benchmark);
+	}
+
+	public void run() {
+		if (forkedBenchmark == null)
+			System.out.println(String.format("%-48s %14s %10s %10s %10s %10s", "Benchmark", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us"));
+		for (Benchmark benchmark : benchmarks) {
+			try {
+				if (forkedBenchmark != null || forks == 0)
+					run(benchmark);
+				else {
+					for (int i = 0; i < forks; i++)
+						fork(benchmark);
+				}
+			} catch (Exception e) {
+				System.out.println(String.format("%-48s failed: %s", benchmark.getName(), e));
+			}
+		}
+	}
+
+	// Run the benchmark in a new JVM and pass on what it prints
+	protected void fork(Benchmark benchmark) throws Exception {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(mainClass.getName());
+		command.addAll(Arrays.asList(args));
+		command.add("-benchmark");
+		command.add(benchmark.getName());
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		for (String line = reader.readLine(); line != null; line = reader.readLine())
+			System.out.println(line);
+		int exitValue = process.waitFor();
+		if (exitValue != 0)
+			System.out.println(String.format("%-48s failed: the JVM exited with %d", benchmark.getName(), exitValue));
+	}
+
+	protected void run(Benchmark benchmark) throws Exception {
+		// The samples are allocated before the benchmark starts, so that no allocation or copying of samples
+		// is measured as part of an operation
+		long[] samples = new long[MAX_SAMPLES];
+		int sampleCount = 0;
+
+		benchmark.setUp();
+		try {
+			// Warm up
+			long end = System.nanoTime() + warmupSeconds * 1000000000L;
+			while (System.nanoTime() < end)
+				benchmark.operation();
+			benchmark.drain();
+
+			// Measure
+			double totalOpsPerSecond = 0;
+			for (int i = 0; i < iterations; i++) {
+				long operations = 0;
+				long start = System.nanoTime();
+				end = start + iterationSeconds * 1000000000L;
+				long now = start;
+				while (now < end) {
+					benchmark.operation();
+					long done = System.nanoTime();
+					if (sampleCount < samples.length)
+						samples[sampleCount++] = done - now;
+					now = done;
+					operations++;
+				}
+				benchmark.drain();
+				totalOpsPerSecond += operations * 1000000000.0 / (System.nanoTime() - start);
+			}
+
+			Arrays.sort(samples, 0, sampleCount);
+			System.out.println(String.format("%-48s %14.1f %10.1f %10.1f %10.1f %10.1f", benchmark.getName(), totalOpsPerSecond / iterations, percentile(samples, sampleCount, 50), percentile(samples,
+					sampleCount, 99), percentile(samples, sampleCount, 99.9), percentile(samples, sampleCount, 100)));
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	// The latency (in microseconds) at the specified percentile of the sorted samples
+	protected double percentile(long[] samples, int sampleCount, double percentile) {
+		if (sampleCount == 0)
+			return 0;
+		int index = (int) Math.ceil(percentile / 100 * sampleCount) - 1;
+		return samples[Math.max(0, Math.min(index, sampleCount - 1))] / 1000.0;
+	}
+
+}
@@ -0,0 +1,246 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.api.DialogueListener;
+import com.ss.framework.dialogue.api.DialogueServerMessage;
+import com.ss.framework.dialogue.ip.NonBlockingSocketTransport;
+import com.ss.framework.dialogue.ip.SocketBufferPool;
+import com.ss.framework.dialogue.ip.SocketDataProcessor;
+import com.ss.framework.dialogue.ip.SocketDialogue;
+import com.ss.framework.dialogue.ip.SocketDialogueEngine;
+import com.ss.framework.dialogue.ip.SocketDialogueServerMessage;
+import com.ss.framework.dialogue.ip.SocketFrame;
+import com.ss.framework.dialogue.ip.SocketFrameDecoder;
+
+/**
+ * Measures the transport components without any network I/O:
+ * <ul>
+ * <li><code>frameEncode</code>: encoding a message into a frame ready to be written, with and without the buffer pool</li>
+ * <li><code>frameDecode</code>: decoding frames from a channel into messages</li>
+ * <li><code>batchDecode</code>: splitting a batch frame into its messages</li>
+ * <li><code>dispatch</code>: passing messages through the <code>SocketDataProcessor</code> to a listener</li>
+ * </ul>
+ * See <code>BenchmarkRunner</code> for the arguments.
+ */
+public class ComponentBenchmark {
+
+	protected static final int[] MESSAGE_SIZES = { 16, 256, 4096, 65536, 1048576 };
+
+	public static void main(String[] args) {
+		BenchmarkRunner runner = new BenchmarkRunner(ComponentBenchmark.class, args);
+
+		for (int size : MESSAGE_SIZES) {
+			runner.add(new FrameEncode(size, false));
+			runner.add(new FrameEncode(size, true));
+		}
+		for (int size : MESSAGE_SIZES)
+			runner.add(new FrameDecode(size));
+		runner.add(new BatchDecode(100, 64));
+		runner.add(new Dispatch(1, 1));
+		runner.add(new Dispatch(4, 64));
+
+		runner.run();
+
+	}
+
+	// Gives the benchmarks access to the frame encoding of the transport
+	protected static class EncodingTransport extends NonBlockingSocketTransport {
+
+		protected Selector initSelector() throws IOException {
+			return null;
+		}
+
+		// Encode a frame the way it is queued for writing and hand back the buffers the selecting thread would
+		// write
+		protected int encode(byte[] data, ByteBuffer[] buffers) {
+			SendRequest sendRequest = createSendRequest(data, false, NO_REQUEST_ID);
+			int count = sendRequest.gather(buffers, 0);
+			sendRequest.release(bufferPool);
+			return count;
+		}
+
+		// Encode a frame and copy it to the specified buffer
+		protected void encode(byte[] data, ByteBuffer target) {
+			ByteBuffer[] buffers = new ByteBuffer[2];
+			int count = encode(data, buffers);
+			for (int i = 0; i < count; i++)
+				target.put(buffers[i]);
+		}
+
+	}
+
+	// A channel that reads the same bytes over and over. A read never goes past the end of the bytes, so the
+	// decoder sees the channel drained once per pass.
+	protected static class RepeatingChannel implements ReadableByteChannel {
+
+		protected ByteBuffer content;
+
+		public RepeatingChannel(ByteBuffer content) {
+			this.content = content;
+		}
+
+		public int read(ByteBuffer dst) {
+			if (content.hasRemaining() == false) {
+				content.rewind();
+				return 0;
+			}
+
+			int length = Math.min(dst.remaining(), content.remaining());
+			ByteBuffer slice = content.slice();
+			slice.limit(length);
+			dst.put(slice);
+			content.position(content.position() + length);
+			return length;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+
+	}
+
+	protected static class FrameEncode extends Benchmark {
+
+		protected byte[] message;
+
+		protected ByteBuffer[] buffers = new ByteBuffer[2];
+
+		protected EncodingTransport transport = new EncodingTransport();
+
+		public FrameEncode(int size, boolean pooled) {
+			super("frameEncode/" + (pooled ? "pooled/" : "heap/") + size + "B");
+			message = new byte[size];
+			if (pooled)
+				transport.setBufferPool(new SocketBufferPool(2097152, 33554432, false));
+		}
+
+		public void operation() {
+			transport.encode(message, buffers);
+		}
+
+	}
+
+	protected static class FrameDecode extends Benchmark {
+
+		protected SocketFrameDecoder decoder = new SocketFrameDecoder(new SocketBufferPool(1048576, 33554432, false));
+
+		protected RepeatingChannel channel;
+
+		protected List<SocketFrame> frames = new ArrayList<SocketFrame>();
+
+		public FrameDecode(int size) {
+			super("frameDecode/" + size + "B");
+			ByteBuffer content = ByteBuffer.allocate(SocketFrameDecoder.HEADER_SIZE + size);
+			new EncodingTransport().encode(new byte[size], content);
+			content.flip();
+			channel = new RepeatingChannel(content);
+		}
+
+		// Decode until at least one frame is complete
+		public void operation() throws IOException {
+			frames.clear();
+			while (frames.isEmpty())
+				decoder.decode(channel, frames);
+		}
+
+	}
+
+	protected static class BatchDecode extends Benchmark {
+
+		protected ByteBuffer batch;
+
+		public BatchDecode(int messages, int size) {
+			super("batchDecode/" + messages + "x" + size + "B");
+			List<byte[]> list = new ArrayList<byte[]>();
+			for (int i = 0; i < messages; i++)
+				list.add(new byte[size]);
+			batch = ByteBuffer.wrap(SocketFrame.encodeBatch(list));
+		}
+
+		public void operation() throws IOException {
+			SocketFrame.decodeBatch(batch);
+		}
+
+	}
+
+	protected static class Dispatch extends Benchmark {
+
+		protected int threads;
+
+		protected SocketChannel[] connections;
+
+		protected SocketDataProcessor dataProcessor;
+
+		protected AtomicLong received = new AtomicLong();
+
+		protected long sent;
+
+		protected ByteBuffer message = ByteBuffer.wrap(new byte[64]);
+
+		public Dispatch(int threads, int connections) {
+			super("dispatch/" + threads + "threads/" + connections + "conn");
+			this.threads = threads;
+			this.connections = new SocketChannel[connections];
+		}
+
+		public void setUp() throws Exception {
+			// The connections are only used as ordering keys, they are never connected
+			for (int i = 0; i < connections.length; i++)
+				connections[i] = SocketChannel.open();
+
+			SocketDialogue dialogue = (SocketDialogue) new SocketDialogueEngine(0).getDialogue();
+			Map<String, Object> options = new HashMap<String, Object>(dialogue.getOptions());
+			options.put(SocketDialogue.DATA_PROCESSOR_THREADS, threads);
+			options.put(SocketDialogue.DATA_PROCESSOR_MAX_THREADS, threads);
+			dialogue.setOptions(options);
+			dialogue.addListener(new DialogueListener() {
+
+				public void messageRecieved(DialogueServerMessage dialogMessage) {
+					received.incrementAndGet();
+				}
+			});
+
+			dataProcessor = new SocketDataProcessor(dialogue);
+			dataProcessor.start();
+			new Thread(dataProcessor, "DataProcessor").start();
+		}
+
+		public void operation() throws IOException {
+			dataProcessor.processData(null, connections[(int) (sent % connections.length)], message, SocketDialogueServerMessage.TYPE_NORMAL, NonBlockingSocketTransport.NO_REQUEST_ID);
+			sent++;
+		}
+
+		public void drain() throws Exception {
+			long end = System.currentTimeMillis() + 30000;
+			while (received.get() < sent) {
+				if (System.currentTimeMillis() > end)
+					throw new DialogueException("Timed out waiting for " + (sent - received.get()) + " messages to be dispatched");
+				Thread.yield();
+			}
+		}
+
+		public void tearDown() throws Exception {
+			dataProcessor.stop();
+			for (SocketChannel connection : connections)
+				connection.close();
+		}
+
+	}
+
+}
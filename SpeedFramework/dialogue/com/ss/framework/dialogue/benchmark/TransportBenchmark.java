@@ -0,0 +1,190 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.api.Dialogue;
+import com.ss.framework.dialogue.api.DialogueFactory;
+import com.ss.framework.dialogue.api.DialogueListener;
+import com.ss.framework.dialogue.api.DialogueResponseSet;
+import com.ss.framework.dialogue.api.DialogueServerMessage;
+
+/**
+ * Measures the dialogue transport end to end over the loopback interface. Echo servers are started in the same JVM on consecutive ports from the <code>benchmark.port</code> system property (default
+ * 19000), one per destination. The benchmarks are:
+ * <ul>
+ * <li><code>sendMessage</code>: one way messages, each counted once the server has received it</li>
+ * <li><code>sendResponseMessage</code>: request/response round trips to one destination</li>
+ * <li><code>sendResponseMessageToAll</code>: request/response round trips to 1 to 64 destinations</li>
+ * </ul>
+ * Message sizes range from 16 bytes to 1 MB. See <code>BenchmarkRunner</code> for the arguments.
+ */
+public class TransportBenchmark {
+
+	protected static final int[] MESSAGE_SIZES = { 16, 256, 4096, 65536, 1048576 };
+
+	protected static final int[] DESTINATION_COUNTS = { 1, 4, 16, 64 };
+
+	protected static final int[] TO_ALL_MESSAGE_SIZES = { 16, 4096, 65536 };
+
+	protected static final int TIMEOUT_MILLIS = 30000;
+
+	protected int basePort;
+
+	// The echo servers started so far. Server i is the destination with alias "D" + i.
+	protected List<Dialogue> servers = new ArrayList<Dialogue>();
+
+	// Number of messages received by all servers
+	protected AtomicLong received = new AtomicLong();
+
+	public TransportBenchmark(int basePort) {
+		this.basePort = basePort;
+	}
+
+	public static void main(String[] args) {
+		TransportBenchmark transportBenchmark = new TransportBenchmark(Integer.getInteger("benchmark.port", 19000));
+		BenchmarkRunner runner = new BenchmarkRunner(TransportBenchmark.class, args);
+
+		for (int size : MESSAGE_SIZES)
+			runner.add(transportBenchmark.new SendMessage(size));
+		for (int size : MESSAGE_SIZES)
+			runner.add(transportBenchmark.new SendResponseMessage(size));
+		for (int destinations : DESTINATION_COUNTS) {
+			for (int size : TO_ALL_MESSAGE_SIZES)
+				runner.add(transportBenchmark.new SendResponseMessageToAll(destinations, size));
+		}
+
+		try {
+			runner.run();
+		} finally {
+			transportBenchmark.stopServers();
+		}
+
+	}
+
+	// Make sure the specified number of echo servers are running
+	protected void startServers(int count) throws DialogueException {
+		DialogueListener listener = new DialogueListener() {
+
+			public void messageRecieved(DialogueServerMessage dialogMessage) {
+				received.incrementAndGet();
+				try {
+					if (dialogMessage.responseRequested())
+						dialogMessage.respond(dialogMessage.getBytes());
+				} catch (DialogueException e) {
+					System.out.println(e);
+				}
+			}
+		};
+
+		while (servers.size() < count) {
+			Dialogue server = DialogueFactory.createIPDialogue("127.0.0.1", basePort + servers.size());
+			server.addListener(listener);
+			server.start();
+			servers.add(server);
+		}
+
+	}
+
+	protected void stopServers() {
+		for (Dialogue server : servers)
+			server.stop();
+		servers.clear();
+
+	}
+
+	protected abstract class TransportOperation extends Benchmark {
+
+		protected int destinations;
+
+		protected byte[] message;
+
+		protected Dialogue client;
+
+		public TransportOperation(String name, int destinations, int size) {
+			super(name);
+			this.destinations = destinations;
+			this.message = new byte[size];
+			for (int i = 0; i < size; i++)
+				message[i] = (byte) ('a' + i % 26);
+		}
+
+		public void setUp() throws Exception {
+			startServers(destinations);
+			client = DialogueFactory.createIPDialogue();
+			for (int i = 0; i < destinations; i++)
+				client.addDestination(DialogueFactory.createIPDestination("D" + i, "127.0.0.1", basePort + i));
+			client.start();
+		}
+
+		public void tearDown() throws Exception {
+			client.stop();
+		}
+
+	}
+
+	protected class SendMessage extends TransportOperation {
+
+		protected long sent;
+
+		public SendMessage(int size) {
+			super("sendMessage/" + size + "B", 1, size);
+		}
+
+		public void setUp() throws Exception {
+			super.setUp();
+			sent = received.get();
+		}
+
+		// sendMessage returns once the message is queued, so the operation waits for the server to receive it.
+		// Otherwise the latency would only be the time taken to queue the message.
+		public void operation() throws Exception {
+			client.sendMessage("D0", message);
+			sent++;
+			long end = 0;
+			while (received.get() < sent) {
+				if (end == 0)
+					end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+				else if (System.currentTimeMillis() > end)
+					throw new DialogueException("Timed out waiting for the server to receive " + (sent - received.get()) + " messages");
+				Thread.yield();
+			}
+		}
+
+	}
+
+	protected class SendResponseMessage extends TransportOperation {
+
+		public SendResponseMessage(int size) {
+			super("sendResponseMessage/" + size + "B", 1, size);
+		}
+
+		public void operation() throws Exception {
+			byte[] response = client.sendResponseMessage("D0", message, TIMEOUT_MILLIS).getBytes();
+			if (response == null || response.length != message.length)
+				throw new DialogueException("No response received");
+		}
+
+	}
+
+	protected class SendResponseMessageToAll extends TransportOperation {
+
+		public SendResponseMessageToAll(int destinations, int size) {
+			super("sendResponseMessageToAll/" + destinations + "dest/" + size + "B", destinations, size);
+		}
+
+		public void operation() throws Exception {
+			DialogueResponseSet responses = client.sendResponseMessageToAll(message, TIMEOUT_MILLIS);
+			for (String alias : responses.getDestinationAliases()) {
+				if (responses.getBytes(alias) == null)
+					throw new DialogueException("No response received from " + alias);
+			}
+		}
+
+	}
+
+}
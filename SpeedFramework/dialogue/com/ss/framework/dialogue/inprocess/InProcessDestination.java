@@ -0,0 +1,25 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.inprocess;
+
+import com.ss.framework.dialogue.AbstractDestination;
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.api.Destination;
+
+
+public class InProcessDestination extends AbstractDestination implements Destination {
+
+	// Name of the in-process dialogue the destination delivers to
+	public String dialogueName;
+
+	public InProcessDestination(String alias, String dialogueName) throws DialogueException {
+		super();
+		if (alias == null || alias.trim().length() == 0)
+			throw new DialogueException("Alias name for the destination must be specified");
+		if (dialogueName == null || dialogueName.trim().length() == 0)
+			throw new DialogueException("Name of the destination dialogue must be specified");
+		this.alias = alias;
+		this.dialogueName = dialogueName;
+	}
+
+}
@@ -0,0 +1,67 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.inprocess;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.ss.framework.dialogue.AbstractDialogue;
+import com.ss.framework.dialogue.DialogueEngine;
+import com.ss.framework.dialogue.DialogueUnsupportedOptionException;
+
+
+public class InProcessDialogue extends AbstractDialogue {
+
+	// Debug option. When this option is set to true additional debug messages are written to the system log.
+	// The default value for this property is false.
+	public static final String DEBUG = "DEBUG";
+
+	// Metrics option. When this option is set to true the dialogue counts the messages, bytes and errors of
+	// each destination and keeps a histogram of response round-trip times. The metrics are registered as
+	// MBeans with the platform MBean server while the dialogue is started. The default value for this
+	// property is true.
+	public static final String METRICS = "METRICS";
+
+	// Metrics name option. The name the dialogue's metrics MBeans are registered under. When not set, the
+	// name of the in-process dialogue is used.
+	public static final String METRICS_NAME = "METRICS_NAME";
+
+	protected static Map<String, Class> supportedOptions = new HashMap<String, Class>();
+
+	static {
+		supportedOptions.put(DEBUG, Boolean.class);
+		supportedOptions.put(METRICS, Boolean.class);
+		supportedOptions.put(METRICS_NAME, String.class);
+	}
+
+	public InProcessDialogue(DialogueEngine engine) {
+		super(engine);
+
+		// Set default options
+		try {
+			Map<String, Object> options = new HashMap<String, Object>();
+			options.put(DEBUG, false);
+			options.put(METRICS, true);
+			setOptions(options);
+		} catch (DialogueUnsupportedOptionException e) {
+			System.out.println(e);
+		}
+	}
+
+	public void setOptions(Map<String, Object> options) throws DialogueUnsupportedOptionException {
+		for (String option : options.keySet()) {
+			if (supportedOptions.containsKey(option) == false)
+				throw new DialogueUnsupportedOptionException("Option: " + option + " not supported. Use getSupportedOptions() to list the supported options.");
+
+			if (supportedOptions.get(option).isInstance(options.get(option)) == false)
+				throw new DialogueUnsupportedOptionException("Invalid type for option: " + option + ". Valid type is: " + supportedOptions.get(option));
+		}
+
+		super.setOptions(options);
+	}
+
+	public Map<String, Class> getSupportedOptions() {
+		return supportedOptions;
+
+	}
+}
@@ -0,0 +1,315 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.inprocess;
+
+import java.net.ConnectException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ss.framework.dialogue.DialogueConnectionException;
+import com.ss.framework.dialogue.DialogueEngine;
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.DialogueExceptionSet;
+import com.ss.framework.dialogue.DialogueInputStream;
+import com.ss.framework.dialogue.DialogueMetricsImpl;
+import com.ss.framework.dialogue.DialogueOutputStream;
+import com.ss.framework.dialogue.DialogueResponseHandler;
+import com.ss.framework.dialogue.api.Destination;
+import com.ss.framework.dialogue.api.Dialogue;
+import com.ss.framework.dialogue.api.DialogueServerMessage;
+
+
+// Engine for dialogues in the same JVM. Messages are handed to the receiving dialogue's dispatcher through a
+// lock-free queue, without framing, sockets or selector threads.
+public class InProcessDialogueEngine implements DialogueEngine {
+
+	// Maps a name to the in-process dialogue started under that name
+	protected static Map<String, InProcessDialogueEngine> startedEngines = new ConcurrentHashMap<String, InProcessDialogueEngine>();
+
+	protected String name;
+
+	protected InProcessDialogue dialogue;
+
+	protected InProcessDispatcher dispatcher;
+
+	protected ThreadGroup threadGroup;
+
+	protected volatile boolean started = false;
+
+	// Size (in bytes) of the chunks a stream is handed over in
+	protected static final int STREAM_CHUNK_SIZE = 65536;
+
+	// Number of chunks of a stream queued before the writer waits for the reader
+	protected static final int STREAM_BUFFER_CHUNKS = 16;
+
+	protected AtomicInteger streamSequence = new AtomicInteger();
+
+	// The streams being received by this dialogue
+	protected Set<DialogueInputStream> streams = ConcurrentHashMap.newKeySet();
+
+	public InProcessDialogueEngine(String name) throws DialogueException {
+		super();
+		if (name == null || name.trim().length() == 0)
+			throw new DialogueException("Name of the in-process dialogue must be specified");
+		this.name = name;
+		dispatcher = new InProcessDispatcher((InProcessDialogue) getDialogue());
+
+	}
+
+	public synchronized Dialogue getDialogue() {
+		if (dialogue == null)
+			dialogue = new InProcessDialogue(this);
+
+		return dialogue;
+
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void send(String destinationAlias, byte[] message) throws DialogueConnectionException, DialogueException {
+		send(destinationAlias, message, null);
+
+	}
+
+	public void send(List<String> destinationAliases, byte[] message) throws DialogueExceptionSet {
+		send(destinationAliases, message, null);
+
+	}
+
+	public void sendToAll(byte[] message) throws DialogueExceptionSet {
+		sendToAll(message, null);
+
+	}
+
+	public void send(String destinationAlias, byte[] message, DialogueResponseHandler responseHandler) throws DialogueException {
+		if (started == false)
+			throw new DialogueException("Dialogue not started");
+		send(destinationAlias, copy(message), responseHandler);
+
+	}
+
+	public void send(List<String> destinationAliases, byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
+		if (started == false)
+			throw new DialogueExceptionSet("Dialogue not started");
+
+		// The message is copied once and shared by all receivers, who only get read-only views of it
+		ByteBuffer data = copy(message);
+		DialogueExceptionSet exceptionSet = null;
+		for (String alias : destinationAliases) {
+			try {
+				send(alias, data, responseHandler);
+			} catch (Exception e) {
+				if (exceptionSet == null)
+					exceptionSet = new DialogueExceptionSet("One or more errors occured during send operation.");
+				exceptionSet.addException(alias, e);
+			}
+		}
+
+		if (exceptionSet != null)
+			throw exceptionSet;
+
+	}
+
+	public void sendToAll(byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
+		if (responseHandler != null)
+			responseHandler.setDestinationAliases(dialogue.getDestinationAliases());
+
+		List<String> destinationAliases = new ArrayList<String>();
+		for (Destination dest : dialogue.getDestinations())
+			destinationAliases.add(dest.getAlias());
+		send(destinationAliases, message, responseHandler);
+
+	}
+
+	// Nothing is ever waited for in-process, so the asynchronous sends are the same as the synchronous ones
+	public void sendAsync(String destinationAlias, byte[] message, DialogueResponseHandler responseHandler) throws DialogueException {
+		send(destinationAlias, message, responseHandler);
+
+	}
+
+	public void sendAsync(List<String> destinationAliases, byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
+		send(destinationAliases, message, responseHandler);
+
+	}
+
+	public void sendToAllAsync(byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
+		sendToAll(message, responseHandler);
+
+	}
+
+	public void sendBatch(String destinationAlias, List<byte[]> messages) throws DialogueConnectionException, DialogueException {
+		if (started == false)
+			throw new DialogueException("Dialogue not started");
+
+		InProcessDialogueEngine target = getTarget(destinationAlias);
+		DialogueMetricsImpl metrics = dialogue.getMetricsRegistry().getDestinationMetrics(destinationAlias);
+		if (target == null) {
+			if (metrics != null)
+				metrics.error();
+			throw new DialogueConnectionException(getConnectException(destinationAlias));
+		}
+
+		List<DialogueServerMessage> batch = new ArrayList<DialogueServerMessage>(messages.size());
+		for (byte[] message : messages) {
+			batch.add(new InProcessDialogueServerMessage(this, destinationAlias, copy(message), null));
+			if (metrics != null)
+				metrics.messageSent(message.length);
+		}
+		target.dispatcher.deliver(batch);
+
+	}
+
+	// The chunks written to the stream are queued for the reader of the dialogue behind the destination. The
+	// writer waits while the reader is behind.
+	public DialogueOutputStream openStream(String destinationAlias, String name) throws DialogueConnectionException, DialogueException {
+		if (started == false)
+			throw new DialogueException("Dialogue not started");
+
+		final InProcessDialogueEngine target = getTarget(destinationAlias);
+		final DialogueMetricsImpl metrics = dialogue.getMetricsRegistry().getDestinationMetrics(destinationAlias);
+		if (target == null) {
+			if (metrics != null)
+				metrics.error();
+			throw new DialogueConnectionException(getConnectException(destinationAlias));
+		}
+
+		final DialogueInputStream stream = new DialogueInputStream(streamSequence.incrementAndGet(), name, STREAM_BUFFER_CHUNKS);
+		target.streams.add(stream);
+		target.dialogue.notifyStreamReceived(stream);
+		return new DialogueOutputStream(destinationAlias, stream.getStreamId(), STREAM_CHUNK_SIZE) {
+
+			protected void sendChunk(byte[] data, int length) throws IOException {
+				if (target.streams.contains(stream) == false)
+					throw new IOException("In-process dialogue: " + target.name + " stopped before the end of the stream");
+				stream.receive(ByteBuffer.wrap(Arrays.copyOf(data, length)));
+				if (metrics != null)
+					metrics.messageSent(length);
+				stream.waitForRoom();
+			}
+
+			protected void sendEnd() {
+				target.streams.remove(stream);
+				stream.end();
+			}
+
+			protected void sendAbort() {
+				target.streams.remove(stream);
+				stream.fail(new IOException("The sender broke off the stream"));
+			}
+		};
+
+	}
+
+	// Hand a message to the dialogue behind the destination. Connection failures of response messages are
+	// reported to the response handler, like they are by the socket engine.
+	protected void send(String destinationAlias, ByteBuffer data, DialogueResponseHandler responseHandler) throws DialogueException {
+		InProcessDialogueEngine target = getTarget(destinationAlias);
+		DialogueMetricsImpl metrics = dialogue.getMetricsRegistry().getDestinationMetrics(destinationAlias);
+		if (target == null) {
+			if (metrics != null)
+				metrics.error();
+			if (responseHandler == null)
+				throw new DialogueConnectionException(getConnectException(destinationAlias));
+			responseHandler.handleException(destinationAlias, getConnectException(destinationAlias));
+			return;
+		}
+
+		if (metrics != null)
+			metrics.messageSent(data.remaining());
+		DialogueServerMessage message = new InProcessDialogueServerMessage(this, destinationAlias, data, responseHandler);
+		target.dispatcher.deliver(Collections.singletonList(message));
+
+	}
+
+	// Pass a response to the handler waiting for it
+	protected void handleResponse(InProcessDialogueServerMessage message, ByteBuffer response) {
+		DialogueMetricsImpl metrics = dialogue.getMetricsRegistry().getDestinationMetrics(message.destinationAlias);
+		if (metrics != null) {
+			metrics.messageReceived(response.remaining());
+			metrics.responseReceived(System.nanoTime() - message.sendTime);
+		}
+		message.responseHandler.handleResponse(message.destinationAlias, response);
+
+	}
+
+	// The started in-process dialogue behind the destination, or null if it is not started
+	protected InProcessDialogueEngine getTarget(String destinationAlias) throws DialogueException {
+		Destination dest = dialogue.getDestination(destinationAlias);
+		if (dest == null)
+			throw new DialogueException("Destination with alias: " + destinationAlias + ", not active in dialogue");
+		if (dest instanceof InProcessDestination == false)
+			throw new DialogueException("Destination with alias: " + destinationAlias + ", is not an in-process destination");
+
+		return startedEngines.get(((InProcessDestination) dest).dialogueName);
+	}
+
+	protected ConnectException getConnectException(String destinationAlias) {
+		InProcessDestination dest = (InProcessDestination) dialogue.getDestination(destinationAlias);
+		return new ConnectException("No in-process dialogue named: " + dest.dialogueName + " is started");
+	}
+
+	// Copy a message so the sender may reuse its array as soon as the send returns. This is the only copy made
+	// between the sender and the receiving listeners.
+	protected ByteBuffer copy(byte[] message) {
+		return ByteBuffer.wrap(message.clone());
+	}
+
+	public synchronized void start() throws DialogueException {
+		if (started)
+			return;
+
+		if (startedEngines.putIfAbsent(name, this) != null)
+			throw new DialogueException("An in-process dialogue named: " + name + " is already started");
+
+		String metricsName = (String) dialogue.getOptions().get(InProcessDialogue.METRICS_NAME);
+		Boolean metrics = (Boolean) dialogue.getOptions().get(InProcessDialogue.METRICS);
+		dialogue.getMetricsRegistry().start(metricsName != null ? metricsName : name, metrics == null || metrics);
+
+		threadGroup = new ThreadGroup("InProcessDialogue");
+		dispatcher.start();
+		new Thread(threadGroup, dispatcher, "InProcessDispatcher-" + name).start();
+		started = true;
+
+	}
+
+	public synchronized void stop() {
+		if (threadGroup != null) {
+			started = false;
+			startedEngines.remove(name, this);
+			dispatcher.stop();
+			for (DialogueInputStream stream : streams)
+				stream.fail(new IOException("In-process dialogue: " + name + " stopped before the end of the stream"));
+			streams.clear();
+
+			// Wait for the dispatcher to stop (wait max 10 seconds)
+			int elapsedTime = 0;
+			while (threadGroup.activeCount() > 0 && elapsedTime < 10000) {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+				}
+				elapsedTime += 10;
+			}
+
+			// If any thread is still alive, terminate it
+			if (threadGroup.activeCount() > 0)
+				threadGroup.interrupt();
+
+			dialogue.getMetricsRegistry().stop();
+		}
+
+		threadGroup = null;
+
+	}
+
+}
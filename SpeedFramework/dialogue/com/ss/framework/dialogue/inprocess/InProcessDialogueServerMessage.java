@@ -0,0 +1,52 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.inprocess;
+
+import java.nio.ByteBuffer;
+
+import com.ss.framework.dialogue.AbstractDialogueServerMessage;
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.DialogueResponseHandler;
+
+
+public class InProcessDialogueServerMessage extends AbstractDialogueServerMessage {
+
+	// The engine the message was sent from
+	protected InProcessDialogueEngine sender = null;
+
+	// The alias the sender knows the receiving dialogue by
+	protected String destinationAlias = null;
+
+	// The handler waiting for the response (null if no response is requested)
+	protected DialogueResponseHandler responseHandler = null;
+
+	// Time (System.nanoTime) the message was sent
+	protected long sendTime = System.nanoTime();
+
+	public InProcessDialogueServerMessage(InProcessDialogueEngine sender, String destinationAlias, ByteBuffer data, DialogueResponseHandler responseHandler) {
+		super(data);
+		this.sender = sender;
+		this.destinationAlias = destinationAlias;
+		this.responseHandler = responseHandler;
+	}
+
+	public boolean responseRequested() {
+		return responseHandler != null;
+	}
+
+	public void respond(String response) throws DialogueException {
+		respond(response.getBytes());
+
+	}
+
+	public void respond(byte[] response) throws DialogueException {
+		if (responseHandler == null)
+			throw new DialogueException("Attempt to respond to a message that did not request a response");
+
+		// The response is handed straight to the waiting handler. It is copied once, since the responder may
+		// reuse the array as soon as this method returns.
+		sender.handleResponse(this, ByteBuffer.wrap(response.clone()));
+
+	}
+
+}
@@ -0,0 +1,96 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.inprocess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ss.framework.dialogue.AbstractDialogue;
+import com.ss.framework.dialogue.api.DialogueServerMessage;
+
+
+public class InProcessDispatcher implements Runnable {
+
+	// Maximum number of deliveries passed to the batch listeners in one call
+	protected static final int DISPATCH_BATCH_SIZE = 64;
+
+	// How long (in nanoseconds) the dispatching thread parks at most when there is nothing to deliver
+	protected static final long PARK_NANOS = 100000000;
+
+	protected volatile boolean stop = false;
+
+	// Messages waiting to be passed to the listeners. Each entry is one message, or the messages of one batch.
+	protected Queue<List<DialogueServerMessage>> deliveries = new ConcurrentLinkedQueue<List<DialogueServerMessage>>();
+
+	protected AbstractDialogue dialogue;
+
+	// The dispatching thread and whether it is parked waiting for deliveries
+	protected volatile Thread thread;
+
+	protected volatile boolean parked = false;
+
+	public InProcessDispatcher(AbstractDialogue dialogue) {
+		this.dialogue = dialogue;
+	}
+
+	// Queue messages for the listeners. Never blocks the calling thread.
+	public void deliver(List<DialogueServerMessage> messages) {
+		deliveries.offer(messages);
+		if (parked)
+			LockSupport.unpark(thread);
+	}
+
+	public void run() {
+		thread = Thread.currentThread();
+		List<DialogueServerMessage> messages = new ArrayList<DialogueServerMessage>();
+
+		while (stop == false) {
+			// Take the deliveries waiting (at most DISPATCH_BATCH_SIZE) and dispatch them together
+			for (int i = 0; i < DISPATCH_BATCH_SIZE; i++) {
+				List<DialogueServerMessage> delivery = deliveries.poll();
+				if (delivery == null)
+					break;
+				messages.addAll(delivery);
+			}
+
+			if (messages.isEmpty()) {
+				// Nothing to deliver. Check the queue again after announcing the park, so a delivery made in
+				// between is not missed.
+				parked = true;
+				if (deliveries.isEmpty() && stop == false)
+					LockSupport.parkNanos(this, PARK_NANOS);
+				parked = false;
+				continue;
+			}
+
+			dispatch(messages);
+			messages = new ArrayList<DialogueServerMessage>();
+		}
+
+		thread = null;
+	}
+
+	protected void dispatch(List<DialogueServerMessage> messages) {
+		dialogue.notifyMessagesReceived(messages);
+	}
+
+	public void start() {
+		stop = false;
+		deliveries.clear();
+	}
+
+	public void stop() {
+		stop = true;
+		Thread dispatchingThread = thread;
+		if (dispatchingThread != null)
+			LockSupport.unpark(dispatchingThread);
+	}
+
+	public boolean isStopped() {
+		return thread == null;
+	}
+
+}
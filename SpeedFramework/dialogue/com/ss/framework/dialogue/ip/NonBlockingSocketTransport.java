@@ -2,26 +2,33 @@
 
 package com.ss.framework.dialogue.ip;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ss.framework.dialogue.DialogueMetricsImpl;
 
 public abstract class NonBlockingSocketTransport implements Runnable {
 
+	// Request id used for messages that are not correlated with a response
+	public static final int NO_REQUEST_ID = 0;
+
 	protected boolean stop = false;
 
 	// The selector we'll be monitoring
@@ -33,12 +40,75 @@ public abstract class NonBlockingSocketTransport implements Runnable {
 	// Maps a SocketChannel to a list of ByteBuffer instances
 	protected Map<SocketChannel, BlockingQueue<SendRequest>> pendingData = Collections.synchronizedMap(new HashMap<SocketChannel, BlockingQueue<SendRequest>>());
 
+	// Maximum number of frames written with one gathering write
+	protected static final int MAX_GATHER_FRAMES = 64;
+
+	// Header and payload buffers handed to a gathering write. Only used by the selecting thread.
+	protected ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER_FRAMES * 2];
+
+	// Pool of direct buffers used to read and write frames (null if buffers are not pooled)
+	protected SocketBufferPool bufferPool;
+
+	// Compresses large payloads and decompresses the compressed frames received (null if not compressing)
+	protected SocketFrameCompressor compressor;
+
+	public static final String QUEUE_FULL_BLOCK = "BLOCK";
+
+	public static final String QUEUE_FULL_FAIL_FAST = "FAIL_FAST";
+
+	public static final String QUEUE_FULL_DROP_OLDEST = "DROP_OLDEST";
+
+	// A send queue holding this many bytes is full. It accepts data again once it has drained to the low
+	// watermark. 0 means no limit.
+	protected long highWatermark = 0;
+
+	protected long lowWatermark = 0;
+
+	// What to do with data sent to a full queue
+	protected String queueFullPolicy = QUEUE_FULL_BLOCK;
+
+	// Longest time (in nanoseconds) a write may be held back so more frames can be written with it. 0 means
+	// every frame is written as soon as possible.
+	protected long lingerNanos = 0;
+
+	// Queued bytes that make a held back write go out at once
+	protected long maxBatchBytes = 65536;
+
+	// The linger applied grows with the number of frames queued and reaches lingerNanos at this depth
+	protected static final int LINGER_ADAPT_DEPTH = 8;
+
+	// Maps a channel with a held back write to the time (System.nanoTime) the write is due
+	protected Map<SocketChannel, Long> lingerDeadlines = Collections.synchronizedMap(new HashMap<SocketChannel, Long>());
+
+	// How long (in milliseconds) a send queue may stay full before the remote entity is considered a slow
+	// consumer. 0 means never.
+	protected long slowConsumerTimeout = 0;
+
+	// Maps a channel to the metrics its traffic is counted in (the metrics of the destination or of the
+	// accepted connection). Channels without metrics are not in the map.
+	protected Map<SocketChannel, DialogueMetricsImpl> channelMetrics = Collections.synchronizedMap(new HashMap<SocketChannel, DialogueMetricsImpl>());
+
+	// True while the connections are not read from, so the data sent to them stays in the socket buffers and
+	// TCP flow control holds the senders back
+	protected volatile boolean readPaused = false;
+
+	// Set when the read interest of the connections must be brought in line with readPaused by the selecting
+	// thread
+	protected volatile boolean readInterestChanged = false;
+
+	// Connections not read from until the data already read from them has been consumed, such as the
+	// connection carrying a stream that is read slower than it arrives
+	protected Set<SocketChannel> pausedChannels = Collections.synchronizedSet(new HashSet<SocketChannel>());
+
 	protected class ChangeRequest {
 
 		public static final int REGISTER = 1;
 
 		public static final int CHANGEOPS = 2;
 
+		// Bring the read interest of a connection that has nothing to write in line with its paused state
+		public static final int READINTEREST = 3;
+
 		public SocketChannel socketChannel;
 
 		public int type;
@@ -67,132 +137,660 @@ public abstract class NonBlockingSocketTransport implements Runnable {
 
 		public boolean wantResponse = false;
 
+		// Correlates a response with the request it answers. Echoed back unchanged in the response frame.
+		public int requestId = NO_REQUEST_ID;
+
+		protected String messageType;
+
+		// True if the payload is compressed
+		protected boolean compressed = false;
+
+		protected ByteBuffer header;
+
+		// Pooled direct buffer holding the whole frame (null if the frame is written from the heap)
+		protected ByteBuffer frame;
+
+		// Number of bytes the frame takes up on the wire
+		protected int frameSize;
+
 		public SendRequest(ByteBuffer data, boolean wantResponse) {
 			this.data = data;
 			this.wantResponse = wantResponse;
+			this.messageType = wantResponse ? SocketDialogueServerMessage.TYPE_RESPONSE : SocketDialogueServerMessage.TYPE_NORMAL;
+			this.frameSize = SocketFrameDecoder.HEADER_SIZE + data.remaining();
+		}
+
+		public SendRequest(ByteBuffer data, String messageType, int requestId) {
+			this(data, SocketDialogueServerMessage.TYPE_RESPONSE.equals(messageType), requestId);
+			this.messageType = messageType;
 		}
 
-		public ByteBuffer getRequestTypeBuffer() {
-			if (wantResponse)
-				return ByteBuffer.wrap(SocketDialogueServerMessage.TYPE_RESPONSE.getBytes());
+		public SendRequest(ByteBuffer data, boolean wantResponse, int requestId) {
+			this(data, wantResponse);
+			this.requestId = requestId;
+		}
+
+		public String getMessageType() {
+			return messageType;
+		}
+
+		// True for the frames of a stream. The receiver can not do without any of them, so they are never
+		// dropped or refused by the queue full policy.
+		public boolean isStreamFrame() {
+			return messageType.equals(SocketDialogueServerMessage.TYPE_STREAM) || messageType.equals(SocketDialogueServerMessage.TYPE_STREAM_END) || messageType.equals(SocketDialogueServerMessage.TYPE_STREAM_OPEN)
+					|| messageType.equals(SocketDialogueServerMessage.TYPE_STREAM_ABORT);
+		}
+
+		// The frame header (message type, request id and message length). Encoded once so a frame that is only
+		// partly written can be resumed where it left off.
+		public ByteBuffer getHeaderBuffer() {
+			if (header == null) {
+				header = ByteBuffer.allocate(SocketFrameDecoder.HEADER_SIZE);
+				putHeader(header);
+				header.flip();
+			}
+			return header;
+		}
+
+		protected void putHeader(ByteBuffer buffer) {
+			int type = getMessageType().charAt(0);
+			if (compressed)
+				type |= SocketFrameCompressor.COMPRESSED_FLAG;
+			buffer.put((byte) type);
+			buffer.putInt(requestId);
+			buffer.putInt(data.remaining());
+		}
+
+		// Copy the header and payload into a single pooled direct buffer. This saves the channel from copying
+		// heap buffers into temporary direct buffers on every write. Frames too large for the pool are left on
+		// the heap.
+		public void encode(SocketBufferPool pool) {
+			int frameSize = SocketFrameDecoder.HEADER_SIZE + data.remaining();
+			if (pool == null || frameSize > pool.getMaxBufferSize())
+				return;
+
+			frame = pool.acquire(frameSize);
+			putHeader(frame);
+			frame.put(data.duplicate());
+			frame.flip();
+		}
+
+		// Add the buffers still to be written to the specified array and return the index following them
+		public int gather(ByteBuffer[] buffers, int index) {
+			if (frame != null) {
+				buffers[index++] = frame;
+			} else {
+				buffers[index++] = getHeaderBuffer();
+				buffers[index++] = data;
+			}
+			return index;
+		}
 
-			return ByteBuffer.wrap(SocketDialogueServerMessage.TYPE_NORMAL.getBytes());
+		// True once any part of the frame has been written. A started frame must be written to the end.
+		public boolean isStarted() {
+			if (frame != null)
+				return frame.position() > 0;
 
+			return header != null && header.position() > 0;
+		}
+
+		public boolean isWritten() {
+			if (frame != null)
+				return frame.hasRemaining() == false;
+
+			return header != null && header.hasRemaining() == false && data.hasRemaining() == false;
+		}
+
+		public int getFrameSize() {
+			return frameSize;
+		}
+
+		// Give the pooled frame buffer back to the pool
+		public synchronized void release(SocketBufferPool pool) {
+			if (frame != null && pool != null)
+				pool.release(frame);
+			frame = null;
+		}
+
+	}
+
+	// A frame whose payload is a region of a file. The payload is transferred from the file to the channel
+	// by FileChannel.transferTo, so it is never copied into the Java heap.
+	protected class FileSendRequest extends SendRequest {
+
+		protected FileChannel file;
+
+		// Next position in the file to transfer from
+		protected long position;
+
+		// Position in the file following the region
+		protected long end;
+
+		public FileSendRequest(FileChannel file, long position, int count, String messageType, int requestId) {
+			super(ByteBuffer.allocate(0), messageType, requestId);
+			this.file = file;
+			this.position = position;
+			this.end = position + count;
+			this.frameSize = SocketFrameDecoder.HEADER_SIZE + count;
+		}
+
+		protected void putHeader(ByteBuffer buffer) {
+			buffer.put((byte) getMessageType().charAt(0));
+			buffer.putInt(requestId);
+			buffer.putInt(frameSize - SocketFrameDecoder.HEADER_SIZE);
+		}
+
+		// The payload is never copied into a pooled buffer
+		public void encode(SocketBufferPool pool) {
+		}
+
+		// Write as much of the frame as the channel takes. Returns true once the frame has been written.
+		public boolean transfer(SocketChannel socketChannel) throws IOException {
+			ByteBuffer header = getHeaderBuffer();
+			if (header.hasRemaining()) {
+				socketChannel.write(header);
+				if (header.hasRemaining())
+					return false;
+			}
+
+			while (position < end) {
+				long transferred = file.transferTo(position, end - position, socketChannel);
+				if (transferred == 0) {
+					// Either the socket's buffer is full or the file has been cut short while being sent
+					if (position >= file.size())
+						throw new IOException("File truncated while being sent");
+					return false;
+				}
+				position += transferred;
+			}
+			return true;
+		}
+
+		public boolean isStarted() {
+			return header != null && header.position() > 0;
+		}
+
+		public boolean isWritten() {
+			return header != null && header.hasRemaining() == false && position == end;
+		}
+
+	}
+
+	// Queue of frames waiting to be written to a channel. Keeps count of the bytes queued.
+	protected class SendQueue extends LinkedBlockingQueue<SendRequest> {
+
+		private static final long serialVersionUID = 1L;
+
+		protected AtomicLong queuedBytes = new AtomicLong();
+
+		// True from the time the queue reaches the high watermark until it has drained to the low watermark
+		protected volatile boolean full = false;
+
+		protected long fullSince;
+
+		// Number of queued bytes a thread waiting in waitForDrain waits for (-1 if none is waiting)
+		protected volatile long drainTarget = -1;
+
+		// The metrics the queued messages and bytes are counted in (null if not counted)
+		protected DialogueMetricsImpl metrics;
+
+		public SendQueue(DialogueMetricsImpl metrics) {
+			this.metrics = metrics;
+		}
+
+		public boolean offer(SendRequest sendRequest) {
+			if (super.offer(sendRequest) == false)
+				return false;
+			if (metrics != null)
+				metrics.queued(1, sendRequest.getFrameSize());
+			if (queuedBytes.addAndGet(sendRequest.getFrameSize()) >= highWatermark && highWatermark > 0 && full == false) {
+				fullSince = System.currentTimeMillis();
+				full = true;
+			}
+			return true;
+		}
+
+		public SendRequest poll() {
+			SendRequest sendRequest = super.poll();
+			if (sendRequest != null)
+				removed(sendRequest);
+			return sendRequest;
+		}
+
+		protected void removed(SendRequest sendRequest) {
+			if (metrics != null)
+				metrics.queued(-1, -sendRequest.getFrameSize());
+			long bytes = queuedBytes.addAndGet(-sendRequest.getFrameSize());
+			if (bytes <= lowWatermark && full) {
+				full = false;
+				synchronized (this) {
+					notifyAll();
+				}
+			} else if (bytes <= drainTarget) {
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+
+		public boolean isFull() {
+			return full;
+		}
+
+		// Remove the oldest frames that have not been started until the queue is no longer full. The frames of
+		// streams are kept.
+		public synchronized List<SendRequest> dropOldest() {
+			List<SendRequest> dropped = new ArrayList<SendRequest>();
+			Iterator<SendRequest> iterator = iterator();
+			while (full && iterator.hasNext()) {
+				SendRequest sendRequest = iterator.next();
+				if (sendRequest.isStarted() == false && sendRequest.isStreamFrame() == false) {
+					iterator.remove();
+					removed(sendRequest);
+					dropped.add(sendRequest);
+				}
+			}
+			return dropped;
+		}
+
+		public long getQueuedBytes() {
+			return queuedBytes.get();
+		}
+
+		// Take the frames left in a discarded queue off the metrics
+		protected synchronized void discarded() {
+			if (metrics != null)
+				metrics.queued(-size(), -queuedBytes.get());
+			metrics = null;
 		}
 
 	}
 
 	protected abstract Selector initSelector() throws IOException;
 
-	protected void write(SelectionKey key) throws IOException {
-		SocketChannel socketChannel = (SocketChannel) key.channel();
+	public void setBufferPool(SocketBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	public SocketBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public void setCompressor(SocketFrameCompressor compressor) {
+		this.compressor = compressor;
+	}
+
+	protected SendRequest createSendRequest(byte[] data, boolean wantResponse, int requestId) {
+		String messageType = wantResponse ? SocketDialogueServerMessage.TYPE_RESPONSE : SocketDialogueServerMessage.TYPE_NORMAL;
+		return createSendRequest(data, messageType, requestId);
+	}
+
+	protected SendRequest createSendRequest(byte[] data, String messageType, int requestId) {
+		// Compress payloads above the threshold, if that makes them smaller
+		byte[] compressedData = null;
+		if (compressor != null && compressor.shouldCompress(data.length))
+			compressedData = compressor.compress(data);
+
+		SendRequest sendRequest = new SendRequest(ByteBuffer.wrap(compressedData != null ? compressedData : data), messageType, requestId);
+		sendRequest.compressed = compressedData != null;
+		sendRequest.encode(bufferPool);
+		return sendRequest;
+	}
+
+	// Get the queue of data to be written to the specified channel, creating it if needed
+	protected BlockingQueue<SendRequest> getSendQueue(SocketChannel socketChannel) {
+		synchronized (pendingData) {
+			BlockingQueue<SendRequest> queue = pendingData.get(socketChannel);
+			if (queue == null) {
+				queue = new SendQueue(channelMetrics.get(socketChannel));
+				pendingData.put(socketChannel, queue);
+			}
+			return queue;
+		}
+	}
 
+	// Number of bytes queued and not yet completely written to the specified channel
+	protected long getQueuedBytes(SocketChannel socketChannel) {
 		BlockingQueue<SendRequest> queue = pendingData.get(socketChannel);
+		if (queue instanceof SendQueue)
+			return ((SendQueue) queue).getQueuedBytes();
+		return 0;
+	}
 
-		// Write until there's not more data ...
-		while (!queue.isEmpty()) {
-			SendRequest sendRequest = queue.poll();
-			// Write message type (If response is requested or not)
-			socketChannel.write(sendRequest.getRequestTypeBuffer());
-			// Write message length
-			socketChannel.write(intToByteBuffer(sendRequest.data.array().length));
-			// Write message
-			socketChannel.write(sendRequest.data);
-			if (sendRequest.data.remaining() > 0) {
-				// ... or the socket's buffer fills up
-				break;
+	protected DialogueMetricsImpl getMetrics(SocketChannel socketChannel) {
+		return channelMetrics.get(socketChannel);
+	}
+
+	// Count an error in the metrics of the specified channel
+	protected void error(SocketChannel socketChannel, int count) {
+		DialogueMetricsImpl metrics = channelMetrics.get(socketChannel);
+		if (metrics != null)
+			metrics.errors(count);
+	}
+
+	// Set the send queue limits from the dialogue's options
+	protected void readQueueOptions(SocketDialogue dialogue) {
+		highWatermark = 0;
+		lowWatermark = 0;
+		queueFullPolicy = QUEUE_FULL_BLOCK;
+		if (dialogue == null)
+			return;
+
+		Integer high = (Integer) dialogue.getOptions().get(SocketDialogue.SEND_QUEUE_HIGH_WATERMARK);
+		if (high != null && high > 0)
+			highWatermark = high;
+		Integer low = (Integer) dialogue.getOptions().get(SocketDialogue.SEND_QUEUE_LOW_WATERMARK);
+		if (low != null && low >= 0)
+			lowWatermark = Math.min(low, highWatermark);
+		String policy = (String) dialogue.getOptions().get(SocketDialogue.SEND_QUEUE_FULL_POLICY);
+		if (policy != null)
+			queueFullPolicy = policy;
+	}
+
+	// Queue data to be written to the specified channel, applying the queue full policy if the channel's
+	// queue has reached its high watermark. The frames of a stream are queued whatever the policy; their
+	// sender waits for the queue to drain before queueing them instead.
+	protected void queueSendRequest(SocketChannel socketChannel, SendRequest sendRequest) throws IOException {
+		queueSendRequest(socketChannel, sendRequest, true);
+	}
+
+	// Queue data to be written to the specified channel. When mayWait is false the caller must never be
+	// parked, so the BLOCK policy refuses the data like FAIL_FAST does instead of waiting for the queue.
+	protected void queueSendRequest(SocketChannel socketChannel, SendRequest sendRequest, boolean mayWait) throws IOException {
+		SendQueue queue = (SendQueue) getSendQueue(socketChannel);
+
+		if (queue.isFull() && queue.isEmpty() == false && sendRequest.isStreamFrame() == false) {
+			if (slowConsumerTimeout > 0 && System.currentTimeMillis() - queue.fullSince > slowConsumerTimeout) {
+				sendRequest.release(bufferPool);
+				error(socketChannel, 1);
+				slowConsumer(socketChannel);
+				throw new IOException("Connection closed, the remote entity does not keep up with the data sent to it");
+			}
+
+			if (QUEUE_FULL_FAIL_FAST.equals(queueFullPolicy) || (QUEUE_FULL_BLOCK.equals(queueFullPolicy) && mayWait == false)) {
+				sendRequest.release(bufferPool);
+				error(socketChannel, 1);
+				throw new IOException("Send queue is full");
+			} else if (QUEUE_FULL_DROP_OLDEST.equals(queueFullPolicy)) {
+				List<SendRequest> dropped = queue.dropOldest();
+				for (SendRequest droppedRequest : dropped)
+					droppedRequest.release(bufferPool);
+				error(socketChannel, dropped.size());
+				sendRequestsDropped(socketChannel, dropped);
+			} else {
+				waitForQueue(socketChannel, queue);
 			}
 		}
 
-		if (queue.isEmpty()) {
-			// We wrote away all data, so we're no longer interested
-			// in writing on this socket. Switch back to waiting for
-			// data.
-			key.interestOps(SelectionKey.OP_READ);
+		if (queue.offer(sendRequest) == false) {
+			sendRequest.release(bufferPool);
+			throw new IOException("Send queue is full");
 		}
 	}
 
-	protected void read(SelectionKey key) throws IOException {
-		SocketChannel socketChannel = (SocketChannel) key.channel();
+	// Wait until the queue has drained to its low watermark or the channel has been discarded
+	protected void waitForQueue(SocketChannel socketChannel, SendQueue queue) throws IOException {
+		synchronized (queue) {
+			while (queue.isFull() && pendingData.get(socketChannel) == queue && stop == false) {
+				if (slowConsumerTimeout > 0 && System.currentTimeMillis() - queue.fullSince > slowConsumerTimeout) {
+					error(socketChannel, 1);
+					slowConsumer(socketChannel);
+					throw new IOException("Connection closed, the remote entity does not keep up with the data sent to it");
+				}
 
-		// Create a read buffer to recieve the message length
-		ByteBuffer readBuffer = ByteBuffer.allocate(1);
+				try {
+					queue.wait(100);
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while waiting for the send queue to drain");
+				}
+			}
+		}
 
-		// Attempt to read off the channel
-		int numRead = 0;
-		String messageType = SocketDialogueServerMessage.TYPE_NORMAL;
-		try {
+		if (pendingData.get(socketChannel) != queue)
+			throw new IOException("Connection closed while waiting for the send queue to drain");
+	}
 
-			// Read message type (If response is requested or not)
-			numRead = socketChannel.read(readBuffer);
-			while (numRead < 1) {
-				numRead = socketChannel.read(readBuffer);
-				if (numRead == -1)
-					break;
+	// Wait until no more than maxBytes are queued for the specified channel. Used by senders whose frames
+	// must never be dropped or refused by the queue full policy, such as the chunks of a stream.
+	protected void waitForDrain(SocketChannel socketChannel, long maxBytes) throws IOException {
+		SendQueue queue = (SendQueue) getSendQueue(socketChannel);
+
+		// The queue must not be full once drained, or the queue full policy would still apply
+		if (highWatermark > 0)
+			maxBytes = Math.min(maxBytes, lowWatermark);
+
+		synchronized (queue) {
+			while (queue.getQueuedBytes() > maxBytes && pendingData.get(socketChannel) == queue && stop == false) {
+				queue.drainTarget = maxBytes;
+				try {
+					queue.wait(100);
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while waiting for the send queue to drain");
+				}
 			}
+			queue.drainTarget = -1;
+		}
+
+		if (pendingData.get(socketChannel) != queue)
+			throw new IOException("Connection closed while waiting for the send queue to drain");
+	}
+
+	// Decide if the write of the data just queued for the specified channel can be held back so more frames
+	// are written with it. A channel with only the new frame queued is written at once, so a lightly loaded
+	// connection never lingers. Returns true if the write was held back, in which case the selecting thread
+	// sets the write interest when the linger is over.
+	protected boolean deferWrite(SocketChannel socketChannel) {
+		if (lingerNanos <= 0 || socketChannel.isConnected() == false)
+			return false;
+
+		BlockingQueue<SendRequest> queue = pendingData.get(socketChannel);
+		int depth = queue == null ? 0 : queue.size();
+		if (depth <= 1 || getQueuedBytes(socketChannel) >= maxBatchBytes) {
+			lingerDeadlines.remove(socketChannel);
+			return false;
+		}
+
+		synchronized (lingerDeadlines) {
+			if (lingerDeadlines.containsKey(socketChannel))
+				return true;
+			long linger = lingerNanos * Math.min(depth - 1, LINGER_ADAPT_DEPTH) / LINGER_ADAPT_DEPTH;
+			lingerDeadlines.put(socketChannel, System.nanoTime() + linger);
+		}
+
+		// Let the selecting thread pick up the new deadline
+		selector.wakeup();
+		return true;
+	}
+
+	// Set the write interest of the channels whose linger is over or whose queue has reached the max batch
+	// size. Only called by the selecting thread.
+	protected void flushLingering() {
+		if (lingerDeadlines.isEmpty())
+			return;
 
-			if (numRead > 0) {
-				messageType = new String(readBuffer.array());
-				if (messageType.equals(SocketDialogueServerMessage.TYPE_NORMAL) == false && messageType.equals(SocketDialogueServerMessage.TYPE_RESPONSE) == false)
-					throw new RuntimeException("Invalid message type (" + messageType + ") received");
+		long now = System.nanoTime();
+		synchronized (lingerDeadlines) {
+			Iterator<Map.Entry<SocketChannel, Long>> iterator = lingerDeadlines.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<SocketChannel, Long> entry = iterator.next();
+				if (entry.getValue() - now > 0 && getQueuedBytes(entry.getKey()) < maxBatchBytes)
+					continue;
+
+				iterator.remove();
+				SelectionKey key = entry.getKey().keyFor(selector);
+				if (key != null && key.isValid() && (key.interestOps() & SelectionKey.OP_CONNECT) == 0)
+					key.interestOps(SelectionKey.OP_WRITE);
 			}
+		}
+	}
 
-			// Read message size
-			readBuffer = ByteBuffer.allocate(4);
-			numRead = socketChannel.read(readBuffer);
-			int totalRead = numRead;
-			while (totalRead < 4) {
-				numRead = socketChannel.read(readBuffer);
-				if (numRead == -1)
-					break;
-				totalRead += numRead;
+	// How long (in nanoseconds) the selecting thread may block before a held back write is due, at least 1 if
+	// a write is overdue. 0 if no write is held back.
+	protected long getLingerTimeout() {
+		if (lingerDeadlines.isEmpty())
+			return 0;
+
+		long next = Long.MAX_VALUE;
+		long now = System.nanoTime();
+		synchronized (lingerDeadlines) {
+			for (Long deadline : lingerDeadlines.values())
+				next = Math.min(next, deadline - now);
+		}
+
+		return Math.max(1, next);
+	}
+
+	// Called when frames queued for the specified channel were dropped to make room for newer ones
+	protected void sendRequestsDropped(SocketChannel socketChannel, List<SendRequest> dropped) {
+	}
+
+	// Called when the queue of the specified channel has been full for longer than the slow consumer timeout
+	protected void slowConsumer(SocketChannel socketChannel) throws IOException {
+	}
+
+	// Forget the data still queued for the specified channel and give its buffers back to the pool
+	protected BlockingQueue<SendRequest> discardPendingData(SocketChannel socketChannel) {
+		BlockingQueue<SendRequest> queue = pendingData.remove(socketChannel);
+		if (queue != null) {
+			for (SendRequest sendRequest : queue)
+				sendRequest.release(bufferPool);
+			if (queue instanceof SendQueue)
+				((SendQueue) queue).discarded();
+
+			// Wake up senders waiting for the queue to drain
+			synchronized (queue) {
+				queue.notifyAll();
 			}
+		}
+		return queue;
+	}
 
-			if (totalRead > 0 && totalRead != 4)
-				throw new RuntimeException("Invalid message length received");
+	protected void write(SelectionKey key) throws IOException {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
 
-			if (totalRead > 0) {
+		BlockingQueue<SendRequest> queue = pendingData.get(socketChannel);
 
-				int messageSize = byteBufferToInt(readBuffer);
+		// The interest change may be processed before the data has been queued
+		if (queue == null) {
+			key.interestOps(getReadInterest(socketChannel));
+			return;
+		}
 
-				// Create a read buffer to recieve the message
-				readBuffer = ByteBuffer.allocate(messageSize);
+		DialogueMetricsImpl metrics = channelMetrics.get(socketChannel);
+
+		// Write until there's not more data ... The queue is locked so no frame is dropped while being written.
+		synchronized (queue) {
+			while (!queue.isEmpty()) {
+				boolean socketBufferFull;
+				if (queue.peek() instanceof FileSendRequest) {
+					// A region of a file is written on its own
+					socketBufferFull = ((FileSendRequest) queue.peek()).transfer(socketChannel) == false;
+				} else {
+					// Gather the headers and payloads of the queued frames into a single write
+					int count = 0;
+					Iterator<SendRequest> iterator = queue.iterator();
+					while (iterator.hasNext() && count < gatherBuffers.length - 1) {
+						SendRequest sendRequest = iterator.next();
+						if (sendRequest instanceof FileSendRequest)
+							break;
+						count = sendRequest.gather(gatherBuffers, count);
+					}
 
-				numRead = socketChannel.read(readBuffer);
+					// Any buffer may be empty, such as the payload of an empty message, so the socket's buffer is
+					// full whenever fewer bytes were written than were gathered
+					long gathered = 0;
+					for (int i = 0; i < count; i++)
+						gathered += gatherBuffers[i].remaining();
+					try {
+						socketBufferFull = socketChannel.write(gatherBuffers, 0, count) < gathered;
+					} finally {
+						Arrays.fill(gatherBuffers, 0, count, null);
+					}
+				}
 
-				totalRead = numRead;
-				while (totalRead < messageSize) {
-					numRead = socketChannel.read(readBuffer);
-					if (numRead == -1)
-						break;
-					totalRead += numRead;
+				// Drop the frames that were written completely. A partly written frame stays at the head of the queue.
+				while (queue.isEmpty() == false && queue.peek().isWritten()) {
+					SendRequest sendRequest = queue.poll();
+					sendRequest.release(bufferPool);
+					if (metrics != null)
+						metrics.messageSent(sendRequest.getFrameSize());
 				}
 
-				if (totalRead < messageSize)
-					throw new RuntimeException("Actual length of received message does not match specified message length");
+				if (socketBufferFull) {
+					// ... or the socket's buffer fills up
+					break;
+				}
 			}
+		}
+
+		if (queue.isEmpty()) {
+			// We wrote away all data, so we're no longer interested
+			// in writing on this socket. Switch back to waiting for
+			// data (unless reading is paused).
+			key.interestOps(getReadInterest(socketChannel));
+		}
+	}
+
+	protected void read(SelectionKey key) throws IOException {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
 
+		// Each connection keeps its own decoder so partially received frames survive between select cycles
+		SocketFrameDecoder decoder = (SocketFrameDecoder) key.attachment();
+		if (decoder == null) {
+			decoder = new SocketFrameDecoder(bufferPool);
+			key.attach(decoder);
+		}
+
+		// Attempt to read off the channel
+		List<SocketFrame> frames = new ArrayList<SocketFrame>();
+		int numRead;
+		try {
+			numRead = decoder.decode(socketChannel, frames);
 		} catch (IOException e) {
-			// The remote entity forcibly closed the connection, cancel
+			// The remote entity forcibly closed the connection or sent an invalid frame, cancel
 			// the selection key and close the channel.
+			error(socketChannel, 1);
 			key.cancel();
 			socketChannel.close();
+			decoder.release();
 			return;
 		}
 
+		// Hand over every complete frame received in this read
+		DialogueMetricsImpl metrics = frames.isEmpty() ? null : channelMetrics.get(socketChannel);
+		for (SocketFrame frame : frames) {
+			ByteBuffer data = frame.data;
+			if (metrics != null)
+				metrics.messageReceived(SocketFrameDecoder.HEADER_SIZE + data.remaining());
+			if (frame.compressed) {
+				try {
+					if (compressor == null)
+						throw new IOException("Compressed message received but no compressor configured");
+					data = compressor.decompress(data);
+				} catch (IOException e) {
+					// The remote entity sent a frame we can't read, close the connection
+					System.out.println(e);
+					error(socketChannel, 1);
+					key.cancel();
+					socketChannel.close();
+					decoder.release();
+					return;
+				}
+			}
+			processReadData(socketChannel, data, frame.messageType, frame.requestId);
+		}
+
 		if (numRead == -1) {
 			// Remote entity shut the socket down cleanly. Do the
 			// same from our end and cancel the channel.
 			key.channel().close();
 			key.cancel();
-			return;
+			decoder.release();
 		}
 
-		processReadData(socketChannel, readBuffer.array(), messageType);
-
 	}
 
-	protected void processReadData(SocketChannel socketChannel, byte[] data, String messageType) throws IOException {
+	protected void processReadData(SocketChannel socketChannel, ByteBuffer data, String messageType, int requestId) throws IOException {
 	}
 
 	public void run() {
@@ -201,9 +799,18 @@ public abstract class NonBlockingSocketTransport implements Runnable {
 			try {
 				// Process any pending changes
 				performPendingChanges();
-
-				// Wait for an event one of the registered channels
-				selector.select();
+				applyReadInterest();
+
+				// Wait for an event one of the registered channels, or until a held back write is due. The selector
+				// waits in whole milliseconds, so it waits for the whole milliseconds left and the rest is polled for.
+				long lingerTimeout = getLingerTimeout();
+				if (lingerTimeout == 0)
+					selector.select();
+				else if (lingerTimeout >= 1000000)
+					selector.select(lingerTimeout / 1000000);
+				else if (selector.selectNow() == 0)
+					Thread.onSpinWait();
+				flushLingering();
 
 				// Iterate over the set of keys for which events are available
 				Iterator selectedKeys = selector.selectedKeys().iterator();
@@ -256,7 +863,7 @@ public abstract class NonBlockingSocketTransport implements Runnable {
 
 		// Register the new SocketChannel with our Selector, indicating
 		// we'd like to be notified when there's data waiting to be read
-		socketChannel.register(selector, SelectionKey.OP_READ);
+		socketChannel.register(selector, getReadInterest(socketChannel));
 	}
 
 	protected void finishConnection(SelectionKey key) throws IOException {
@@ -277,6 +884,52 @@ public abstract class NonBlockingSocketTransport implements Runnable {
 
 	}
 
+	// Stop or resume reading from the connections. While reading is paused, data already read is still
+	// processed, but no more is taken off the sockets.
+	public void setReadPaused(boolean paused) {
+		if (readPaused == paused)
+			return;
+		readPaused = paused;
+		readInterestChanged = true;
+		if (selector != null)
+			selector.wakeup();
+	}
+
+	public boolean isReadPaused() {
+		return readPaused;
+	}
+
+	// Stop or resume reading from the specified connection only
+	public void setReadPaused(SocketChannel socketChannel, boolean paused) throws IOException {
+		if (paused)
+			pausedChannels.add(socketChannel);
+		else
+			pausedChannels.remove(socketChannel);
+
+		if (changeRequests.offer(new ChangeRequest(socketChannel, ChangeRequest.READINTEREST, 0)) == false)
+			throw new IOException("Internal request buffer is full");
+		selector.wakeup();
+	}
+
+	// The interest ops of a connection that has nothing to write
+	protected int getReadInterest(SocketChannel socketChannel) {
+		return readPaused || pausedChannels.contains(socketChannel) ? 0 : SelectionKey.OP_READ;
+	}
+
+	// Set the read interest of the connections that have nothing to write after reading has been paused or
+	// resumed. Connections writing get it back once their data has been written. Only called by the
+	// selecting thread.
+	protected void applyReadInterest() {
+		if (readInterestChanged == false)
+			return;
+		readInterestChanged = false;
+
+		for (SelectionKey key : selector.keys()) {
+			if (key.isValid() && key.channel() instanceof SocketChannel && (key.interestOps() & ~SelectionKey.OP_READ) == 0)
+				key.interestOps(getReadInterest((SocketChannel) key.channel()));
+		}
+	}
+
 	public void start() throws IOException {
 		stop = false;
 		selector = initSelector();
@@ -290,40 +943,39 @@ public abstract class NonBlockingSocketTransport implements Runnable {
 
 	}
 
-	protected ByteBuffer intToByteBuffer(int i) throws IOException {
-		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-		DataOutputStream dataStream = new DataOutputStream(byteStream);
-		dataStream.writeInt(i);
-		return ByteBuffer.wrap(byteStream.toByteArray());
-
-	}
-
-	protected int byteBufferToInt(ByteBuffer buf) throws IOException {
-		InputStream byteStream = new ByteArrayInputStream(buf.array());
-		DataInputStream dataStream = new DataInputStream(byteStream);
-		return dataStream.readInt();
-	}
-
 	protected synchronized void performPendingChanges() {
 		try {
-			// Process any pending changes
+			// Process all pending changes. A change that fails must not hold back the ones queued behind it.
 			ChangeRequest change = changeRequests.poll();
 			while (change != null) {
-				switch (change.type) {
-				case ChangeRequest.CHANGEOPS:
+				try {
 					SelectionKey key = change.socketChannel.keyFor(selector);
-					key.interestOps(change.ops);
-				case ChangeRequest.REGISTER:
-					change.socketChannel.register(selector, change.ops);
-					return;
+					switch (change.type) {
+					case ChangeRequest.CHANGEOPS:
+						// A channel still completing its connection keeps its connect interest. The write
+						// interest is set once the connection has been established.
+						if (key != null && key.isValid() && (key.interestOps() & SelectionKey.OP_CONNECT) == 0) {
+							key.interestOps(change.ops);
+							break;
+						}
+						if (key != null)
+							break;
+					case ChangeRequest.REGISTER:
+						change.socketChannel.register(selector, change.ops);
+						break;
+					case ChangeRequest.READINTEREST:
+						if (key != null && key.isValid() && (key.interestOps() & ~SelectionKey.OP_READ) == 0)
+							key.interestOps(getReadInterest(change.socketChannel));
+						break;
+					}
+				} catch (Exception e) {
+					System.out.println(e);
 				}
 				change = changeRequests.poll();
 			}
 
-		} catch (Exception e) {
-			System.out.println(e);
 		} finally {
-			notify();
+			notifyAll();
 		}
 	}
 
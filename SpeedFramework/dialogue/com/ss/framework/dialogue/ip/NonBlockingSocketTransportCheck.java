@@ -0,0 +1,327 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.api.Dialogue;
+import com.ss.framework.dialogue.api.DialogueErrorListener;
+import com.ss.framework.dialogue.api.DialogueFactory;
+
+
+public class NonBlockingSocketTransportCheck {
+
+	// This program checks how the transport writes the frames queued for a connection when the remote end
+	// does not keep up: frames written partly and finished in later writes, a connection whose socket buffer
+	// is full, and each policy for a send queue that is full. The remote end is a plain socket on port 18430 of the loopback interface that reads
+	// nothing until the check lets it, and decodes the frames by hand. Each check prints OK or FAILED, and
+	// the program exits with 1 if any check failed.
+
+	protected static final int PORT = 18430;
+
+	// Send queue watermarks used by the queue full checks
+	protected static final int HIGH_WATERMARK = 1048576;
+
+	protected static final int LOW_WATERMARK = 524288;
+
+	protected static final int MESSAGE_SIZE = 65536;
+
+	protected static int failures = 0;
+
+	public static void main(String[] args) {
+
+		try {
+			checkPartialWrites();
+			checkFullSocketBuffer(false);
+			checkFullSocketBuffer(true);
+			checkQueueFullFailFast();
+			checkQueueFullDropOldest();
+			checkQueueFullBlock();
+		} catch (Exception e) {
+			System.out.println(e);
+			failures++;
+		}
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+		System.exit(failures == 0 ? 0 : 1);
+
+	}
+
+	// Messages are queued while the remote end reads nothing, so the socket buffer fills up and frames are
+	// written in pieces. Once the remote end reads, every message must arrive whole and in order.
+	protected static void checkPartialWrites() throws Exception {
+		ServerSocket serverSocket = createServerSocket(PORT);
+		Dialogue client = createClient(PORT);
+		try {
+			List<byte[]> messages = new ArrayList<byte[]>();
+			int[] sizes = { 0, 1, 9, 100, 65536, 1048576 + 3 };
+			for (int i = 0; i < 60; i++)
+				messages.add(message(i, sizes[i % sizes.length]));
+			for (byte[] message : messages)
+				client.sendMessage("S", message);
+
+			Socket socket = serverSocket.accept();
+			try {
+				Thread.sleep(200);
+				List<byte[]> received = readFrames(socket, messages.size());
+				boolean intact = received.size() == messages.size();
+				for (int i = 0; i < received.size() && intact; i++)
+					intact = Arrays.equals(received.get(i), messages.get(i));
+				check("Frames written in pieces to a slow reader arrive whole and in order", intact);
+			} finally {
+				socket.close();
+			}
+		} finally {
+			client.stop();
+			serverSocket.close();
+		}
+	}
+
+	// Empty messages are queued until the socket buffer of a connection whose remote end reads nothing is
+	// full. The transport must then wait for the socket to take data again, not keep trying to write.
+	// Without the buffer pool the empty payload of a frame is written from a buffer of its own.
+	protected static void checkFullSocketBuffer(boolean pooled) throws Exception {
+		ServerSocket serverSocket = createServerSocket(PORT);
+		Map<String, Object> options = new HashMap<String, Object>();
+		if (pooled == false)
+			options.put(SocketDialogue.BUFFER_POOL_MAX_BYTES, 0);
+		Dialogue client = createClient(PORT, options);
+		try {
+			for (int i = 0; i < 500000; i++)
+				client.sendMessage("S", new byte[0]);
+			Socket socket = serverSocket.accept();
+			try {
+				Thread.sleep(1000);
+				long cpuMillis = cpuMillis();
+				Thread.sleep(1000);
+				cpuMillis = cpuMillis() - cpuMillis;
+				check("A connection with a full socket buffer does not keep the CPU busy" + (pooled ? "" : " without the buffer pool") + " (" + cpuMillis + " ms in 1000 ms)", cpuMillis < 100);
+
+				List<byte[]> received = readFrames(socket, 500000);
+				check("Every empty message arrives once the remote end reads", received.size() == 500000);
+			} finally {
+				socket.close();
+			}
+		} finally {
+			client.stop();
+			serverSocket.close();
+		}
+	}
+
+	// With FAIL_FAST a sender gets an exception once the queue is full. The messages queued before must all
+	// arrive.
+	protected static void checkQueueFullFailFast() throws Exception {
+		ServerSocket serverSocket = createServerSocket(PORT);
+		Dialogue client = createClient(PORT, queueOptions(SocketDialogue.QUEUE_FULL_FAIL_FAST));
+		try {
+			int sent = 0;
+			boolean refused = false;
+			while (refused == false && sent < 1000) {
+				try {
+					client.sendMessage("S", numbered(sent, MESSAGE_SIZE));
+					sent++;
+				} catch (DialogueException e) {
+					refused = true;
+				}
+			}
+			check("A message sent to a full queue is refused with FAIL_FAST (after " + sent + " messages)", refused);
+
+			Socket socket = serverSocket.accept();
+			try {
+				check("The messages queued before the queue was full all arrive", numbers(readFrames(socket, 1000)).equals(sequence(0, sent)));
+			} finally {
+				socket.close();
+			}
+		} finally {
+			client.stop();
+			serverSocket.close();
+		}
+	}
+
+	// With DROP_OLDEST a sender never waits or fails. The oldest messages not yet being written are dropped
+	// and reported to the error listeners, so the latest message always arrives.
+	protected static void checkQueueFullDropOldest() throws Exception {
+		ServerSocket serverSocket = createServerSocket(PORT);
+		Dialogue client = createClient(PORT, queueOptions(SocketDialogue.QUEUE_FULL_DROP_OLDEST));
+		final AtomicInteger dropped = new AtomicInteger();
+		client.addErrorListener(new DialogueErrorListener() {
+
+			public void sendFailed(String destinationAlias, DialogueException exception) {
+				dropped.incrementAndGet();
+			}
+		});
+		try {
+			int count = 200;
+			for (int i = 0; i < count; i++)
+				client.sendMessage("S", numbered(i, MESSAGE_SIZE));
+
+			Socket socket = serverSocket.accept();
+			try {
+				List<Integer> numbers = numbers(readFrames(socket, count));
+				boolean ascending = true;
+				for (int i = 1; i < numbers.size(); i++)
+					ascending &= numbers.get(i) > numbers.get(i - 1);
+				check("The oldest messages of a full queue are dropped with DROP_OLDEST (" + (count - numbers.size()) + " dropped)", numbers.size() < count && ascending && numbers.get(numbers.size() - 1) == count - 1);
+				check("Dropped messages are reported to the error listeners", dropped.get() > 0);
+			} finally {
+				socket.close();
+			}
+		} finally {
+			client.stop();
+			serverSocket.close();
+		}
+	}
+
+	// With BLOCK a sender waits while the queue is full, and goes on once the remote end reads. No message
+	// is lost.
+	protected static void checkQueueFullBlock() throws Exception {
+		ServerSocket serverSocket = createServerSocket(PORT);
+		final Dialogue client = createClient(PORT, queueOptions(SocketDialogue.QUEUE_FULL_BLOCK));
+		try {
+			final int count = 200;
+			Thread sender = new Thread() {
+
+				public void run() {
+					try {
+						for (int i = 0; i < count; i++)
+							client.sendMessage("S", numbered(i, MESSAGE_SIZE));
+					} catch (DialogueException e) {
+						System.out.println(e);
+					}
+				}
+			};
+			sender.start();
+			sender.join(1000);
+			check("A sender waits while the queue is full with BLOCK", sender.isAlive());
+
+			Socket socket = serverSocket.accept();
+			try {
+				List<byte[]> frames = readFrames(socket, count);
+				sender.join(5000);
+				check("A waiting sender goes on once the remote end reads, and every message arrives", sender.isAlive() == false && numbers(frames).equals(sequence(0, count)));
+			} finally {
+				socket.close();
+			}
+		} finally {
+			client.stop();
+			serverSocket.close();
+		}
+	}
+
+	protected static Map<String, Object> queueOptions(String policy) {
+		Map<String, Object> options = new HashMap<String, Object>();
+		options.put(SocketDialogue.SEND_QUEUE_HIGH_WATERMARK, HIGH_WATERMARK);
+		options.put(SocketDialogue.SEND_QUEUE_LOW_WATERMARK, LOW_WATERMARK);
+		options.put(SocketDialogue.SEND_QUEUE_FULL_POLICY, policy);
+		return options;
+	}
+
+	protected static Dialogue createClient(int port) throws Exception {
+		return createClient(port, new HashMap<String, Object>());
+	}
+
+	// Create a client of the specified port, with the specified options in place of their defaults
+	protected static Dialogue createClient(int port, Map<String, Object> options) throws Exception {
+		Dialogue client = DialogueFactory.createIPDialogue();
+		Map<String, Object> clientOptions = new HashMap<String, Object>(client.getOptions());
+		clientOptions.putAll(options);
+		client.setOptions(clientOptions);
+		client.addDestination(DialogueFactory.createIPDestination("S", "127.0.0.1", port));
+		client.start();
+		return client;
+	}
+
+	// A server socket with a small receive buffer, so the socket buffers of a connection fill up soon
+	protected static ServerSocket createServerSocket(int port) throws IOException {
+		ServerSocket serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.setReceiveBufferSize(4096);
+		serverSocket.bind(new InetSocketAddress("127.0.0.1", port));
+		return serverSocket;
+	}
+
+	// Read the specified number of frames, giving up once nothing arrives for two seconds, and return their
+	// payloads
+	protected static List<byte[]> readFrames(Socket socket, int count) throws IOException {
+		socket.setSoTimeout(2000);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		List<byte[]> payloads = new ArrayList<byte[]>();
+		try {
+			while (payloads.size() < count) {
+				byte type = in.readByte();
+				in.readInt();
+				int length = in.readInt();
+				if (type != SocketDialogueServerMessage.TYPE_NORMAL.charAt(0) || length < 0)
+					throw new IOException("Invalid frame received");
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				payloads.add(payload);
+			}
+		} catch (SocketTimeoutException e) {
+			// Nothing more was sent
+		} catch (IOException e) {
+			System.out.println(e);
+		}
+		return payloads;
+	}
+
+	// CPU time used by all threads of the process so far
+	protected static long cpuMillis() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		long nanos = 0;
+		for (long threadId : threadMXBean.getAllThreadIds())
+			nanos += Math.max(0, threadMXBean.getThreadCpuTime(threadId));
+		return nanos / 1000000;
+	}
+
+	// A message starting with its number
+	protected static byte[] numbered(int number, int length) {
+		byte[] message = message(number, length);
+		ByteBuffer.wrap(message).putInt(number);
+		return message;
+	}
+
+	protected static List<Integer> numbers(List<byte[]> messages) {
+		List<Integer> numbers = new ArrayList<Integer>();
+		for (byte[] message : messages)
+			numbers.add(ByteBuffer.wrap(message).getInt());
+		return numbers;
+	}
+
+	protected static List<Integer> sequence(int from, int to) {
+		List<Integer> numbers = new ArrayList<Integer>();
+		for (int number = from; number < to; number++)
+			numbers.add(number);
+		return numbers;
+	}
+
+	protected static byte[] message(int seed, int length) {
+		byte[] message = new byte[length];
+		for (int i = 0; i < length; i++)
+			message[i] = (byte) (seed * 31 + i);
+		return message;
+	}
+
+	protected static void check(String description, boolean passed) {
+		System.out.println((passed ? "OK: " : "FAILED: ") + description);
+		if (passed == false)
+			failures++;
+	}
+
+}
@@ -0,0 +1,133 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SocketBufferPool {
+
+	// Smallest buffer handed out by the pool. Smaller requests are rounded up to this size.
+	public static final int MIN_BUFFER_SIZE = 512;
+
+	// Largest buffer handed out by the pool. Buffers are kept in size classes that are powers of two
+	// from MIN_BUFFER_SIZE up to this size.
+	protected int maxBufferSize;
+
+	// Maximum number of bytes kept in the pool. Released buffers above this limit are left to the garbage
+	// collector.
+	protected long maxPooledBytes;
+
+	protected AtomicLong pooledBytes = new AtomicLong();
+
+	// One queue of free buffers per size class
+	protected Queue<ByteBuffer>[] sizeClasses;
+
+	// True if buffers that are never released should be tracked
+	protected boolean debugMode = false;
+
+	// Buffers handed out and not yet released, with the place they were acquired (debug mode only)
+	protected Map<ByteBuffer, Throwable> outstanding = Collections.synchronizedMap(new IdentityHashMap<ByteBuffer, Throwable>());
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public SocketBufferPool(int maxBufferSize, long maxPooledBytes, boolean debugMode) {
+		this.maxBufferSize = MIN_BUFFER_SIZE;
+		while (this.maxBufferSize < maxBufferSize)
+			this.maxBufferSize <<= 1;
+		this.maxPooledBytes = maxPooledBytes;
+		this.debugMode = debugMode;
+
+		sizeClasses = new Queue[sizeClass(this.maxBufferSize) + 1];
+		for (int i = 0; i < sizeClasses.length; i++)
+			sizeClasses[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	}
+
+	public int getMaxBufferSize() {
+		return maxBufferSize;
+	}
+
+	// Get a cleared direct buffer with a limit of the specified size. Requests larger than the maximum
+	// buffer size get a buffer that is not returned to the pool when released.
+	public ByteBuffer acquire(int size) {
+		ByteBuffer buffer = null;
+		if (size <= maxBufferSize) {
+			int sizeClass = sizeClass(size);
+			buffer = sizeClasses[sizeClass].poll();
+			if (buffer == null)
+				buffer = ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << sizeClass);
+			else
+				pooledBytes.addAndGet(-buffer.capacity());
+		} else {
+			buffer = ByteBuffer.allocateDirect(size);
+		}
+
+		buffer.clear();
+		buffer.limit(size);
+
+		if (debugMode)
+			outstanding.put(buffer, new Throwable("Buffer of " + size + " bytes acquired"));
+
+		return buffer;
+
+	}
+
+	// Give a buffer acquired from this pool back to it
+	public void release(ByteBuffer buffer) {
+		if (buffer == null)
+			return;
+
+		if (debugMode && outstanding.remove(buffer) == null) {
+			System.out.println("Buffer of " + buffer.capacity() + " bytes released twice or not acquired from the pool");
+			return;
+		}
+
+		int capacity = buffer.capacity();
+		if (buffer.isDirect() == false || capacity > maxBufferSize || capacity != (MIN_BUFFER_SIZE << sizeClass(capacity)))
+			return;
+
+		// Leave the buffer to the garbage collector if the pool is full
+		if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+			pooledBytes.addAndGet(-capacity);
+			return;
+		}
+
+		sizeClasses[sizeClass(capacity)].offer(buffer);
+
+	}
+
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	// Number of buffers handed out and not yet released (debug mode only)
+	public int getOutstandingCount() {
+		return outstanding.size();
+	}
+
+	// Write the buffers that have not been released, and where they were acquired, to the system log
+	// (debug mode only)
+	public void reportLeaks() {
+		synchronized (outstanding) {
+			for (Throwable acquiredAt : outstanding.values()) {
+				System.out.println("Buffer leak: " + acquiredAt.getMessage() + " and never released");
+				acquiredAt.printStackTrace(System.out);
+			}
+		}
+
+	}
+
+	protected int sizeClass(int size) {
+		int sizeClass = 0;
+		while ((MIN_BUFFER_SIZE << sizeClass) < size)
+			sizeClass++;
+
+		return sizeClass;
+	}
+
+}
@@ -3,39 +3,192 @@
 package com.ss.framework.dialogue.ip;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.ss.framework.dialogue.api.DialogueListener;
+import com.ss.framework.dialogue.DialogueMetricsImpl;
+import com.ss.framework.dialogue.api.DialogueOrderingKeyExtractor;
 import com.ss.framework.dialogue.api.DialogueServerMessage;
 
 
 public class SocketDataProcessor implements Runnable {
 
+	// Maximum number of messages a worker processes from one lane before giving other lanes a turn
+	protected static final int LANE_BATCH_SIZE = 64;
+
+	// How long (in milliseconds) a worker above the minimum thread count may be idle before it ends
+	protected static final long WORKER_KEEP_ALIVE = 60000;
+
 	protected boolean stop = false;
 
-	private BlockingQueue<DataEvent> queue = new LinkedBlockingQueue<DataEvent>();
+	// Lanes holding messages waiting to be processed. A lane is only in this queue while no worker owns it.
+	private BlockingQueue<Lane> readyLanes = new LinkedBlockingQueue<Lane>();
+
+	// Maps an ordering key to the lane of messages waiting for that key
+	private Map<Object, Lane> lanes = new HashMap<Object, Lane>();
 
 	protected SocketDialogue dialogue;
 
+	protected DialogueOrderingKeyExtractor orderingKeyExtractor;
+
+	protected int minThreads = 1;
+
+	protected int maxThreads = 1;
+
+	protected AtomicInteger workerCount = new AtomicInteger();
+
+	protected AtomicInteger idleWorkerCount = new AtomicInteger();
+
+	protected ThreadGroup threadGroup;
+
+	// How listeners are run: on the data processor's threads or on a thread of their own for each message
+	protected String listenerExecution = SocketDialogue.LISTENER_EXECUTION_DATA_PROCESSOR;
+
+	// Runs the listeners when each message gets a thread of its own (null otherwise)
+	protected ExecutorService listenerExecutor;
+
+	// Limits the number of messages passed to the listeners at the same time when each message gets a thread
+	// of its own
+	protected Semaphore listenerPermits;
+
+	// Tasks waiting for a permit. The permit of a task that finishes is handed to the first of them.
+	protected Queue<Runnable> waitingTasks = new LinkedList<Runnable>();
+
+	// The server that has been told to stop reading while tasks are waiting (null if none has)
+	protected SocketDialogueServer busyServer;
+
+	// True if messages with the same ordering key are passed to the listeners one at a time, in order, when
+	// each message gets a thread of its own
+	protected boolean listenerOrdering = true;
+
 	protected class DataEvent {
 
 		protected SocketDialogueServer server;
 
 		protected SocketChannel socket;
 
-		protected byte[] data;
+		protected ByteBuffer data;
 
 		protected String messageType;
 
-		public DataEvent(SocketDialogueServer server, SocketChannel socket, byte[] data, String messageType) throws IOException {
+		protected int requestId;
+
+		protected DialogueServerMessage message;
+
+		protected List<DialogueServerMessage> messages;
+
+		// Time (System.nanoTime) the message was received
+		protected long receivedTime = System.nanoTime();
+
+		public DataEvent(SocketDialogueServer server, SocketChannel socket, ByteBuffer data, String messageType, int requestId) throws IOException {
 			this.server = server;
 			this.socket = socket;
 			this.data = data;
 			this.messageType = messageType;
+			this.requestId = requestId;
+		}
+
+		public DialogueServerMessage getMessage() {
+			// The first message of a batch stands for the batch
+			if (isBatch() && getMessages().isEmpty() == false)
+				return getMessages().get(0);
+
+			if (message == null)
+				message = new SocketDialogueServerMessage(server, socket, data, messageType.equals(SocketDialogueServerMessage.TYPE_RESPONSE), requestId);
+			return message;
+		}
+
+		public boolean isBatch() {
+			return messageType.equals(SocketDialogueServerMessage.TYPE_BATCH);
+		}
+
+		// The messages carried by the event. A batch frame is split into views of its messages.
+		public List<DialogueServerMessage> getMessages() {
+			if (isBatch() == false)
+				return Collections.singletonList(getMessage());
+
+			if (messages == null) {
+				messages = new ArrayList<DialogueServerMessage>();
+				try {
+					for (ByteBuffer messageData : SocketFrame.decodeBatch(data))
+						messages.add(new SocketDialogueServerMessage(server, socket, messageData, false, NonBlockingSocketTransport.NO_REQUEST_ID));
+				} catch (IOException e) {
+					System.out.println(e);
+				}
+			}
+			return messages;
+		}
+
+	}
+
+	// Messages sharing an ordering key. A lane is owned by at most one worker at a time, which keeps its
+	// messages in order.
+	protected class Lane {
+
+		protected Object key;
+
+		protected Queue<DataEvent> events = new LinkedList<DataEvent>();
+
+		protected boolean scheduled = false;
+
+		public Lane(Object key) {
+			this.key = key;
+		}
+
+	}
+
+	protected class Worker implements Runnable {
+
+		public void run() {
+			processLanes(false);
+		}
+
+	}
+
+	// Passes the messages of a lane to the listeners until the lane is drained
+	protected class LaneTask implements Runnable {
+
+		protected Lane lane;
+
+		public LaneTask(Lane lane) {
+			this.lane = lane;
+		}
+
+		public void run() {
+			while (processLane(lane))
+				;
+		}
+
+	}
+
+	// Passes the messages of one event to the listeners
+	protected class EventTask implements Runnable {
+
+		protected DataEvent dataEvent;
+
+		public EventTask(DataEvent dataEvent) {
+			this.dataEvent = dataEvent;
+		}
+
+		public void run() {
+			process(Collections.singletonList(dataEvent));
 		}
 
 	}
@@ -48,53 +201,266 @@ public class SocketDataProcessor implements Runnable {
 		this.dialogue = dialogue;
 	}
 
-	public void processData(SocketDialogueServer server, SocketChannel socket, byte[] data, String messageType) throws IOException {
-		synchronized (queue) {
-			queue.add(new DataEvent(server, socket, data, messageType));
-			queue.notify();
+	public void processData(SocketDialogueServer server, SocketChannel socket, ByteBuffer data, String messageType, int requestId) throws IOException {
+		DataEvent dataEvent = new DataEvent(server, socket, data, messageType, requestId);
+
+		// Without ordering every message is passed to the listeners on a thread of its own
+		if (listenerExecutor != null && listenerOrdering == false) {
+			execute(server, new EventTask(dataEvent));
+			return;
+		}
+
+		// Messages are ordered per connection unless the user supplied ordering key says otherwise
+		Object key = null;
+		if (orderingKeyExtractor != null)
+			key = orderingKeyExtractor.getOrderingKey(dataEvent.getMessage());
+		if (key == null)
+			key = socket;
+
+		Lane newLane = null;
+		synchronized (lanes) {
+			Lane lane = lanes.get(key);
+			if (lane == null) {
+				lane = new Lane(key);
+				lanes.put(key, lane);
+			}
+			lane.events.add(dataEvent);
+			if (lane.scheduled == false) {
+				lane.scheduled = true;
+				newLane = lane;
+			}
 		}
+
+		// A lane with new messages is handed to a worker, or gets a thread of its own. The thread is started
+		// outside the lock, since waiting for a permit there would hold up the running lanes.
+		if (newLane != null) {
+			if (listenerExecutor == null)
+				readyLanes.add(newLane);
+			else
+				execute(server, new LaneTask(newLane));
+		}
+
+		// Add a worker if all workers are busy and messages are waiting
+		if (listenerExecutor == null && idleWorkerCount.get() == 0 && readyLanes.isEmpty() == false)
+			addWorker();
+	}
+
+	protected void addWorker() {
+		while (true) {
+			int count = workerCount.get();
+			if (count >= maxThreads || stop)
+				return;
+			if (workerCount.compareAndSet(count, count + 1))
+				break;
+		}
+		new Thread(threadGroup, new Worker(), "DataProcessor").start();
 	}
 
 	public void run() {
+		// Listeners running on threads of their own need no workers
+		if (listenerExecutor != null)
+			return;
 
-		DataEvent dataEvent = null;
+		// The thread running the processor is the first worker. Start the remaining minimum workers.
+		threadGroup = Thread.currentThread().getThreadGroup();
+		workerCount.incrementAndGet();
+		for (int i = 1; i < minThreads; i++) {
+			workerCount.incrementAndGet();
+			new Thread(threadGroup, new Worker(), "DataProcessor").start();
+		}
+		processLanes(true);
+	}
+
+	protected void processLanes(boolean permanent) {
+		long idleSince = System.currentTimeMillis();
 
 		while (stop == false) {
-			// Wait for data to become available
+			// Wait for a lane with messages to become available
+			Lane lane;
+			idleWorkerCount.incrementAndGet();
 			try {
-				dataEvent = queue.poll(1, TimeUnit.SECONDS);
-				while (dataEvent == null && stop == false)
-					dataEvent = queue.poll(1, TimeUnit.SECONDS);
+				lane = readyLanes.poll(1, TimeUnit.SECONDS);
 			} catch (InterruptedException e) {
-				if (stop)
-					break;
-				else
-					continue;
+				continue;
+			} finally {
+				idleWorkerCount.decrementAndGet();
+			}
+
+			if (lane == null) {
+				// Workers above the minimum end when they have been idle for a while
+				if (permanent == false && System.currentTimeMillis() - idleSince > WORKER_KEEP_ALIVE) {
+					int count = workerCount.get();
+					if (count > minThreads && workerCount.compareAndSet(count, count - 1))
+						return;
+				}
+				continue;
 			}
 
-			if (dataEvent != null) {
-				DialogueServerMessage message = new SocketDialogueServerMessage(dataEvent.server, dataEvent.socket, dataEvent.data, dataEvent.messageType.equals(SocketDialogueServerMessage.TYPE_RESPONSE));
+			// Give other lanes a turn before continuing with this one
+			if (processLane(lane))
+				readyLanes.add(lane);
+			idleSince = System.currentTimeMillis();
+		}
+
+		workerCount.decrementAndGet();
+	}
+
+	// Pass up to LANE_BATCH_SIZE frames of the lane to the listeners. Returns true if the lane still has
+	// messages waiting.
+	protected boolean processLane(Lane lane) {
+		// Take the messages waiting in the lane (at most LANE_BATCH_SIZE frames) and dispatch them together
+		List<DataEvent> dataEvents = new ArrayList<DataEvent>();
+		synchronized (lanes) {
+			for (int i = 0; i < LANE_BATCH_SIZE && lane.events.isEmpty() == false; i++)
+				dataEvents.add(lane.events.poll());
+		}
+		process(dataEvents);
 
-				// process data
-				if (dialogue != null) {
-					Iterator<DialogueListener> iterator = dialogue.getListeners().iterator();
-					while (iterator.hasNext()) {
-						DialogueListener listener = iterator.next();
-						listener.messageRecieved(message);
+		synchronized (lanes) {
+			if (lane.events.isEmpty()) {
+				// Lane drained, forget it until the next message with its key arrives
+				lane.scheduled = false;
+				lanes.remove(lane.key);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected void process(List<DataEvent> dataEvents) {
+		// Count the time the messages waited for a worker
+		if (dialogue != null && dialogue.getMetricsRegistry().isEnabled()) {
+			long now = System.nanoTime();
+			for (DataEvent dataEvent : dataEvents) {
+				DialogueMetricsImpl metrics = dataEvent.server != null ? dataEvent.server.getMetrics(dataEvent.socket) : null;
+				if (metrics != null)
+					metrics.queueWait(now - dataEvent.receivedTime);
+			}
+		}
+
+		List<DialogueServerMessage> messages = new ArrayList<DialogueServerMessage>();
+		for (DataEvent dataEvent : dataEvents)
+			messages.addAll(dataEvent.getMessages());
+		dispatch(messages);
+	}
+
+	// Run a task on a thread of its own. If the maximum number of tasks are already running, the task waits
+	// for one of them to finish and the server stops reading until then. The calling thread is never made to
+	// wait: it is the I/O thread of the server, which a listener may be waiting for, such as to send a
+	// response.
+	protected void execute(SocketDialogueServer server, Runnable task) {
+		synchronized (waitingTasks) {
+			if (listenerPermits.tryAcquire() == false) {
+				waitingTasks.add(task);
+				if (server != null && busyServer == null) {
+					busyServer = server;
+					server.setListenersBusy(true);
+				}
+				return;
+			}
+		}
+		start(task);
+	}
+
+	// Start a task holding a permit
+	protected void start(final Runnable task) {
+		try {
+			listenerExecutor.execute(new Runnable() {
+
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						finished();
 					}
 				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The processor has been stopped
+			finished();
+		}
+	}
+
+	// Hand the permit of a finished task to the first waiting task, or give it back and let the server read
+	// again once no task is waiting
+	protected void finished() {
+		Runnable next;
+		synchronized (waitingTasks) {
+			next = waitingTasks.poll();
+			if (next == null) {
+				listenerPermits.release();
+				if (busyServer != null)
+					busyServer.setListenersBusy(false);
+				busyServer = null;
 			}
 		}
+
+		if (next != null)
+			start(next);
+	}
+
+	// Create the executor giving each task a thread of its own. Virtual threads are used when the JVM has
+	// them (Java 21 and later); older JVMs get a cached pool of platform threads instead.
+	protected ExecutorService createListenerExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {
+			final ThreadGroup listenerThreadGroup = new ThreadGroup("DialogueListeners");
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(listenerThreadGroup, runnable, "DialogueListener");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	protected void dispatch(List<DialogueServerMessage> messages) {
+		if (dialogue != null)
+			dialogue.notifyMessagesReceived(messages);
+	}
+
+	public int getWorkerCount() {
+		return workerCount.get();
 	}
 
 	public void start() {
 		stop = false;
+		if (dialogue != null) {
+			Integer threads = (Integer) dialogue.getOptions().get(SocketDialogue.DATA_PROCESSOR_THREADS);
+			minThreads = threads != null && threads > 0 ? threads : 1;
+			Integer max = (Integer) dialogue.getOptions().get(SocketDialogue.DATA_PROCESSOR_MAX_THREADS);
+			maxThreads = Math.max(minThreads, max != null ? max : minThreads);
+			orderingKeyExtractor = (DialogueOrderingKeyExtractor) dialogue.getOptions().get(SocketDialogue.ORDERING_KEY_EXTRACTOR);
+
+			String execution = (String) dialogue.getOptions().get(SocketDialogue.LISTENER_EXECUTION);
+			if (execution != null)
+				listenerExecution = execution;
+			Integer concurrency = (Integer) dialogue.getOptions().get(SocketDialogue.LISTENER_MAX_CONCURRENCY);
+			listenerPermits = new Semaphore(concurrency != null && concurrency > 0 ? concurrency : 10000);
+			Boolean ordering = (Boolean) dialogue.getOptions().get(SocketDialogue.LISTENER_ORDERING);
+			listenerOrdering = ordering == null || ordering;
+		}
+
+		listenerExecutor = listenerExecution.equals(SocketDialogue.LISTENER_EXECUTION_VIRTUAL_THREADS) ? createListenerExecutor() : null;
 	}
 
 	public void stop() {
 		stop = true;
-		synchronized (queue) {
-			queue.notify();
+
+		// Listeners already running are left to finish, messages arriving from now on are dropped
+		if (listenerExecutor != null)
+			listenerExecutor.shutdown();
+
+		// Messages waiting for a listener are dropped as well
+		synchronized (waitingTasks) {
+			waitingTasks.clear();
+			if (busyServer != null)
+				busyServer.setListenersBusy(false);
+			busyServer = null;
 		}
 	}
 }
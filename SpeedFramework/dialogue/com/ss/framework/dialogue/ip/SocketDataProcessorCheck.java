@@ -0,0 +1,289 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.api.Dialogue;
+import com.ss.framework.dialogue.api.DialogueBatchListener;
+import com.ss.framework.dialogue.api.DialogueFactory;
+import com.ss.framework.dialogue.api.DialogueListener;
+import com.ss.framework.dialogue.api.DialogueOrderingKeyExtractor;
+import com.ss.framework.dialogue.api.DialogueServerMessage;
+
+
+public class SocketDataProcessorCheck {
+
+	// This program checks how the data processor passes incoming messages to the listeners when it runs
+	// several threads: the messages of a connection, or of an ordering key, stay in order, a slow listener
+	// holds up only the messages that must wait for it, and batches reach the batch listeners whole. The
+	// servers and clients run in this process on the loopback interface, from port 18440 up. A message is
+	// "<sender>:<number>", and a listener sleeps for a message whose number is "slow". Each check prints OK
+	// or FAILED, and the program exits with 1 if any check failed.
+
+	protected static final int PORT = 18440;
+
+	protected static final int THREADS = 4;
+
+	protected static int failures = 0;
+
+	// The messages received by the server, in the order they were passed to the listener
+	protected static List<String> received = new ArrayList<String>();
+
+	public static void main(String[] args) {
+
+		try {
+			checkConnectionOrder();
+			checkSlowConnection();
+			checkOrderingKeys();
+			checkBatches();
+		} catch (Exception e) {
+			System.out.println(e);
+			failures++;
+		}
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+		System.exit(failures == 0 ? 0 : 1);
+
+	}
+
+	// Several clients send numbered messages at the same time. Every message must be received, and the
+	// messages of each client in the order they were sent.
+	protected static void checkConnectionOrder() throws Exception {
+		Dialogue server = startServer(PORT, new HashMap<String, Object>());
+		List<Dialogue> clients = new ArrayList<Dialogue>();
+		try {
+			List<Thread> senders = new ArrayList<Thread>();
+			for (int i = 0; i < THREADS * 2; i++) {
+				final Dialogue client = startClient(PORT);
+				clients.add(client);
+				final String sender = "C" + i;
+				senders.add(new Thread() {
+
+					public void run() {
+						try {
+							for (int number = 0; number < 500; number++)
+								client.sendMessage("S", sender + ":" + number);
+						} catch (DialogueException e) {
+							System.out.println(e);
+						}
+					}
+				});
+			}
+			for (Thread thread : senders)
+				thread.start();
+			for (Thread thread : senders)
+				thread.join();
+			waitForReceived(THREADS * 2 * 500, 10000);
+
+			boolean ordered = true;
+			for (int i = 0; i < THREADS * 2; i++)
+				ordered &= numbers("C" + i).equals(sequence(0, 500));
+			check("The messages of each connection are passed on in the order they were sent", received().size() == THREADS * 2 * 500 && ordered);
+		} finally {
+			stop(server, clients);
+		}
+	}
+
+	// One client sends a message that keeps the listener busy. The messages of another client must be passed
+	// on meanwhile, and the messages the first client sent after the slow one must wait for it.
+	protected static void checkSlowConnection() throws Exception {
+		Dialogue server = startServer(PORT + 1, new HashMap<String, Object>());
+		List<Dialogue> clients = new ArrayList<Dialogue>();
+		try {
+			Dialogue slowClient = startClient(PORT + 1);
+			clients.add(slowClient);
+			Dialogue client = startClient(PORT + 1);
+			clients.add(client);
+
+			slowClient.sendMessage("S", "A:slow");
+			slowClient.sendMessage("S", "A:1");
+			Thread.sleep(100);
+			long start = System.currentTimeMillis();
+			for (int number = 0; number < 10; number++)
+				client.sendMessage("S", "B:" + number);
+			waitForNumbers("B", 10, 5000);
+			long millis = System.currentTimeMillis() - start;
+
+			check("A slow listener does not hold up the messages of other connections (" + millis + " ms)", millis < 1000 && numbers("A").isEmpty());
+			waitForReceived(12, 5000);
+			check("The messages of the slow connection wait for the slow one", numbers("A").equals(Arrays.asList("slow", "1")));
+		} finally {
+			stop(server, clients);
+		}
+	}
+
+	// With an ordering key extractor the messages of one connection are ordered by key instead. A slow
+	// message holds up the later messages of its key only.
+	protected static void checkOrderingKeys() throws Exception {
+		Map<String, Object> options = new HashMap<String, Object>();
+		options.put(SocketDialogue.ORDERING_KEY_EXTRACTOR, new DialogueOrderingKeyExtractor() {
+
+			public Object getOrderingKey(DialogueServerMessage dialogMessage) {
+				return new String(dialogMessage.getBytes()).split(":")[0];
+			}
+		});
+		Dialogue server = startServer(PORT + 2, options);
+		List<Dialogue> clients = new ArrayList<Dialogue>();
+		try {
+			Dialogue client = startClient(PORT + 2);
+			clients.add(client);
+
+			client.sendMessage("S", "K1:slow");
+			client.sendMessage("S", "K1:1");
+			for (int number = 0; number < 100; number++)
+				client.sendMessage("S", "K" + (2 + number % 3) + ":" + number);
+			waitForReceived(100, 5000);
+
+			boolean ordered = true;
+			for (int key = 2; key < 5; key++) {
+				List<String> expected = new ArrayList<String>();
+				for (int number = key - 2; number < 100; number += 3)
+					expected.add(String.valueOf(number));
+				ordered &= numbers("K" + key).equals(expected);
+			}
+			check("A slow message does not hold up the messages of other keys on its connection", received().size() == 100 && numbers("K1").isEmpty());
+			check("The messages of each key are passed on in the order they were sent", ordered);
+			waitForReceived(102, 5000);
+			check("The messages of the slow key wait for the slow one", numbers("K1").equals(Arrays.asList("slow", "1")));
+		} finally {
+			stop(server, clients);
+		}
+	}
+
+	// Messages sent in batches are passed to the listeners one at a time, and to the batch listeners in
+	// batches, all in the order they were sent
+	protected static void checkBatches() throws Exception {
+		Dialogue server = startServer(PORT + 3, new HashMap<String, Object>());
+		final List<String> batched = new ArrayList<String>();
+		final int[] batchCount = new int[1];
+		server.addBatchListener(new DialogueBatchListener() {
+
+			public void messagesRecieved(List<DialogueServerMessage> dialogMessages) {
+				synchronized (batched) {
+					batchCount[0]++;
+					for (DialogueServerMessage dialogMessage : dialogMessages)
+						batched.add(new String(dialogMessage.getBytes()));
+				}
+			}
+		});
+		List<Dialogue> clients = new ArrayList<Dialogue>();
+		try {
+			Dialogue client = startClient(PORT + 3);
+			clients.add(client);
+
+			List<String> expected = new ArrayList<String>();
+			for (int batch = 0; batch < 10; batch++) {
+				List<byte[]> messages = new ArrayList<byte[]>();
+				for (int i = 0; i < 100; i++) {
+					expected.add("B:" + (batch * 100 + i));
+					messages.add(expected.get(expected.size() - 1).getBytes());
+				}
+				client.sendMessages("S", messages);
+			}
+			waitForReceived(expected.size(), 5000);
+			Thread.sleep(100);
+
+			check("The messages of batches are passed to the listeners one at a time, in order", received().equals(expected));
+			synchronized (batched) {
+				check("The messages of batches are passed to the batch listeners in batches, in order (" + batchCount[0] + " calls)", batched.equals(expected) && batchCount[0] <= 10);
+			}
+		} finally {
+			stop(server, clients);
+		}
+	}
+
+	// Start a server with THREADS data processor threads and the specified options
+	protected static Dialogue startServer(int port, Map<String, Object> options) throws DialogueException {
+		synchronized (received) {
+			received.clear();
+		}
+
+		Dialogue server = DialogueFactory.createIPDialogue(port);
+		Map<String, Object> serverOptions = new HashMap<String, Object>(server.getOptions());
+		serverOptions.put(SocketDialogue.DATA_PROCESSOR_THREADS, THREADS);
+		serverOptions.put(SocketDialogue.DATA_PROCESSOR_MAX_THREADS, THREADS);
+		serverOptions.putAll(options);
+		server.setOptions(serverOptions);
+		server.addListener(new DialogueListener() {
+
+			public void messageRecieved(DialogueServerMessage dialogMessage) {
+				String message = new String(dialogMessage.getBytes());
+				if (message.endsWith(":slow")) {
+					try {
+						Thread.sleep(1500);
+					} catch (InterruptedException e) {
+					}
+				}
+				synchronized (received) {
+					received.add(message);
+					received.notifyAll();
+				}
+			}
+		});
+		server.start();
+		return server;
+	}
+
+	protected static Dialogue startClient(int port) throws DialogueException {
+		Dialogue client = DialogueFactory.createIPDialogue();
+		client.addDestination(DialogueFactory.createIPDestination("S", "127.0.0.1", port));
+		client.start();
+		return client;
+	}
+
+	protected static void stop(Dialogue server, List<Dialogue> clients) {
+		for (Dialogue client : clients)
+			client.stop();
+		server.stop();
+	}
+
+	protected static List<String> received() {
+		synchronized (received) {
+			return new ArrayList<String>(received);
+		}
+	}
+
+	// The numbers of the messages received from the specified sender, in the order they were received
+	protected static List<String> numbers(String sender) {
+		List<String> numbers = new ArrayList<String>();
+		for (String message : received()) {
+			if (message.startsWith(sender + ":"))
+				numbers.add(message.substring(sender.length() + 1));
+		}
+		return numbers;
+	}
+
+	protected static List<String> sequence(int from, int to) {
+		List<String> numbers = new ArrayList<String>();
+		for (int number = from; number < to; number++)
+			numbers.add(String.valueOf(number));
+		return numbers;
+	}
+
+	protected static void waitForReceived(int count, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (received) {
+			while (received.size() < count && System.currentTimeMillis() < deadline)
+				received.wait(Math.max(1, deadline - System.currentTimeMillis()));
+		}
+	}
+
+	protected static void waitForNumbers(String sender, int count, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (numbers(sender).size() < count && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+	}
+
+	protected static void check(String description, boolean passed) {
+		System.out.println((passed ? "OK: " : "FAILED: ") + description);
+		if (passed == false)
+			failures++;
+	}
+
+}
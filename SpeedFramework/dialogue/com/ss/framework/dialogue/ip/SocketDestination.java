@@ -3,7 +3,12 @@
 package com.ss.framework.dialogue.ip;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.ss.framework.dialogue.AbstractDestination;
 import com.ss.framework.dialogue.DialogueException;
@@ -16,7 +21,15 @@ public class SocketDestination extends AbstractDestination implements Destinatio
 
 	public int port;
 
-	public SocketChannel socketChannel;
+	// The address connected to. Either an InetSocketAddress or, for a dialogue on the same host, a
+	// UnixDomainSocketAddress.
+	protected SocketAddress socketAddress;
+
+	// The open connections to the destination
+	public List<SocketChannel> socketChannels = new ArrayList<SocketChannel>();
+
+	// Maximum number of connections to the destination (0 to use the dialogue's CONNECTIONS_PER_DESTINATION)
+	protected int maxConnections = 0;
 
 	public SocketDestination(String alias, InetAddress hostAddress, int port) throws DialogueException {
 		super();
@@ -27,6 +40,38 @@ public class SocketDestination extends AbstractDestination implements Destinatio
 		this.alias = alias;
 		this.hostAddress = hostAddress;
 		this.port = port;
+		this.socketAddress = new InetSocketAddress(hostAddress, port);
+	}
+
+	public SocketDestination(String alias, SocketAddress socketAddress) throws DialogueException {
+		super();
+		if (alias == null || alias.trim().length() == 0)
+			throw new DialogueException("Alias name for the destination must be specified");
+		if (socketAddress == null)
+			throw new DialogueException("Remote address must be specified");
+		this.alias = alias;
+		this.socketAddress = socketAddress;
+		if (socketAddress instanceof InetSocketAddress) {
+			this.hostAddress = ((InetSocketAddress) socketAddress).getAddress();
+			this.port = ((InetSocketAddress) socketAddress).getPort();
+		}
+	}
+
+	public SocketAddress getSocketAddress() {
+		return socketAddress;
+	}
+
+	// True if the destination is reached through a Unix domain socket
+	public boolean isLocal() {
+		return socketAddress instanceof UnixDomainSocketAddress;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
 	}
 
 }
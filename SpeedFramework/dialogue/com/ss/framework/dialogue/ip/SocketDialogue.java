@@ -2,12 +2,14 @@
 
 package com.ss.framework.dialogue.ip;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 import com.ss.framework.dialogue.AbstractDialogue;
 import com.ss.framework.dialogue.DialogueEngine;
 import com.ss.framework.dialogue.DialogueUnsupportedOptionException;
+import com.ss.framework.dialogue.api.DialogueOrderingKeyExtractor;
 
 
 public class SocketDialogue extends AbstractDialogue {
@@ -30,12 +32,247 @@ public class SocketDialogue extends AbstractDialogue {
 	// The default value for this property is false.
 	public static final String DEBUG = "DEBUG";
 
+	// Server I/O threads option. Determines how many selector threads read from and write to the connections
+	// accepted by the dialogue server. Connections are accepted on a separate thread and spread across the I/O
+	// threads. Raising this value lets a server with many clients use more than one core. The default value
+	// for this property is 1.
+	public static final String SERVER_IO_THREADS = "SERVER_IO_THREADS";
+
+	// Server I/O balancing option. Determines how accepted connections are spread across the server I/O
+	// threads. Valid values are ROUND_ROBIN and LEAST_CONNECTIONS. The default value for this property is
+	// ROUND_ROBIN.
+	public static final String SERVER_IO_BALANCING = "SERVER_IO_BALANCING";
+
+	public static final String BALANCING_ROUND_ROBIN = "ROUND_ROBIN";
+
+	public static final String BALANCING_LEAST_CONNECTIONS = "LEAST_CONNECTIONS";
+
+	// Data processor threads option. Determines how many threads pass incoming messages to the dialogue
+	// listeners. With more than one thread, listeners are called concurrently and must be thread safe.
+	// Messages received on the same connection (or sharing the same ordering key) are still passed to the
+	// listeners one at a time and in the order they were received. The default value for this property is 1.
+	public static final String DATA_PROCESSOR_THREADS = "DATA_PROCESSOR_THREADS";
+
+	// Data processor max threads option. Determines how many threads the data processor may grow to when
+	// messages queue up faster than they are processed. Threads above DATA_PROCESSOR_THREADS end after being
+	// idle for a minute. The default value for this property is 1.
+	public static final String DATA_PROCESSOR_MAX_THREADS = "DATA_PROCESSOR_MAX_THREADS";
+
+	// Ordering key extractor option. A DialogueOrderingKeyExtractor that groups incoming messages for
+	// ordering purposes. Messages with the same key are processed in order, messages with different keys may
+	// be processed concurrently. When not set, messages are ordered per connection.
+	public static final String ORDERING_KEY_EXTRACTOR = "ORDERING_KEY_EXTRACTOR";
+
+	// Listener execution option. Determines which threads pass incoming messages to the dialogue listeners.
+	// With DATA_PROCESSOR the messages are passed on by the data processor threads (see
+	// DATA_PROCESSOR_THREADS). With VIRTUAL_THREADS each message, or each run of messages sharing an ordering
+	// key, is passed on by a virtual thread of its own, so listeners may block on I/O without holding up
+	// other messages or sizing a thread pool. VIRTUAL_THREADS needs Java 21; older JVMs start a platform
+	// thread instead. The default value for this property is DATA_PROCESSOR.
+	public static final String LISTENER_EXECUTION = "LISTENER_EXECUTION";
+
+	public static final String LISTENER_EXECUTION_DATA_PROCESSOR = "DATA_PROCESSOR";
+
+	public static final String LISTENER_EXECUTION_VIRTUAL_THREADS = "VIRTUAL_THREADS";
+
+	// Listener max concurrency option. Determines how many virtual threads may pass messages to the listeners
+	// at the same time when LISTENER_EXECUTION is VIRTUAL_THREADS. Once the limit is reached the dialogue
+	// server stops reading incoming messages until a thread is done. The default value for this property is
+	// 10000.
+	public static final String LISTENER_MAX_CONCURRENCY = "LISTENER_MAX_CONCURRENCY";
+
+	// Listener ordering option. When this option is set to true and LISTENER_EXECUTION is VIRTUAL_THREADS,
+	// messages received on the same connection (or sharing the same ordering key) are passed to the listeners
+	// one at a time and in the order they were received. When set to false every message gets a thread of its
+	// own and may be passed on before the messages received ahead of it. The default value for this property
+	// is true.
+	public static final String LISTENER_ORDERING = "LISTENER_ORDERING";
+
+	// Non blocking send option. When this option is set to true, sendMessage only queues the message and
+	// returns immediately without waiting for the connection to the destination to be established.
+	// Connection failures are then reported to the dialogue's DialogueErrorListeners instead of being thrown.
+	// Responses sent by the dialogue server are also queued without waiting. The default value for this
+	// property is false.
+	public static final String NON_BLOCKING_SEND = "NON_BLOCKING_SEND";
+
+	// Connections per destination option. Determines the maximum number of connections opened to each
+	// destination. A new connection is opened lazily, only when every existing connection still has data
+	// waiting to be written, and each message goes to the connection with the least data waiting. Messages
+	// sent over different connections may arrive in a different order than they were sent. A destination can
+	// override this value with SocketDestination.setMaxConnections. The default value for this property is 1.
+	public static final String CONNECTIONS_PER_DESTINATION = "CONNECTIONS_PER_DESTINATION";
+
+	// Send queue high watermark option. Determines how many bytes may be queued for writing to a single
+	// connection before the queue is considered full. What happens to data sent to a full queue is determined
+	// by the SEND_QUEUE_FULL_POLICY option. Set it to 0 for queues without limit. The default value for this
+	// property is 67108864 (64 MB).
+	public static final String SEND_QUEUE_HIGH_WATERMARK = "SEND_QUEUE_HIGH_WATERMARK";
+
+	// Send queue low watermark option. Determines how many bytes a full send queue must drain to before it
+	// accepts data again. The default value for this property is 33554432 (32 MB).
+	public static final String SEND_QUEUE_LOW_WATERMARK = "SEND_QUEUE_LOW_WATERMARK";
+
+	// Send queue full policy option. Determines what happens to data sent to a full send queue. BLOCK makes
+	// the sending thread wait until the queue has drained to the low watermark, except for senders that are
+	// never parked (asynchronous sends and non-blocking sends), which are failed as by FAIL_FAST. FAIL_FAST
+	// throws an exception to the sender, or fails the response future or reports to the DialogueErrorListeners
+	// of senders that are never parked. DROP_OLDEST discards the oldest frames not yet being written; dropped
+	// requests are reported as failed to their response handlers and dropped messages to the
+	// DialogueErrorListeners. The frames of streams are never dropped or refused. The default value for this
+	// property is BLOCK.
+	public static final String SEND_QUEUE_FULL_POLICY = "SEND_QUEUE_FULL_POLICY";
+
+	public static final String QUEUE_FULL_BLOCK = NonBlockingSocketTransport.QUEUE_FULL_BLOCK;
+
+	public static final String QUEUE_FULL_FAIL_FAST = NonBlockingSocketTransport.QUEUE_FULL_FAIL_FAST;
+
+	public static final String QUEUE_FULL_DROP_OLDEST = NonBlockingSocketTransport.QUEUE_FULL_DROP_OLDEST;
+
+	// Slow consumer timeout option. Determines how long (in seconds) the dialogue server lets the send queue
+	// of a client connection stay full before it closes the connection. Set it to 0 to never close slow
+	// connections. The default value for this property is 0.
+	public static final String SLOW_CONSUMER_TIMEOUT_SECONDS = "SLOW_CONSUMER_TIMEOUT_SECONDS";
+
+	// Send linger option. Determines how long (in microseconds) the write of a message may be held back so
+	// it can be written together with the messages sent right after it. The linger adapts to the load: a
+	// message sent to an idle connection is written at once and the linger grows to this value as messages
+	// queue up. The selector waits in whole milliseconds, so the part of a linger below a millisecond is
+	// timed by polling, which keeps the I/O thread busy while the write is held back. Set it to 0 to write
+	// every message as soon as possible. The default value for this property is 0.
+	public static final String SEND_LINGER_MICROS = "SEND_LINGER_MICROS";
+
+	// Send max batch bytes option. Determines how many bytes may queue up for a connection before a held back
+	// write goes out regardless of the linger. The default value for this property is 65536.
+	public static final String SEND_MAX_BATCH_BYTES = "SEND_MAX_BATCH_BYTES";
+
+	// Compression threshold option. Determines the size (in bytes) from which message payloads are
+	// compressed before they are sent. Payloads that do not get smaller are sent as they are. Compressed
+	// messages are always accepted, whatever this option is set to. Set it to 0 to never compress. The
+	// default value for this property is 0.
+	public static final String COMPRESSION_THRESHOLD = "COMPRESSION_THRESHOLD";
+
+	// Compression level option. A java.util.zip.Deflater compression level from 0 to 9, or -1 for the
+	// default level. The default value for this property is -1.
+	public static final String COMPRESSION_LEVEL = "COMPRESSION_LEVEL";
+
+	// Compression dictionary option. A byte[] preset dictionary that lets small messages with recurring
+	// content compress well. The sending and the receiving dialogue must use the same dictionary. There is no
+	// default value for this property.
+	public static final String COMPRESSION_DICTIONARY = "COMPRESSION_DICTIONARY";
+
+	// Compression max message size option. Determines the largest size (in bytes) a compressed message may
+	// claim to have once decompressed. A connection that sends a larger one is closed before any memory is
+	// allocated for it. Valid values are 1024 and above. The default value for this property is 67108864
+	// (64 MB).
+	public static final String COMPRESSION_MAX_MESSAGE_SIZE = "COMPRESSION_MAX_MESSAGE_SIZE";
+
+	// Buffer pool max bytes option. Determines how many bytes of direct buffers the dialogue keeps pooled for
+	// reading and writing frames. Set it to 0 to read and write from heap buffers without pooling. The
+	// default value for this property is 33554432 (32 MB).
+	public static final String BUFFER_POOL_MAX_BYTES = "BUFFER_POOL_MAX_BYTES";
+
+	// Buffer pool max buffer size option. Determines the largest buffer kept in the buffer pool. Frames
+	// larger than this are written from the heap. The default value for this property is 1048576 (1 MB).
+	// When the DEBUG option is set, pooled buffers that are never released can be listed with
+	// SocketBufferPool.reportLeaks().
+	public static final String BUFFER_POOL_MAX_BUFFER_SIZE = "BUFFER_POOL_MAX_BUFFER_SIZE";
+
+	// Metrics option. When this option is set to true the dialogue counts the messages, bytes, connections
+	// and errors of each destination and of each connection accepted by the dialogue server, and keeps
+	// histograms of response round-trip times and of the time received messages wait to be processed. The
+	// metrics are registered as MBeans with the platform MBean server while the dialogue is started. The
+	// default value for this property is true.
+	public static final String METRICS = "METRICS";
+
+	// Metrics name option. The name the dialogue's metrics MBeans are registered under. Give each dialogue in
+	// a JVM its own name. When not set, dialogues are named Dialogue-1, Dialogue-2 and so on.
+	public static final String METRICS_NAME = "METRICS_NAME";
+
+	// Multicast group option. The group (given as address:port, such as 239.255.10.1:4446) that
+	// sendMessageToAll sends to. When set, a message sent to all destinations is sent once to the group
+	// instead of once over the connection to each destination, and a dialogue with a dialogue server joins
+	// the group and passes the messages sent to it to its listeners. Every destination must listen to the
+	// same group. Response messages are still sent over the connections. Multicast messages are not sent
+	// again when lost; lost messages are counted as errors in the metrics of the group. There is no default
+	// value for this property.
+	public static final String MULTICAST_GROUP = "MULTICAST_GROUP";
+
+	// Multicast interface option. The name of the network interface (such as eth0) multicast messages are
+	// sent and received on. When not set, the interface of the local host's address is used.
+	public static final String MULTICAST_INTERFACE = "MULTICAST_INTERFACE";
+
+	// Multicast time to live option. Determines how many routers a multicast message may pass. The default
+	// value for this property is 1, which keeps messages on the local network.
+	public static final String MULTICAST_TTL = "MULTICAST_TTL";
+
+	// Multicast datagram size option. Determines the size (in bytes) of the datagrams multicast messages are
+	// sent in. Larger messages are split into several datagrams and put back together by the receivers. Keep
+	// it below the MTU of the network so datagrams are not fragmented by IP. The default value for this
+	// property is 1472.
+	public static final String MULTICAST_DATAGRAM_SIZE = "MULTICAST_DATAGRAM_SIZE";
+
+	// Multicast receive buffer size option. Determines the size (in bytes) of the socket buffer receiving
+	// multicast datagrams. A larger buffer loses fewer messages when they arrive in bursts. The default value
+	// for this property is 4194304 (4 MB).
+	public static final String MULTICAST_RECEIVE_BUFFER_SIZE = "MULTICAST_RECEIVE_BUFFER_SIZE";
+
+	// Multicast max message size option. Determines the largest message (in bytes) sent to or accepted from
+	// the multicast group. The length of a message is read from its datagrams, so a datagram claiming a
+	// larger message is dropped before any memory is allocated for it. Valid values are 1024 and above. The
+	// default value for this property is 16777216 (16 MB).
+	public static final String MULTICAST_MAX_MESSAGE_SIZE = "MULTICAST_MAX_MESSAGE_SIZE";
+
+	// Stream chunk size option. Determines the size (in bytes) of the chunks the data written to a stream
+	// opened with openStream is sent in. A chunk is sent as soon as it is full. Chunks no larger than
+	// BUFFER_POOL_MAX_BUFFER_SIZE are written from pooled buffers. Valid values are 1024 to 16777216. The
+	// default value for this property is 65536.
+	public static final String STREAM_CHUNK_SIZE = "STREAM_CHUNK_SIZE";
+
+	// Stream buffer chunks option. Determines how many chunks of a stream are held in memory on either side.
+	// The writer of a stream waits once this many chunks are queued for writing, and the dialogue server stops
+	// reading from the stream's connection once it holds this many chunks the stream listener has not read,
+	// so the writer is held back by TCP flow control. Chunks of a stream are never dropped or refused by the
+	// SEND_QUEUE_FULL_POLICY. The default value for this property is 16.
+	public static final String STREAM_BUFFER_CHUNKS = "STREAM_BUFFER_CHUNKS";
+
 	protected static Map<String, Class> supportedOptions = new HashMap<String, Class>();
 
 	static {
 		supportedOptions.put(SOCKET_IDLE_TIMEOUT_SECONDS, Integer.class);
 		supportedOptions.put(SOCKET_LIFETIME_SECONDS, Integer.class);
 		supportedOptions.put(DEBUG, Boolean.class);
+		supportedOptions.put(SERVER_IO_THREADS, Integer.class);
+		supportedOptions.put(SERVER_IO_BALANCING, String.class);
+		supportedOptions.put(DATA_PROCESSOR_THREADS, Integer.class);
+		supportedOptions.put(DATA_PROCESSOR_MAX_THREADS, Integer.class);
+		supportedOptions.put(ORDERING_KEY_EXTRACTOR, DialogueOrderingKeyExtractor.class);
+		supportedOptions.put(LISTENER_EXECUTION, String.class);
+		supportedOptions.put(LISTENER_MAX_CONCURRENCY, Integer.class);
+		supportedOptions.put(LISTENER_ORDERING, Boolean.class);
+		supportedOptions.put(NON_BLOCKING_SEND, Boolean.class);
+		supportedOptions.put(CONNECTIONS_PER_DESTINATION, Integer.class);
+		supportedOptions.put(SEND_QUEUE_HIGH_WATERMARK, Integer.class);
+		supportedOptions.put(SEND_QUEUE_LOW_WATERMARK, Integer.class);
+		supportedOptions.put(SEND_QUEUE_FULL_POLICY, String.class);
+		supportedOptions.put(SLOW_CONSUMER_TIMEOUT_SECONDS, Integer.class);
+		supportedOptions.put(SEND_LINGER_MICROS, Integer.class);
+		supportedOptions.put(SEND_MAX_BATCH_BYTES, Integer.class);
+		supportedOptions.put(COMPRESSION_THRESHOLD, Integer.class);
+		supportedOptions.put(COMPRESSION_LEVEL, Integer.class);
+		supportedOptions.put(COMPRESSION_DICTIONARY, byte[].class);
+		supportedOptions.put(COMPRESSION_MAX_MESSAGE_SIZE, Integer.class);
+		supportedOptions.put(BUFFER_POOL_MAX_BYTES, Integer.class);
+		supportedOptions.put(BUFFER_POOL_MAX_BUFFER_SIZE, Integer.class);
+		supportedOptions.put(METRICS, Boolean.class);
+		supportedOptions.put(METRICS_NAME, String.class);
+		supportedOptions.put(MULTICAST_GROUP, String.class);
+		supportedOptions.put(MULTICAST_INTERFACE, String.class);
+		supportedOptions.put(MULTICAST_TTL, Integer.class);
+		supportedOptions.put(MULTICAST_DATAGRAM_SIZE, Integer.class);
+		supportedOptions.put(MULTICAST_RECEIVE_BUFFER_SIZE, Integer.class);
+		supportedOptions.put(MULTICAST_MAX_MESSAGE_SIZE, Integer.class);
+		supportedOptions.put(STREAM_CHUNK_SIZE, Integer.class);
+		supportedOptions.put(STREAM_BUFFER_CHUNKS, Integer.class);
 	}
 
 	public SocketDialogue(DialogueEngine engine) {
@@ -47,6 +284,33 @@ public class SocketDialogue extends AbstractDialogue {
 			options.put(SOCKET_IDLE_TIMEOUT_SECONDS, 30);
 			options.put(SOCKET_LIFETIME_SECONDS, 120);
 			options.put(DEBUG, false);
+			options.put(SERVER_IO_THREADS, 1);
+			options.put(SERVER_IO_BALANCING, BALANCING_ROUND_ROBIN);
+			options.put(DATA_PROCESSOR_THREADS, 1);
+			options.put(DATA_PROCESSOR_MAX_THREADS, 1);
+			options.put(LISTENER_EXECUTION, LISTENER_EXECUTION_DATA_PROCESSOR);
+			options.put(LISTENER_MAX_CONCURRENCY, 10000);
+			options.put(LISTENER_ORDERING, true);
+			options.put(NON_BLOCKING_SEND, false);
+			options.put(CONNECTIONS_PER_DESTINATION, 1);
+			options.put(SEND_QUEUE_HIGH_WATERMARK, 67108864);
+			options.put(SEND_QUEUE_LOW_WATERMARK, 33554432);
+			options.put(SEND_QUEUE_FULL_POLICY, QUEUE_FULL_BLOCK);
+			options.put(SLOW_CONSUMER_TIMEOUT_SECONDS, 0);
+			options.put(SEND_LINGER_MICROS, 0);
+			options.put(SEND_MAX_BATCH_BYTES, 65536);
+			options.put(COMPRESSION_THRESHOLD, 0);
+			options.put(COMPRESSION_LEVEL, -1);
+			options.put(COMPRESSION_MAX_MESSAGE_SIZE, 67108864);
+			options.put(BUFFER_POOL_MAX_BYTES, 33554432);
+			options.put(BUFFER_POOL_MAX_BUFFER_SIZE, 1048576);
+			options.put(METRICS, true);
+			options.put(MULTICAST_TTL, 1);
+			options.put(MULTICAST_DATAGRAM_SIZE, 1472);
+			options.put(MULTICAST_RECEIVE_BUFFER_SIZE, 4194304);
+			options.put(MULTICAST_MAX_MESSAGE_SIZE, 16777216);
+			options.put(STREAM_CHUNK_SIZE, 65536);
+			options.put(STREAM_BUFFER_CHUNKS, 16);
 			setOptions(options);
 		} catch (DialogueUnsupportedOptionException e) {
 			System.out.println(e);
@@ -58,9 +322,45 @@ public class SocketDialogue extends AbstractDialogue {
 			if (supportedOptions.containsKey(option) == false)
 				throw new DialogueUnsupportedOptionException("Option: " + option + " not supported. Use getSupportedOptions() to list the supported options.");
 
-			if (options.get(option).getClass().equals(supportedOptions.get(option)) == false)
+			if (supportedOptions.get(option).isInstance(options.get(option)) == false)
 				throw new DialogueUnsupportedOptionException("Invalid type for option: " + option + ". Valid type is: " + supportedOptions.get(option));
 		}
+
+		Object balancing = options.get(SERVER_IO_BALANCING);
+		if (balancing != null && balancing.equals(BALANCING_ROUND_ROBIN) == false && balancing.equals(BALANCING_LEAST_CONNECTIONS) == false)
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + SERVER_IO_BALANCING + ". Valid values are: " + BALANCING_ROUND_ROBIN + ", " + BALANCING_LEAST_CONNECTIONS);
+		Object execution = options.get(LISTENER_EXECUTION);
+		if (execution != null && execution.equals(LISTENER_EXECUTION_DATA_PROCESSOR) == false && execution.equals(LISTENER_EXECUTION_VIRTUAL_THREADS) == false)
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + LISTENER_EXECUTION + ". Valid values are: " + LISTENER_EXECUTION_DATA_PROCESSOR + ", " + LISTENER_EXECUTION_VIRTUAL_THREADS);
+		Object level = options.get(COMPRESSION_LEVEL);
+		if (level != null && ((Integer) level < -1 || (Integer) level > 9))
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + COMPRESSION_LEVEL + ". Valid values are -1 to 9");
+		Object maxMessageSize = options.get(COMPRESSION_MAX_MESSAGE_SIZE);
+		if (maxMessageSize != null && (Integer) maxMessageSize < 1024)
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + COMPRESSION_MAX_MESSAGE_SIZE + ". Valid values are 1024 and above");
+		Object policy = options.get(SEND_QUEUE_FULL_POLICY);
+		if (policy != null && policy.equals(QUEUE_FULL_BLOCK) == false && policy.equals(QUEUE_FULL_FAIL_FAST) == false && policy.equals(QUEUE_FULL_DROP_OLDEST) == false)
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + SEND_QUEUE_FULL_POLICY + ". Valid values are: " + QUEUE_FULL_BLOCK + ", " + QUEUE_FULL_FAIL_FAST + ", " + QUEUE_FULL_DROP_OLDEST);
+		Object group = options.get(MULTICAST_GROUP);
+		if (group != null) {
+			try {
+				SocketMulticastTransport.parseGroup((String) group);
+			} catch (IOException e) {
+				throw new DialogueUnsupportedOptionException("Invalid value for option: " + MULTICAST_GROUP + ". " + e.getMessage());
+			}
+		}
+		Object datagramSize = options.get(MULTICAST_DATAGRAM_SIZE);
+		if (datagramSize != null && ((Integer) datagramSize <= SocketMulticastTransport.FRAGMENT_HEADER_SIZE || (Integer) datagramSize > 65507))
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + MULTICAST_DATAGRAM_SIZE + ". Valid values are " + (SocketMulticastTransport.FRAGMENT_HEADER_SIZE + 1) + " to 65507");
+		Object multicastMaxMessageSize = options.get(MULTICAST_MAX_MESSAGE_SIZE);
+		if (multicastMaxMessageSize != null && (Integer) multicastMaxMessageSize < 1024)
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + MULTICAST_MAX_MESSAGE_SIZE + ". Valid values are 1024 and above");
+		Object chunkSize = options.get(STREAM_CHUNK_SIZE);
+		if (chunkSize != null && ((Integer) chunkSize < 1024 || (Integer) chunkSize > 16777216))
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + STREAM_CHUNK_SIZE + ". Valid values are 1024 to 16777216");
+		Object bufferChunks = options.get(STREAM_BUFFER_CHUNKS);
+		if (bufferChunks != null && (Integer) bufferChunks < 2)
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + STREAM_BUFFER_CHUNKS + ". The value must be at least 2");
 		super.setOptions(options);
 	}
 
@@ -68,4 +368,8 @@ public class SocketDialogue extends AbstractDialogue {
 		return supportedOptions;
 
 	}
+
+	protected void setReadPaused(boolean paused) {
+		((SocketDialogueEngine) engine).setReadPaused(paused);
+	}
 }
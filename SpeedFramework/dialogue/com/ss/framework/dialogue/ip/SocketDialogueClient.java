@@ -1,19 +1,29 @@
 package com.ss.framework.dialogue.ip;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.ss.framework.dialogue.DialogueConnectionException;
+import com.ss.framework.dialogue.DialogueException;
 import com.ss.framework.dialogue.DialogueExceptionSet;
+import com.ss.framework.dialogue.DialogueMetricsImpl;
 import com.ss.framework.dialogue.DialogueResponseHandler;
 import com.ss.framework.dialogue.api.Destination;
 
@@ -26,7 +36,10 @@ public class SocketDialogueClient extends NonBlockingSocketTransport {
 
 	protected SocketChannelMonitor socketChannelMonitor;
 
-	protected Map<SocketChannel, DialogueResponseHandler> responseHandlerMap = Collections.synchronizedMap(new HashMap<SocketChannel, DialogueResponseHandler>());
+	// Maps a request id to the handler waiting for the response to that request
+	protected Map<Integer, ResponseEntry> responseHandlerMap = Collections.synchronizedMap(new HashMap<Integer, ResponseEntry>());
+
+	protected AtomicInteger requestIdSequence = new AtomicInteger(NO_REQUEST_ID);
 
 	protected SocketDialogue dialogue;
 
@@ -34,6 +47,28 @@ public class SocketDialogueClient extends NonBlockingSocketTransport {
 
 	protected Map<SocketChannel, IOException> socketChannelExceptionMap = Collections.synchronizedMap(new HashMap<SocketChannel, IOException>());
 
+	// True if sends only queue the data and never wait for the connection
+	protected boolean nonBlockingSend = false;
+
+	// Maximum number of connections opened to each destination
+	protected int connectionsPerDestination = 1;
+
+	protected class ResponseEntry {
+
+		public SocketChannel socketChannel;
+
+		public DialogueResponseHandler handler;
+
+		// Time (System.nanoTime) the request was sent
+		public long sendTime = System.nanoTime();
+
+		public ResponseEntry(SocketChannel socketChannel, DialogueResponseHandler handler) {
+			this.socketChannel = socketChannel;
+			this.handler = handler;
+		}
+
+	}
+
 	public SocketDialogueClient(SocketDialogue dialogue) throws IOException {
 		this.dialogue = dialogue;
 	}
@@ -49,54 +84,94 @@ public class SocketDialogueClient extends NonBlockingSocketTransport {
 		if (dest == null)
 			throw new IOException("Destination with alias: " + destinationAlias + ", not active in dialogue");
 
-		SocketChannel socketChannel = dest.socketChannel;
-
-		boolean expired = socketChannelMonitor != null && socketChannelMonitor.socketChannelExpired(socketChannel);
-		if (socketChannel == null || (socketChannel.isConnectionPending() == false && socketChannel.isConnected() == false) || expired) {
+		// Pick the connection with the least data waiting to be written, dropping the ones that have been
+		// closed or reached the end of their lifetime
+		SocketChannel socketChannel = null;
+		long leastQueuedBytes = 0;
+		boolean replaced = false;
+		Iterator<SocketChannel> iterator = dest.socketChannels.iterator();
+		while (iterator.hasNext()) {
+			SocketChannel candidate = iterator.next();
+			if (candidate.isConnectionPending() == false && candidate.isConnected() == false) {
+				// Cleanup if the socket channel has been closed
+				cleanup(candidate);
+				iterator.remove();
+				replaced = true;
+				continue;
+			}
+			if (socketChannelMonitor != null && socketChannelMonitor.socketChannelExpired(candidate)) {
+				iterator.remove();
+				replaced = true;
+				continue;
+			}
 
-			// Cleanup if the socket channel has been closed
-			if (socketChannel != null && (socketChannel.isConnectionPending() == false && socketChannel.isConnected() == false))
-				cleanup(socketChannel);
+			long queuedBytes = getQueuedBytes(candidate);
+			if (socketChannel == null || queuedBytes < leastQueuedBytes) {
+				socketChannel = candidate;
+				leastQueuedBytes = queuedBytes;
+			}
+		}
 
-			socketChannel = SocketChannel.open();
-			dest.socketChannel = socketChannel;
+		// Open another connection only when all existing ones are busy writing
+		int maxConnections = dest.getMaxConnections() > 0 ? dest.getMaxConnections() : connectionsPerDestination;
+		if (socketChannel == null || (leastQueuedBytes > 0 && dest.socketChannels.size() < maxConnections)) {
+			socketChannel = dest.isLocal() ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+			dest.socketChannels.add(socketChannel);
 			socketChannel.configureBlocking(false);
 
-			// Kick off connection establishment
-			socketChannel.connect(new InetSocketAddress(dest.hostAddress, dest.port));
+			// Kick off connection establishment. A Unix domain socket usually connects at once.
+			boolean connected = socketChannel.connect(dest.getSocketAddress());
 
 			destinationSocketMap.put(socketChannel, destinationAlias);
 
+			// Count the connection's traffic in the destination's metrics
+			DialogueMetricsImpl metrics = dialogue.getMetricsRegistry().getDestinationMetrics(destinationAlias);
+			if (metrics != null) {
+				channelMetrics.put(socketChannel, metrics);
+				if (replaced)
+					metrics.reconnected();
+				if (connected)
+					metrics.connected();
+			}
+
 			if (socketChannelMonitor != null)
 				socketChannelMonitor.addSocketChannel(socketChannel);
 
 			// Queue a channel registration. As part of the registration we'll register
 			// an interest in connection events. These are raised when a channel
-			// is ready to complete connection establishment.
-			if (changeRequests.offer(new ChangeRequest(socketChannel, ChangeRequest.REGISTER, SelectionKey.OP_CONNECT)) == false)
+			// is ready to complete connection establishment. A channel that is already
+			// connected never raises them and is registered for writing instead.
+			if (changeRequests.offer(new ChangeRequest(socketChannel, ChangeRequest.REGISTER, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT)) == false)
 				throw new IOException("Internal request buffer is full");
 
-		} else {
-			ChangeRequest writeRequest = new ChangeRequest(socketChannel, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE);
-			if (changeRequests.contains(writeRequest) == false)
-				if (changeRequests.offer(writeRequest) == false)
-					throw new IOException("Internal request buffer is full");
 		}
 
 		return socketChannel;
 	}
 
-	protected void processReadData(SocketChannel socketChannel, byte[] data, String messageType) throws IOException {
+	protected void processReadData(SocketChannel socketChannel, ByteBuffer data, String messageType, int requestId) throws IOException {
 		// Handle the response
-		handleResponse(socketChannel, data, messageType);
+		handleResponse(socketChannel, data, messageType, requestId);
 
 	}
 
 	public void send(List<String> destinationAliases, byte[] data, DialogueResponseHandler handler) throws DialogueExceptionSet {
+		send(destinationAliases, data, handler, nonBlockingSend == false);
+	}
+
+	// Send data to several destinations. The data is queued for every destination before anything is waited
+	// for, so the connections to the destinations are established at the same time and the send waits as long
+	// as the slowest connection, not as long as all of them together.
+	public void send(List<String> destinationAliases, byte[] data, DialogueResponseHandler handler, boolean waitForConnection) throws DialogueExceptionSet {
 		DialogueExceptionSet exceptionSet = null;
+		Map<String, SocketChannel> socketChannels = new LinkedHashMap<String, SocketChannel>();
 		for (String alias : destinationAliases) {
 			try {
-				send(alias, data, handler);
+				// The connection is waited for below, once the data is queued for every destination. A full queue
+				// is waited for here, unless the caller is not to be parked.
+				SocketChannel socketChannel = initiateConnection(alias);
+				if (queue(socketChannel, data, getMessageType(handler), handler, waitForConnection))
+					socketChannels.put(alias, socketChannel);
 			} catch (Exception e) {
 				if (exceptionSet == null)
 					exceptionSet = new DialogueExceptionSet("One or more errors occured during send operation.");
@@ -104,61 +179,199 @@ public class SocketDialogueClient extends NonBlockingSocketTransport {
 			}
 		}
 
+		if (waitForConnection)
+			exceptionSet = waitForConnections(socketChannels, handler, exceptionSet);
+
 		if (exceptionSet != null)
 			throw exceptionSet;
 
 	}
 
 	public void sendToAll(byte[] data, DialogueResponseHandler handler) throws DialogueExceptionSet {
+		sendToAll(data, handler, nonBlockingSend == false);
+	}
+
+	public void sendToAll(byte[] data, DialogueResponseHandler handler, boolean waitForConnection) throws DialogueExceptionSet {
 		if (handler != null)
 			handler.setDestinationAliases(dialogue.getDestinationAliases());
 
-		DialogueExceptionSet exceptionSet = null;
-		for (Destination dest : dialogue.getDestinations()) {
-			try {
-				send(dest.getAlias(), data, handler);
-			} catch (Exception e) {
+		List<String> destinationAliases = new ArrayList<String>();
+		for (Destination dest : dialogue.getDestinations())
+			destinationAliases.add(dest.getAlias());
+		send(destinationAliases, data, handler, waitForConnection);
+
+	}
+
+	// Wait until the connection to each of the destinations is established or has failed. Failed connections
+	// are added to the exception set for normal messages; for response messages the handler already has them.
+	protected DialogueExceptionSet waitForConnections(Map<String, SocketChannel> socketChannels, DialogueResponseHandler handler, DialogueExceptionSet exceptionSet) {
+		synchronized (this) {
+			while (changeRequests.isEmpty() == false) {
+				try {
+					wait();
+				} catch (Exception e) {
+					break;
+				}
+			}
+
+			while (isConnectionPending(socketChannels.values())) {
+				try {
+					wait();
+				} catch (Exception e) {
+					break;
+				}
+			}
+		}
+
+		if (handler == null) {
+			for (Map.Entry<String, SocketChannel> entry : socketChannels.entrySet()) {
+				IOException e = socketChannelExceptionMap.get(entry.getValue());
+				if (e == null)
+					continue;
 				if (exceptionSet == null)
 					exceptionSet = new DialogueExceptionSet("One or more errors occured during send operation.");
-				exceptionSet.addException(dest.getAlias(), e);
+				exceptionSet.addException(entry.getKey(), e);
 			}
 		}
+		return exceptionSet;
 
-		if (exceptionSet != null)
-			throw exceptionSet;
+	}
 
+	// True if any of the connections is neither established nor failed
+	protected boolean isConnectionPending(Collection<SocketChannel> socketChannels) {
+		for (SocketChannel socketChannel : socketChannels) {
+			if (socketChannel.isOpen() && socketChannel.isConnected() == false && socketChannelExceptionMap.containsKey(socketChannel) == false)
+				return true;
+		}
+		return false;
 	}
 
 	public void send(String destinationAlias, byte[] data, DialogueResponseHandler handler) throws IOException {
+		send(destinationAlias, data, handler, nonBlockingSend == false);
+
+	}
+
+	// Send data to the destination. When waitForConnection is false the data is only queued and the caller
+	// is never parked. Connection failures are then reported through the response handler.
+	public void send(String destinationAlias, byte[] data, DialogueResponseHandler handler, boolean waitForConnection) throws IOException {
 		// Start a new connection
 		SocketChannel socketChannel = initiateConnection(destinationAlias);
 		// Send data
-		send(socketChannel, data, handler);
+		send(socketChannel, data, handler, waitForConnection);
 
 	}
 
-	protected void send(SocketChannel socketChannel, byte[] data, DialogueResponseHandler handler) throws IOException {
-		// Register the response handler
-		if (handler != null)
-			responseHandlerMap.put(socketChannel, handler);
-
-		// And queue the data we want written
-		synchronized (pendingData) {
-			BlockingQueue<SendRequest> queue = pendingData.get(socketChannel);
-			if (queue == null) {
-				queue = new LinkedBlockingQueue<SendRequest>();
-				pendingData.put(socketChannel, queue);
+	// Send several messages to the destination in a single batch frame
+	public void sendBatch(String destinationAlias, List<byte[]> messages, boolean waitForConnection) throws IOException {
+		SocketChannel socketChannel = initiateConnection(destinationAlias);
+		send(socketChannel, SocketFrame.encodeBatch(messages), SocketDialogueServerMessage.TYPE_BATCH, null, waitForConnection);
+
+	}
+
+	protected void send(SocketChannel socketChannel, byte[] data, DialogueResponseHandler handler, boolean waitForConnection) throws IOException {
+		send(socketChannel, data, getMessageType(handler), handler, waitForConnection);
+
+	}
+
+	protected String getMessageType(DialogueResponseHandler handler) {
+		return handler != null ? SocketDialogueServerMessage.TYPE_RESPONSE : SocketDialogueServerMessage.TYPE_NORMAL;
+	}
+
+	protected void send(SocketChannel socketChannel, byte[] data, String messageType, DialogueResponseHandler handler, boolean waitForConnection) throws IOException {
+		if (queue(socketChannel, data, messageType, handler, waitForConnection) == false || waitForConnection == false)
+			return;
+
+		// Wait for the connection to complete or throw an exception. If handler is null this is a normal message so we throw
+		// exception if the connection failed.
+		if (handler == null) {
+			waitForConnection(socketChannel);
+			// This is a response message. Exceptions will be thrown when the response is accessed.
+		} else {
+			waitForChanges();
+			synchronized (this) {
+				while (socketChannel.isConnected() == false && handler.hasException() == false) {
+					try {
+						wait();
+					} catch (Exception e) {
+						break;
+					}
+				}
 			}
 
-			SendRequest sendRequest = new SendRequest(ByteBuffer.wrap(data), handler != null);
+		}
 
-			if (queue.offer(sendRequest) == false)
-				throw new IOException("Dialogue Client data buffer is full");
+	}
+
+	// Register the response handler and queue the data for the channel. Returns false if nothing was queued.
+	// When mayWait is true the caller may be parked while the queue is full, and data that can not be queued
+	// is thrown as an exception. Otherwise the caller is never parked and the failure is reported through the
+	// response handler or the error listeners.
+	protected boolean queue(SocketChannel socketChannel, byte[] data, String messageType, DialogueResponseHandler handler, boolean mayWait) throws IOException {
+		// Register the response handler under a new request id
+		int requestId = NO_REQUEST_ID;
+		if (handler != null) {
+			requestId = nextRequestId();
+			final ResponseEntry entry = new ResponseEntry(socketChannel, handler);
+			final int entryRequestId = requestId;
+			responseHandlerMap.put(requestId, entry);
+
+			// Forget the request once the handler stops waiting, also when no response ever arrives
+			handler.addCompletionTask(new Runnable() {
+
+				public void run() {
+					responseHandlerMap.remove(entryRequestId, entry);
+				}
+			});
 
+			// The connection may already have failed before the handler was registered
+			IOException connectionException = socketChannelExceptionMap.get(socketChannel);
+			if (connectionException != null && responseHandlerMap.remove(requestId) != null) {
+				handler.handleException(destinationSocketMap.get(socketChannel), connectionException);
+				return false;
+			}
+		}
+
+		// And queue the data we want written. A caller that is not to be parked never waits for a full queue;
+		// the data is refused and the failure reported through the response handler or the error listeners.
+		try {
+			queueSendRequest(socketChannel, createSendRequest(data, messageType, requestId), mayWait);
+		} catch (IOException e) {
+			if (handler != null)
+				responseHandlerMap.remove(requestId);
+			if (mayWait)
+				throw e;
+
+			String destinationAlias = destinationSocketMap.get(socketChannel);
+			if (handler != null)
+				handler.handleException(destinationAlias, e);
+			else
+				dialogue.notifySendFailed(destinationAlias, new DialogueException(e));
+			return false;
 		}
 
+		requestWrite(socketChannel);
+		return true;
+
+	}
+
+	// Indicate we want to write on the channel, unless the write is held back to be coalesced with the next
+	// messages. Called after the data is queued so a write interest processed by the selecting thread always
+	// finds the data to write.
+	protected void requestWrite(SocketChannel socketChannel) throws IOException {
+		if (deferWrite(socketChannel))
+			return;
+
+		ChangeRequest writeRequest = new ChangeRequest(socketChannel, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE);
+		if (changeRequests.contains(writeRequest) == false)
+			if (changeRequests.offer(writeRequest) == false)
+				throw new IOException("Internal request buffer is full");
+
 		// Finally, wake up our selecting thread so it can make the required changes
 		selector.wakeup();
+	}
+
+	// Wait for the selecting thread to process the pending changes
+	protected void waitForChanges() {
 		synchronized (this) {
 			while (changeRequests.isEmpty() == false) {
 				try {
@@ -168,41 +381,92 @@ public class SocketDialogueClient extends NonBlockingSocketTransport {
 				}
 			}
 		}
+	}
 
-		// Wait for the connection to complete or throw an exception. If handler is null this is a normal message so we throw
-		// exception if the connection failed.
-		if (handler == null) {
-			synchronized (this) {
-				while (socketChannel.isConnected() == false && socketChannelExceptionMap.containsKey(socketChannel) == false) {
-					try {
-						wait();
-					} catch (Exception e) {
-						break;
-					}
-					if (socketChannelExceptionMap.containsKey(socketChannel))
-						throw socketChannelExceptionMap.get(socketChannel);
-				}
-			}
-			// This is a response message. Exceptions will be thrown when the response is accessed.
-		} else {
-			synchronized (this) {
-				while (socketChannel.isConnected() == false && handler.hasException() == false) {
-					try {
-						wait();
-					} catch (Exception e) {
-						break;
-					}
+	// Wait for the connection to complete. Throws the exception the connection failed with, if any.
+	protected void waitForConnection(SocketChannel socketChannel) throws IOException {
+		waitForChanges();
+		synchronized (this) {
+			while (socketChannel.isConnected() == false && socketChannelExceptionMap.containsKey(socketChannel) == false) {
+				try {
+					wait();
+				} catch (Exception e) {
+					break;
 				}
+				if (socketChannelExceptionMap.containsKey(socketChannel))
+					throw socketChannelExceptionMap.get(socketChannel);
 			}
+			// The connection may have failed before we started waiting
+			if (socketChannelExceptionMap.containsKey(socketChannel))
+				throw socketChannelExceptionMap.get(socketChannel);
+		}
+	}
 
+	// Open a stream to the destination. All chunks of the stream are sent through the same connection, which
+	// is established before the stream is returned. A named stream is opened by a frame carrying its name.
+	public SocketOutputStream openStream(String destinationAlias, String name, int chunkSize, int bufferChunks) throws IOException {
+		SocketChannel socketChannel = initiateConnection(destinationAlias);
+		// Nothing is queued yet, so wake up the selecting thread to register a new connection
+		selector.wakeup();
+		waitForConnection(socketChannel);
+		SocketOutputStream stream = new SocketOutputStream(this, socketChannel, destinationAlias, nextRequestId(), chunkSize, (long) chunkSize * bufferChunks);
+		if (name != null)
+			sendStreamFrame(socketChannel, name.getBytes(StandardCharsets.UTF_8), SocketDialogueServerMessage.TYPE_STREAM_OPEN, stream.getStreamId(), stream.maxQueuedBytes);
+		return stream;
+	}
+
+	// Queue a frame of a stream, once no more than maxQueuedBytes are waiting to be written to the connection.
+	// Returns true if the data was copied, in which case the caller may reuse its array at once.
+	protected boolean sendStreamFrame(SocketChannel socketChannel, byte[] data, String messageType, int streamId, long maxQueuedBytes) throws IOException {
+		SendRequest sendRequest = createSendRequest(data, messageType, streamId);
+		boolean copied = sendRequest.frame != null || sendRequest.compressed;
+		queueStreamFrame(socketChannel, sendRequest, maxQueuedBytes);
+		return copied;
+	}
+
+	// Queue a frame of a stream whose payload is a region of a file. The region is transferred straight from
+	// the file to the connection, so the file must be left open until the frame has been written.
+	protected void sendFileFrame(SocketChannel socketChannel, FileChannel file, long position, int count, int streamId, long maxQueuedBytes) throws IOException {
+		queueStreamFrame(socketChannel, new FileSendRequest(file, position, count, SocketDialogueServerMessage.TYPE_STREAM, streamId), maxQueuedBytes);
+	}
+
+	protected void queueStreamFrame(SocketChannel socketChannel, SendRequest sendRequest, long maxQueuedBytes) throws IOException {
+		// Data queued for a connection that has gone away would never be written
+		IOException connectionException = socketChannelExceptionMap.get(socketChannel);
+		if (connectionException == null && socketChannel.isOpen() == false)
+			connectionException = new IOException("Connection closed before the end of the stream");
+		if (connectionException != null) {
+			sendRequest.release(bufferPool);
+			throw connectionException;
 		}
 
+		// A stream's frames are never dropped or refused by the queue full policy, so the writer waits for the
+		// frames it queued before
+		try {
+			waitForDrain(socketChannel, maxQueuedBytes);
+		} catch (IOException e) {
+			sendRequest.release(bufferPool);
+			throw e;
+		}
+
+		queueSendRequest(socketChannel, sendRequest);
+		requestWrite(socketChannel);
 	}
 
 	protected void write(SelectionKey key) throws IOException {
 		if (socketChannelMonitor != null)
 			socketChannelMonitor.nudge((SocketChannel) key.channel());
-		super.write(key);
+		try {
+			super.write(key);
+		} catch (IOException e) {
+			// The connection broke while writing, give up on it and report the failure
+			key.cancel();
+			key.channel().close();
+			synchronized (this) {
+				connectionFailed((SocketChannel) key.channel(), e);
+				notifyAll();
+			}
+		}
 	}
 
 	protected void read(SelectionKey key) throws IOException {
@@ -212,20 +476,29 @@ public class SocketDialogueClient extends NonBlockingSocketTransport {
 
 	}
 
-	protected void handleResponse(SocketChannel socketChannel, byte[] data, String messageType) throws IOException {
+	protected int nextRequestId() {
+		int requestId = requestIdSequence.incrementAndGet();
+		while (requestId == NO_REQUEST_ID)
+			requestId = requestIdSequence.incrementAndGet();
+		return requestId;
+	}
+
+	protected void handleResponse(SocketChannel socketChannel, ByteBuffer data, String messageType, int requestId) throws IOException {
+
+		// Look up the handler waiting for this request
+		ResponseEntry entry = responseHandlerMap.remove(requestId);
 
-		// Look up the handler for this channel
-		DialogueResponseHandler responseHandler = responseHandlerMap.get(socketChannel);
+		if (entry != null) {
+			DialogueResponseHandler responseHandler = entry.handler;
 
-		if (responseHandler != null) {
-			// Make a correctly sized copy of the data before handing it
-			// to the client
-			byte[] responseData = new byte[data.length];
-			System.arraycopy(data, 0, responseData, 0, data.length);
+			DialogueMetricsImpl metrics = getMetrics(socketChannel);
+			if (metrics != null)
+				metrics.responseReceived(System.nanoTime() - entry.sendTime);
 
-			// And pass the response to it
+			// And pass the response to it. The frame's buffer is already correctly sized and not used by
+			// anyone else, so no copy is needed.
 			String destinationAlias = destinationSocketMap.get(socketChannel);
-			responseHandler.handleResponse(destinationAlias, responseData);
+			responseHandler.handleResponse(destinationAlias, data);
 
 		}
 
@@ -235,17 +508,67 @@ public class SocketDialogueClient extends NonBlockingSocketTransport {
 		synchronized (this) {
 			try {
 				super.finishConnection(key);
+				DialogueMetricsImpl metrics = getMetrics((SocketChannel) key.channel());
+				if (metrics != null)
+					metrics.connected();
 			} catch (IOException e) {
-				// Notify the response handler that a connection exception occured
-				DialogueResponseHandler responseHandler = responseHandlerMap.get(key.channel());
-				if (responseHandler != null) {
-					String destinationAlias = destinationSocketMap.get(key.channel());
-					responseHandler.handleException(destinationAlias, e);
-				} else {
-					socketChannelExceptionMap.put((SocketChannel) key.channel(), e);
-				}
+				connectionFailed((SocketChannel) key.channel(), e);
 			} finally {
-				notify();
+				notifyAll();
+			}
+		}
+
+	}
+
+	protected void sendRequestsDropped(SocketChannel socketChannel, List<SendRequest> dropped) {
+		// Fail the requests waiting for a response and report the dropped messages
+		String destinationAlias = destinationSocketMap.get(socketChannel);
+		IOException e = new IOException("Message dropped, the send queue to the destination is full");
+		boolean messagesDropped = false;
+		for (SendRequest sendRequest : dropped) {
+			if (sendRequest.wantResponse) {
+				ResponseEntry entry = responseHandlerMap.remove(sendRequest.requestId);
+				if (entry != null)
+					entry.handler.handleException(destinationAlias, e);
+			} else {
+				messagesDropped = true;
+			}
+		}
+
+		if (messagesDropped)
+			dialogue.notifySendFailed(destinationAlias, new DialogueException(e));
+
+	}
+
+	protected void connectionFailed(SocketChannel socketChannel, IOException e) {
+		// Record the failure first so handlers registered from now on see it, then notify the response
+		// handlers waiting on this channel that a connection exception occured
+		socketChannelExceptionMap.put(socketChannel, e);
+		error(socketChannel, 1);
+		String destinationAlias = destinationSocketMap.get(socketChannel);
+		synchronized (responseHandlerMap) {
+			Iterator<ResponseEntry> iterator = responseHandlerMap.values().iterator();
+			while (iterator.hasNext()) {
+				ResponseEntry entry = iterator.next();
+				if (entry.socketChannel == socketChannel) {
+					entry.handler.handleException(destinationAlias, e);
+					iterator.remove();
+				}
+			}
+		}
+
+		// Nobody waited for the normal messages still queued on the channel. Drop them and report the failure
+		// to the dialogue's error listeners instead.
+		BlockingQueue<SendRequest> queue = discardPendingData(socketChannel);
+		if (nonBlockingSend && queue != null) {
+			for (SendRequest sendRequest : queue) {
+				if (sendRequest.wantResponse == false) {
+					if (e instanceof ConnectException)
+						dialogue.notifySendFailed(destinationAlias, new DialogueConnectionException(e));
+					else
+						dialogue.notifySendFailed(destinationAlias, new DialogueException(e));
+					break;
+				}
 			}
 		}
 
@@ -267,6 +590,24 @@ public class SocketDialogueClient extends NonBlockingSocketTransport {
 			if (lifetime != null)
 				socketChannelMonitor.setSocketLifetime(lifetime);
 
+			// Set send mode (if specified)
+			Boolean nonBlocking = (Boolean) dialogue.getOptions().get(SocketDialogue.NON_BLOCKING_SEND);
+			nonBlockingSend = nonBlocking != null && nonBlocking;
+
+			// Set number of connections per destination (if specified)
+			Integer connections = (Integer) dialogue.getOptions().get(SocketDialogue.CONNECTIONS_PER_DESTINATION);
+			connectionsPerDestination = connections != null && connections > 0 ? connections : 1;
+
+			// Set send queue limits (if specified)
+			readQueueOptions(dialogue);
+
+			// Set send linger (if specified)
+			Integer lingerMicros = (Integer) dialogue.getOptions().get(SocketDialogue.SEND_LINGER_MICROS);
+			lingerNanos = lingerMicros != null && lingerMicros > 0 ? lingerMicros * 1000L : 0;
+			Integer maxBatch = (Integer) dialogue.getOptions().get(SocketDialogue.SEND_MAX_BATCH_BYTES);
+			if (maxBatch != null && maxBatch > 0)
+				maxBatchBytes = maxBatch;
+
 			// Set debug mode (if specified)
 			Boolean debug = (Boolean) dialogue.getOptions().get(SocketDialogue.DEBUG);
 			if (debug != null)
@@ -284,11 +625,12 @@ public class SocketDialogueClient extends NonBlockingSocketTransport {
 			started = false;
 			super.stop();
 
-			// Wait for client to stop (wait max 10 seconds)
+			// Wait for client to stop (wait max 10 seconds). The lock is released while waiting, as the
+			// selecting thread takes it to process the changes still pending, such as those of a stream.
 			int elapsedTime = 0;
 			while (threadGroup.activeCount() > 1 && elapsedTime < 10000) {
 				try {
-					Thread.sleep(100);
+					wait(100);
 				} catch (InterruptedException e) {
 				}
 				elapsedTime += 100;
@@ -322,10 +664,18 @@ public class SocketDialogueClient extends NonBlockingSocketTransport {
 
 	protected void cleanup(SocketChannel socketChannel) {
 		// Remove old socket channel mappings
-		responseHandlerMap.remove(socketChannel);
+		synchronized (responseHandlerMap) {
+			Iterator<ResponseEntry> iterator = responseHandlerMap.values().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().socketChannel == socketChannel)
+					iterator.remove();
+			}
+		}
 		destinationSocketMap.remove(socketChannel);
 		socketChannelExceptionMap.remove(socketChannel);
-		pendingData.remove(socketChannel);
+		lingerDeadlines.remove(socketChannel);
+		discardPendingData(socketChannel);
+		channelMetrics.remove(socketChannel);
 
 	}
 
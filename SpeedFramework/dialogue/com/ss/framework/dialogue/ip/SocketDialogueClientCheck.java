@@ -0,0 +1,243 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.DialogueExceptionSet;
+import com.ss.framework.dialogue.api.Dialogue;
+import com.ss.framework.dialogue.api.DialogueErrorListener;
+import com.ss.framework.dialogue.api.DialogueFactory;
+import com.ss.framework.dialogue.api.DialogueListener;
+import com.ss.framework.dialogue.api.DialogueResponse;
+import com.ss.framework.dialogue.api.DialogueResponseSet;
+import com.ss.framework.dialogue.api.DialogueServerMessage;
+
+
+public class SocketDialogueClientCheck {
+
+	// This program checks how the dialogue client matches responses to the requests waiting for them: many
+	// requests in flight on one connection, responses that come back in another order than the requests went
+	// out, and responses that come back after their request has timed out. It also checks requests and
+	// messages sent to several destinations at once, some of which fail. The servers run in this process on
+	// the loopback interface, from port 18410 up. Each check prints OK or FAILED, and the program exits with 1
+	// if any check failed.
+
+	protected static final int PORT = 18410;
+
+	protected static int failures = 0;
+
+	public static void main(String[] args) {
+
+		Dialogue server = null;
+		Dialogue client = null;
+		List<Dialogue> servers = new ArrayList<Dialogue>();
+		try {
+			server = startServer(PORT);
+			client = DialogueFactory.createIPDialogue();
+			client.addDestination(DialogueFactory.createIPDestination("S", "127.0.0.1", PORT));
+			client.start();
+
+			checkConcurrentRequests(client);
+			checkOutOfOrderResponses(client);
+			checkLateResponse(client);
+
+			servers.add(startServer(PORT + 1));
+			servers.add(startServer(PORT + 2));
+			checkMultipleDestinations();
+			checkMultipleFullQueues();
+		} catch (Exception e) {
+			System.out.println(e);
+			failures++;
+		} finally {
+			if (client != null)
+				client.stop();
+			if (server != null)
+				server.stop();
+			for (Dialogue multipleServer : servers)
+				multipleServer.stop();
+		}
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+		System.exit(failures == 0 ? 0 : 1);
+
+	}
+
+	// Many threads send requests over the one connection to the server at the same time. Each must get the
+	// response to its own request.
+	protected static void checkConcurrentRequests(final Dialogue client) throws InterruptedException {
+		final AtomicInteger matched = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 50; i++) {
+			final int id = i;
+			Thread thread = new Thread() {
+
+				public void run() {
+					if (("response " + id).equals(send(client, (id % 10) * 10, id, 10000)))
+						matched.incrementAndGet();
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		check("Concurrent requests on one connection each get the response to their own request", matched.get() == threads.size());
+	}
+
+	// A request the server answers late does not hold up a request sent after it and answered at once
+	protected static void checkOutOfOrderResponses(final Dialogue client) throws InterruptedException {
+		final String[] slowResponse = new String[1];
+		Thread slow = new Thread() {
+
+			public void run() {
+				slowResponse[0] = send(client, 1000, 1, 10000);
+			}
+		};
+		slow.start();
+		Thread.sleep(100);
+
+		long start = System.currentTimeMillis();
+		String fastResponse = send(client, 0, 2, 10000);
+		long fastMillis = System.currentTimeMillis() - start;
+		slow.join();
+
+		check("A response is received while an earlier request on the connection is still waiting (" + fastMillis + " ms)", "response 2".equals(fastResponse) && fastMillis < 500);
+		check("The earlier request gets its response once the server answers it", "response 1".equals(slowResponse[0]));
+	}
+
+	// A request times out before the server answers it. The late response must not be taken for the
+	// response of the request waiting when it arrives.
+	protected static void checkLateResponse(Dialogue client) {
+		String timedOut = send(client, 300, 3, 100);
+		check("A request not answered in time gets no response", timedOut == null);
+
+		String response = send(client, 600, 4, 10000);
+		check("A response that arrives after its request timed out is not passed to another request", "response 4".equals(response));
+	}
+
+	// A request sent to several destinations gets the response of every destination that answers, and an
+	// exception for a destination that can not be reached
+	protected static void checkMultipleDestinations() throws Exception {
+		Dialogue client = DialogueFactory.createIPDialogue();
+		client.addDestination(DialogueFactory.createIPDestination("A", "127.0.0.1", PORT + 1));
+		client.addDestination(DialogueFactory.createIPDestination("B", "127.0.0.1", PORT + 2));
+		// Nothing listens on this port
+		client.addDestination(DialogueFactory.createIPDestination("C", "127.0.0.1", PORT + 3));
+		client.start();
+		try {
+			long start = System.currentTimeMillis();
+			DialogueResponseSet responses = client.sendResponseMessage(Arrays.asList("A", "B", "C"), "100 5", 10000);
+			long millis = System.currentTimeMillis() - start;
+
+			check("A request to several destinations gets the response of each destination that answers (" + millis + " ms)", "response 5".equals(responses.getString("A")) && "response 5".equals(responses.getString("B")) && millis < 2000);
+			boolean failed = false;
+			try {
+				responses.getBytes("C");
+			} catch (DialogueException e) {
+				failed = true;
+			}
+			check("A destination that can not be reached gets an exception in the response set", failed);
+		} finally {
+			client.stop();
+		}
+	}
+
+	// Messages are sent to two destinations that read nothing, with FAIL_FAST. Once their queues are full,
+	// the sender gets an exception for each of them instead of the messages being reported to the error
+	// listeners as failed sends nobody waited for.
+	protected static void checkMultipleFullQueues() throws Exception {
+		List<ServerSocket> serverSockets = new ArrayList<ServerSocket>();
+		Dialogue client = DialogueFactory.createIPDialogue();
+		Map<String, Object> options = new HashMap<String, Object>(client.getOptions());
+		options.put(SocketDialogue.SEND_QUEUE_HIGH_WATERMARK, 1048576);
+		options.put(SocketDialogue.SEND_QUEUE_LOW_WATERMARK, 524288);
+		options.put(SocketDialogue.SEND_QUEUE_FULL_POLICY, SocketDialogue.QUEUE_FULL_FAIL_FAST);
+		client.setOptions(options);
+		final AtomicInteger notified = new AtomicInteger();
+		client.addErrorListener(new DialogueErrorListener() {
+
+			public void sendFailed(String destinationAlias, DialogueException exception) {
+				notified.incrementAndGet();
+			}
+		});
+		try {
+			for (int i = 0; i < 2; i++) {
+				ServerSocket serverSocket = new ServerSocket(PORT + 4 + i);
+				serverSockets.add(serverSocket);
+				client.addDestination(DialogueFactory.createIPDestination("Q" + i, "127.0.0.1", PORT + 4 + i));
+			}
+			client.start();
+
+			DialogueExceptionSet exceptions = null;
+			for (int i = 0; i < 1000 && exceptions == null; i++) {
+				try {
+					client.sendMessage(Arrays.asList("Q0", "Q1"), new byte[65536]);
+				} catch (DialogueExceptionSet e) {
+					exceptions = e;
+				}
+			}
+			check("Messages sent to several full queues are refused with an exception for each destination", exceptions != null && exceptions.getDetinationAliases().size() == 2);
+			check("Messages refused to the sender are not reported to the error listeners", notified.get() == 0);
+		} finally {
+			client.stop();
+			for (ServerSocket serverSocket : serverSockets)
+				serverSocket.close();
+		}
+	}
+
+	// Send a request the server answers after the specified delay. Returns the response, or null if none
+	// was received.
+	protected static String send(Dialogue client, int delayMillis, int id, int timeoutMillis) {
+		try {
+			DialogueResponse response = client.sendResponseMessage("S", delayMillis + " " + id, timeoutMillis);
+			byte[] bytes = response.getBytes();
+			return bytes != null ? new String(bytes) : null;
+		} catch (DialogueException e) {
+			return null;
+		}
+	}
+
+	// Start a server that answers a request "<delay> <id>" with "response <id>" after the delay, on a thread
+	// of its own, so requests are answered in the order of their delays
+	protected static Dialogue startServer(int port) throws DialogueException {
+		Dialogue server = DialogueFactory.createIPDialogue(port);
+		server.addListener(new DialogueListener() {
+
+			public void messageRecieved(final DialogueServerMessage dialogMessage) {
+				if (dialogMessage.responseRequested() == false)
+					return;
+
+				final String[] request = new String(dialogMessage.getBytes()).split(" ");
+				new Thread() {
+
+					public void run() {
+						try {
+							Thread.sleep(Integer.parseInt(request[0]));
+							dialogMessage.respond("response " + request[1]);
+						} catch (Exception e) {
+							System.out.println(e);
+						}
+					}
+				}.start();
+			}
+		});
+		server.start();
+		return server;
+	}
+
+	protected static void check(String description, boolean passed) {
+		System.out.println((passed ? "OK: " : "FAILED: ") + description);
+		if (passed == false)
+			failures++;
+	}
+
+}
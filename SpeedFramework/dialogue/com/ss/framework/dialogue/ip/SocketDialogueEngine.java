@@ -5,12 +5,17 @@ package com.ss.framework.dialogue.ip;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
 import java.util.List;
+import java.util.zip.Deflater;
 
 import com.ss.framework.dialogue.DialogueConnectionException;
 import com.ss.framework.dialogue.DialogueEngine;
 import com.ss.framework.dialogue.DialogueException;
 import com.ss.framework.dialogue.DialogueExceptionSet;
+import com.ss.framework.dialogue.DialogueOutputStream;
 import com.ss.framework.dialogue.DialogueResponseHandler;
 import com.ss.framework.dialogue.api.Dialogue;
 
@@ -23,19 +28,28 @@ public class SocketDialogueEngine implements DialogueEngine {
 
 	protected SocketDialogue dialogue;
 
+	protected SocketBufferPool bufferPool;
+
+	// Sends messages to all destinations at once through a multicast group (null if no group is configured)
+	protected SocketMulticastTransport multicast;
+
 	public SocketDialogueEngine(int localPort) throws IOException {
 		this(null, localPort);
 
 	}
 
 	public SocketDialogueEngine(InetAddress localAdress, int localPort) throws IOException {
-		super();
-		if (localAdress == null && localPort > 0)
-			localAdress = InetAddress.getLocalHost();
+		this(localPort > 0 ? new InetSocketAddress(localAdress != null ? localAdress : InetAddress.getLocalHost(), localPort) : null);
+
+	}
 
-		if (localPort > 0) {
+	// Create an engine listening to the specified address (an InetSocketAddress or a
+	// UnixDomainSocketAddress), or a client only engine if the address is null
+	public SocketDialogueEngine(SocketAddress localAddress) throws IOException {
+		super();
+		if (localAddress != null) {
 			SocketDataProcessor dataProcessor = new SocketDataProcessor((SocketDialogue) getDialogue());
-			server = new SocketDialogueServer(localAdress, localPort, dataProcessor);
+			server = new SocketDialogueServer(localAddress, dataProcessor, (SocketDialogue) getDialogue());
 		}
 
 		client = new SocketDialogueClient((SocketDialogue) getDialogue());
@@ -94,16 +108,169 @@ public class SocketDialogueEngine implements DialogueEngine {
 	public void sendToAll(byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
 		if (client == null || client.isStarted() == false)
 			throw new DialogueExceptionSet("Dialogue not started or not started in client mode");
+
+		// Messages without responses are sent once to the multicast group, if there is one
+		SocketMulticastTransport multicastTransport = multicast;
+		if (responseHandler == null && multicastTransport != null) {
+			try {
+				multicastTransport.send(message);
+			} catch (IOException e) {
+				DialogueExceptionSet exceptionSet = new DialogueExceptionSet("One or more errors occured during send operation.");
+				exceptionSet.addException(multicastTransport.getGroup().toString(), e);
+				throw exceptionSet;
+			}
+			return;
+		}
 		client.sendToAll(message, responseHandler);
 
 	}
 
+	public void sendAsync(String destinationAlias, byte[] message, DialogueResponseHandler responseHandler) throws DialogueException {
+		try {
+			if (client == null || client.isStarted() == false)
+				throw new DialogueException("Dialogue not started or not started in client mode");
+			client.send(destinationAlias, message, responseHandler, false);
+		} catch (IOException e) {
+			throw new DialogueException(e);
+		}
+
+	}
+
+	public void sendAsync(List<String> destinationAliases, byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
+		if (client == null || client.isStarted() == false)
+			throw new DialogueExceptionSet("Dialogue not started or not started in client mode");
+		client.send(destinationAliases, message, responseHandler, false);
+
+	}
+
+	public void sendToAllAsync(byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
+		if (client == null || client.isStarted() == false)
+			throw new DialogueExceptionSet("Dialogue not started or not started in client mode");
+		client.sendToAll(message, responseHandler, false);
+
+	}
+
+	public SocketBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	protected SocketBufferPool createBufferPool() {
+		Integer maxBytes = (Integer) dialogue.getOptions().get(SocketDialogue.BUFFER_POOL_MAX_BYTES);
+		if (maxBytes == null)
+			maxBytes = 33554432;
+		if (maxBytes <= 0)
+			return null;
+
+		Integer maxBufferSize = (Integer) dialogue.getOptions().get(SocketDialogue.BUFFER_POOL_MAX_BUFFER_SIZE);
+		if (maxBufferSize == null || maxBufferSize < SocketFrameDecoder.READ_BUFFER_SIZE)
+			maxBufferSize = 1048576;
+		Boolean debug = (Boolean) dialogue.getOptions().get(SocketDialogue.DEBUG);
+
+		return new SocketBufferPool(maxBufferSize, maxBytes, debug != null && debug);
+	}
+
+	public void sendBatch(String destinationAlias, List<byte[]> messages) throws DialogueConnectionException, DialogueException {
+		try {
+			if (client == null || client.isStarted() == false)
+				throw new DialogueException("Dialogue not started or not started in client mode");
+			client.sendBatch(destinationAlias, messages, client.nonBlockingSend == false);
+		} catch (ConnectException e) {
+			throw new DialogueConnectionException(e);
+		} catch (IOException e) {
+			throw new DialogueException(e);
+		}
+
+	}
+
+	public DialogueOutputStream openStream(String destinationAlias, String name) throws DialogueConnectionException, DialogueException {
+		try {
+			if (client == null || client.isStarted() == false)
+				throw new DialogueException("Dialogue not started or not started in client mode");
+			Integer chunkSize = (Integer) dialogue.getOptions().get(SocketDialogue.STREAM_CHUNK_SIZE);
+			Integer bufferChunks = (Integer) dialogue.getOptions().get(SocketDialogue.STREAM_BUFFER_CHUNKS);
+			return client.openStream(destinationAlias, name, chunkSize != null ? chunkSize : 65536, bufferChunks != null ? bufferChunks : 16);
+		} catch (ConnectException e) {
+			throw new DialogueConnectionException(e);
+		} catch (IOException e) {
+			throw new DialogueException(e);
+		}
+
+	}
+
+	// Open the multicast group configured for the dialogue, or return null if there is none. A dialogue with
+	// a dialogue server joins the group to receive the messages sent to it.
+	protected SocketMulticastTransport createMulticastTransport() throws IOException {
+		String group = (String) dialogue.getOptions().get(SocketDialogue.MULTICAST_GROUP);
+		if (group == null)
+			return null;
+
+		String interfaceName = (String) dialogue.getOptions().get(SocketDialogue.MULTICAST_INTERFACE);
+		NetworkInterface networkInterface = interfaceName != null ? NetworkInterface.getByName(interfaceName) : SocketMulticastTransport.getDefaultInterface();
+		if (networkInterface == null)
+			throw new IOException("Network interface: " + interfaceName + " not found");
+
+		SocketMulticastTransport transport = new SocketMulticastTransport(SocketMulticastTransport.parseGroup(group), networkInterface);
+		Integer timeToLive = (Integer) dialogue.getOptions().get(SocketDialogue.MULTICAST_TTL);
+		if (timeToLive != null)
+			transport.setTimeToLive(timeToLive);
+		Integer datagramSize = (Integer) dialogue.getOptions().get(SocketDialogue.MULTICAST_DATAGRAM_SIZE);
+		if (datagramSize != null)
+			transport.setDatagramSize(datagramSize);
+		Integer receiveBufferSize = (Integer) dialogue.getOptions().get(SocketDialogue.MULTICAST_RECEIVE_BUFFER_SIZE);
+		if (receiveBufferSize != null)
+			transport.setReceiveBufferSize(receiveBufferSize);
+		Integer maxMessageSize = (Integer) dialogue.getOptions().get(SocketDialogue.MULTICAST_MAX_MESSAGE_SIZE);
+		if (maxMessageSize != null)
+			transport.setMaxMessageSize(maxMessageSize);
+		Boolean debug = (Boolean) dialogue.getOptions().get(SocketDialogue.DEBUG);
+		transport.setDebug(debug != null && debug);
+		transport.setMetrics(dialogue.getMetricsRegistry().addConnectionMetrics(transport, "multicast " + group));
+
+		try {
+			transport.openSender();
+			if (server != null) {
+				transport.openReceiver(server.dataProcessor);
+				new Thread(transport, "MulticastReceiver").start();
+			}
+		} catch (IOException e) {
+			transport.stop();
+			throw e;
+		}
+		return transport;
+	}
+
+	protected SocketFrameCompressor createCompressor() {
+		Integer threshold = (Integer) dialogue.getOptions().get(SocketDialogue.COMPRESSION_THRESHOLD);
+		Integer level = (Integer) dialogue.getOptions().get(SocketDialogue.COMPRESSION_LEVEL);
+		byte[] dictionary = (byte[]) dialogue.getOptions().get(SocketDialogue.COMPRESSION_DICTIONARY);
+		Integer maxMessageSize = (Integer) dialogue.getOptions().get(SocketDialogue.COMPRESSION_MAX_MESSAGE_SIZE);
+
+		return new SocketFrameCompressor(threshold != null ? threshold : 0, level != null ? level : Deflater.DEFAULT_COMPRESSION, dictionary, maxMessageSize != null ? maxMessageSize : SocketFrameCompressor.DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
 	public void start() throws DialogueException {
 		try {
+			// Metrics are registered before any connection is made
+			Boolean metrics = (Boolean) dialogue.getOptions().get(SocketDialogue.METRICS);
+			dialogue.getMetricsRegistry().start((String) dialogue.getOptions().get(SocketDialogue.METRICS_NAME), metrics == null || metrics);
+
+			// Server and client share one pool of direct buffers
+			bufferPool = createBufferPool();
+			if (server != null)
+				server.setBufferPool(bufferPool);
+			client.setBufferPool(bufferPool);
+
+			// Compressed frames are always accepted, payloads are only compressed above the threshold
+			SocketFrameCompressor compressor = createCompressor();
+			if (server != null)
+				server.setCompressor(compressor);
+			client.setCompressor(compressor);
+
 			if (server != null)
 				server.start();
 			if (client != null)
 				client.start();
+			multicast = createMulticastTransport();
 
 			// Wait for the services to start
 			int waitTimeRemaining = 5000;
@@ -116,16 +283,30 @@ public class SocketDialogueEngine implements DialogueEngine {
 			}
 
 		} catch (IOException e) {
+			// Leave nothing running when part of the dialogue, such as the multicast group, could not be started
+			stop();
 			throw new DialogueException(e);
 		}
 
 	}
 
+	// Stop or resume reading the messages sent to the dialogue server. Responses read by the client and
+	// messages received through the multicast group are not held back.
+	public void setReadPaused(boolean paused) {
+		if (server != null)
+			server.setReadPaused(paused);
+	}
+
 	public void stop() {
+		if (multicast != null)
+			multicast.stop();
+		multicast = null;
 		if (server != null)
 			server.stop();
 		if (client != null)
 			client.stop();
+		if (dialogue != null)
+			dialogue.getMetricsRegistry().stop();
 
 	}
 
@@ -1,23 +1,34 @@
 package com.ss.framework.dialogue.ip;
 
 import java.io.IOException;
+import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ss.framework.dialogue.DialogueMetricsImpl;
 
 public class SocketDialogueServer extends NonBlockingSocketTransport {
 
 	protected boolean started = false;
 
-	protected InetAddress hostAddress;
-
-	protected int port;
+	// The address to listen to. Either an InetSocketAddress or a UnixDomainSocketAddress.
+	protected SocketAddress localAddress;
 
 	protected ServerSocketChannel serverChannel;
 
@@ -25,10 +36,47 @@ public class SocketDialogueServer extends NonBlockingSocketTransport {
 
 	protected SocketDataProcessor dataProcessor;
 
+	protected SocketDialogue dialogue;
+
+	// The I/O reactors reading from and writing to the accepted connections
+	protected SocketDialogueServerReactor[] reactors;
+
+	// Maps an accepted SocketChannel to the reactor handling it
+	protected Map<SocketChannel, SocketDialogueServerReactor> reactorMap = Collections.synchronizedMap(new HashMap<SocketChannel, SocketDialogueServerReactor>());
+
+	protected AtomicInteger nextReactor = new AtomicInteger();
+
+	protected int ioThreads = 1;
+
+	protected String balancing = SocketDialogue.BALANCING_ROUND_ROBIN;
+
+	// True if responses are only queued and the responding thread never waits for the selecting thread
+	protected boolean nonBlockingSend = false;
+
+	// Maps an accepted SocketChannel to the streams being received on it, by stream id
+	protected Map<SocketChannel, Map<Integer, SocketInputStream>> streams = new HashMap<SocketChannel, Map<Integer, SocketInputStream>>();
+
+	// True while the listeners are busy with as many messages as they may be passed at the same time
+	protected volatile boolean listenersBusy = false;
+
+	// Held while the reactors are told to pause or resume reading, so they are never left with a stale value
+	protected Object readPauseLock = new Object();
+
+	// Number of chunks of a stream held before reading from its connection is paused
+	protected int streamBufferChunks = 16;
+
 	public SocketDialogueServer(InetAddress hostAddress, int port, SocketDataProcessor dataProcessor) throws IOException {
-		this.hostAddress = hostAddress;
-		this.port = port;
+		this(hostAddress, port, dataProcessor, null);
+	}
+
+	public SocketDialogueServer(InetAddress hostAddress, int port, SocketDataProcessor dataProcessor, SocketDialogue dialogue) throws IOException {
+		this(new InetSocketAddress(hostAddress, port), dataProcessor, dialogue);
+	}
+
+	public SocketDialogueServer(SocketAddress localAddress, SocketDataProcessor dataProcessor, SocketDialogue dialogue) throws IOException {
+		this.localAddress = localAddress;
 		this.dataProcessor = dataProcessor;
+		this.dialogue = dialogue;
 	}
 
 	protected Selector initSelector() throws IOException {
@@ -36,12 +84,17 @@ public class SocketDialogueServer extends NonBlockingSocketTransport {
 		Selector socketSelector = Selector.open();
 
 		// Create a new non-blocking server socket channel
-		serverChannel = ServerSocketChannel.open();
-		serverChannel.configureBlocking(false);
-
-		// Bind the server socket to the specified address and port
-		InetSocketAddress isa = new InetSocketAddress(hostAddress, port);
-		serverChannel.socket().bind(isa);
+		if (localAddress instanceof UnixDomainSocketAddress) {
+			serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			serverChannel.configureBlocking(false);
+			bindLocal((UnixDomainSocketAddress) localAddress);
+		} else {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.configureBlocking(false);
+
+			// Bind the server socket to the specified address and port
+			serverChannel.bind(localAddress);
+		}
 
 		// Register the server socket channel, indicating an interest in
 		// accepting new connections
@@ -50,65 +103,251 @@ public class SocketDialogueServer extends NonBlockingSocketTransport {
 		return socketSelector;
 	}
 
-	protected void processReadData(SocketChannel socketChannel, byte[] data, String messageType) throws IOException {
-		byte[] dataCopy = new byte[data.length];
-		System.arraycopy(data, 0, dataCopy, 0, data.length);
-		dataProcessor.processData(this, socketChannel, dataCopy, messageType);
+	// Bind to a Unix domain socket file. A file left behind by a server that is no longer running is removed,
+	// a file another server still listens to is not.
+	protected void bindLocal(UnixDomainSocketAddress address) throws IOException {
+		try {
+			serverChannel.bind(address);
+		} catch (BindException e) {
+			if (Files.exists(address.getPath()) == false || isListening(address))
+				throw e;
+			Files.deleteIfExists(address.getPath());
+			serverChannel.bind(address);
+		}
 	}
 
-	public void send(SocketChannel socket, byte[] data) throws IOException {
-		// Indicate we want the interest ops set changed
-		if (changeRequests.offer(new ChangeRequest(socket, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE)) == false)
-			throw new IOException("Internal request buffer is full");
-
-		// And queue the data we want written
-		synchronized (pendingData) {
-			BlockingQueue<SendRequest> queue = pendingData.get(socket);
-			if (queue == null) {
-				queue = new LinkedBlockingQueue<SendRequest>();
-				pendingData.put(socket, queue);
+	protected boolean isListening(UnixDomainSocketAddress address) {
+		try {
+			SocketChannel.open(address).close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	protected void processReadData(SocketChannel socketChannel, ByteBuffer data, String messageType, int requestId) throws IOException {
+		// Stream chunks go straight to the stream they belong to
+		if (SocketDialogueServerMessage.TYPE_STREAM.equals(messageType) || SocketDialogueServerMessage.TYPE_STREAM_END.equals(messageType)
+				|| SocketDialogueServerMessage.TYPE_STREAM_OPEN.equals(messageType) || SocketDialogueServerMessage.TYPE_STREAM_ABORT.equals(messageType)) {
+			streamDataReceived(socketChannel, data, messageType, requestId);
+			return;
+		}
+
+		// The decoder hands over a buffer of its own for every frame, so it is passed on without copying
+		dataProcessor.processData(this, socketChannel, data, messageType, requestId);
+	}
+
+	// Queue a chunk of a stream for its reader. The first frame of a stream opens it and hands it to the
+	// stream listeners. A named stream is opened by a frame carrying its name.
+	protected void streamDataReceived(SocketChannel socketChannel, ByteBuffer data, String messageType, int streamId) {
+		boolean aborted = SocketDialogueServerMessage.TYPE_STREAM_ABORT.equals(messageType);
+		SocketInputStream stream;
+		boolean opened = false;
+		synchronized (streams) {
+			Map<Integer, SocketInputStream> channelStreams = streams.get(socketChannel);
+			if (channelStreams == null) {
+				// A stream broken off before any of it was sent was never opened here
+				if (aborted)
+					return;
+				channelStreams = new HashMap<Integer, SocketInputStream>();
+				streams.put(socketChannel, channelStreams);
+			}
+			stream = channelStreams.get(streamId);
+			if (stream == null && aborted)
+				return;
+			if (stream == null) {
+				String name = null;
+				if (SocketDialogueServerMessage.TYPE_STREAM_OPEN.equals(messageType))
+					name = StandardCharsets.UTF_8.decode(data).toString();
+				stream = new SocketInputStream(this, socketChannel, streamId, name, streamBufferChunks);
+				channelStreams.put(streamId, stream);
+				opened = true;
+			}
+			if (SocketDialogueServerMessage.TYPE_STREAM_END.equals(messageType) || aborted) {
+				channelStreams.remove(streamId);
+				if (channelStreams.isEmpty())
+					streams.remove(socketChannel);
 			}
+		}
+
+		if (SocketDialogueServerMessage.TYPE_STREAM_END.equals(messageType))
+			stream.end();
+		else if (aborted)
+			stream.fail(new IOException("The sender broke off the stream"));
+		else if (SocketDialogueServerMessage.TYPE_STREAM.equals(messageType))
+			stream.receive(data);
 
-			SendRequest sendRequest = new SendRequest(ByteBuffer.wrap(data), false);
+		if (opened && dialogue != null)
+			dialogue.notifyStreamReceived(stream);
+	}
 
-			if (queue.offer(sendRequest) == false)
-				throw new IOException("Dialogue Server data buffer is full");
+	// Break off the streams being received on the specified connection, or on all connections if null
+	protected void failStreams(SocketChannel socketChannel, String reason) {
+		List<SocketInputStream> failed = new ArrayList<SocketInputStream>();
+		synchronized (streams) {
+			for (Map.Entry<SocketChannel, Map<Integer, SocketInputStream>> entry : streams.entrySet()) {
+				if (socketChannel == null || entry.getKey() == socketChannel)
+					failed.addAll(entry.getValue().values());
+			}
+			if (socketChannel == null)
+				streams.clear();
+			else
+				streams.remove(socketChannel);
 		}
 
-		// Finally, wake up our selecting thread so it can make the required changes
-		try {
-			selector.wakeup();
-			synchronized (this) {
-				while (changeRequests.isEmpty() == false) {
-					wait();
-				}
+		for (SocketInputStream stream : failed)
+			stream.fail(new IOException(reason));
+	}
+
+	// Stop or resume reading from one of the accepted connections
+	public void setReadPaused(SocketChannel socketChannel, boolean paused) throws IOException {
+		SocketDialogueServerReactor reactor = reactorMap.get(socketChannel);
+		if (reactor != null)
+			reactor.setReadPaused(socketChannel, paused);
+	}
+
+	protected void accept(SelectionKey key) throws IOException {
+		// For an accept to be pending the channel must be a server socket channel.
+		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
+
+		// Accept the connection and make it non-blocking
+		SocketChannel socketChannel = serverSocketChannel.accept();
+		if (socketChannel == null)
+			return;
+		socketChannel.configureBlocking(false);
+
+		// Hand the new connection over to one of the I/O reactors
+		SocketDialogueServerReactor reactor = selectReactor();
+		reactorMap.put(socketChannel, reactor);
+		reactor.register(socketChannel);
+	}
+
+	protected SocketDialogueServerReactor selectReactor() {
+		if (SocketDialogue.BALANCING_LEAST_CONNECTIONS.equals(balancing)) {
+			SocketDialogueServerReactor selected = reactors[0];
+			for (SocketDialogueServerReactor reactor : reactors) {
+				if (reactor.getConnectionCount() < selected.getConnectionCount())
+					selected = reactor;
+			}
+			return selected;
+		}
+
+		return reactors[Math.abs(nextReactor.getAndIncrement() % reactors.length)];
+	}
+
+	// Forget a closed connection. Returns false if the connection had already been forgotten.
+	protected boolean connectionClosed(SocketChannel socketChannel) {
+		failStreams(socketChannel, "Connection closed before the end of the stream");
+		return reactorMap.remove(socketChannel) != null;
+	}
+
+	// The metrics of the specified connection (null if not collected)
+	protected DialogueMetricsImpl getMetrics(SocketChannel socketChannel) {
+		SocketDialogueServerReactor reactor = reactorMap.get(socketChannel);
+		return reactor != null ? reactor.getMetrics(socketChannel) : null;
+	}
+
+	public void send(SocketChannel socket, byte[] data) throws IOException {
+		send(socket, data, NO_REQUEST_ID);
+	}
+
+	public void send(SocketChannel socket, byte[] data, int requestId) throws IOException {
+		// The data is written by the reactor that handles the connection
+		SocketDialogueServerReactor reactor = reactorMap.get(socket);
+		if (reactor == null)
+			throw new IOException("Connection is no longer active in dialogue server");
+		reactor.send(socket, data, requestId);
+	}
+
+	// The connections are read by the reactors, so reading is paused and resumed by each of them
+	public void setReadPaused(boolean paused) {
+		readPaused = paused;
+		applyReadPaused();
+	}
+
+	// Pause reading while the listeners are busy with as many messages as they may be passed at the same
+	// time. Kept apart from the pause asked for by the dialogue, so either can be lifted without the other.
+	public void setListenersBusy(boolean busy) {
+		listenersBusy = busy;
+		applyReadPaused();
+	}
+
+	protected void applyReadPaused() {
+		synchronized (readPauseLock) {
+			SocketDialogueServerReactor[] current = reactors;
+			if (current != null) {
+				for (SocketDialogueServerReactor reactor : current)
+					reactor.setReadPaused(readPaused || listenersBusy);
 			}
-		} catch (Exception e) {
 		}
 	}
 
 	public void start() throws IOException {
 		if (threadGroup == null) {
+			readOptions();
 			super.start();
 			threadGroup = new ThreadGroup("DialogueServer");
 			if (dataProcessor == null)
 				dataProcessor = new SocketDataProcessor();
 			dataProcessor.start();
 			new Thread(threadGroup, dataProcessor, "DataProcessor").start();
+
+			// Start the I/O reactors. The server thread itself only accepts new connections.
+			reactors = new SocketDialogueServerReactor[ioThreads];
+			for (int i = 0; i < reactors.length; i++) {
+				reactors[i] = new SocketDialogueServerReactor(this);
+				reactors[i].setBufferPool(bufferPool);
+				reactors[i].setCompressor(compressor);
+				reactors[i].readQueueOptions(dialogue);
+				reactors[i].slowConsumerTimeout = slowConsumerTimeout;
+				reactors[i].setReadPaused(readPaused || listenersBusy);
+				reactors[i].start();
+				new Thread(threadGroup, reactors[i], "DialogueServerIO-" + i).start();
+			}
+
 			new Thread(threadGroup, this, "DialogueServer").start();
 			started = true;
 		}
 
 	}
 
+	protected void readOptions() {
+		ioThreads = 1;
+		balancing = SocketDialogue.BALANCING_ROUND_ROBIN;
+		nonBlockingSend = false;
+		slowConsumerTimeout = 0;
+		streamBufferChunks = 16;
+		if (dialogue == null)
+			return;
+
+		Integer threads = (Integer) dialogue.getOptions().get(SocketDialogue.SERVER_IO_THREADS);
+		if (threads != null && threads > 0)
+			ioThreads = threads;
+		String balancingOption = (String) dialogue.getOptions().get(SocketDialogue.SERVER_IO_BALANCING);
+		if (balancingOption != null)
+			balancing = balancingOption;
+		Boolean nonBlocking = (Boolean) dialogue.getOptions().get(SocketDialogue.NON_BLOCKING_SEND);
+		nonBlockingSend = nonBlocking != null && nonBlocking;
+		Integer slowConsumerSeconds = (Integer) dialogue.getOptions().get(SocketDialogue.SLOW_CONSUMER_TIMEOUT_SECONDS);
+		if (slowConsumerSeconds != null && slowConsumerSeconds > 0)
+			slowConsumerTimeout = slowConsumerSeconds * 1000L;
+		Integer bufferChunks = (Integer) dialogue.getOptions().get(SocketDialogue.STREAM_BUFFER_CHUNKS);
+		if (bufferChunks != null && bufferChunks > 0)
+			streamBufferChunks = bufferChunks;
+	}
+
 	public void stop() {
 		if (threadGroup != null) {
 			started = false;
 			super.stop();
+			if (reactors != null) {
+				for (SocketDialogueServerReactor reactor : reactors)
+					reactor.stop();
+			}
 
 			// Wait for server to stop (wait max 10 seconds)
 			int elapsedTime = 0;
-			while (threadGroup.activeCount() > 1 && elapsedTime < 10000) {
+			while (threadGroup.activeCount() > dataProcessor.getWorkerCount() && elapsedTime < 10000) {
 				try {
 					Thread.sleep(100);
 				} catch (InterruptedException e) {
@@ -133,10 +372,16 @@ public class SocketDialogueServer extends NonBlockingSocketTransport {
 			if (threadGroup.activeCount() > 0)
 				threadGroup.interrupt();
 
-			// Make sure the server socket channel is closed
+			reactors = null;
+			reactorMap.clear();
+			failStreams(null, "Dialogue stopped before the end of the stream");
+
+			// Make sure the server socket channel is closed and its socket file removed
 			try {
 				if (serverChannel != null)
 					serverChannel.close();
+				if (localAddress instanceof UnixDomainSocketAddress)
+					Files.deleteIfExists(((UnixDomainSocketAddress) localAddress).getPath());
 			} catch (IOException e) {
 			}
 		}
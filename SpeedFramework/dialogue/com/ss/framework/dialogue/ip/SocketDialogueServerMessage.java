@@ -2,6 +2,7 @@
 
 package com.ss.framework.dialogue.ip;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
 import com.ss.framework.dialogue.AbstractDialogueServerMessage;
@@ -14,17 +15,44 @@ public class SocketDialogueServerMessage extends AbstractDialogueServerMessage {
 
 	public static final String TYPE_RESPONSE = "R";
 
+	// A frame carrying several normal messages
+	public static final String TYPE_BATCH = "B";
+
+	// A frame carrying the next chunk of a stream. The request id of the frame identifies the stream.
+	public static final String TYPE_STREAM = "S";
+
+	// The frame that ends a stream
+	public static final String TYPE_STREAM_END = "E";
+
+	// The frame that opens a named stream, such as a file. Its payload is the name in UTF-8.
+	public static final String TYPE_STREAM_OPEN = "O";
+
+	// The frame that breaks a stream off. The reader of the stream gets an exception instead of its end.
+	public static final String TYPE_STREAM_ABORT = "A";
+
 	protected SocketDialogueServer server = null;
 
 	protected SocketChannel socketChannel = null;
 
 	protected boolean responseRequested = false;
 
+	// Id of the request this message belongs to. Echoed back to the client in the response.
+	protected int requestId = NonBlockingSocketTransport.NO_REQUEST_ID;
+
 	public SocketDialogueServerMessage(SocketDialogueServer server, SocketChannel socketChannel, byte[] data, boolean responseRequested) {
+		this(server, socketChannel, data, responseRequested, NonBlockingSocketTransport.NO_REQUEST_ID);
+	}
+
+	public SocketDialogueServerMessage(SocketDialogueServer server, SocketChannel socketChannel, byte[] data, boolean responseRequested, int requestId) {
+		this(server, socketChannel, ByteBuffer.wrap(data), responseRequested, requestId);
+	}
+
+	public SocketDialogueServerMessage(SocketDialogueServer server, SocketChannel socketChannel, ByteBuffer data, boolean responseRequested, int requestId) {
 		super(data);
 		this.server = server;
 		this.socketChannel = socketChannel;
 		this.responseRequested = responseRequested;
+		this.requestId = requestId;
 	}
 
 	public boolean responseRequested() {
@@ -41,7 +69,7 @@ public class SocketDialogueServerMessage extends AbstractDialogueServerMessage {
 			throw new DialogueException("Attempt to respond to a message that did not request a response");
 
 		try {
-			server.send(socketChannel, response);
+			server.send(socketChannel, response, requestId);
 		} catch (Exception e) {
 			throw new DialogueException("Error when responding to message. Cause: " + e);
 		}
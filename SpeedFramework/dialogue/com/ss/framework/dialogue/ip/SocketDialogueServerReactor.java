@@ -0,0 +1,133 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ss.framework.dialogue.DialogueMetricsImpl;
+
+public class SocketDialogueServerReactor extends NonBlockingSocketTransport {
+
+	// The server that accepted the connections handled by this reactor
+	protected SocketDialogueServer server;
+
+	// Number of connections currently handled by this reactor
+	protected AtomicInteger connectionCount = new AtomicInteger();
+
+	public SocketDialogueServerReactor(SocketDialogueServer server) {
+		this.server = server;
+	}
+
+	protected Selector initSelector() throws IOException {
+		// Create a new selector
+		return Selector.open();
+	}
+
+	public void register(SocketChannel socketChannel) throws IOException {
+		connectionCount.incrementAndGet();
+
+		// The connection's traffic is counted in metrics of its own
+		if (server.dialogue != null) {
+			// Clients of a Unix domain socket have no address of their own
+			String connectionName = String.valueOf(socketChannel.getRemoteAddress());
+			if (connectionName.length() == 0)
+				connectionName = "local";
+			DialogueMetricsImpl metrics = server.dialogue.getMetricsRegistry().addConnectionMetrics(socketChannel, connectionName);
+			if (metrics != null) {
+				channelMetrics.put(socketChannel, metrics);
+				metrics.connected();
+			}
+		}
+
+		// Queue the registration, indicating we'd like to be notified when there's data waiting to be read. A
+		// connection accepted while reading is paused is not read until reading is resumed.
+		if (changeRequests.offer(new ChangeRequest(socketChannel, ChangeRequest.REGISTER, getReadInterest(socketChannel))) == false)
+			throw new IOException("Internal request buffer is full");
+		selector.wakeup();
+	}
+
+	public int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	protected void read(SelectionKey key) throws IOException {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+		super.read(key);
+
+		// Forget the connection once the remote entity has closed it
+		if (socketChannel.isOpen() == false)
+			connectionClosed(socketChannel);
+
+	}
+
+	protected void write(SelectionKey key) throws IOException {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+		try {
+			super.write(key);
+		} catch (IOException e) {
+			// The connection broke while writing, give up on it and forget it
+			error(socketChannel, 1);
+			key.cancel();
+			socketChannel.close();
+			SocketFrameDecoder decoder = (SocketFrameDecoder) key.attachment();
+			if (decoder != null)
+				decoder.release();
+			connectionClosed(socketChannel);
+		}
+
+	}
+
+	protected void connectionClosed(SocketChannel socketChannel) {
+		discardPendingData(socketChannel);
+		pausedChannels.remove(socketChannel);
+		if (server.connectionClosed(socketChannel))
+			connectionCount.decrementAndGet();
+		if (channelMetrics.remove(socketChannel) != null)
+			server.dialogue.getMetricsRegistry().removeConnectionMetrics(socketChannel);
+	}
+
+	// Close the connection to a client that does not read its responses fast enough
+	protected void slowConsumer(SocketChannel socketChannel) throws IOException {
+		if (server.dialogue != null && Boolean.TRUE.equals(server.dialogue.getOptions().get(SocketDialogue.DEBUG)))
+			System.out.println("Dialogue Server closing connection to slow consumer");
+
+		socketChannel.close();
+		connectionClosed(socketChannel);
+
+	}
+
+	protected void processReadData(SocketChannel socketChannel, ByteBuffer data, String messageType, int requestId) throws IOException {
+		server.processReadData(socketChannel, data, messageType, requestId);
+	}
+
+	public void send(SocketChannel socket, byte[] data, int requestId) throws IOException {
+		// Queue the data we want written. A non-blocking sender is refused rather than parked when the queue
+		// is full.
+		queueSendRequest(socket, createSendRequest(data, false, requestId), server.nonBlockingSend == false);
+
+		// And indicate we want the interest ops set changed. This is done after the data is queued so the
+		// selecting thread never sees the write interest without the data to write.
+		if (changeRequests.offer(new ChangeRequest(socket, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE)) == false)
+			throw new IOException("Internal request buffer is full");
+
+		// Finally, wake up our selecting thread so it can make the required changes
+		selector.wakeup();
+		if (server.nonBlockingSend)
+			return;
+
+		try {
+			synchronized (this) {
+				while (changeRequests.isEmpty() == false) {
+					wait();
+				}
+			}
+		} catch (Exception e) {
+		}
+	}
+
+}
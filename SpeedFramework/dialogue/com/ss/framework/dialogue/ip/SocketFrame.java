@@ -0,0 +1,76 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SocketFrame {
+
+	// Message type (If response is requested or not)
+	public String messageType;
+
+	// Id of the request the frame belongs to
+	public int requestId;
+
+	// The message payload
+	public ByteBuffer data;
+
+	// True if the payload is compressed
+	public boolean compressed = false;
+
+	public SocketFrame(String messageType, int requestId, ByteBuffer data) {
+		this.messageType = messageType;
+		this.requestId = requestId;
+		this.data = data;
+	}
+
+	public SocketFrame(String messageType, int requestId, ByteBuffer data, boolean compressed) {
+		this(messageType, requestId, data);
+		this.compressed = compressed;
+	}
+
+	// Encode the payload of a batch frame: the number of messages followed by the length and bytes of each
+	public static byte[] encodeBatch(List<byte[]> messages) {
+		int size = 4;
+		for (byte[] message : messages)
+			size += 4 + message.length;
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(messages.size());
+		for (byte[] message : messages) {
+			buffer.putInt(message.length);
+			buffer.put(message);
+		}
+		return buffer.array();
+	}
+
+	// Split the payload of a batch frame into views of the messages it carries
+	public static List<ByteBuffer> decodeBatch(ByteBuffer data) throws IOException {
+		ByteBuffer buffer = data.duplicate();
+		if (buffer.remaining() < 4)
+			throw new IOException("Invalid batch received");
+
+		int count = buffer.getInt();
+		if (count < 0)
+			throw new IOException("Invalid batch received");
+
+		List<ByteBuffer> messages = new ArrayList<ByteBuffer>(Math.min(count, 1024));
+		for (int i = 0; i < count; i++) {
+			if (buffer.remaining() < 4)
+				throw new IOException("Invalid batch received");
+			int length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining())
+				throw new IOException("Invalid batch received");
+
+			ByteBuffer message = buffer.slice();
+			message.limit(length);
+			messages.add(message);
+			buffer.position(buffer.position() + length);
+		}
+		return messages;
+	}
+
+}
@@ -0,0 +1,118 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class SocketFrameCompressor {
+
+	// Flag set in the message type byte of a frame whose payload is compressed
+	public static final int COMPRESSED_FLAG = 0x80;
+
+	public static final int DEFAULT_MAX_MESSAGE_SIZE = 67108864;
+
+	// Payloads smaller than this are sent as they are. 0 means payloads are never compressed.
+	protected int threshold = 0;
+
+	protected int level = Deflater.DEFAULT_COMPRESSION;
+
+	// Preset dictionary shared by both ends (null if none). Lets small, repetitive messages compress well.
+	protected byte[] dictionary;
+
+	// Largest size a compressed payload may claim to have once decompressed. The size is read from the
+	// remote entity, so it is checked before the payload is allocated.
+	protected int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+
+	// Deflater and Inflater instances are expensive to create, each thread keeps its own
+	protected ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>();
+
+	protected ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>();
+
+	public SocketFrameCompressor(int threshold, int level, byte[] dictionary) {
+		this(threshold, level, dictionary, DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
+	public SocketFrameCompressor(int threshold, int level, byte[] dictionary, int maxMessageSize) {
+		this.threshold = threshold;
+		this.level = level;
+		this.dictionary = dictionary;
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	public boolean shouldCompress(int size) {
+		return threshold > 0 && size >= threshold;
+	}
+
+	// Compress the payload. The compressed payload starts with the original length. Returns null if the
+	// payload did not get any smaller.
+	public byte[] compress(byte[] data) {
+		Deflater deflater = deflaters.get();
+		if (deflater == null) {
+			deflater = new Deflater(level);
+			deflaters.set(deflater);
+		}
+
+		deflater.reset();
+		if (dictionary != null)
+			deflater.setDictionary(dictionary);
+		deflater.setInput(data);
+		deflater.finish();
+
+		// Give up as soon as the output is as large as the input
+		byte[] compressed = new byte[data.length];
+		ByteBuffer.wrap(compressed).putInt(data.length);
+		int length = 4;
+		while (deflater.finished() == false && length < compressed.length)
+			length += deflater.deflate(compressed, length, compressed.length - length);
+
+		if (deflater.finished() == false || length >= data.length)
+			return null;
+
+		byte[] result = new byte[length];
+		System.arraycopy(compressed, 0, result, 0, length);
+		return result;
+	}
+
+	public ByteBuffer decompress(ByteBuffer data) throws IOException {
+		ByteBuffer buffer = data.duplicate();
+		if (buffer.remaining() < 4)
+			throw new IOException("Invalid compressed message received");
+		int length = buffer.getInt();
+		if (length < 0)
+			throw new IOException("Invalid compressed message received");
+		if (length > maxMessageSize)
+			throw new IOException("Compressed message of " + length + " bytes received, the maximum size is " + maxMessageSize + " bytes");
+
+		Inflater inflater = inflaters.get();
+		if (inflater == null) {
+			inflater = new Inflater();
+			inflaters.set(inflater);
+		}
+
+		inflater.reset();
+		inflater.setInput(buffer);
+		byte[] result = new byte[length];
+		try {
+			int inflated = 0;
+			while (inflated < length) {
+				int count = inflater.inflate(result, inflated, length - inflated);
+				if (count == 0) {
+					if (inflater.needsDictionary() && dictionary != null)
+						inflater.setDictionary(dictionary);
+					else if (inflater.needsInput() || inflater.needsDictionary() || inflater.finished())
+						throw new IOException("Invalid compressed message received");
+				}
+				inflated += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed message received", e);
+		}
+
+		return ByteBuffer.wrap(result);
+	}
+
+}
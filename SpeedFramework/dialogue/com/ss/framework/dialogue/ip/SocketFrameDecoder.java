@@ -0,0 +1,181 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+public class SocketFrameDecoder {
+
+	// Frame header: message type (1 byte), request id (4 bytes) and message length (4 bytes)
+	public static final int HEADER_SIZE = 9;
+
+	// Size of the buffer used to read from the channel
+	public static final int READ_BUFFER_SIZE = 8192;
+
+	// Largest buffer borrowed from the pool to read the rest of a large payload
+	public static final int MAX_PAYLOAD_READ_SIZE = 262144;
+
+	// Most bytes read in one call. The frames read are handed on before more is read, so a sender that keeps
+	// the channel full can not have any number of frames decoded before reading from it can be paused.
+	public static final int MAX_DECODE_SIZE = 1048576;
+
+	// Largest stream chunk accepted, the largest value of the STREAM_CHUNK_SIZE option
+	public static final int MAX_STREAM_CHUNK_SIZE = 16777216;
+
+	// Pool the read buffers are borrowed from (null if buffers are not pooled)
+	protected SocketBufferPool bufferPool;
+
+	// Bytes read off the channel that have not yet been decoded
+	protected ByteBuffer readBuffer;
+
+	// Header of the frame currently being decoded
+	protected String messageType;
+
+	protected boolean compressed;
+
+	protected int requestId;
+
+	// Payload of the frame currently being decoded (null while waiting for a header)
+	protected ByteBuffer payload;
+
+	public SocketFrameDecoder() {
+		this(null);
+
+	}
+
+	public SocketFrameDecoder(SocketBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+		if (bufferPool != null)
+			readBuffer = bufferPool.acquire(READ_BUFFER_SIZE);
+		else
+			readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+	}
+
+	// Give the read buffer, and a pooled payload still being read, back to the pool. Called once the
+	// connection has been closed.
+	public void release() {
+		if (bufferPool != null && readBuffer != null)
+			bufferPool.release(readBuffer);
+		readBuffer = null;
+		if (bufferPool != null && payload != null && payload.isDirect())
+			bufferPool.release(payload);
+		payload = null;
+	}
+
+	// Read whatever is available on the channel, up to MAX_DECODE_SIZE bytes, without blocking and add every
+	// complete frame to the specified list. Partial frames are kept until the next call. Returns the number
+	// of bytes read or -1 if the remote entity has shut the socket down.
+	public int decode(ReadableByteChannel socketChannel, List<SocketFrame> frames) throws IOException {
+		int totalRead = 0;
+		boolean drained = false;
+		while (drained == false && totalRead < MAX_DECODE_SIZE) {
+			int numRead;
+			if (payload != null && readBuffer.position() == 0) {
+				// Nothing buffered, read the rest of a large payload in one go
+				int wanted = payload.remaining();
+				numRead = readPayload(socketChannel);
+				drained = numRead < wanted;
+				if (payload.hasRemaining() == false)
+					completeFrame(frames);
+			} else {
+				int wanted = readBuffer.remaining();
+				numRead = socketChannel.read(readBuffer);
+				drained = numRead < wanted;
+				readBuffer.flip();
+				decodeBuffered(frames);
+				readBuffer.compact();
+			}
+
+			if (numRead == -1)
+				return -1;
+			totalRead += numRead;
+		}
+
+		return totalRead;
+	}
+
+	// Read into the payload. With a pool the bytes go through a pooled direct buffer, otherwise the channel
+	// would copy them through a temporary direct buffer of the payload's size. A direct payload is read into
+	// as it is.
+	protected int readPayload(ReadableByteChannel socketChannel) throws IOException {
+		if (bufferPool == null || payload.isDirect())
+			return socketChannel.read(payload);
+
+		ByteBuffer buffer = bufferPool.acquire(Math.min(payload.remaining(), MAX_PAYLOAD_READ_SIZE));
+		try {
+			int numRead = socketChannel.read(buffer);
+			buffer.flip();
+			payload.put(buffer);
+			return numRead;
+		} finally {
+			bufferPool.release(buffer);
+		}
+	}
+
+	protected void decodeBuffered(List<SocketFrame> frames) throws IOException {
+		while (readBuffer.hasRemaining()) {
+			if (payload == null) {
+				if (readBuffer.remaining() < HEADER_SIZE)
+					return;
+
+				int type = readBuffer.get() & 0xff;
+				compressed = (type & SocketFrameCompressor.COMPRESSED_FLAG) != 0;
+				type &= ~SocketFrameCompressor.COMPRESSED_FLAG;
+				if (type == SocketDialogueServerMessage.TYPE_NORMAL.charAt(0))
+					messageType = SocketDialogueServerMessage.TYPE_NORMAL;
+				else if (type == SocketDialogueServerMessage.TYPE_RESPONSE.charAt(0))
+					messageType = SocketDialogueServerMessage.TYPE_RESPONSE;
+				else if (type == SocketDialogueServerMessage.TYPE_BATCH.charAt(0))
+					messageType = SocketDialogueServerMessage.TYPE_BATCH;
+				else if (type == SocketDialogueServerMessage.TYPE_STREAM.charAt(0))
+					messageType = SocketDialogueServerMessage.TYPE_STREAM;
+				else if (type == SocketDialogueServerMessage.TYPE_STREAM_END.charAt(0))
+					messageType = SocketDialogueServerMessage.TYPE_STREAM_END;
+				else if (type == SocketDialogueServerMessage.TYPE_STREAM_OPEN.charAt(0))
+					messageType = SocketDialogueServerMessage.TYPE_STREAM_OPEN;
+				else if (type == SocketDialogueServerMessage.TYPE_STREAM_ABORT.charAt(0))
+					messageType = SocketDialogueServerMessage.TYPE_STREAM_ABORT;
+				else
+					throw new IOException("Invalid message type (" + (char) type + ") received");
+
+				requestId = readBuffer.getInt();
+
+				int messageSize = readBuffer.getInt();
+				if (messageSize < 0)
+					throw new IOException("Invalid message length received");
+
+				// The chunks of a stream are kept off the heap, so they can be written out, such as to a file,
+				// without being copied into the heap and out again. The stream gives the buffer back to the pool.
+				// The size comes from the remote entity, so a chunk larger than the pool's buffers is read into
+				// the heap like any other payload rather than into direct memory of its own, and a chunk larger
+				// than any sender makes is refused before anything is allocated for it.
+				if (SocketDialogueServerMessage.TYPE_STREAM.equals(messageType) && messageSize > MAX_STREAM_CHUNK_SIZE)
+					throw new IOException("Stream chunk of " + messageSize + " bytes received, the maximum size is " + MAX_STREAM_CHUNK_SIZE + " bytes");
+				if (bufferPool != null && compressed == false && SocketDialogueServerMessage.TYPE_STREAM.equals(messageType) && messageSize <= bufferPool.getMaxBufferSize())
+					payload = bufferPool.acquire(messageSize);
+				else
+					payload = ByteBuffer.allocate(messageSize);
+			}
+
+			int count = Math.min(readBuffer.remaining(), payload.remaining());
+			payload.put(payload.position(), readBuffer, readBuffer.position(), count);
+			payload.position(payload.position() + count);
+			readBuffer.position(readBuffer.position() + count);
+
+			if (payload.hasRemaining() == false)
+				completeFrame(frames);
+		}
+	}
+
+	protected void completeFrame(List<SocketFrame> frames) {
+		// The payload buffer belongs to the frame from here on, a new one is allocated for the next frame
+		payload.flip();
+		frames.add(new SocketFrame(messageType, requestId, payload, compressed));
+		payload = null;
+	}
+
+}
@@ -0,0 +1,265 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.api.Dialogue;
+import com.ss.framework.dialogue.api.DialogueFactory;
+import com.ss.framework.dialogue.api.DialogueListener;
+import com.ss.framework.dialogue.api.DialogueServerMessage;
+
+
+public class SocketFrameDecoderCheck {
+
+	// This program checks how a dialogue server decodes the frames it reads: frames that arrive a few bytes
+	// at a time, many frames that arrive in one read, a sender that stops halfway through a frame while other
+	// connections go on, and frames that are not valid. The frames are written by hand over plain sockets to
+	// a server running in this process on port 18420 of the loopback interface. Each check prints OK or
+	// FAILED, and the program exits with 1 if any check failed.
+
+	protected static final int PORT = 18420;
+
+	protected static int failures = 0;
+
+	// The messages received by the server
+	protected static List<byte[]> received = new ArrayList<byte[]>();
+
+	public static void main(String[] args) {
+
+		Dialogue server = null;
+		try {
+			server = startServer(PORT);
+
+			checkPartialFrames();
+			checkManyFrames();
+			checkStalledSender();
+			checkInvalidFrame();
+		} catch (Exception e) {
+			System.out.println(e);
+			failures++;
+		} finally {
+			if (server != null)
+				server.stop();
+		}
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+		System.exit(failures == 0 ? 0 : 1);
+
+	}
+
+	// Frames split at every point of the header and payload must come out whole
+	protected static void checkPartialFrames() throws Exception {
+		clearReceived();
+		byte[] small = message(1, 10);
+		byte[] empty = message(2, 0);
+		byte[] large = message(3, 4 * 1048576 + 17);
+		byte[] frames = concat(frame(small), frame(empty), frame(large));
+
+		Socket socket = new Socket("127.0.0.1", PORT);
+		try {
+			OutputStream out = socket.getOutputStream();
+			int position = 0;
+			int size = 1;
+			while (position < frames.length) {
+				int length = Math.min(size, frames.length - position);
+				out.write(frames, position, length);
+				out.flush();
+				position += length;
+				// One byte at a time through the headers, then ever larger pieces of the payload
+				size = position < 40 ? 1 : size * 2 + 1;
+				Thread.sleep(position < 40 ? 5 : 1);
+			}
+			waitForReceived(3);
+		} finally {
+			socket.close();
+		}
+
+		check("Frames that arrive a few bytes at a time are put back together", receivedEquals(small, empty, large));
+	}
+
+	// Every frame of a single write must be passed on, in order
+	protected static void checkManyFrames() throws Exception {
+		clearReceived();
+		List<byte[]> messages = new ArrayList<byte[]>();
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		for (int i = 0; i < 500; i++) {
+			messages.add(message(i, i % 50));
+			frames.write(frame(messages.get(i)));
+		}
+
+		Socket socket = new Socket("127.0.0.1", PORT);
+		try {
+			socket.getOutputStream().write(frames.toByteArray());
+			socket.getOutputStream().flush();
+			waitForReceived(messages.size());
+		} finally {
+			socket.close();
+		}
+
+		check("Many frames that arrive in one read are all passed on in order", receivedEquals(messages.toArray(new byte[0][])));
+	}
+
+	// A sender that stops halfway through a frame must not hold up the other connections of the server
+	protected static void checkStalledSender() throws Exception {
+		clearReceived();
+		byte[] stalled = message(1, 1000);
+		byte[] other = message(2, 100);
+		byte[] stalledFrame = frame(stalled);
+
+		Socket stalledSocket = new Socket("127.0.0.1", PORT);
+		Socket otherSocket = new Socket("127.0.0.1", PORT);
+		try {
+			stalledSocket.getOutputStream().write(stalledFrame, 0, stalledFrame.length / 2);
+			stalledSocket.getOutputStream().flush();
+			Thread.sleep(200);
+
+			long start = System.currentTimeMillis();
+			otherSocket.getOutputStream().write(frame(other));
+			otherSocket.getOutputStream().flush();
+			waitForReceived(1);
+			long millis = System.currentTimeMillis() - start;
+			check("A connection is served while another stops halfway through a frame (" + millis + " ms)", receivedEquals(other) && millis < 1000);
+
+			stalledSocket.getOutputStream().write(stalledFrame, stalledFrame.length / 2, stalledFrame.length - stalledFrame.length / 2);
+			stalledSocket.getOutputStream().flush();
+			waitForReceived(2);
+			check("The stalled frame is passed on once the rest of it arrives", receivedEquals(other, stalled));
+		} finally {
+			stalledSocket.close();
+			otherSocket.close();
+		}
+	}
+
+	// A frame of an unknown type or a negative length closes its connection, and only that connection
+	protected static void checkInvalidFrame() throws Exception {
+		for (byte[] invalid : Arrays.asList(frame((byte) '?', message(1, 10)), header((byte) 'N', -1))) {
+			clearReceived();
+			Socket socket = new Socket("127.0.0.1", PORT);
+			try {
+				socket.getOutputStream().write(invalid);
+				socket.getOutputStream().flush();
+				check("A connection sending an invalid frame is closed by the server", isClosed(socket));
+			} finally {
+				socket.close();
+			}
+		}
+
+		Socket socket = new Socket("127.0.0.1", PORT);
+		try {
+			byte[] message = message(3, 10);
+			socket.getOutputStream().write(frame(message));
+			socket.getOutputStream().flush();
+			waitForReceived(1);
+			check("The server goes on serving other connections after an invalid frame", receivedEquals(message));
+		} finally {
+			socket.close();
+		}
+	}
+
+	protected static Dialogue startServer(int port) throws DialogueException {
+		Dialogue server = DialogueFactory.createIPDialogue(port);
+		server.addListener(new DialogueListener() {
+
+			public void messageRecieved(DialogueServerMessage dialogMessage) {
+				synchronized (received) {
+					received.add(dialogMessage.getBytes());
+					received.notifyAll();
+				}
+			}
+		});
+		server.start();
+		return server;
+	}
+
+	protected static void clearReceived() {
+		synchronized (received) {
+			received.clear();
+		}
+	}
+
+	// Wait up to five seconds for the server to receive the specified number of messages
+	protected static void waitForReceived(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		synchronized (received) {
+			while (received.size() < count && System.currentTimeMillis() < deadline)
+				received.wait(Math.max(1, deadline - System.currentTimeMillis()));
+		}
+	}
+
+	protected static boolean receivedEquals(byte[]... messages) {
+		synchronized (received) {
+			if (received.size() != messages.length)
+				return false;
+			for (int i = 0; i < messages.length; i++) {
+				if (Arrays.equals(received.get(i), messages[i]) == false)
+					return false;
+			}
+			return true;
+		}
+	}
+
+	// Wait up to five seconds for the remote end to close the socket
+	protected static boolean isClosed(Socket socket) throws IOException {
+		socket.setSoTimeout(5000);
+		InputStream in = socket.getInputStream();
+		try {
+			return in.read() == -1;
+		} catch (SocketTimeoutException e) {
+			return false;
+		} catch (IOException e) {
+			// Reset by the server
+			return true;
+		}
+	}
+
+	// Encode a message the way the dialogue client does: type, request id, length and payload
+	protected static byte[] frame(byte[] message) throws IOException {
+		return frame((byte) SocketDialogueServerMessage.TYPE_NORMAL.charAt(0), message);
+	}
+
+	protected static byte[] frame(byte type, byte[] message) throws IOException {
+		return concat(header(type, message.length), message);
+	}
+
+	protected static byte[] header(byte type, int length) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(type);
+		out.writeInt(0);
+		out.writeInt(length);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	protected static byte[] concat(byte[]... parts) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (byte[] part : parts)
+			bytes.write(part);
+		return bytes.toByteArray();
+	}
+
+	protected static byte[] message(int seed, int length) {
+		byte[] message = new byte[length];
+		for (int i = 0; i < length; i++)
+			message[i] = (byte) (seed * 31 + i);
+		return message;
+	}
+
+	protected static void check(String description, boolean passed) {
+		System.out.println((passed ? "OK: " : "FAILED: ") + description);
+		if (passed == false)
+			failures++;
+	}
+
+}
@@ -0,0 +1,40 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import com.ss.framework.dialogue.DialogueInputStream;
+
+
+// A stream received on a connection accepted by the dialogue server. While the stream is backed up, the
+// connection is not read from, so the sender is held back by TCP flow control. The chunks are read into
+// buffers borrowed from the server's pool, which are given back once read.
+public class SocketInputStream extends DialogueInputStream {
+
+	protected SocketDialogueServer server;
+
+	protected SocketChannel socketChannel;
+
+	public SocketInputStream(SocketDialogueServer server, SocketChannel socketChannel, int streamId, String name, int maxChunks) {
+		super(streamId, name, maxChunks);
+		this.server = server;
+		this.socketChannel = socketChannel;
+	}
+
+	protected void backedUp(boolean backedUp) {
+		try {
+			server.setReadPaused(socketChannel, backedUp);
+		} catch (IOException e) {
+			System.out.println(e);
+		}
+	}
+
+	protected void released(ByteBuffer chunk) {
+		if (chunk.isDirect() && server.getBufferPool() != null)
+			server.getBufferPool().release(chunk);
+	}
+
+}
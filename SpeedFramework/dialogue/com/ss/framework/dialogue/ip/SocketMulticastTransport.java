@@ -0,0 +1,422 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import com.ss.framework.dialogue.DialogueMetricsImpl;
+
+
+// Sends messages to a multicast group and receives the messages sent to it. A message is sent once to the
+// group however many dialogues listen to it, so broadcasts cost the same for 4 and for 400 destinations.
+//
+// Messages larger than a datagram are split into fragments. Each fragment carries the id of the sending
+// transport, the sequence number of the message and the index and count of the fragments, so receivers can
+// put messages back together and tell when messages from a sender were lost. Lost messages are not sent
+// again; they are counted as errors in the metrics of the group.
+public class SocketMulticastTransport implements Runnable {
+
+	// Sender id, message sequence number, fragment index, fragment count, message length and offset of the
+	// fragment in the message
+	public static final int FRAGMENT_HEADER_SIZE = 24;
+
+	// Largest number of fragments a message can be split into
+	protected static final int MAX_FRAGMENTS = 32767;
+
+	// Number of incomplete messages kept for each sender while their missing fragments are waited for
+	protected static final int MAX_INCOMPLETE_MESSAGES = 16;
+
+	protected InetSocketAddress group;
+
+	protected NetworkInterface networkInterface;
+
+	protected int datagramSize = 1472;
+
+	protected int timeToLive = 1;
+
+	protected int receiveBufferSize = 4194304;
+
+	// Largest message sent or accepted. Checked before a message is allocated for its first datagram.
+	protected int maxMessageSize = 16777216;
+
+	protected boolean debug = false;
+
+	// Channel the messages are sent through
+	protected DatagramChannel sendChannel;
+
+	// Channel the messages of the group are received through (null if messages are only sent)
+	protected DatagramChannel receiveChannel;
+
+	protected MembershipKey membershipKey;
+
+	// Where received messages are passed on to the dialogue listeners
+	protected SocketDataProcessor dataProcessor;
+
+	protected DialogueMetricsImpl metrics;
+
+	// Identifies the messages sent by this transport
+	protected long senderId = new Random().nextLong();
+
+	protected int sequence = 0;
+
+	// Maps the id of a sender to what is known of the messages received from it. Only used by the
+	// receiving thread.
+	protected Map<Long, Sender> senders = new HashMap<Long, Sender>();
+
+	protected volatile boolean stop = false;
+
+	// A sender to the group and the messages received from it
+	protected class Sender {
+
+		// Sequence number of the next message expected from the sender
+		protected int nextSequence;
+
+		// Maps a sequence number to a message still missing fragments
+		protected Map<Integer, Message> incompleteMessages = new HashMap<Integer, Message>();
+
+		public Sender(int firstSequence) {
+			this.nextSequence = firstSequence;
+		}
+
+	}
+
+	// A message being put back together from its fragments
+	protected class Message {
+
+		protected byte[] data;
+
+		protected boolean[] fragmentsReceived;
+
+		protected int fragmentsMissing;
+
+		public Message(int length, int fragmentCount) {
+			this.data = new byte[length];
+			this.fragmentsReceived = new boolean[fragmentCount];
+			this.fragmentsMissing = fragmentCount;
+		}
+
+	}
+
+	public SocketMulticastTransport(InetSocketAddress group, NetworkInterface networkInterface) {
+		this.group = group;
+		this.networkInterface = networkInterface;
+	}
+
+	// Parse a group given as address:port, such as 239.255.10.1:4446 or [ff15::10]:4446
+	public static InetSocketAddress parseGroup(String group) throws IOException {
+		int separator = group.lastIndexOf(':');
+		if (separator <= 0)
+			throw new IOException("Multicast group: " + group + " is not given as address:port");
+
+		String host = group.substring(0, separator);
+		if (host.startsWith("[") && host.endsWith("]"))
+			host = host.substring(1, host.length() - 1);
+		int port;
+		try {
+			port = Integer.parseInt(group.substring(separator + 1));
+		} catch (NumberFormatException e) {
+			throw new IOException("Multicast group: " + group + " has an invalid port");
+		}
+
+		InetAddress address = InetAddress.getByName(host);
+		if (address.isMulticastAddress() == false)
+			throw new IOException("Address: " + host + " is not a multicast address");
+		return new InetSocketAddress(address, port);
+	}
+
+	// Find the network interface to use when none is configured: the interface of the local host's address
+	// if it supports multicast, otherwise the first one that does
+	public static NetworkInterface getDefaultInterface() throws IOException {
+		NetworkInterface localInterface = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
+		if (localInterface != null && localInterface.isUp() && localInterface.supportsMulticast())
+			return localInterface;
+
+		NetworkInterface loopback = null;
+		Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+		while (interfaces.hasMoreElements()) {
+			NetworkInterface candidate = interfaces.nextElement();
+			if (candidate.isUp() == false)
+				continue;
+			if (candidate.isLoopback()) {
+				loopback = candidate;
+				continue;
+			}
+			if (candidate.supportsMulticast())
+				return candidate;
+		}
+		if (loopback != null)
+			return loopback;
+		throw new IOException("No network interface supports multicast");
+	}
+
+	public void setDatagramSize(int datagramSize) {
+		this.datagramSize = datagramSize;
+	}
+
+	public void setTimeToLive(int timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	public void setReceiveBufferSize(int receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	public void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+	}
+
+	public void setMetrics(DialogueMetricsImpl metrics) {
+		this.metrics = metrics;
+	}
+
+	public InetSocketAddress getGroup() {
+		return group;
+	}
+
+	// Open the channel messages are sent through
+	public void openSender() throws IOException {
+		if (datagramSize <= FRAGMENT_HEADER_SIZE || datagramSize > 65507)
+			throw new IOException("Invalid multicast datagram size: " + datagramSize + ". Valid values are " + (FRAGMENT_HEADER_SIZE + 1) + " to 65507");
+
+		sendChannel = DatagramChannel.open(getProtocolFamily());
+		sendChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+		sendChannel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, timeToLive);
+
+		// Dialogues on this host listen to the group as well
+		sendChannel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+	}
+
+	// Join the group. Received messages are passed to the data processor once the transport runs.
+	public void openReceiver(SocketDataProcessor dataProcessor) throws IOException {
+		this.dataProcessor = dataProcessor;
+		receiveChannel = DatagramChannel.open(getProtocolFamily());
+		receiveChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		receiveChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+		receiveChannel.bind(new InetSocketAddress(group.getPort()));
+		membershipKey = receiveChannel.join(group.getAddress(), networkInterface);
+	}
+
+	public boolean isReceiving() {
+		return receiveChannel != null;
+	}
+
+	protected StandardProtocolFamily getProtocolFamily() {
+		return group.getAddress() instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+	}
+
+	// Send a message to the group, split into as many datagrams as needed
+	public void send(byte[] message) throws IOException {
+		int fragmentSize = datagramSize - FRAGMENT_HEADER_SIZE;
+		int fragmentCount = Math.max(1, (message.length + fragmentSize - 1) / fragmentSize);
+		if (fragmentCount > MAX_FRAGMENTS || message.length > maxMessageSize)
+			throw new IOException("Message of " + message.length + " bytes is too large to multicast. The largest message is " + Math.min((long) MAX_FRAGMENTS * fragmentSize, maxMessageSize) + " bytes");
+		if (sendChannel == null)
+			throw new ClosedChannelException();
+
+		ByteBuffer datagram = ByteBuffer.allocate(datagramSize);
+
+		// The fragments of a message go out together and messages go out in sequence order
+		synchronized (this) {
+			int messageSequence = sequence++;
+			for (int i = 0; i < fragmentCount; i++) {
+				int offset = i * fragmentSize;
+				int length = Math.min(fragmentSize, message.length - offset);
+				datagram.clear();
+				datagram.putLong(senderId);
+				datagram.putInt(messageSequence);
+				datagram.putShort((short) i);
+				datagram.putShort((short) fragmentCount);
+				datagram.putInt(message.length);
+				datagram.putInt(offset);
+				datagram.put(message, offset, length);
+				datagram.flip();
+				sendChannel.send(datagram, group);
+			}
+		}
+
+		if (metrics != null)
+			metrics.messageSent(message.length + fragmentCount * FRAGMENT_HEADER_SIZE);
+	}
+
+	public void run() {
+		DatagramChannel channel = receiveChannel;
+		ByteBuffer datagram = ByteBuffer.allocate(65536);
+		while (stop == false) {
+			try {
+				datagram.clear();
+				SocketAddress source = channel.receive(datagram);
+				if (source == null)
+					continue;
+				datagram.flip();
+				fragmentReceived(datagram);
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (Exception e) {
+				// A datagram that can not be handled, or a listener that fails, must not stop the receiver
+				if (stop == false)
+					System.out.println(e);
+				if (metrics != null)
+					metrics.error();
+			}
+		}
+
+	}
+
+	protected void fragmentReceived(ByteBuffer datagram) throws IOException {
+		if (datagram.remaining() < FRAGMENT_HEADER_SIZE) {
+			if (metrics != null)
+				metrics.error();
+			return;
+		}
+
+		long sourceId = datagram.getLong();
+		int messageSequence = datagram.getInt();
+		int fragmentIndex = datagram.getShort();
+		int fragmentCount = datagram.getShort();
+		int length = datagram.getInt();
+		int offset = datagram.getInt();
+		if (length > maxMessageSize || isValidFragment(fragmentIndex, fragmentCount, length, offset, datagram.remaining()) == false) {
+			if (metrics != null)
+				metrics.error();
+			return;
+		}
+
+		// A dialogue does not receive its own messages
+		if (sourceId == senderId)
+			return;
+
+		// Messages sent before this transport joined the group are not counted as lost
+		Sender sender = senders.get(sourceId);
+		if (sender == null) {
+			sender = new Sender(messageSequence);
+			senders.put(sourceId, sender);
+		}
+
+		// Fragments of messages already delivered or given up on are dropped
+		if (messageSequence - sender.nextSequence < 0)
+			return;
+
+		Message message = sender.incompleteMessages.get(messageSequence);
+		if (message == null) {
+			message = new Message(length, fragmentCount);
+			sender.incompleteMessages.put(messageSequence, message);
+		}
+		if (message.fragmentsReceived[fragmentIndex])
+			return;
+
+		if (message.data.length != length || message.fragmentsReceived.length != fragmentCount) {
+			if (metrics != null)
+				metrics.error();
+			return;
+		}
+		datagram.get(message.data, offset, datagram.remaining());
+		message.fragmentsReceived[fragmentIndex] = true;
+		message.fragmentsMissing--;
+
+		if (message.fragmentsMissing == 0)
+			messageCompleted(sourceId, sender, messageSequence, message);
+		else if (sender.incompleteMessages.size() > MAX_INCOMPLETE_MESSAGES)
+			dropOldestIncompleteMessage(sourceId, sender);
+	}
+
+	// True if the fragment fits the message it claims to be part of. Every fragment but the last holds a full
+	// fragment of the sender, the last one ends the message, and the fragments together make up exactly the
+	// length of the message, so a message is never allocated for a length its fragments can not fill.
+	protected boolean isValidFragment(int fragmentIndex, int fragmentCount, int length, int offset, int size) {
+		if (fragmentIndex < 0 || fragmentIndex >= fragmentCount || length < 0 || offset < 0)
+			return false;
+		if (fragmentCount == 1)
+			return offset == 0 && size == length;
+
+		long fragmentSize;
+		if (fragmentIndex < fragmentCount - 1) {
+			fragmentSize = size;
+			if (offset != fragmentIndex * fragmentSize)
+				return false;
+		} else {
+			fragmentSize = offset / fragmentIndex;
+			if (offset % fragmentIndex != 0 || size > fragmentSize || (long) offset + size != length)
+				return false;
+		}
+		return fragmentSize > 0 && (fragmentCount - 1) * fragmentSize < length && length <= fragmentCount * fragmentSize;
+	}
+
+	// Deliver a complete message. Messages of the sender still incomplete with a lower sequence number are
+	// given up on and counted as lost.
+	protected void messageCompleted(long sourceId, Sender sender, int messageSequence, Message message) throws IOException {
+		sender.incompleteMessages.remove(messageSequence);
+
+		int lost = messageSequence - sender.nextSequence;
+		if (lost > 0) {
+			messagesLost(sourceId, lost);
+			Iterator<Integer> iterator = sender.incompleteMessages.keySet().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next() - messageSequence < 0)
+					iterator.remove();
+			}
+		}
+		sender.nextSequence = messageSequence + 1;
+
+		if (metrics != null)
+			metrics.messageReceived(message.data.length + message.fragmentsReceived.length * FRAGMENT_HEADER_SIZE);
+		dataProcessor.processData(null, null, ByteBuffer.wrap(message.data), SocketDialogueServerMessage.TYPE_NORMAL, NonBlockingSocketTransport.NO_REQUEST_ID);
+	}
+
+	// Give up on the incomplete message with the lowest sequence number, so a sender whose datagrams keep
+	// getting lost does not hold on to memory
+	protected void dropOldestIncompleteMessage(long sourceId, Sender sender) {
+		Integer oldest = null;
+		for (Integer messageSequence : sender.incompleteMessages.keySet()) {
+			if (oldest == null || messageSequence - oldest < 0)
+				oldest = messageSequence;
+		}
+		sender.incompleteMessages.remove(oldest);
+		messagesLost(sourceId, oldest - sender.nextSequence + 1);
+		sender.nextSequence = oldest + 1;
+	}
+
+	protected void messagesLost(long sourceId, int count) {
+		if (metrics != null)
+			metrics.errors(count);
+		if (debug)
+			System.out.println("Lost " + count + " multicast message(s) from sender: " + Long.toHexString(sourceId) + " to group: " + group);
+	}
+
+	public void stop() {
+		stop = true;
+		try {
+			if (membershipKey != null)
+				membershipKey.drop();
+			if (receiveChannel != null)
+				receiveChannel.close();
+			if (sendChannel != null)
+				sendChannel.close();
+		} catch (IOException e) {
+			System.out.println(e);
+		}
+		receiveChannel = null;
+		sendChannel = null;
+		membershipKey = null;
+	}
+
+}
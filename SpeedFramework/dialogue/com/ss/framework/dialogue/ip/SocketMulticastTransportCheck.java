@@ -0,0 +1,232 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.ss.framework.dialogue.DialogueMetricsImpl;
+
+
+public class SocketMulticastTransportCheck {
+
+	// This program checks how the multicast transport puts messages back together from their datagrams and
+	// counts the messages it loses. The datagrams are handed to the receiving side of the transport directly,
+	// in the order a network might deliver them, so the checks do not depend on multicast being available.
+	// Each check prints OK or FAILED, and the program exits with 1 if any check failed.
+
+	protected static final int DATAGRAM_SIZE = 124;
+
+	protected static final long SENDER_ID = 42;
+
+	protected static int failures = 0;
+
+	// The messages passed on by the transport
+	protected static List<byte[]> delivered = new ArrayList<byte[]>();
+
+	// The number of messages the transport reported lost
+	protected static int lost = 0;
+
+	protected static Random random = new Random(1);
+
+	public static void main(String[] args) {
+
+		try {
+			checkReassembly();
+			checkLostFragment();
+			checkLostMessage();
+			checkIncompleteMessageLimit();
+			checkInvalidFragments();
+		} catch (Exception e) {
+			System.out.println(e);
+			failures++;
+		}
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+		System.exit(failures == 0 ? 0 : 1);
+
+	}
+
+	// Messages whose datagrams arrive shuffled and duplicated must come out whole, once, in sequence order
+	protected static void checkReassembly() throws IOException {
+		SocketMulticastTransport transport = createTransport();
+		byte[] single = message(0, 10);
+		byte[] empty = message(1, 0);
+		byte[] exact = message(2, 3 * (DATAGRAM_SIZE - SocketMulticastTransport.FRAGMENT_HEADER_SIZE));
+		byte[] large = message(3, 5000);
+
+		int sequence = 0;
+		for (byte[] message : Arrays.asList(single, empty, exact, large)) {
+			List<ByteBuffer> datagrams = fragments(SENDER_ID, sequence++, message);
+			datagrams.add(datagrams.get(0).duplicate());
+			Collections.shuffle(datagrams, random);
+			receive(transport, datagrams);
+		}
+
+		check("Messages of one, no, several and many datagrams are put back together", delivered.size() == 4 && Arrays.equals(delivered.get(0), single) && Arrays.equals(delivered.get(1), empty) && Arrays.equals(delivered.get(2), exact) && Arrays.equals(delivered.get(3), large));
+		check("Duplicate datagrams are dropped and nothing is counted as lost", lost == 0 && transport.metrics.getErrors() == 0);
+
+		// A dialogue does not receive its own messages
+		receive(transport, fragments(transport.senderId, 0, single));
+		check("Messages sent by the transport itself are not passed on", delivered.size() == 4);
+	}
+
+	// A message missing a datagram is given up on, and counted as lost, once a later message is complete
+	protected static void checkLostFragment() throws IOException {
+		SocketMulticastTransport transport = createTransport();
+		List<ByteBuffer> incomplete = fragments(SENDER_ID, 0, message(0, 1000));
+		incomplete.remove(3);
+		receive(transport, incomplete);
+		check("A message missing a datagram is not passed on", delivered.isEmpty() && lost == 0);
+
+		receive(transport, fragments(SENDER_ID, 1, message(1, 1000)));
+		check("A message missing a datagram is counted as lost once a later message is complete", delivered.size() == 1 && lost == 1);
+
+		// The missing datagram arrives late
+		receive(transport, fragments(SENDER_ID, 0, message(0, 1000)));
+		check("Datagrams of a message given up on are dropped", delivered.size() == 1 && lost == 1);
+	}
+
+	// Messages that never arrive at all are counted as lost. Messages sent before the receiver heard of the
+	// sender are not.
+	protected static void checkLostMessage() throws IOException {
+		SocketMulticastTransport transport = createTransport();
+		receive(transport, fragments(SENDER_ID, 100, message(0, 10)));
+		receive(transport, fragments(SENDER_ID, 104, message(1, 10)));
+		check("Messages skipped by the sequence numbers are counted as lost", delivered.size() == 2 && lost == 3);
+
+		// The sequence numbers of a sender wrap around
+		transport = createTransport();
+		receive(transport, fragments(SENDER_ID, Integer.MAX_VALUE, message(0, 10)));
+		receive(transport, fragments(SENDER_ID, Integer.MIN_VALUE + 1, message(1, 10)));
+		check("Messages are counted as lost across the wrap of the sequence numbers", delivered.size() == 2 && lost == 1);
+	}
+
+	// A sender whose datagrams keep getting lost leaves a limited number of incomplete messages behind
+	protected static void checkIncompleteMessageLimit() throws IOException {
+		SocketMulticastTransport transport = createTransport();
+		int count = SocketMulticastTransport.MAX_INCOMPLETE_MESSAGES * 4;
+		for (int sequence = 0; sequence < count; sequence++) {
+			List<ByteBuffer> incomplete = fragments(SENDER_ID, sequence, message(sequence, 1000));
+			incomplete.remove(0);
+			receive(transport, incomplete);
+		}
+		SocketMulticastTransport.Sender sender = transport.senders.get(SENDER_ID);
+		check("At most " + SocketMulticastTransport.MAX_INCOMPLETE_MESSAGES + " incomplete messages are kept for a sender", sender.incompleteMessages.size() <= SocketMulticastTransport.MAX_INCOMPLETE_MESSAGES);
+		check("Incomplete messages given up on are counted as lost", lost == count - sender.incompleteMessages.size() && delivered.isEmpty());
+	}
+
+	// Datagrams that do not fit the message they claim to be part of are counted as errors and never
+	// allocate a message
+	protected static void checkInvalidFragments() throws IOException {
+		SocketMulticastTransport transport = createTransport();
+		List<ByteBuffer> datagrams = new ArrayList<ByteBuffer>();
+		datagrams.add(ByteBuffer.allocate(SocketMulticastTransport.FRAGMENT_HEADER_SIZE - 1));
+		datagrams.add(fragment(SENDER_ID, 0, 0, 1, Integer.MAX_VALUE, 0, new byte[10]));
+		datagrams.add(fragment(SENDER_ID, 0, 0, 2, Integer.MAX_VALUE, 0, new byte[10]));
+		datagrams.add(fragment(SENDER_ID, 0, 1, 2, Integer.MAX_VALUE, 10, new byte[10]));
+		datagrams.add(fragment(SENDER_ID, 0, 2, 2, 20, 20, new byte[10]));
+		datagrams.add(fragment(SENDER_ID, 0, -1, 2, 20, 0, new byte[10]));
+		datagrams.add(fragment(SENDER_ID, 0, 0, 1, 20, 5, new byte[10]));
+		receive(transport, datagrams);
+		check("Datagrams that do not fit their message are counted as errors", transport.metrics.getErrors() == datagrams.size() && transport.senders.isEmpty() && delivered.isEmpty());
+
+		// A datagram that claims a different length than the other datagrams of its message
+		List<ByteBuffer> message = fragments(SENDER_ID, 0, message(0, 200));
+		receive(transport, message.subList(0, 1));
+		receive(transport, Collections.singletonList(fragment(SENDER_ID, 0, 1, 2, 199, 100, new byte[99])));
+		receive(transport, message.subList(1, message.size()));
+		check("A datagram that does not match the other datagrams of its message is counted as an error", transport.metrics.getErrors() == datagrams.size() + 1 && delivered.size() == 1 && Arrays.equals(delivered.get(0), message(0, 200)));
+
+		// A datagram that fits a message of the largest number of fragments, but is larger than allowed
+		transport = createTransport();
+		transport.setMaxMessageSize(4096);
+		int fragmentSize = DATAGRAM_SIZE - SocketMulticastTransport.FRAGMENT_HEADER_SIZE;
+		receive(transport, Collections.singletonList(fragment(SENDER_ID, 0, 0, SocketMulticastTransport.MAX_FRAGMENTS, SocketMulticastTransport.MAX_FRAGMENTS * fragmentSize, 0, new byte[fragmentSize])));
+		receive(transport, fragments(SENDER_ID, 1, message(1, 4096)));
+		check("A datagram of a message larger than the largest message is counted as an error", transport.metrics.getErrors() == 1 && transport.senders.get(SENDER_ID).incompleteMessages.isEmpty() && delivered.size() == 1);
+		try {
+			transport.send(new byte[4097]);
+			check("A message larger than the largest message is not sent", false);
+		} catch (IOException e) {
+			check("A message larger than the largest message is not sent", e instanceof ClosedChannelException == false);
+		}
+	}
+
+	// Create a transport that passes received messages on to the delivered list and counts lost messages
+	protected static SocketMulticastTransport createTransport() throws IOException {
+		delivered.clear();
+		lost = 0;
+
+		SocketMulticastTransport transport = new SocketMulticastTransport(SocketMulticastTransport.parseGroup("239.255.10.1:4446"), null) {
+
+			protected void messagesLost(long sourceId, int count) {
+				super.messagesLost(sourceId, count);
+				lost += count;
+			}
+		};
+		transport.setDatagramSize(DATAGRAM_SIZE);
+		transport.setMetrics(new DialogueMetricsImpl("SocketMulticastTransportCheck", "Multicast"));
+		transport.dataProcessor = new SocketDataProcessor() {
+
+			public void processData(SocketDialogueServer server, SocketChannel socket, ByteBuffer data, String messageType, int requestId) throws IOException {
+				byte[] message = new byte[data.remaining()];
+				data.get(message);
+				delivered.add(message);
+			}
+		};
+		return transport;
+	}
+
+	protected static void receive(SocketMulticastTransport transport, List<ByteBuffer> datagrams) throws IOException {
+		for (ByteBuffer datagram : datagrams)
+			transport.fragmentReceived(datagram.duplicate());
+	}
+
+	// Split a message into datagrams the way SocketMulticastTransport.send does
+	protected static List<ByteBuffer> fragments(long senderId, int sequence, byte[] message) {
+		int fragmentSize = DATAGRAM_SIZE - SocketMulticastTransport.FRAGMENT_HEADER_SIZE;
+		int fragmentCount = Math.max(1, (message.length + fragmentSize - 1) / fragmentSize);
+		List<ByteBuffer> datagrams = new ArrayList<ByteBuffer>();
+		for (int i = 0; i < fragmentCount; i++) {
+			int offset = i * fragmentSize;
+			int length = Math.min(fragmentSize, message.length - offset);
+			datagrams.add(fragment(senderId, sequence, i, fragmentCount, message.length, offset, Arrays.copyOfRange(message, offset, offset + length)));
+		}
+		return datagrams;
+	}
+
+	protected static ByteBuffer fragment(long senderId, int sequence, int fragmentIndex, int fragmentCount, int length, int offset, byte[] data) {
+		ByteBuffer datagram = ByteBuffer.allocate(SocketMulticastTransport.FRAGMENT_HEADER_SIZE + data.length);
+		datagram.putLong(senderId);
+		datagram.putInt(sequence);
+		datagram.putShort((short) fragmentIndex);
+		datagram.putShort((short) fragmentCount);
+		datagram.putInt(length);
+		datagram.putInt(offset);
+		datagram.put(data);
+		datagram.flip();
+		return datagram;
+	}
+
+	protected static byte[] message(int seed, int length) {
+		byte[] message = new byte[length];
+		for (int i = 0; i < length; i++)
+			message[i] = (byte) (seed * 31 + i);
+		return message;
+	}
+
+	protected static void check(String description, boolean passed) {
+		System.out.println((passed ? "OK: " : "FAILED: ") + description);
+		if (passed == false)
+			failures++;
+	}
+
+}
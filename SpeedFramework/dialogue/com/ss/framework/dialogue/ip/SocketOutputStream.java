@@ -0,0 +1,67 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.ip;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import com.ss.framework.dialogue.DialogueOutputStream;
+
+
+// A stream sent to a destination over one of its connections. All chunks of the stream go through the same
+// connection so they arrive in order. Data transferred from a file goes from the file to the connection by
+// FileChannel.transferTo, without being copied into the heap.
+public class SocketOutputStream extends DialogueOutputStream {
+
+	protected SocketDialogueClient client;
+
+	protected SocketChannel socketChannel;
+
+	// Most bytes of the stream queued for writing before the writer waits
+	protected long maxQueuedBytes;
+
+	public SocketOutputStream(SocketDialogueClient client, SocketChannel socketChannel, String destinationAlias, int streamId, int chunkSize, long maxQueuedBytes) {
+		super(destinationAlias, streamId, chunkSize);
+		this.client = client;
+		this.socketChannel = socketChannel;
+		this.maxQueuedBytes = maxQueuedBytes;
+	}
+
+	// Each chunk of the region is queued as a frame that refers to the file. Returns once the frames have been
+	// written, as the file may be closed after that.
+	public synchronized long transferFrom(FileChannel file, long position, long length) throws IOException {
+		ensureOpen();
+		if (count > 0)
+			flushChunk();
+
+		long size = Math.max(Math.min(length, file.size() - position), 0);
+		long transferred = 0;
+		while (transferred < size) {
+			int frameSize = (int) Math.min(size - transferred, chunk.length);
+			client.sendFileFrame(socketChannel, file, position + transferred, frameSize, streamId, maxQueuedBytes);
+			transferred += frameSize;
+		}
+
+		client.waitForDrain(socketChannel, 0);
+		return transferred;
+	}
+
+	protected void sendChunk(byte[] data, int length) throws IOException {
+		byte[] frameData = length == data.length ? data : Arrays.copyOf(data, length);
+
+		// The frame holds on to the chunk unless it was copied into a pooled buffer
+		if (client.sendStreamFrame(socketChannel, frameData, SocketDialogueServerMessage.TYPE_STREAM, streamId, maxQueuedBytes) == false && frameData == data)
+			chunk = new byte[chunk.length];
+	}
+
+	protected void sendEnd() throws IOException {
+		client.sendStreamFrame(socketChannel, new byte[0], SocketDialogueServerMessage.TYPE_STREAM_END, streamId, maxQueuedBytes);
+	}
+
+	protected void sendAbort() throws IOException {
+		client.sendStreamFrame(socketChannel, new byte[0], SocketDialogueServerMessage.TYPE_STREAM_ABORT, streamId, maxQueuedBytes);
+	}
+
+}
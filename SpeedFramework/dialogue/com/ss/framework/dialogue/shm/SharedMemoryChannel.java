@@ -0,0 +1,358 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.shm;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+// A memory mapped file shared by a dialogue server and its clients. The file has a slot for each client the
+// server accepts, and each slot holds two rings: the client writes messages to the request ring and reads
+// responses from the response ring, and the server does the opposite. Every ring has one producer and one
+// consumer, however many clients are attached.
+//
+// The header at the start of the file holds the ring size, the number of slots and the server state, and
+// serves as the directory of the slots: the server holds a lock on one byte of the header and each attached
+// client on the byte of its slot. A client takes the first slot it can lock, and either side can tell if the
+// other is still running (the locks go away with the process). Each slot starts with the ring positions and
+// the generation of the slot, each on a cache line of its own, followed by the two rings.
+//
+// A client that takes over the slot of a client that has gone away counts up the generation of the slot.
+// Its requests are written with the new generation and the server writes every response with the
+// generation of its request, so the client drops the responses to requests the earlier client left behind.
+public class SharedMemoryChannel {
+
+	protected static final int MAGIC = 0x53444c47;
+
+	protected static final int VERSION = 3;
+
+	protected static final int MAGIC_OFFSET = 0;
+
+	protected static final int VERSION_OFFSET = 4;
+
+	protected static final int CAPACITY_OFFSET = 8;
+
+	protected static final int SLOT_COUNT_OFFSET = 12;
+
+	// 1 while the server is running, 0 once it has stopped
+	protected static final int SERVER_STATE_OFFSET = 16;
+
+	protected static final int SERVER_LOCK_POSITION = 1024;
+
+	// Position of the lock byte of the first slot. The byte of each following slot is the next one.
+	protected static final int CLIENT_LOCK_POSITION = 1025;
+
+	protected static final int HEADER_SIZE = 4096;
+
+	// The largest number of slots, so the lock bytes of all slots fit in the header
+	public static final int MAX_SLOTS = 1024;
+
+	// Offsets of the ring positions in a slot
+	protected static final int REQUEST_HEAD_OFFSET = 0;
+
+	protected static final int REQUEST_TAIL_OFFSET = 128;
+
+	protected static final int RESPONSE_HEAD_OFFSET = 256;
+
+	protected static final int RESPONSE_TAIL_OFFSET = 384;
+
+	// Offset of the generation in a slot: the number of clients that have attached to the slot
+	protected static final int GENERATION_OFFSET = 512;
+
+	protected static final int SLOT_HEADER_SIZE = 4096;
+
+	// How often (in nanoseconds) a producer waiting for room checks that the consumer is still running
+	protected static final long PEER_CHECK_NANOS = 10000000;
+
+	protected static final VarHandle STATE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	protected Path path;
+
+	protected boolean server;
+
+	protected FileChannel fileChannel;
+
+	// The mapped header of the file
+	protected MappedByteBuffer buffer;
+
+	// Lock held on this side's byte of the header
+	protected FileLock lock;
+
+	protected int capacity;
+
+	protected int slotCount;
+
+	// The slots used by this side: all of them for the server, the one it attached to for a client
+	protected int[] slots;
+
+	// The rings this side reads from and the rings it writes to, by slot. A client only has the rings of its
+	// own slot.
+	protected SharedMemoryRing[] inbound;
+
+	protected SharedMemoryRing[] outbound;
+
+	// The mapped slots used by this side, by slot
+	protected MappedByteBuffer[] slotBuffers;
+
+	// Generation of the slot of a client. Not used by the server.
+	protected int generation;
+
+	protected String waitStrategy;
+
+	protected volatile boolean closed = false;
+
+	protected SharedMemoryChannel(Path path, boolean server, String waitStrategy) {
+		this.path = path;
+		this.server = server;
+		this.waitStrategy = waitStrategy;
+	}
+
+	// Create the file and start serving it to at most slotCount clients at a time. Fails if another server is
+	// serving the file.
+	public static SharedMemoryChannel create(Path path, int ringSize, int slotCount, String waitStrategy) throws IOException {
+		int capacity = Integer.highestOneBit(Math.max(ringSize, 4096) - 1) << 1;
+		if (slotCount < 1 || slotCount > MAX_SLOTS)
+			throw new IOException("Invalid number of clients: " + slotCount + ". Valid values are 1 to " + MAX_SLOTS);
+
+		// A file left behind by a server that is no longer running is replaced by a new file. Clients still
+		// mapping the old file keep it until they notice the server is gone.
+		if (Files.exists(path)) {
+			FileChannel staleChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				FileLock staleLock = tryLock(staleChannel, SERVER_LOCK_POSITION);
+				if (staleLock == null)
+					throw new IOException("Shared memory file: " + path + " is already served by another dialogue");
+				staleLock.release();
+			} finally {
+				staleChannel.close();
+			}
+			Files.delete(path);
+		}
+
+		SharedMemoryChannel channel = new SharedMemoryChannel(path, true, waitStrategy);
+		channel.fileChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			channel.lock = tryLock(channel.fileChannel, SERVER_LOCK_POSITION);
+			if (channel.lock == null)
+				throw new IOException("Shared memory file: " + path + " is already served by another dialogue");
+
+			channel.buffer = channel.fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			channel.buffer.order(ByteOrder.nativeOrder());
+			channel.buffer.putInt(MAGIC_OFFSET, MAGIC);
+			channel.buffer.putInt(VERSION_OFFSET, VERSION);
+			channel.buffer.putInt(CAPACITY_OFFSET, capacity);
+			channel.buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+			channel.capacity = capacity;
+			channel.slotCount = slotCount;
+			channel.slots = new int[slotCount];
+			channel.inbound = new SharedMemoryRing[slotCount];
+			channel.outbound = new SharedMemoryRing[slotCount];
+			channel.slotBuffers = new MappedByteBuffer[slotCount];
+			for (int slot = 0; slot < slotCount; slot++) {
+				channel.slots[slot] = slot;
+				channel.createRings(slot);
+				channel.inbound[slot].reset();
+				channel.outbound[slot].reset();
+			}
+			STATE.setRelease(channel.buffer, SERVER_STATE_OFFSET, 1L);
+		} catch (IOException e) {
+			channel.fileChannel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	// Attach to a free slot of a file served by a running server. Fails with a ConnectException if no server
+	// is running or all slots are used by other clients.
+	public static SharedMemoryChannel open(Path path, String waitStrategy) throws IOException {
+		if (Files.exists(path) == false)
+			throw new ConnectException("Shared memory file: " + path + " does not exist");
+
+		SharedMemoryChannel channel = new SharedMemoryChannel(path, false, waitStrategy);
+		channel.fileChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.fileChannel.size() < HEADER_SIZE)
+				throw new ConnectException("Shared memory file: " + path + " is not served by a dialogue");
+			channel.buffer = channel.fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			channel.buffer.order(ByteOrder.nativeOrder());
+			if (channel.buffer.getInt(MAGIC_OFFSET) != MAGIC || channel.buffer.getInt(VERSION_OFFSET) != VERSION)
+				throw new ConnectException("Shared memory file: " + path + " is not served by a dialogue");
+			if (channel.isServerRunning() == false)
+				throw new ConnectException("Shared memory file: " + path + " is not served by a running dialogue");
+
+			channel.capacity = channel.buffer.getInt(CAPACITY_OFFSET);
+			channel.slotCount = channel.buffer.getInt(SLOT_COUNT_OFFSET);
+			int slot = 0;
+			while (slot < channel.slotCount && channel.lock == null) {
+				channel.lock = tryLock(channel.fileChannel, CLIENT_LOCK_POSITION + slot);
+				if (channel.lock == null)
+					slot++;
+			}
+			if (channel.lock == null)
+				throw new ConnectException("Shared memory file: " + path + " is already used by " + channel.slotCount + " clients");
+			if (channel.isPeerAlive(slot) == false)
+				throw new ConnectException("Shared memory file: " + path + " is not served by a running dialogue");
+
+			channel.slots = new int[] { slot };
+			channel.inbound = new SharedMemoryRing[channel.slotCount];
+			channel.outbound = new SharedMemoryRing[channel.slotCount];
+			channel.slotBuffers = new MappedByteBuffer[channel.slotCount];
+			channel.createRings(slot);
+			channel.outbound[slot].attachProducer();
+
+			// Responses left over from an earlier client of the slot are not ours to read, neither those in the
+			// ring now nor those the server writes later to requests the earlier client left behind
+			channel.generation = (int) ((long) STATE.getAcquire(channel.slotBuffers[slot], GENERATION_OFFSET) + 1);
+			STATE.setRelease(channel.slotBuffers[slot], GENERATION_OFFSET, (long) channel.generation);
+			channel.inbound[slot].attachConsumer(true);
+		} catch (IOException e) {
+			channel.fileChannel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	// Map the slot and create its rings
+	protected void createRings(int slot) throws IOException {
+		long slotSize = SLOT_HEADER_SIZE + 2L * capacity;
+		MappedByteBuffer slotBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + slot * slotSize, slotSize);
+		slotBuffers[slot] = slotBuffer;
+		SharedMemoryRing requests = new SharedMemoryRing(slotBuffer, SLOT_HEADER_SIZE, capacity, REQUEST_HEAD_OFFSET, REQUEST_TAIL_OFFSET);
+		SharedMemoryRing responses = new SharedMemoryRing(slotBuffer, SLOT_HEADER_SIZE + capacity, capacity, RESPONSE_HEAD_OFFSET, RESPONSE_TAIL_OFFSET);
+		inbound[slot] = server ? requests : responses;
+		outbound[slot] = server ? responses : requests;
+	}
+
+	// Lock one byte of the file. Returns null if the byte is locked by another process or by another channel
+	// in this process.
+	protected static FileLock tryLock(FileChannel fileChannel, long position) throws IOException {
+		try {
+			return fileChannel.tryLock(position, 1, false);
+		} catch (OverlappingFileLockException e) {
+			return null;
+		}
+	}
+
+	// True if the process on the other side of the slot is still running: the client of the slot for the
+	// server, the server for a client
+	public boolean isPeerAlive(int slot) throws IOException {
+		if (server == false && isServerRunning() == false)
+			return false;
+
+		FileLock peerLock = tryLock(fileChannel, server ? CLIENT_LOCK_POSITION + slot : SERVER_LOCK_POSITION);
+		if (peerLock == null)
+			return true;
+		peerLock.release();
+		return false;
+	}
+
+	// True if the server is still running. Only called by a client.
+	public boolean isPeerAlive() throws IOException {
+		return isPeerAlive(slots[0]);
+	}
+
+	public boolean isServerRunning() {
+		return (long) STATE.getAcquire(buffer, SERVER_STATE_OFFSET) == 1L;
+	}
+
+	public boolean isOpen() {
+		return closed == false && (server || isServerRunning());
+	}
+
+	public int getMaxMessageSize() {
+		return capacity / 2 - SharedMemoryRing.RECORD_HEADER_SIZE;
+	}
+
+	// The slots read and written by this side
+	public int[] getSlots() {
+		return slots;
+	}
+
+	// Write a frame to the request ring of the client's slot. Only called by a client.
+	public void send(String messageType, int requestId, ByteBuffer data) throws IOException {
+		send(slots[0], messageType, requestId, generation, data);
+	}
+
+	// Write a frame of the specified generation to the outbound ring of the slot, waiting for room if the ring
+	// is full. Threads sending at the same time take turns, so the ring only ever sees one producer.
+	public void send(int slot, String messageType, int requestId, int generation, ByteBuffer data) throws IOException {
+		SharedMemoryRing ring = outbound[slot];
+		if (data.remaining() > ring.getMaxMessageSize())
+			throw new IOException("Message of " + data.remaining() + " bytes is too large for the shared memory ring. The largest message is " + ring.getMaxMessageSize() + " bytes");
+
+		synchronized (ring) {
+			int idleRounds = 0;
+			long nextPeerCheck = 0;
+			while (ring.offer(messageType, requestId, generation, data) == false) {
+				if (isOpen() == false)
+					throw new ConnectException("Shared memory file: " + path + " is closed");
+
+				// The consumer may be gone for good
+				long now = System.nanoTime();
+				if (nextPeerCheck == 0) {
+					nextPeerCheck = now + PEER_CHECK_NANOS;
+				} else if (now - nextPeerCheck > 0) {
+					if (isPeerAlive(slot) == false)
+						throw new ConnectException("The other side of shared memory file: " + path + " is no longer running");
+					nextPeerCheck = now + PEER_CHECK_NANOS;
+				}
+				SharedMemoryRing.idle(waitStrategy, idleRounds++);
+			}
+		}
+	}
+
+	// Take the next frame off the inbound ring of the slot, or return null if there is none. A client skips
+	// the responses meant for an earlier client of its slot. Only called by the reading thread.
+	public SharedMemoryFrame poll(int slot) {
+		SharedMemoryFrame frame = inbound[slot].poll();
+		while (frame != null && server == false && frame.generation != generation)
+			frame = inbound[slot].poll();
+		return frame;
+	}
+
+	// Generation of the client's slot. Only called by a client.
+	public int getGeneration() {
+		return generation;
+	}
+
+	public String getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+
+		try {
+			if (server) {
+				// Tell the clients the server is gone, before the file goes away
+				STATE.setRelease(buffer, SERVER_STATE_OFFSET, 0L);
+				lock.release();
+				fileChannel.close();
+				Files.deleteIfExists(path);
+			} else {
+				lock.release();
+				fileChannel.close();
+			}
+		} catch (IOException e) {
+			System.out.println(e);
+		}
+	}
+
+}
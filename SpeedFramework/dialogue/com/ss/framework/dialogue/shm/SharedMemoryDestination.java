@@ -0,0 +1,27 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.shm;
+
+import java.nio.file.Path;
+
+import com.ss.framework.dialogue.AbstractDestination;
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.api.Destination;
+
+
+public class SharedMemoryDestination extends AbstractDestination implements Destination {
+
+	// The shared memory file served by the destination dialogue
+	public Path path;
+
+	public SharedMemoryDestination(String alias, Path path) throws DialogueException {
+		super();
+		if (alias == null || alias.trim().length() == 0)
+			throw new DialogueException("Alias name for the destination must be specified");
+		if (path == null)
+			throw new DialogueException("Shared memory file of the destination must be specified");
+		this.alias = alias;
+		this.path = path;
+	}
+
+}
@@ -0,0 +1,113 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.shm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.ss.framework.dialogue.AbstractDialogue;
+import com.ss.framework.dialogue.DialogueEngine;
+import com.ss.framework.dialogue.DialogueUnsupportedOptionException;
+
+
+public class SharedMemoryDialogue extends AbstractDialogue {
+
+	// Debug option. When this option is set to true additional debug messages are written to the system log.
+	// The default value for this property is false.
+	public static final String DEBUG = "DEBUG";
+
+	// Ring size option. Determines the size (in bytes) of each of the two rings of a client in the shared
+	// memory file served by the dialogue, one for messages and one for responses. The size is rounded up to a
+	// power of two. A message may take up to half a ring; larger messages are rejected. Senders wait while a
+	// ring is full. Clients use the ring size chosen by the server. The default value for this property is
+	// 4194304 (4 MB).
+	public static final String RING_SIZE = "RING_SIZE";
+
+	// Max clients option. Determines how many clients can be attached to the shared memory file served by the
+	// dialogue at the same time. The file has a pair of rings for each of them, but only the memory of the
+	// rings in use is ever touched. A client attaching to a file that has no room left fails to connect. The
+	// default value for this property is 8.
+	public static final String MAX_CLIENTS = "MAX_CLIENTS";
+
+	// Wait strategy option. Determines what a thread waiting for a message (or for room in a full ring) does
+	// between looks at the ring. Valid values are SPIN, YIELD and PARK. SPIN keeps a core busy for the
+	// lowest latency and should only be used with a core to spare for every reading thread. YIELD lets other
+	// threads run in between, and PARK sleeps a short while once the ring has been idle for a moment, which
+	// adds some microseconds of latency but leaves the core free. The default value for this property is
+	// PARK.
+	public static final String WAIT_STRATEGY = "WAIT_STRATEGY";
+
+	public static final String WAIT_SPIN = SharedMemoryRing.WAIT_SPIN;
+
+	public static final String WAIT_YIELD = SharedMemoryRing.WAIT_YIELD;
+
+	public static final String WAIT_PARK = SharedMemoryRing.WAIT_PARK;
+
+	// Metrics option. When this option is set to true the dialogue counts the messages, bytes and errors of
+	// each destination and keeps a histogram of response round-trip times. The metrics are registered as
+	// MBeans with the platform MBean server while the dialogue is started. The default value for this
+	// property is true.
+	public static final String METRICS = "METRICS";
+
+	// Metrics name option. The name the dialogue's metrics MBeans are registered under. When not set, a name
+	// is generated.
+	public static final String METRICS_NAME = "METRICS_NAME";
+
+	protected static Map<String, Class> supportedOptions = new HashMap<String, Class>();
+
+	static {
+		supportedOptions.put(DEBUG, Boolean.class);
+		supportedOptions.put(RING_SIZE, Integer.class);
+		supportedOptions.put(MAX_CLIENTS, Integer.class);
+		supportedOptions.put(WAIT_STRATEGY, String.class);
+		supportedOptions.put(METRICS, Boolean.class);
+		supportedOptions.put(METRICS_NAME, String.class);
+	}
+
+	public SharedMemoryDialogue(DialogueEngine engine) {
+		super(engine);
+
+		// Set default options
+		try {
+			Map<String, Object> options = new HashMap<String, Object>();
+			options.put(DEBUG, false);
+			options.put(RING_SIZE, 4194304);
+			options.put(MAX_CLIENTS, 8);
+			options.put(WAIT_STRATEGY, WAIT_PARK);
+			options.put(METRICS, true);
+			setOptions(options);
+		} catch (DialogueUnsupportedOptionException e) {
+			System.out.println(e);
+		}
+	}
+
+	public void setOptions(Map<String, Object> options) throws DialogueUnsupportedOptionException {
+		for (String option : options.keySet()) {
+			if (supportedOptions.containsKey(option) == false)
+				throw new DialogueUnsupportedOptionException("Option: " + option + " not supported. Use getSupportedOptions() to list the supported options.");
+
+			if (supportedOptions.get(option).isInstance(options.get(option)) == false)
+				throw new DialogueUnsupportedOptionException("Invalid type for option: " + option + ". Valid type is: " + supportedOptions.get(option));
+		}
+
+		Object waitStrategy = options.get(WAIT_STRATEGY);
+		if (waitStrategy != null && waitStrategy.equals(WAIT_SPIN) == false && waitStrategy.equals(WAIT_YIELD) == false && waitStrategy.equals(WAIT_PARK) == false)
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + WAIT_STRATEGY + ". Valid values are: " + WAIT_SPIN + ", " + WAIT_YIELD + ", " + WAIT_PARK);
+		Object ringSize = options.get(RING_SIZE);
+		if (ringSize != null && ((Integer) ringSize < 4096 || (Integer) ringSize > 536870912))
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + RING_SIZE + ". Valid values are 4096 to 536870912");
+		Object maxClients = options.get(MAX_CLIENTS);
+		if (maxClients != null && ((Integer) maxClients < 1 || (Integer) maxClients > SharedMemoryChannel.MAX_SLOTS))
+			throw new DialogueUnsupportedOptionException("Invalid value for option: " + MAX_CLIENTS + ". Valid values are 1 to " + SharedMemoryChannel.MAX_SLOTS);
+		super.setOptions(options);
+	}
+
+	public Map<String, Class> getSupportedOptions() {
+		return supportedOptions;
+
+	}
+
+	protected void setReadPaused(boolean paused) {
+		((SharedMemoryDialogueEngine) engine).setReadPaused(paused);
+	}
+}
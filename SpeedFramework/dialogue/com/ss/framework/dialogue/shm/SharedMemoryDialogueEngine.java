@@ -0,0 +1,428 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.shm;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ss.framework.dialogue.DialogueConnectionException;
+import com.ss.framework.dialogue.DialogueEngine;
+import com.ss.framework.dialogue.DialogueException;
+import com.ss.framework.dialogue.DialogueExceptionSet;
+import com.ss.framework.dialogue.DialogueMetricsImpl;
+import com.ss.framework.dialogue.DialogueOutputStream;
+import com.ss.framework.dialogue.DialogueResponseHandler;
+import com.ss.framework.dialogue.api.Destination;
+import com.ss.framework.dialogue.api.Dialogue;
+import com.ss.framework.dialogue.api.DialogueServerMessage;
+import com.ss.framework.dialogue.ip.NonBlockingSocketTransport;
+import com.ss.framework.dialogue.ip.SocketDialogueServerMessage;
+import com.ss.framework.dialogue.ip.SocketFrame;
+
+
+// Engine for dialogues in different processes on the same host. A dialogue server serves a memory mapped
+// file with a slot for each client, each slot holding two single producer, single consumer rings, one for
+// messages and one for responses, and a client attaches to a slot in the file of each destination it sends
+// to. Messages are copied into the ring by the sending thread and out of it by a reading thread that passes
+// them straight to the listeners, so nothing goes through the kernel on the way.
+public class SharedMemoryDialogueEngine implements DialogueEngine {
+
+	// The file served by the dialogue, or null for a client only dialogue
+	protected Path path;
+
+	protected SharedMemoryDialogue dialogue;
+
+	protected SharedMemoryChannel serverChannel;
+
+	protected SharedMemoryReader serverReader;
+
+	protected DialogueMetricsImpl serverMetrics;
+
+	// Maps a destination alias to the connection to the destination's file
+	protected Map<String, Connection> connections = new ConcurrentHashMap<String, Connection>();
+
+	protected AtomicInteger requestSequence = new AtomicInteger();
+
+	protected ThreadGroup threadGroup;
+
+	protected volatile boolean started = false;
+
+	// True while the requests sent to the dialogue server are not read
+	protected volatile boolean readPaused = false;
+
+	public SharedMemoryDialogueEngine(Path path) {
+		super();
+		this.path = path;
+
+	}
+
+	public synchronized Dialogue getDialogue() {
+		if (dialogue == null)
+			dialogue = new SharedMemoryDialogue(this);
+
+		return dialogue;
+
+	}
+
+	public void send(String destinationAlias, byte[] message) throws DialogueConnectionException, DialogueException {
+		if (started == false)
+			throw new DialogueException("Dialogue not started");
+		send(destinationAlias, SocketDialogueServerMessage.TYPE_NORMAL, message, null);
+
+	}
+
+	public void send(List<String> destinationAliases, byte[] message) throws DialogueExceptionSet {
+		send(destinationAliases, message, null);
+
+	}
+
+	public void sendToAll(byte[] message) throws DialogueExceptionSet {
+		sendToAll(message, null);
+
+	}
+
+	public void send(String destinationAlias, byte[] message, DialogueResponseHandler responseHandler) throws DialogueException {
+		if (started == false)
+			throw new DialogueException("Dialogue not started");
+		send(destinationAlias, responseHandler != null ? SocketDialogueServerMessage.TYPE_RESPONSE : SocketDialogueServerMessage.TYPE_NORMAL, message, responseHandler);
+
+	}
+
+	public void send(List<String> destinationAliases, byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
+		if (started == false)
+			throw new DialogueExceptionSet("Dialogue not started");
+
+		DialogueExceptionSet exceptionSet = null;
+		for (String alias : destinationAliases) {
+			try {
+				send(alias, message, responseHandler);
+			} catch (Exception e) {
+				if (exceptionSet == null)
+					exceptionSet = new DialogueExceptionSet("One or more errors occured during send operation.");
+				exceptionSet.addException(alias, e);
+			}
+		}
+
+		if (exceptionSet != null)
+			throw exceptionSet;
+
+	}
+
+	public void sendToAll(byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
+		if (responseHandler != null)
+			responseHandler.setDestinationAliases(dialogue.getDestinationAliases());
+
+		List<String> destinationAliases = new ArrayList<String>();
+		for (Destination dest : dialogue.getDestinations())
+			destinationAliases.add(dest.getAlias());
+		send(destinationAliases, message, responseHandler);
+
+	}
+
+	// A send only waits if the ring is full, so the asynchronous sends are the same as the synchronous ones
+	public void sendAsync(String destinationAlias, byte[] message, DialogueResponseHandler responseHandler) throws DialogueException {
+		send(destinationAlias, message, responseHandler);
+
+	}
+
+	public void sendAsync(List<String> destinationAliases, byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
+		send(destinationAliases, message, responseHandler);
+
+	}
+
+	public void sendToAllAsync(byte[] message, DialogueResponseHandler responseHandler) throws DialogueExceptionSet {
+		sendToAll(message, responseHandler);
+
+	}
+
+	public void sendBatch(String destinationAlias, List<byte[]> messages) throws DialogueConnectionException, DialogueException {
+		if (started == false)
+			throw new DialogueException("Dialogue not started");
+		send(destinationAlias, SocketDialogueServerMessage.TYPE_BATCH, SocketFrame.encodeBatch(messages), null);
+
+	}
+
+	// A server only notices that a client has gone away when it writes to the client's ring, so a stream
+	// could be left waiting for its end forever
+	public DialogueOutputStream openStream(String destinationAlias, String name) throws DialogueConnectionException, DialogueException {
+		throw new DialogueException("Streams are not supported by shared memory dialogues");
+
+	}
+
+	// Write a message to the ring of the destination. Connection failures of response messages are reported
+	// to the response handler, like they are by the socket engine.
+	protected void send(String destinationAlias, String messageType, byte[] message, DialogueResponseHandler responseHandler) throws DialogueException {
+		Connection connection = null;
+		int requestId = NonBlockingSocketTransport.NO_REQUEST_ID;
+		try {
+			connection = getConnection(destinationAlias);
+			if (responseHandler != null) {
+				requestId = nextRequestId();
+				final Map<Integer, ResponseEntry> responseEntries = connection.responseEntries;
+				final ResponseEntry entry = new ResponseEntry(responseHandler);
+				final int entryRequestId = requestId;
+				responseEntries.put(requestId, entry);
+
+				// Forget the request once the handler stops waiting, also when no response ever arrives
+				responseHandler.addCompletionTask(new Runnable() {
+
+					public void run() {
+						responseEntries.remove(entryRequestId, entry);
+					}
+				});
+			}
+			connection.channel.send(messageType, requestId, ByteBuffer.wrap(message));
+			if (connection.metrics != null)
+				connection.metrics.messageSent(message.length);
+		} catch (ConnectException e) {
+			DialogueMetricsImpl metrics = dialogue.getMetricsRegistry().getDestinationMetrics(destinationAlias);
+			if (metrics != null)
+				metrics.error();
+			if (connection != null)
+				connectionLost(connection);
+			if (responseHandler == null)
+				throw new DialogueConnectionException(e);
+			if (connection == null)
+				responseHandler.handleException(destinationAlias, e);
+		} catch (IOException e) {
+			if (connection != null)
+				connection.responseEntries.remove(requestId);
+			throw new DialogueException(e);
+		}
+
+	}
+
+	// Request ids start over before they reach NO_REQUEST_ID
+	protected int nextRequestId() {
+		int requestId = requestSequence.incrementAndGet() & Integer.MAX_VALUE;
+		return requestId != NonBlockingSocketTransport.NO_REQUEST_ID ? requestId : nextRequestId();
+	}
+
+	// Get the connection to the destination, attaching to its file if there is no connection or the server
+	// behind the connection has stopped
+	protected Connection getConnection(String destinationAlias) throws DialogueException, IOException {
+		Connection connection = connections.get(destinationAlias);
+		if (connection != null && connection.channel.isOpen())
+			return connection;
+
+		Destination dest = dialogue.getDestination(destinationAlias);
+		if (dest == null)
+			throw new DialogueException("Destination with alias: " + destinationAlias + ", not active in dialogue");
+		if (dest instanceof SharedMemoryDestination == false)
+			throw new DialogueException("Destination with alias: " + destinationAlias + ", is not a shared memory destination");
+
+		synchronized (connections) {
+			connection = connections.get(destinationAlias);
+			if (connection != null && connection.channel.isOpen())
+				return connection;
+			if (connection != null)
+				connectionLost(connection);
+
+			String waitStrategy = (String) dialogue.getOptions().get(SharedMemoryDialogue.WAIT_STRATEGY);
+			SharedMemoryChannel channel = SharedMemoryChannel.open(((SharedMemoryDestination) dest).path, waitStrategy);
+			DialogueMetricsImpl metrics = dialogue.getMetricsRegistry().getDestinationMetrics(destinationAlias);
+			if (metrics != null) {
+				if (metrics.getConnects() > 0)
+					metrics.reconnected();
+				metrics.connected();
+			}
+
+			connection = new Connection(destinationAlias, channel, metrics);
+			connections.put(destinationAlias, connection);
+			new Thread(threadGroup, connection.reader, "SharedMemoryReader-" + destinationAlias).start();
+			return connection;
+		}
+
+	}
+
+	// Called by a reader with the frames it took off its ring. On the server side the frames are messages for
+	// the listeners; on the client side they are responses.
+	// The server's frames all come from the client attached to the slot.
+	protected void framesReceived(Connection connection, int slot, List<SharedMemoryFrame> frames) {
+		if (connection == null) {
+			List<DialogueServerMessage> messages = new ArrayList<DialogueServerMessage>(frames.size());
+			for (SharedMemoryFrame frame : frames) {
+				if (serverMetrics != null)
+					serverMetrics.messageReceived(frame.data.remaining());
+				if (frame.messageType.equals(SocketDialogueServerMessage.TYPE_BATCH)) {
+					try {
+						for (ByteBuffer data : SocketFrame.decodeBatch(frame.data))
+							messages.add(new SharedMemoryDialogueServerMessage(this, data, false, slot, frame.generation, NonBlockingSocketTransport.NO_REQUEST_ID));
+					} catch (IOException e) {
+						if (serverMetrics != null)
+							serverMetrics.error();
+						System.out.println(e);
+					}
+				} else {
+					boolean responseRequested = frame.messageType.equals(SocketDialogueServerMessage.TYPE_RESPONSE);
+					messages.add(new SharedMemoryDialogueServerMessage(this, frame.data, responseRequested, slot, frame.generation, frame.requestId));
+				}
+			}
+			dialogue.notifyMessagesReceived(messages);
+			return;
+		}
+
+		for (SharedMemoryFrame frame : frames) {
+			ResponseEntry entry = connection.responseEntries.remove(frame.requestId);
+			if (entry == null)
+				continue;
+			if (connection.metrics != null) {
+				connection.metrics.messageReceived(frame.data.remaining());
+				connection.metrics.responseReceived(System.nanoTime() - entry.sendTime);
+			}
+			entry.responseHandler.handleResponse(connection.destinationAlias, frame.data);
+		}
+
+	}
+
+	// Write a response to the response ring of the client's slot in the served file. The response carries the
+	// generation of the request, so it is only read by the client that sent the request.
+	protected void respond(int slot, int generation, int requestId, byte[] response) throws IOException {
+		SharedMemoryChannel channel = serverChannel;
+		if (channel == null)
+			throw new ConnectException("Dialogue not started");
+		channel.send(slot, SocketDialogueServerMessage.TYPE_NORMAL, requestId, generation, ByteBuffer.wrap(response));
+		if (serverMetrics != null)
+			serverMetrics.messageSent(response.length);
+
+	}
+
+	// Drop a connection whose server has stopped. Handlers still waiting for a response are told the
+	// connection is gone; the next send attaches to the file again.
+	protected void connectionLost(Connection connection) {
+		connections.remove(connection.destinationAlias, connection);
+		connection.close();
+
+		ConnectException exception = new ConnectException("Shared memory dialogue serving: " + connection.channel.getPath() + " stopped");
+		for (Integer requestId : new ArrayList<Integer>(connection.responseEntries.keySet())) {
+			ResponseEntry entry = connection.responseEntries.remove(requestId);
+			if (entry != null)
+				entry.responseHandler.handleException(connection.destinationAlias, exception);
+		}
+
+	}
+
+	public synchronized void start() throws DialogueException {
+		if (started)
+			return;
+
+		Boolean metrics = (Boolean) dialogue.getOptions().get(SharedMemoryDialogue.METRICS);
+		dialogue.getMetricsRegistry().start((String) dialogue.getOptions().get(SharedMemoryDialogue.METRICS_NAME), metrics == null || metrics);
+
+		threadGroup = new ThreadGroup("SharedMemoryDialogue");
+		if (path != null) {
+			Integer ringSize = (Integer) dialogue.getOptions().get(SharedMemoryDialogue.RING_SIZE);
+			Integer maxClients = (Integer) dialogue.getOptions().get(SharedMemoryDialogue.MAX_CLIENTS);
+			String waitStrategy = (String) dialogue.getOptions().get(SharedMemoryDialogue.WAIT_STRATEGY);
+			try {
+				serverChannel = SharedMemoryChannel.create(path, ringSize != null ? ringSize : 4194304, maxClients != null ? maxClients : 8, waitStrategy);
+			} catch (IOException e) {
+				dialogue.getMetricsRegistry().stop();
+				threadGroup = null;
+				throw new DialogueException("Could not serve shared memory file: " + path, e);
+			}
+
+			serverMetrics = dialogue.getMetricsRegistry().addConnectionMetrics(serverChannel, path.getFileName().toString());
+			serverReader = new SharedMemoryReader(this, serverChannel, null);
+			serverReader.setPaused(readPaused);
+			new Thread(threadGroup, serverReader, "SharedMemoryReader").start();
+		}
+		started = true;
+
+	}
+
+	// Stop or resume reading the requests sent to the dialogue server. Responses read by the client
+	// connections are not held back.
+	public void setReadPaused(boolean paused) {
+		readPaused = paused;
+		SharedMemoryReader reader = serverReader;
+		if (reader != null)
+			reader.setPaused(paused);
+	}
+
+	public synchronized void stop() {
+		if (threadGroup != null) {
+			started = false;
+			if (serverReader != null)
+				serverReader.stop();
+			for (Connection connection : new ArrayList<Connection>(connections.values()))
+				connection.reader.stop();
+
+			// Wait for the readers to stop (wait max 10 seconds)
+			int elapsedTime = 0;
+			while (threadGroup.activeCount() > 0 && elapsedTime < 10000) {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+				}
+				elapsedTime += 10;
+			}
+
+			// If any thread is still alive, terminate it
+			if (threadGroup.activeCount() > 0)
+				threadGroup.interrupt();
+
+			for (Connection connection : new ArrayList<Connection>(connections.values()))
+				connectionLost(connection);
+			if (serverChannel != null)
+				serverChannel.close();
+			serverChannel = null;
+			serverReader = null;
+			serverMetrics = null;
+
+			dialogue.getMetricsRegistry().stop();
+		}
+
+		threadGroup = null;
+
+	}
+
+	// The client side of a destination's file
+	protected class Connection {
+
+		protected String destinationAlias;
+
+		protected SharedMemoryChannel channel;
+
+		protected SharedMemoryReader reader;
+
+		protected DialogueMetricsImpl metrics;
+
+		// Maps a request id to the handler waiting for the response to the request
+		protected Map<Integer, ResponseEntry> responseEntries = new ConcurrentHashMap<Integer, ResponseEntry>();
+
+		protected Connection(String destinationAlias, SharedMemoryChannel channel, DialogueMetricsImpl metrics) {
+			this.destinationAlias = destinationAlias;
+			this.channel = channel;
+			this.metrics = metrics;
+			this.reader = new SharedMemoryReader(SharedMemoryDialogueEngine.this, channel, this);
+		}
+
+		protected void close() {
+			reader.stop();
+			channel.close();
+		}
+
+	}
+
+	protected static class ResponseEntry {
+
+		protected DialogueResponseHandler responseHandler;
+
+		// Time (System.nanoTime) the request was sent
+		protected long sendTime = System.nanoTime();
+
+		protected ResponseEntry(DialogueResponseHandler responseHandler) {
+			this.responseHandler = responseHandler;
+		}
+
+	}
+
+}
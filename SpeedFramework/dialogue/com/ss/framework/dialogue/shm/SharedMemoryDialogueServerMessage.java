@@ -0,0 +1,56 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.shm;
+
+import java.nio.ByteBuffer;
+
+import com.ss.framework.dialogue.AbstractDialogueServerMessage;
+import com.ss.framework.dialogue.DialogueException;
+
+
+public class SharedMemoryDialogueServerMessage extends AbstractDialogueServerMessage {
+
+	protected SharedMemoryDialogueEngine engine = null;
+
+	protected boolean responseRequested = false;
+
+	// Slot of the client that sent the message. The response is written to the ring of the slot.
+	protected int slot;
+
+	// Generation of the slot's client that sent the message. Echoed back to the client in the response.
+	protected int generation;
+
+	// Id of the request this message belongs to. Echoed back to the client in the response.
+	protected int requestId;
+
+	public SharedMemoryDialogueServerMessage(SharedMemoryDialogueEngine engine, ByteBuffer data, boolean responseRequested, int slot, int generation, int requestId) {
+		super(data);
+		this.engine = engine;
+		this.responseRequested = responseRequested;
+		this.slot = slot;
+		this.generation = generation;
+		this.requestId = requestId;
+	}
+
+	public boolean responseRequested() {
+		return responseRequested;
+	}
+
+	public void respond(String response) throws DialogueException {
+		respond(response.getBytes());
+
+	}
+
+	public void respond(byte[] response) throws DialogueException {
+		if (responseRequested == false)
+			throw new DialogueException("Attempt to respond to a message that did not request a response");
+
+		try {
+			engine.respond(slot, generation, requestId, response);
+		} catch (Exception e) {
+			throw new DialogueException("Error when responding to message. Cause: " + e);
+		}
+
+	}
+
+}
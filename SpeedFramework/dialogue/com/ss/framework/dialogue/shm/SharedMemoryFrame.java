@@ -0,0 +1,22 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.shm;
+
+import java.nio.ByteBuffer;
+
+import com.ss.framework.dialogue.ip.SocketFrame;
+
+
+// A frame taken off a shared memory ring. Each frame carries the generation of the slot's client it was
+// written by or for, so a client never reads the responses meant for an earlier client of its slot.
+public class SharedMemoryFrame extends SocketFrame {
+
+	// Number of the client of the slot, counted from 1 since the slot was created
+	public int generation;
+
+	public SharedMemoryFrame(String messageType, int requestId, int generation, ByteBuffer data) {
+		super(messageType, requestId, data);
+		this.generation = generation;
+	}
+
+}
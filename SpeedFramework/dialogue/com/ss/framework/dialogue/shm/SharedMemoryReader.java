@@ -0,0 +1,113 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.shm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// Reads the frames arriving on one side of a shared memory file and hands them to the engine on the reading
+// thread itself. The server's reader takes turns at the rings of all slots, so a busy client does not hold up
+// the others. While the rings are empty the thread waits according to the channel's wait strategy.
+public class SharedMemoryReader implements Runnable {
+
+	// Maximum number of frames handed to the engine at once
+	protected static final int READ_BATCH_SIZE = 64;
+
+	// How often (in nanoseconds) an idle client checks that the server is still running
+	protected static final long PEER_CHECK_NANOS = 100000000;
+
+	protected SharedMemoryDialogueEngine engine;
+
+	protected SharedMemoryChannel channel;
+
+	// The client connection read by this reader, or null when reading for the dialogue server
+	protected SharedMemoryDialogueEngine.Connection connection;
+
+	protected volatile boolean running = true;
+
+	// True while no frames are taken off the ring, so the sender waits for room once the ring is full
+	protected volatile boolean paused = false;
+
+	// Time (System.nanoTime) of the next check that the server process is still running
+	protected long nextPeerCheck;
+
+	public SharedMemoryReader(SharedMemoryDialogueEngine engine, SharedMemoryChannel channel, SharedMemoryDialogueEngine.Connection connection) {
+		this.engine = engine;
+		this.channel = channel;
+		this.connection = connection;
+	}
+
+	public void run() {
+		List<SharedMemoryFrame> frames = new ArrayList<SharedMemoryFrame>(READ_BATCH_SIZE);
+		int[] slots = channel.getSlots();
+		int slotIndex = 0;
+		int emptyRings = 0;
+		int idleRounds = 0;
+		nextPeerCheck = System.nanoTime() + PEER_CHECK_NANOS;
+		while (running) {
+			// A paused reader may wait for long, so it parks whatever the wait strategy
+			if (paused) {
+				SharedMemoryRing.idle(SharedMemoryRing.WAIT_PARK, idleRounds++);
+				continue;
+			}
+
+			int slot = slots[slotIndex];
+			slotIndex = (slotIndex + 1) % slots.length;
+			SharedMemoryFrame frame = channel.poll(slot);
+			if (frame == null) {
+				// The reader is idle once it has found all rings empty
+				if (++emptyRings < slots.length)
+					continue;
+				emptyRings = 0;
+				if (connection != null && isServerGone()) {
+					engine.connectionLost(connection);
+					break;
+				}
+				SharedMemoryRing.idle(channel.getWaitStrategy(), idleRounds++);
+				continue;
+			}
+
+			// Take whatever else is already waiting, so the listeners get it in one call
+			idleRounds = 0;
+			emptyRings = 0;
+			do {
+				frames.add(frame);
+			} while (frames.size() < READ_BATCH_SIZE && (frame = channel.poll(slot)) != null);
+
+			try {
+				engine.framesReceived(connection, slot, frames);
+			} catch (RuntimeException e) {
+				System.out.println(e);
+			}
+			frames.clear();
+		}
+
+	}
+
+	// True if the server stopped or, checked now and then, its process is gone
+	protected boolean isServerGone() {
+		if (channel.isServerRunning() == false)
+			return true;
+		long now = System.nanoTime();
+		if (now - nextPeerCheck < 0)
+			return false;
+
+		nextPeerCheck = now + PEER_CHECK_NANOS;
+		try {
+			return channel.isPeerAlive() == false;
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+
+	public void stop() {
+		running = false;
+	}
+
+}
@@ -0,0 +1,194 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.shm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ss.framework.dialogue.ip.SocketDialogueServerMessage;
+
+
+// A single producer, single consumer ring of frames in a memory mapped file. The producer and the consumer
+// may live in different processes. Positions only ever grow; the producer publishes its position (the tail)
+// with release semantics once a record is written, and the consumer publishes its position (the head) the
+// same way once a record has been copied out, so neither side ever locks.
+//
+// Each record starts with its size (a multiple of 8), the payload length, the request id, the message type
+// and the generation of the slot's client the record belongs to, followed by the payload. A record never wraps around the end of the ring; the space left at the end
+// is filled with a padding record instead.
+public class SharedMemoryRing {
+
+	public static final String WAIT_SPIN = "SPIN";
+
+	public static final String WAIT_YIELD = "YIELD";
+
+	public static final String WAIT_PARK = "PARK";
+
+	// Accesses the head and tail positions with memory ordering guarantees
+	protected static final VarHandle POSITION = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	protected static final int RECORD_HEADER_SIZE = 24;
+
+	// Payload length that marks a padding record
+	protected static final int PADDING = -1;
+
+	// Number of idle rounds spent spinning before yielding or parking
+	protected static final int SPIN_ROUNDS = 100;
+
+	// Number of idle rounds spent yielding before parking
+	protected static final int YIELD_ROUNDS = 10;
+
+	// How long (in nanoseconds) a parked thread sleeps before checking the ring again
+	protected static final long PARK_NANOS = 50000;
+
+	// The mapped file. Only the owning side (producer or consumer) uses this view.
+	protected ByteBuffer buffer;
+
+	// Offset of the first byte of the ring in the file
+	protected int base;
+
+	protected int capacity;
+
+	protected int mask;
+
+	// Offsets of the head and tail positions in the file
+	protected int headOffset;
+
+	protected int tailOffset;
+
+	// The position owned by this side: the tail for the producer, the head for the consumer
+	protected long position;
+
+	public SharedMemoryRing(ByteBuffer mappedBuffer, int base, int capacity, int headOffset, int tailOffset) {
+		this.buffer = mappedBuffer.duplicate().order(ByteOrder.nativeOrder());
+		this.base = base;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.headOffset = headOffset;
+		this.tailOffset = tailOffset;
+	}
+
+	// Start an empty ring. Only called before either side uses the ring.
+	public void reset() {
+		POSITION.setRelease(buffer, headOffset, 0L);
+		POSITION.setRelease(buffer, tailOffset, 0L);
+		position = 0;
+	}
+
+	// Continue producing where the previous producer left off
+	public void attachProducer() {
+		position = (long) POSITION.getAcquire(buffer, tailOffset);
+	}
+
+	// Start consuming. When skip is true the records already in the ring are skipped.
+	public void attachConsumer(boolean skip) {
+		if (skip) {
+			position = (long) POSITION.getAcquire(buffer, tailOffset);
+			POSITION.setRelease(buffer, headOffset, position);
+		} else {
+			position = (long) POSITION.getAcquire(buffer, headOffset);
+		}
+	}
+
+	// The largest payload the ring accepts. A record must fit in half the ring, so one always fits once the
+	// consumer has caught up, whatever padding it needs.
+	public int getMaxMessageSize() {
+		return capacity / 2 - RECORD_HEADER_SIZE;
+	}
+
+	// Write a record. Returns false if the ring does not have room for it at the moment. Only called by the
+	// producer.
+	public boolean offer(String messageType, int requestId, int generation, ByteBuffer payload) {
+		int length = payload.remaining();
+		int recordSize = align(RECORD_HEADER_SIZE + length);
+		int index = (int) (position & mask);
+		int toEnd = capacity - index;
+		int needed = toEnd < recordSize ? toEnd + recordSize : recordSize;
+
+		long head = (long) POSITION.getAcquire(buffer, headOffset);
+		if (position + needed - head > capacity)
+			return false;
+
+		if (toEnd < recordSize) {
+			// Fill the end of the ring and start over at its beginning
+			buffer.putInt(base + index, toEnd);
+			buffer.putInt(base + index + 4, PADDING);
+			position += toEnd;
+			index = 0;
+		}
+
+		int offset = base + index;
+		buffer.putInt(offset, recordSize);
+		buffer.putInt(offset + 4, length);
+		buffer.putInt(offset + 8, requestId);
+		buffer.putInt(offset + 12, messageType.charAt(0));
+		buffer.putInt(offset + 16, generation);
+		buffer.put(offset + RECORD_HEADER_SIZE, payload, payload.position(), length);
+		position += recordSize;
+
+		// Publish the record
+		POSITION.setRelease(buffer, tailOffset, position);
+		return true;
+	}
+
+	// Take the next record off the ring, or return null if the ring is empty. The payload is copied out so
+	// its space can be reused right away. Only called by the consumer.
+	public SharedMemoryFrame poll() {
+		while (true) {
+			long tail = (long) POSITION.getAcquire(buffer, tailOffset);
+			if (tail == position)
+				return null;
+
+			int offset = base + (int) (position & mask);
+			int recordSize = buffer.getInt(offset);
+			int length = buffer.getInt(offset + 4);
+			if (length == PADDING) {
+				position += recordSize;
+				POSITION.setRelease(buffer, headOffset, position);
+				continue;
+			}
+
+			int requestId = buffer.getInt(offset + 8);
+			String messageType = getMessageType(buffer.getInt(offset + 12));
+			int generation = buffer.getInt(offset + 16);
+			byte[] data = new byte[length];
+			buffer.get(offset + RECORD_HEADER_SIZE, data);
+			position += recordSize;
+
+			// Give the space back to the producer
+			POSITION.setRelease(buffer, headOffset, position);
+			return new SharedMemoryFrame(messageType, requestId, generation, ByteBuffer.wrap(data));
+		}
+	}
+
+	public boolean isEmpty() {
+		return (long) POSITION.getAcquire(buffer, tailOffset) == (long) POSITION.getAcquire(buffer, headOffset);
+	}
+
+	protected String getMessageType(int type) {
+		if (type == SocketDialogueServerMessage.TYPE_RESPONSE.charAt(0))
+			return SocketDialogueServerMessage.TYPE_RESPONSE;
+		if (type == SocketDialogueServerMessage.TYPE_BATCH.charAt(0))
+			return SocketDialogueServerMessage.TYPE_BATCH;
+		return SocketDialogueServerMessage.TYPE_NORMAL;
+	}
+
+	protected static int align(int size) {
+		return (size + 7) & ~7;
+	}
+
+	// Wait a little before checking the ring again. The longer the ring has been idle, the more the wait
+	// strategy gives the processor away: SPIN never does, YIELD yields to other threads and PARK sleeps.
+	public static void idle(String waitStrategy, int idleRounds) {
+		if (idleRounds < SPIN_ROUNDS || WAIT_SPIN.equals(waitStrategy))
+			Thread.onSpinWait();
+		else if (idleRounds < SPIN_ROUNDS + YIELD_ROUNDS || WAIT_YIELD.equals(waitStrategy))
+			Thread.yield();
+		else
+			LockSupport.parkNanos(PARK_NANOS);
+	}
+
+}
@@ -0,0 +1,296 @@
+// {{CopyrightNotice}}
+
+package com.ss.framework.dialogue.shm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import com.ss.framework.dialogue.ip.SocketDialogueServerMessage;
+
+
+public class SharedMemoryRingCheck {
+
+	// This program checks the shared memory rings and the slots of a shared memory file: records that do not
+	// fit at the end of a ring, a producer waiting for room in a full ring, a client that crashes and a new
+	// client taking over its slot, and a server that crashes while a client waits for room. The crashed side
+	// runs in a second process, since the locks that tell if a side is still running are held by the process.
+	// Each check prints OK or FAILED, and the program exits with 1 if any check failed.
+
+	protected static int failures = 0;
+
+	public static void main(String[] args) {
+
+		// The second process attaches to or serves the file given on the command line and waits to be killed
+		if (args.length == 2) {
+			runPeer(args[0], Paths.get(args[1]));
+			return;
+		}
+
+		try {
+			checkWrapPadding();
+			checkFullRing();
+			checkClientCrash();
+			checkServerCrash();
+		} catch (Exception e) {
+			System.out.println(e);
+			failures++;
+		}
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+		System.exit(failures == 0 ? 0 : 1);
+
+	}
+
+	// Records of every size are written until the ring has wrapped many times. A record that does not fit
+	// at the end of the ring must start over at its beginning, and every record must come out as it went in.
+	protected static void checkWrapPadding() {
+		int capacity = 4096;
+		ByteBuffer file = ByteBuffer.allocateDirect(256 + capacity);
+		SharedMemoryRing producer = new SharedMemoryRing(file, 256, capacity, 0, 128);
+		SharedMemoryRing consumer = new SharedMemoryRing(file, 256, capacity, 0, 128);
+		producer.reset();
+		consumer.attachConsumer(false);
+
+		boolean intact = true;
+		boolean aligned = true;
+		int wrapped = 0;
+		for (int i = 0; i < 10000; i++) {
+			int length = i % (producer.getMaxMessageSize() + 1);
+			long before = producer.position;
+			if (producer.offer(SocketDialogueServerMessage.TYPE_NORMAL, i, 1, ByteBuffer.wrap(payload(i, length))) == false) {
+				intact = false;
+				break;
+			}
+
+			// A record that was moved to the beginning of the ring ends exactly one record size past it
+			int recordSize = SharedMemoryRing.align(SharedMemoryRing.RECORD_HEADER_SIZE + length);
+			if (producer.position - before != recordSize) {
+				wrapped++;
+				if ((producer.position & (capacity - 1)) != recordSize % capacity)
+					aligned = false;
+			}
+
+			SharedMemoryFrame frame = consumer.poll();
+			if (frame == null || frame.requestId != i || frame.generation != 1 || Arrays.equals(bytes(frame.data), payload(i, length)) == false)
+				intact = false;
+		}
+
+		check("Records that do not fit at the end of the ring start over at its beginning (" + wrapped + " times)", wrapped > 0 && aligned);
+		check("Records come out of a wrapping ring as they went in", intact && consumer.poll() == null && consumer.isEmpty());
+
+		// The largest record fits once the consumer has caught up, wherever the previous record ended
+		boolean largestFits = true;
+		for (int i = 0; i < capacity / 8 && largestFits; i++) {
+			largestFits = producer.offer(SocketDialogueServerMessage.TYPE_NORMAL, i, 1, ByteBuffer.allocate(producer.getMaxMessageSize()));
+			consumer.poll();
+			producer.offer(SocketDialogueServerMessage.TYPE_NORMAL, i, 1, ByteBuffer.allocate(0));
+			consumer.poll();
+		}
+		check("The largest message fits wherever the previous record ended", largestFits);
+	}
+
+	// A client sends to a server that does not read. The client must wait once the ring is full, and go on as
+	// soon as the server reads.
+	protected static void checkFullRing() throws Exception {
+		Path path = createTempPath();
+		SharedMemoryChannel server = SharedMemoryChannel.create(path, 4096, 1, SharedMemoryRing.WAIT_PARK);
+		final SharedMemoryChannel client = SharedMemoryChannel.open(path, SharedMemoryRing.WAIT_PARK);
+		try {
+			final int count = 20;
+			final byte[] data = new byte[1000];
+			Thread sender = new Thread() {
+
+				public void run() {
+					try {
+						for (int i = 0; i < count; i++)
+							client.send(SocketDialogueServerMessage.TYPE_NORMAL, i, ByteBuffer.wrap(data));
+					} catch (IOException e) {
+						System.out.println(e);
+					}
+				}
+			};
+			sender.start();
+			sender.join(500);
+			check("A client waits while the ring is full", sender.isAlive());
+
+			int received = 0;
+			long deadline = System.currentTimeMillis() + 5000;
+			while (received < count && System.currentTimeMillis() < deadline) {
+				SharedMemoryFrame frame = server.poll(0);
+				if (frame != null && frame.requestId == received)
+					received++;
+				else if (frame == null)
+					Thread.sleep(1);
+			}
+			sender.join(1000);
+			check("A waiting client goes on once the server reads", received == count && sender.isAlive() == false);
+		} finally {
+			client.close();
+			server.close();
+		}
+	}
+
+	// A client is killed while attached. The server must see it is gone, and a new client must get its slot
+	// without reading the responses to the requests of the old client, whether the server wrote them before
+	// or after the new client attached.
+	protected static void checkClientCrash() throws Exception {
+		Path path = createTempPath();
+		SharedMemoryChannel server = SharedMemoryChannel.create(path, 4096, 1, SharedMemoryRing.WAIT_PARK);
+		Process peer = null;
+		try {
+			peer = startPeer("client", path);
+			check("The server sees the client of the slot", server.isPeerAlive(0));
+			check("The slot of a running client is not given to another client", openFails(path));
+
+			// The requests the crashed client sent before it was killed
+			SharedMemoryFrame staleRequest = poll(server, 0);
+			SharedMemoryFrame unreadRequest = poll(server, 0);
+			check("The server reads the requests of the client", staleRequest != null && staleRequest.requestId == 1 && unreadRequest != null && unreadRequest.requestId == 2);
+
+			peer.destroyForcibly();
+			peer.waitFor();
+			check("The server sees the client is gone once it has crashed", server.isPeerAlive(0) == false);
+
+			// A response the crashed client never read
+			server.send(0, SocketDialogueServerMessage.TYPE_NORMAL, 1, staleRequest.generation, ByteBuffer.wrap(new byte[] { 1 }));
+			SharedMemoryChannel client = SharedMemoryChannel.open(path, SharedMemoryRing.WAIT_PARK);
+			try {
+				check("A new client takes over the slot of the crashed client", client.getSlots()[0] == 0 && client.getGeneration() == staleRequest.generation + 1);
+				check("A new client does not read the responses left for the crashed client", client.poll(0) == null);
+
+				// The server answers a request of the crashed client after the new client has attached. Request
+				// ids start over in every process, so the new client may be waiting for the same id.
+				server.send(0, SocketDialogueServerMessage.TYPE_NORMAL, 2, unreadRequest.generation, ByteBuffer.wrap(new byte[] { 2 }));
+				check("A new client does not read a response written later to a request of the crashed client", client.poll(0) == null);
+
+				client.send(SocketDialogueServerMessage.TYPE_RESPONSE, 2, ByteBuffer.wrap(new byte[] { 2 }));
+				SharedMemoryFrame request = poll(server, 0);
+				server.send(0, SocketDialogueServerMessage.TYPE_NORMAL, request.requestId, request.generation, ByteBuffer.wrap(new byte[] { 2 }));
+				SharedMemoryFrame response = poll(client, 0);
+				check("The new client and the server talk over the slot", request.requestId == 2 && response != null && response.requestId == 2 && Arrays.equals(bytes(response.data), new byte[] { 2 }));
+			} finally {
+				client.close();
+			}
+		} finally {
+			if (peer != null)
+				peer.destroyForcibly();
+			server.close();
+		}
+	}
+
+	// The server is killed while a client waits for room in the ring. The server never marks the file as
+	// stopped, so the client must notice from the lock of the server that it is gone.
+	protected static void checkServerCrash() throws Exception {
+		Path path = createTempPath();
+		Process peer = startPeer("server", path);
+		SharedMemoryChannel client = SharedMemoryChannel.open(path, SharedMemoryRing.WAIT_PARK);
+		try {
+			check("The client sees the server", client.isPeerAlive());
+
+			peer.destroyForcibly();
+			peer.waitFor();
+			check("The file still claims the server is running after the server crashed", client.isServerRunning());
+			check("The client sees the server is gone once it has crashed", client.isPeerAlive() == false);
+
+			boolean failed = false;
+			long start = System.currentTimeMillis();
+			try {
+				for (int i = 0; i < 100; i++)
+					client.send(SocketDialogueServerMessage.TYPE_NORMAL, i, ByteBuffer.wrap(new byte[1000]));
+			} catch (ConnectException e) {
+				failed = true;
+			}
+			check("A client waiting for room gives up once the server has crashed", failed && System.currentTimeMillis() - start < 5000);
+		} finally {
+			client.close();
+			peer.destroyForcibly();
+			Files.deleteIfExists(path);
+		}
+	}
+
+	// Serve the file, or attach to it and send two requests, and wait to be killed
+	protected static void runPeer(String side, Path path) {
+		try {
+			if (side.equals("server"))
+				SharedMemoryChannel.create(path, 4096, 1, SharedMemoryRing.WAIT_PARK);
+			else {
+				SharedMemoryChannel client = SharedMemoryChannel.open(path, SharedMemoryRing.WAIT_PARK);
+				client.send(SocketDialogueServerMessage.TYPE_RESPONSE, 1, ByteBuffer.wrap(new byte[] { 1 }));
+				client.send(SocketDialogueServerMessage.TYPE_RESPONSE, 2, ByteBuffer.wrap(new byte[] { 2 }));
+			}
+			System.out.println("ready");
+			Thread.sleep(60000);
+		} catch (Exception e) {
+			System.out.println(e);
+		}
+	}
+
+	// Start the second process and wait for it to attach to or serve the file
+	protected static Process startPeer(String side, Path path) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), SharedMemoryRingCheck.class.getName(), side, path.toString());
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		String line = reader.readLine();
+		if ("ready".equals(line) == false) {
+			process.destroyForcibly();
+			throw new IOException("The " + side + " process did not start: " + line);
+		}
+		return process;
+	}
+
+	protected static boolean openFails(Path path) throws IOException {
+		try {
+			SharedMemoryChannel.open(path, SharedMemoryRing.WAIT_PARK).close();
+			return false;
+		} catch (ConnectException e) {
+			return true;
+		}
+	}
+
+	// Wait up to a second for a frame from the slot
+	protected static SharedMemoryFrame poll(SharedMemoryChannel channel, int slot) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 1000;
+		SharedMemoryFrame frame = channel.poll(slot);
+		while (frame == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+			frame = channel.poll(slot);
+		}
+		return frame;
+	}
+
+	protected static Path createTempPath() throws IOException {
+		Path path = Files.createTempFile("SharedMemoryRingCheck", ".shm");
+		Files.delete(path);
+		return path;
+	}
+
+	protected static byte[] payload(int seed, int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++)
+			data[i] = (byte) (seed + i);
+		return data;
+	}
+
+	protected static byte[] bytes(ByteBuffer buffer) {
+		byte[] data = new byte[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return data;
+	}
+
+	protected static void check(String description, boolean passed) {
+		System.out.println((passed ? "OK: " : "FAILED: ") + description);
+		if (passed == false)
+			failures++;
+	}
+
+}